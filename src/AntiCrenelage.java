@@ -0,0 +1,211 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import javax.imageio.ImageIO;
+
+
+/**
+ * Cette classe calcule une image anticrénelée sans suréchantillonner tous les
+ * pixels : un premier passage lance un rayon par pixel, puis seuls les pixels
+ * dont un voisin voit une autre sphère, est éclairé par d'autres lampes (bord
+ * d'ombre) ou a une couleur trop différente sont recalculés avec cote x cote
+ * rayons, un par case d'une grille découpant le pixel, placé au hasard dans
+ * sa case (échantillonnage stratifié).
+ * Le tirage dépend seulement du pixel : l'image ne dépend pas de l'ordre de calcul.
+ */
+public class AntiCrenelage
+{
+    // écart maximal entre les composantes des couleurs de deux voisins (avant correction gamma)
+    private static final float SEUIL_COULEUR = 0.1f;
+
+    private final Scene scene;
+    private final Camera camera;
+    private final int maxReflets;
+    private final int largeur;
+    private final int hauteur;
+
+    // résultat du premier passage : couleur, objet vu (null pour le ciel) et empreinte des ombres
+    private final float[] couleurs;
+    private final Objet[] objets;
+    private final int[] ombres;
+
+    // pixels suréchantillonnés lors du dernier calcul
+    private int nombreBords = 0;
+
+
+    /**
+     * constructeur
+     * @param scene
+     * @param camera
+     * @param maxReflets
+     */
+    public AntiCrenelage(final Scene scene, final Camera camera, int maxReflets)
+    {
+        this.scene = scene;
+        this.camera = camera;
+        this.maxReflets = maxReflets;
+        this.largeur = camera.getLargeur();
+        this.hauteur = camera.getHauteur();
+        this.couleurs = new float[3 * largeur * hauteur];
+        this.objets = new Objet[largeur * hauteur];
+        this.ombres = new int[largeur * hauteur];
+    }
+
+
+    /**
+     * calcule l'image en suréchantillonnant les bords
+     * @param cote nombre de rayons par pixel en largeur et en hauteur sur les bords
+     * @return codes couleur (gamma corrigés) des pixels, ligne par ligne
+     */
+    public int[] Tracer(final int cote)
+    {
+        // premier passage : un rayon par pixel
+        IntStream.range(0, hauteur).parallel().forEach(ye -> {
+            for (int xe = 0; xe < largeur; xe++) Echantillon(xe, ye);
+        });
+
+        // pixels dont un voisin est différent
+        final boolean[] bords = new boolean[largeur * hauteur];
+        for (int ye = 0; ye < hauteur; ye++) {
+            for (int xe = 0; xe < largeur; xe++) {
+                int i = ye * largeur + xe;
+                if (xe + 1 < largeur && Differents(i, i + 1)) bords[i] = bords[i + 1] = true;
+                if (ye + 1 < hauteur && Differents(i, i + largeur)) bords[i] = bords[i + largeur] = true;
+            }
+        }
+
+        // second passage : suréchantillonnage stratifié des bords
+        final int[] codes = new int[largeur * hauteur];
+        nombreBords = IntStream.range(0, hauteur).parallel().map(ye -> {
+            int nombre = 0;
+            for (int xe = 0; xe < largeur; xe++) {
+                int i = ye * largeur + xe;
+                Couleur couleur;
+                if (bords[i]) {
+                    couleur = Stratifier(xe, ye, cote);
+                    nombre++;
+                } else {
+                    couleur = new Couleur(couleurs[3*i], couleurs[3*i+1], couleurs[3*i+2]);
+                }
+                codes[i] = couleur.correctionGamma(0.8f).getCode();
+            }
+            return nombre;
+        }).sum();
+        return codes;
+    }
+
+
+    /**
+     * calcule l'image en suréchantillonnant tous les pixels, pour comparaison
+     * @param cote nombre de rayons par pixel en largeur et en hauteur
+     * @return codes couleur (gamma corrigés) des pixels, ligne par ligne
+     */
+    public int[] TracerUniforme(final int cote)
+    {
+        final int[] codes = new int[largeur * hauteur];
+        IntStream.range(0, hauteur).parallel().forEach(ye -> {
+            for (int xe = 0; xe < largeur; xe++) {
+                codes[ye * largeur + xe] = Stratifier(xe, ye, cote).correctionGamma(0.8f).getCode();
+            }
+        });
+        return codes;
+    }
+
+
+    /**
+     * lance le rayon du centre du pixel (xe,ye) et range son résultat
+     */
+    private void Echantillon(int xe, int ye)
+    {
+        int i = ye * largeur + xe;
+        Rayon initial = camera.RayonPrimaire(xe, ye);
+        Couleur couleur;
+        if (camera.ChercherIntersectionPrimaire(scene, initial, xe, ye)) {
+            couleur = initial.getObjet().Phong(scene, initial, maxReflets);
+            objets[i] = initial.getObjet();
+            ombres[i] = initial.getOmbres();
+        } else {
+            couleur = initial.Ciel();
+        }
+        couleurs[3*i  ] = couleur.r;
+        couleurs[3*i+1] = couleur.v;
+        couleurs[3*i+2] = couleur.b;
+    }
+
+
+    /**
+     * indique si deux pixels voisins sont de part et d'autre d'un bord
+     */
+    private boolean Differents(int i, int j)
+    {
+        if (objets[i] != objets[j] || ombres[i] != ombres[j]) return true;
+        for (int k = 0; k < 3; k++) {
+            if (Math.abs(couleurs[3*i+k] - couleurs[3*j+k]) > SEUIL_COULEUR) return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * moyenne de cote x cote rayons répartis dans le pixel (xe,ye), un par case
+     */
+    private Couleur Stratifier(int xe, int ye, int cote)
+    {
+        Random hasard = new Random(ye * (long) largeur + xe);
+        float r = 0, v = 0, b = 0;
+        for (int sy = 0; sy < cote; sy++) {
+            for (int sx = 0; sx < cote; sx++) {
+                // le pixel est le carré de côté 1 centré sur (xe,ye)
+                float dx = (sx + hasard.nextFloat()) / cote - 0.5f;
+                float dy = (sy + hasard.nextFloat()) / cote - 0.5f;
+                Couleur couleur = camera.CouleurPixel(scene, xe + dx, ye + dy, maxReflets);
+                r += couleur.r;
+                v += couleur.v;
+                b += couleur.b;
+            }
+        }
+        float n = cote * cote;
+        return new Couleur(r / n, v / n, b / n);
+    }
+
+
+    /**
+     * nombre de pixels suréchantillonnés lors du dernier calcul
+     * @return
+     */
+    public int getNombreBords()
+    {
+        return nombreBords;
+    }
+
+
+    /**
+     * rendu anticrénelé sans fenêtre
+     * usage : java AntiCrenelage scene.txt image.png largeur hauteur [rayons par côté]
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 4) {
+            System.err.println("usage : java AntiCrenelage scene.txt image.png largeur hauteur [rayons par côté]");
+            System.exit(1);
+        }
+        Scene scene = new Scene(args[0]);
+        int largeur = Integer.parseInt(args[2]);
+        int hauteur = Integer.parseInt(args[3]);
+        int cote = args.length > 4 ? Integer.parseInt(args[4]) : 4;
+
+        long startTime = System.nanoTime();
+        AntiCrenelage rendu = new AntiCrenelage(scene, new Camera(largeur, hauteur), Constantes.MAX_REFLETS);
+        int[] codes = rendu.Tracer(cote);
+        long temps = Math.max(1, (System.nanoTime() - startTime) / 1000000L);
+
+        BufferedImage image = new BufferedImage(largeur, hauteur, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, largeur, hauteur, codes, 0, largeur);
+        ImageIO.write(image, "png", new File(args[1]));
+        System.out.println("Temps: "+temps+" ms, "+(100L * rendu.getNombreBords() / ((long) largeur * hauteur))+"% des pixels suréchantillonnés");
+    }
+}
@@ -0,0 +1,214 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+
+/**
+ * Cette classe regroupe les lampes d'une scène dans une hiérarchie de
+ * sphères englobantes, afin de limiter le nombre de lampes examinées par
+ * Objet.Phong quand il y en a beaucoup :
+ * - un groupe dont la contribution maximale est négligeable est ignoré,
+ * - un groupe lointain, vu sous un petit angle, est remplacé par une seule
+ *   lampe placée en son barycentre et de couleur égale à la somme des couleurs.
+ * Un groupe qui contient une lampe étendue n'est jamais remplacé : une lampe
+ * ponctuelle donnerait des ombres nettes au lieu de ses pénombres.
+ * L'éclairage obtenu est approché : la sélection n'est faite que si elle a été
+ * demandée, voir Scene.setSelectionLampes.
+ */
+public class ArbreLampes
+{
+    /**
+     * un noeud de l'arbre : une lampe seule ou un groupe de deux sous-arbres
+     */
+    private static class Noeud
+    {
+        // sphère englobant toutes les lampes du noeud
+        Point centre;
+        float rayon;
+
+        // somme des couleurs des lampes du noeud
+        Couleur intensite;
+
+        // le noeud contient au moins une lampe étendue
+        boolean etendue;
+
+        // lampe équivalente au groupe (la lampe elle-même pour une feuille)
+        Lampe representant;
+
+        // sous-arbres, null pour une feuille
+        Noeud gauche;
+        Noeud droite;
+    }
+
+    private final Noeud racine;
+
+    // contribution maximale en dessous de laquelle un groupe est ignoré
+    private final float seuil;
+
+    // sinus du demi-angle en dessous duquel un groupe est traité comme une seule lampe
+    private final float angle;
+
+
+    /**
+     * constructeur : construit la hiérarchie des lampes
+     * @param lampes
+     * @param seuil
+     * @param angle
+     */
+    public ArbreLampes(final List<Lampe> lampes, float seuil, float angle)
+    {
+        this.seuil = seuil;
+        this.angle = angle;
+        this.racine = lampes.isEmpty() ? null : Construire(new ArrayList<>(lampes));
+    }
+
+
+    /**
+     * construit récursivement le noeud contenant ces lampes, en les
+     * séparant en deux moitiés selon l'axe où elles sont le plus étalées
+     * @param lampes
+     * @return
+     */
+    private static Noeud Construire(List<Lampe> lampes)
+    {
+        Noeud noeud = new Noeud();
+
+        if (lampes.size() == 1) {
+            Lampe lampe = lampes.get(0);
+            noeud.centre = lampe.getPosition();
+            noeud.rayon = lampe.getRayon();
+            noeud.intensite = lampe.getCouleur();
+            noeud.etendue = lampe.getRayon() > 0.0f;
+            noeud.representant = lampe;
+            return noeud;
+        }
+
+        // boîte englobante
+        float minx = Float.MAX_VALUE, miny = Float.MAX_VALUE, minz = Float.MAX_VALUE;
+        float maxx = -Float.MAX_VALUE, maxy = -Float.MAX_VALUE, maxz = -Float.MAX_VALUE;
+        for (Lampe lampe : lampes) {
+            Point p = lampe.getPosition();
+            minx = Math.min(minx, p.x); maxx = Math.max(maxx, p.x);
+            miny = Math.min(miny, p.y); maxy = Math.max(maxy, p.y);
+            minz = Math.min(minz, p.z); maxz = Math.max(maxz, p.z);
+        }
+
+        // coupure au milieu de la liste triée selon le plus grand axe
+        float dx = maxx - minx, dy = maxy - miny, dz = maxz - minz;
+        Comparator<Lampe> ordre;
+        if (dx >= dy && dx >= dz) ordre = Comparator.comparingDouble(l -> l.getPosition().x);
+        else if (dy >= dz)        ordre = Comparator.comparingDouble(l -> l.getPosition().y);
+        else                      ordre = Comparator.comparingDouble(l -> l.getPosition().z);
+        lampes.sort(ordre);
+        int milieu = lampes.size() / 2;
+        noeud.gauche = Construire(new ArrayList<>(lampes.subList(0, milieu)));
+        noeud.droite = Construire(new ArrayList<>(lampes.subList(milieu, lampes.size())));
+
+        // intensité totale et barycentre pondéré par la luminosité
+        noeud.intensite = Couleur.add(noeud.gauche.intensite, noeud.droite.intensite);
+        noeud.etendue = noeud.gauche.etendue || noeud.droite.etendue;
+        float ig = Luminosite(noeud.gauche.intensite);
+        float id = Luminosite(noeud.droite.intensite);
+        float t = (ig + id > 0.0f) ? id / (ig + id) : 0.5f;
+        Point pg = noeud.gauche.representant.getPosition();
+        Point pd = noeud.droite.representant.getPosition();
+        Point barycentre = pg.add(new Vecteur(pg, pd).mul(t));
+        noeud.representant = new Lampe(barycentre, noeud.intensite);
+
+        // sphère englobant les sphères des deux sous-arbres, centrée au milieu de la boîte
+        noeud.centre = new Point((minx+maxx)*0.5f, (miny+maxy)*0.5f, (minz+maxz)*0.5f);
+        noeud.rayon = Math.max(
+                new Vecteur(noeud.centre, noeud.gauche.centre).norme() + noeud.gauche.rayon,
+                new Vecteur(noeud.centre, noeud.droite.centre).norme() + noeud.droite.rayon);
+        return noeud;
+    }
+
+
+    /**
+     * retourne les lampes créées pour représenter les groupes (sans les lampes de la scène)
+     * @return
+     */
+    public List<Lampe> getRepresentants()
+    {
+        List<Lampe> representants = new ArrayList<>();
+        if (racine != null) Representants(racine, representants);
+        return representants;
+    }
+
+
+    private static void Representants(final Noeud noeud, List<Lampe> representants)
+    {
+        if (noeud.gauche == null) return;
+        representants.add(noeud.representant);
+        Representants(noeud.gauche, representants);
+        Representants(noeud.droite, representants);
+    }
+
+
+    /**
+     * retourne la plus grande composante d'une couleur
+     */
+    private static float Luminosite(final Couleur c)
+    {
+        return Math.max(c.r, Math.max(c.v, c.b));
+    }
+
+
+    /**
+     * choisit les lampes qui éclairent significativement le point contact
+     * de normale n et de couleur diffuse Kd
+     * @param contact
+     * @param n normale unitaire au point de contact
+     * @param Kd
+     * @return liste de lampes réelles ou de lampes représentant un groupe
+     */
+    public List<Lampe> Selectionner(final Point contact, final Vecteur n, final Couleur Kd)
+    {
+        List<Lampe> resultat = new ArrayList<>();
+        if (racine != null) Selectionner(racine, contact, n, Kd, resultat);
+        return resultat;
+    }
+
+
+    private void Selectionner(final Noeud noeud, final Point contact, final Vecteur n, final Couleur Kd, List<Lampe> resultat)
+    {
+        Vecteur l = new Vecteur(contact, noeud.centre);
+        float d = l.norme();
+
+        // le point de contact est dans la sphère englobante : on ne peut rien borner
+        if (d > noeud.rayon) {
+            // borne de dot(N,L) pour toute lampe du noeud : cos(max(0, theta - alpha))
+            float cos_theta = n.dot(l) / d;
+            float sin_alpha = noeud.rayon / d;
+            float cos_alpha = (float) Math.sqrt(1.0f - sin_alpha*sin_alpha);
+            float borne_nl;
+            if (cos_theta >= cos_alpha) {
+                borne_nl = 1.0f;
+            } else {
+                // cos(theta - alpha) = cos_theta*cos_alpha + sin_theta*sin_alpha
+                float sin_theta = (float) Math.sqrt(Math.max(0.0f, 1.0f - cos_theta*cos_theta));
+                borne_nl = cos_theta*cos_alpha + sin_theta*sin_alpha;
+            }
+            // toutes les lampes du noeud sont sous l'horizon du point de contact
+            if (borne_nl <= 0.0f) return;
+
+            // diffus + spéculaire (le terme de Phong est au plus 1), tous deux proportionnels à Kd
+            float borne = (borne_nl + 1.0f) * Math.max(Kd.r * noeud.intensite.r,
+                    Math.max(Kd.v * noeud.intensite.v, Kd.b * noeud.intensite.b));
+            if (borne < seuil) return;
+
+            // groupe lointain de lampes ponctuelles : une seule lampe équivalente
+            if (sin_alpha < angle && ! noeud.etendue) {
+                resultat.add(noeud.representant);
+                return;
+            }
+        }
+
+        if (noeud.gauche == null) {
+            resultat.add(noeud.representant);
+        } else {
+            Selectionner(noeud.gauche, contact, n, Kd, resultat);
+            Selectionner(noeud.droite, contact, n, Kd, resultat);
+        }
+    }
+}
@@ -0,0 +1,738 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+
+/**
+ * Cette classe range les sphères et les triangles des maillages de la scène dans
+ * une hiérarchie de boîtes englobantes : un rayon qui ne traverse pas la boîte
+ * d'un noeud ne rencontre aucun des objets de ce noeud.
+ * Sphères et triangles ont un seul numéro : les sphères d'abord, puis les
+ * triangles de chaque maillage à la suite ; le numéro indique donc aussi la
+ * sorte d'objet, et la recherche appelle directement le bon test d'intersection.
+ * Chaque noeud est coupé selon l'heuristique des surfaces (SAH) : les centres
+ * sont répartis dans CASES cases le long de chaque axe et on choisit la coupure
+ * entre deux cases qui minimise le coût estimé d'un rayon, proportionnel pour
+ * chaque moitié à l'aire de sa boîte et à son nombre d'objets.
+ * La construction est répartie sur les processeurs (fork-join) : les deux moitiés
+ * d'un grand noeud sont construites en parallèle, et la répartition des objets
+ * d'un très grand noeud dans les cases est elle-même découpée en morceaux.
+ * Les noeuds sont rangés dans des tableaux plats : les deux enfants d'un noeud se suivent.
+ */
+public class ArbreSpheres
+{
+    // nombre de cases par axe pour évaluer les coupures
+    private static final int CASES = 16;
+
+    // nombre maximal d'objets dans une feuille
+    private static final int FEUILLE_MAX = 8;
+
+    // coûts relatifs de la traversée d'un noeud et du test d'un objet
+    private static final float COUT_NOEUD = 1.0f;
+    private static final float COUT_OBJET = 1.0f;
+
+    // en dessous de ce nombre d'objets, un noeud et ses descendants sont construits par une seule tâche
+    private static final int SEUIL_SEQUENTIEL = 4096;
+
+    // au dessus de ce nombre d'objets, la mesure et la répartition d'un noeud sont découpées
+    private static final int SEUIL_MORCEAUX = 1 << 16;
+
+    // marge relative ajoutée aux boîtes pour les erreurs d'arrondi
+    private static final float MARGE = 1e-4f;
+
+    // pendant la construction : boîte de chaque objet (centre puis demi-côtés) dans l'ordre
+    // de indices, déplacée avec son numéro pour être lue à la suite
+    private float[] objets;
+
+    // numéros des objets, ceux d'une feuille se suivent
+    private final int[] indices;
+
+    // nombre de sphères, les numéros suivants sont ceux des triangles
+    private final int nombreSpheres;
+
+    // maillages et numéro de leur premier triangle
+    private final Maillage[] maillages;
+    private final int[] premieres;
+
+    // boîte de chaque noeud : xmin, ymin, zmin, xmax, ymax, zmax
+    private float[] boites;
+
+    // pour chaque noeud : numéro du premier enfant et 0, ou bien indice du premier objet et nombre d'objets d'une feuille
+    private int[] noeuds;
+
+    private final AtomicInteger nombreNoeuds = new AtomicInteger(1);
+
+
+    /**
+     * constructeur : construit la hiérarchie des sphères et des maillages de la scène avec tous les processeurs
+     * @param scene
+     */
+    public ArbreSpheres(final Scene scene)
+    {
+        this(Boites(scene), scene.getObjets().size(), scene.getMaillages().toArray(new Maillage[0]), ForkJoinPool.commonPool());
+    }
+
+
+    /**
+     * constructeur : construit la hiérarchie de sphères seules
+     * @param englobantes centre et demi-côtés de la boîte de chaque sphère, voir Boites
+     * @param nombre nombre de sphères
+     * @param pool threads qui font la construction
+     */
+    public ArbreSpheres(final float[] englobantes, int nombre, final ForkJoinPool pool)
+    {
+        this(englobantes, nombre, new Maillage[0], pool);
+    }
+
+
+    /**
+     * constructeur : construit la hiérarchie
+     * @param englobantes centre et demi-côtés de la boîte de chaque sphère puis de chaque triangle
+     * @param nombreSpheres
+     * @param maillages maillages dont les triangles suivent les sphères
+     * @param pool threads qui font la construction
+     */
+    private ArbreSpheres(final float[] englobantes, int nombreSpheres, final Maillage[] maillages, final ForkJoinPool pool)
+    {
+        this.nombreSpheres = nombreSpheres;
+        this.maillages = maillages;
+        this.premieres = new int[maillages.length];
+        int nombre = nombreSpheres;
+        for (int m = 0; m < maillages.length; m++) {
+            premieres[m] = nombre;
+            nombre += maillages[m].getNombreFaces();
+        }
+        this.objets = Arrays.copyOf(englobantes, 6 * nombre);
+        this.indices = new int[nombre];
+        for (int i = 0; i < nombre; i++) indices[i] = i;
+        int capacite = Math.max(1, 2 * nombre - 1);
+        this.boites = new float[6 * capacite];
+        this.noeuds = new int[2 * capacite];
+        pool.invoke(new Construction(0, 0, nombre));
+        this.objets = null;
+
+        // libérer la place des noeuds inutilisés
+        int n = nombreNoeuds.get();
+        if (n < capacite) {
+            boites = Arrays.copyOf(boites, 6 * n);
+            noeuds = Arrays.copyOf(noeuds, 2 * n);
+        }
+    }
+
+
+    /**
+     * boîtes des sphères puis des triangles de la scène : x, y, z du centre et
+     * demi-côtés selon x, y, z, à la suite
+     */
+    private static float[] Boites(final Scene scene)
+    {
+        List<Sphere> spheres = scene.getObjets();
+        int nombre = spheres.size();
+        for (Maillage maillage : scene.getMaillages()) nombre += maillage.getNombreFaces();
+        float[] boites = new float[6 * nombre];
+        for (int i = 0; i < spheres.size(); i++) {
+            Sphere sphere = spheres.get(i);
+            Boite(boites, i, sphere.centre.x, sphere.centre.y, sphere.centre.z, sphere.rayon);
+        }
+        int premier = spheres.size();
+        for (Maillage maillage : scene.getMaillages()) {
+            maillage.Boites(boites, premier);
+            premier += maillage.getNombreFaces();
+        }
+        return boites;
+    }
+
+
+    /**
+     * boîtes de sphères
+     * @param spheres x, y, z, rayon de chaque sphère, à la suite (voir SpheresCompactes)
+     * @param nombre nombre de sphères
+     * @return x, y, z du centre et demi-côtés selon x, y, z de chaque sphère, à la suite
+     */
+    public static float[] Boites(final float[] spheres, int nombre)
+    {
+        float[] boites = new float[6 * nombre];
+        for (int i = 0; i < nombre; i++) Boite(boites, i, spheres[4*i], spheres[4*i+1], spheres[4*i+2], spheres[4*i+3]);
+        return boites;
+    }
+
+
+    private static void Boite(float[] boites, int i, float x, float y, float z, float rayon)
+    {
+        boites[6*i  ] = x;
+        boites[6*i+1] = y;
+        boites[6*i+2] = z;
+        boites[6*i+3] = rayon;
+        boites[6*i+4] = rayon;
+        boites[6*i+5] = rayon;
+    }
+
+
+    /**
+     * construit le noeud qui contient les objets indices[debut .. fin-1]
+     */
+    private class Construction extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int noeud;
+        private final int debut;
+        private final int fin;
+
+        Construction(int noeud, int debut, int fin)
+        {
+            this.noeud = noeud;
+            this.debut = debut;
+            this.fin = fin;
+        }
+
+        @Override
+        protected void compute()
+        {
+            Construire(noeud, debut, fin);
+        }
+    }
+
+
+    private void Construire(int noeud, int debut, int fin)
+    {
+        // boîte des objets et boîte des centres
+        float[] mesure = (fin - debut > SEUIL_MORCEAUX) ? new Mesure(debut, fin).invoke() : Mesurer(debut, fin);
+        for (int k = 0; k < 3; k++) {
+            float marge = MARGE * (Math.abs(mesure[k]) + Math.abs(mesure[k+3]) + 1.0f);
+            boites[6*noeud+k] = mesure[k] - marge;
+            boites[6*noeud+k+3] = mesure[k+3] + marge;
+        }
+        int nombre = fin - debut;
+        if (nombre <= 1) {
+            Feuille(noeud, debut, nombre);
+            return;
+        }
+
+        // meilleure coupure selon l'heuristique des surfaces
+        float[] cases = (nombre > SEUIL_MORCEAUX) ? new Repartition(debut, fin, mesure).invoke() : Repartir(debut, fin, mesure);
+        float aire = Aire(mesure, 0);
+        float meilleur = Float.MAX_VALUE;
+        int axe = -1, coupure = -1;
+        float[] gauche = new float[CASES * 6];
+        int[] nombresGauche = new int[CASES];
+        for (int a = 0; a < 3; a++) {
+            if (mesure[9+a] <= mesure[6+a]) continue;
+            // boîtes et nombres cumulés depuis la gauche, puis balayage depuis la droite
+            float[] boite = Vide();
+            int n = 0;
+            for (int c = 0; c < CASES; c++) {
+                Union(boite, cases, Case(a, c) + 1);
+                n += (int) cases[Case(a, c)];
+                System.arraycopy(boite, 0, gauche, 6*c, 6);
+                nombresGauche[c] = n;
+            }
+            boite = Vide();
+            n = 0;
+            for (int c = CASES - 1; c > 0; c--) {
+                Union(boite, cases, Case(a, c) + 1);
+                n += (int) cases[Case(a, c)];
+                int ng = nombresGauche[c-1];
+                if (n == 0 || ng == 0) continue;
+                float cout = COUT_NOEUD + (Aire(gauche, 6*(c-1)) * ng + Aire(boite, 0) * n) / aire * COUT_OBJET;
+                if (cout < meilleur) {
+                    meilleur = cout;
+                    axe = a;
+                    coupure = c;
+                }
+            }
+        }
+
+        int milieu;
+        if (axe < 0) {
+            // tous les centres sont confondus : coupure au milieu de la liste
+            if (nombre <= FEUILLE_MAX) {
+                Feuille(noeud, debut, nombre);
+                return;
+            }
+            milieu = (debut + fin) / 2;
+        } else {
+            if (nombre <= FEUILLE_MAX && meilleur >= nombre * COUT_OBJET) {
+                Feuille(noeud, debut, nombre);
+                return;
+            }
+            milieu = Partager(debut, fin, axe, coupure, mesure);
+        }
+
+        int enfant = nombreNoeuds.getAndAdd(2);
+        noeuds[2*noeud] = enfant;
+        noeuds[2*noeud+1] = 0;
+        if (nombre > SEUIL_SEQUENTIEL) {
+            RecursiveAction.invokeAll(new Construction(enfant, debut, milieu), new Construction(enfant + 1, milieu, fin));
+        } else {
+            Construire(enfant, debut, milieu);
+            Construire(enfant + 1, milieu, fin);
+        }
+    }
+
+
+    private void Feuille(int noeud, int debut, int nombre)
+    {
+        noeuds[2*noeud] = debut;
+        noeuds[2*noeud+1] = nombre;
+    }
+
+
+    /**
+     * boîte des objets indices[debut .. fin-1] (6 nombres) puis boîte de leurs centres (6 nombres)
+     */
+    private float[] Mesurer(int debut, int fin)
+    {
+        float[] mesure = new float[12];
+        System.arraycopy(Vide(), 0, mesure, 0, 6);
+        System.arraycopy(Vide(), 0, mesure, 6, 6);
+        for (int k = debut; k < fin; k++) {
+            int i = 6 * k;
+            for (int a = 0; a < 3; a++) {
+                float c = objets[i+a], h = objets[i+a+3];
+                mesure[a  ] = Math.min(mesure[a  ], c - h);
+                mesure[a+3] = Math.max(mesure[a+3], c + h);
+                mesure[a+6] = Math.min(mesure[a+6], c);
+                mesure[a+9] = Math.max(mesure[a+9], c);
+            }
+        }
+        return mesure;
+    }
+
+
+    private class Mesure extends RecursiveTask<float[]>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int debut;
+        private final int fin;
+
+        Mesure(int debut, int fin)
+        {
+            this.debut = debut;
+            this.fin = fin;
+        }
+
+        @Override
+        protected float[] compute()
+        {
+            if (fin - debut <= SEUIL_MORCEAUX) return Mesurer(debut, fin);
+            int milieu = (debut + fin) >>> 1;
+            Mesure droite = new Mesure(milieu, fin);
+            droite.fork();
+            float[] mesure = new Mesure(debut, milieu).compute();
+            float[] autre = droite.join();
+            Union(mesure, autre, 0);
+            Union(mesure, autre, 6, 6);
+            return mesure;
+        }
+    }
+
+
+    /**
+     * indice dans le tableau des cases de la case c de l'axe a :
+     * nombre de centres puis boîte des objets
+     */
+    private static int Case(int a, int c)
+    {
+        return 7 * (a * CASES + c);
+    }
+
+
+    /**
+     * numéro de la case de l'axe a qui contient la coordonnée x d'un centre,
+     * mesure étant le résultat de Mesurer
+     */
+    private static int NumeroCase(float x, int a, final float[] mesure)
+    {
+        float min = mesure[6+a], max = mesure[9+a];
+        int c = (int) ((x - min) * (CASES / (max - min)));
+        return Math.max(0, Math.min(CASES - 1, c));
+    }
+
+
+    /**
+     * répartit les objets indices[debut .. fin-1] dans les cases des trois axes
+     */
+    private float[] Repartir(int debut, int fin, final float[] mesure)
+    {
+        float[] cases = new float[7 * 3 * CASES];
+        for (int a = 0; a < 3; a++) {
+            for (int c = 0; c < CASES; c++) System.arraycopy(Vide(), 0, cases, Case(a, c) + 1, 6);
+        }
+        for (int k = debut; k < fin; k++) {
+            int i = 6 * k;
+            for (int a = 0; a < 3; a++) {
+                if (mesure[9+a] <= mesure[6+a]) continue;
+                int j = Case(a, NumeroCase(objets[i+a], a, mesure));
+                cases[j]++;
+                for (int b = 0; b < 3; b++) {
+                    cases[j+1+b] = Math.min(cases[j+1+b], objets[i+b] - objets[i+b+3]);
+                    cases[j+4+b] = Math.max(cases[j+4+b], objets[i+b] + objets[i+b+3]);
+                }
+            }
+        }
+        return cases;
+    }
+
+
+    private class Repartition extends RecursiveTask<float[]>
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int debut;
+        private final int fin;
+        private final float[] mesure;
+
+        Repartition(int debut, int fin, final float[] mesure)
+        {
+            this.debut = debut;
+            this.fin = fin;
+            this.mesure = mesure;
+        }
+
+        @Override
+        protected float[] compute()
+        {
+            if (fin - debut <= SEUIL_MORCEAUX) return Repartir(debut, fin, mesure);
+            int milieu = (debut + fin) >>> 1;
+            Repartition droite = new Repartition(milieu, fin, mesure);
+            droite.fork();
+            float[] cases = new Repartition(debut, milieu, mesure).compute();
+            float[] autres = droite.join();
+            for (int j = 0; j < cases.length; j += 7) {
+                cases[j] += autres[j];
+                Union(cases, autres, j + 1, j + 1);
+            }
+            return cases;
+        }
+    }
+
+
+    /**
+     * range en tête les objets dont le centre est dans les cases 0 .. coupure-1 de l'axe
+     * @return indice du premier objet de la seconde moitié
+     */
+    private int Partager(int debut, int fin, int axe, int coupure, final float[] mesure)
+    {
+        int i = debut, j = fin - 1;
+        while (i <= j) {
+            if (NumeroCase(objets[6*i+axe], axe, mesure) < coupure) {
+                i++;
+            } else {
+                int t = indices[i]; indices[i] = indices[j]; indices[j] = t;
+                for (int b = 0; b < 6; b++) {
+                    float f = objets[6*i+b]; objets[6*i+b] = objets[6*j+b]; objets[6*j+b] = f;
+                }
+                j--;
+            }
+        }
+        return i;
+    }
+
+
+    private static float[] Vide()
+    {
+        float inf = Float.POSITIVE_INFINITY;
+        return new float[] { inf, inf, inf, -inf, -inf, -inf };
+    }
+
+
+    /**
+     * agrandit la boîte b (6 nombres au début) pour contenir la boîte de t à l'indice j
+     */
+    private static void Union(float[] b, final float[] t, int j)
+    {
+        Union(b, t, 0, j);
+    }
+
+
+    private static void Union(float[] b, final float[] t, int i, int j)
+    {
+        for (int a = 0; a < 3; a++) {
+            b[i+a] = Math.min(b[i+a], t[j+a]);
+            b[i+a+3] = Math.max(b[i+a+3], t[j+a+3]);
+        }
+    }
+
+
+    /**
+     * aire de la boîte rangée à l'indice i, 0 si elle est vide
+     */
+    private static float Aire(final float[] b, int i)
+    {
+        float dx = b[i+3] - b[i], dy = b[i+4] - b[i+1], dz = b[i+5] - b[i+2];
+        if (dx < 0 || dy < 0 || dz < 0) return 0.0f;
+        return 2.0f * (dx*dy + dy*dz + dz*dx);
+    }
+
+
+    /**
+     * cherche la sphère ou le triangle le plus proche rencontré par le rayon, comme
+     * Scene.ChercherIntersection : à distance égale, c'est l'objet de plus petit
+     * numéro qui est retenu, le résultat est donc le même que celui de la recherche
+     * parmi tous les objets. Affecte la distance, l'objet et le triangle du rayon.
+     * @param objets sphères de la scène, dans l'ordre qui a servi à construire l'arbre
+     * @param incident
+     * @param sauflui objet à ignorer, ou null ; pour un maillage, seul le triangle incident.depart est ignoré
+     * @param termes termes précalculés des sphères pour l'origine du rayon (voir OrigineCommune), ou null
+     * @param decalage
+     * @return numéro de l'objet retenu (voir getNombreSpheres), -1 si aucun
+     */
+    public int Chercher(final List<Sphere> objets, final Rayon incident, final Objet sauflui, final float[] termes, float decalage)
+    {
+        final float px = incident.P.x, py = incident.P.y, pz = incident.P.z;
+        final float ix = 1.0f / incident.V.x, iy = 1.0f / incident.V.y, iz = 1.0f / incident.V.z;
+        float distance = Constantes.INFINI;
+        int meilleur = -1;
+
+        // noeuds à examiner et distances d'entrée dans leurs boîtes
+        int[] pile = new int[64];
+        float[] entrees = new float[64];
+        int hauteur = 0;
+        if (indices.length > 0) {
+            pile[0] = 0;
+            entrees[0] = Entree(0, px, py, pz, ix, iy, iz);
+            hauteur = 1;
+        }
+        while (hauteur > 0) {
+            hauteur--;
+            int noeud = pile[hauteur];
+            if (entrees[hauteur] > distance) continue;
+            int nombre = noeuds[2*noeud+1];
+            if (nombre > 0) {
+                int premier = noeuds[2*noeud];
+                for (int k = premier; k < premier + nombre; k++) {
+                    int i = indices[k];
+                    float d;
+                    if (i < nombreSpheres) {
+                        Sphere sphere = objets.get(i);
+                        if (sphere == sauflui) continue;
+                        d = termes != null ? sphere.Intersection(incident, termes, 4*i, decalage) : sphere.Intersection(incident);
+                    } else {
+                        int m = Maillage(i);
+                        if (maillages[m] == sauflui && i - premieres[m] == incident.depart) continue;
+                        d = maillages[m].Intersection(incident, i - premieres[m]);
+                    }
+                    if (d < distance || (d == distance && d < Constantes.INFINI && i < meilleur)) {
+                        distance = d;
+                        meilleur = i;
+                    }
+                }
+            } else {
+                // l'enfant le plus proche est empilé en dernier pour être examiné en premier
+                int enfant = noeuds[2*noeud];
+                float e0 = Entree(enfant, px, py, pz, ix, iy, iz);
+                float e1 = Entree(enfant + 1, px, py, pz, ix, iy, iz);
+                if (hauteur + 2 > pile.length) {
+                    pile = Arrays.copyOf(pile, 2 * pile.length);
+                    entrees = Arrays.copyOf(entrees, 2 * entrees.length);
+                }
+                int proche = (e0 <= e1) ? enfant : enfant + 1;
+                float ep = Math.min(e0, e1), el = Math.max(e0, e1);
+                if (el <= distance) { pile[hauteur] = 2 * enfant + 1 - proche; entrees[hauteur++] = el; }
+                if (ep <= distance) { pile[hauteur] = proche; entrees[hauteur++] = ep; }
+            }
+        }
+        if (meilleur < nombreSpheres) {
+            incident.setDistanceObjet(distance, meilleur >= 0 ? objets.get(meilleur) : null);
+        } else {
+            int m = Maillage(meilleur);
+            incident.setDistanceFace(distance, maillages[m], meilleur - premieres[m]);
+        }
+        return meilleur;
+    }
+
+
+    /**
+     * numéro du maillage qui contient le triangle de numéro i
+     */
+    private int Maillage(int i)
+    {
+        int m = maillages.length - 1;
+        while (premieres[m] > i) m--;
+        return m;
+    }
+
+
+    /**
+     * distance d'entrée du rayon dans la boîte du noeud, Float.MAX_VALUE s'il ne la traverse pas ;
+     * une composante nulle de la direction donne des produits infinis ou indéfinis,
+     * les comparaisons avec un résultat indéfini sont fausses et laissent l'intervalle inchangé
+     */
+    private float Entree(int noeud, float px, float py, float pz, float ix, float iy, float iz)
+    {
+        int b = 6 * noeud;
+        float tmin = 0.0f, tmax = Float.MAX_VALUE;
+        float t0 = (boites[b  ] - px) * ix, t1 = (boites[b+3] - px) * ix;
+        if (t0 > t1) { float t = t0; t0 = t1; t1 = t; }
+        if (t0 > tmin) tmin = t0;
+        if (t1 < tmax) tmax = t1;
+        t0 = (boites[b+1] - py) * iy; t1 = (boites[b+4] - py) * iy;
+        if (t0 > t1) { float t = t0; t0 = t1; t1 = t; }
+        if (t0 > tmin) tmin = t0;
+        if (t1 < tmax) tmax = t1;
+        t0 = (boites[b+2] - pz) * iz; t1 = (boites[b+5] - pz) * iz;
+        if (t0 > t1) { float t = t0; t0 = t1; t1 = t; }
+        if (t0 > tmin) tmin = t0;
+        if (t1 < tmax) tmax = t1;
+        return (tmin <= tmax) ? tmin : Float.MAX_VALUE;
+    }
+
+
+    /**
+     * appelle action avec le numéro de chaque objet dont la boîte touche la capsule
+     * formée des points à moins de rayon du segment [a, b] (voir getNombreSpheres) ;
+     * un objet qui ne touche pas la capsule n'est pas signalé
+     * @param a
+     * @param b
+     * @param rayon
+     * @param action
+     */
+    public void ChercherCapsule(final Point a, final Point b, float rayon, final IntConsumer action)
+    {
+        final float ix = 1.0f / (b.x - a.x), iy = 1.0f / (b.y - a.y), iz = 1.0f / (b.z - a.z);
+        int[] pile = new int[64];
+        int hauteur = (indices.length > 0) ? 1 : 0;
+        while (hauteur > 0) {
+            int noeud = pile[--hauteur];
+            if (! Traverse(noeud, a, ix, iy, iz, rayon)) continue;
+            int nombre = noeuds[2*noeud+1];
+            if (nombre > 0) {
+                int premier = noeuds[2*noeud];
+                for (int k = premier; k < premier + nombre; k++) action.accept(indices[k]);
+            } else {
+                if (hauteur + 2 > pile.length) pile = Arrays.copyOf(pile, 2 * pile.length);
+                pile[hauteur++] = noeuds[2*noeud];
+                pile[hauteur++] = noeuds[2*noeud] + 1;
+            }
+        }
+    }
+
+
+    /**
+     * volume qui élague la hiérarchie dans Parcourir
+     */
+    public interface Volume
+    {
+        /**
+         * indique si le volume peut toucher la boîte ; dans le doute, il faut répondre true
+         */
+        boolean Touche(float xmin, float ymin, float zmin, float xmax, float ymax, float zmax);
+    }
+
+
+    /**
+     * appelle action avec le numéro de chaque objet d'une feuille dont le volume touche
+     * la boîte ; les noeuds que le volume ne touche pas sont écartés avec tous leurs objets
+     * @param volume
+     * @param action
+     */
+    public void Parcourir(final Volume volume, final IntConsumer action)
+    {
+        int[] pile = new int[64];
+        int hauteur = (indices.length > 0) ? 1 : 0;
+        while (hauteur > 0) {
+            int noeud = pile[--hauteur];
+            int b = 6 * noeud;
+            if (! volume.Touche(boites[b], boites[b+1], boites[b+2], boites[b+3], boites[b+4], boites[b+5])) continue;
+            int nombre = noeuds[2*noeud+1];
+            if (nombre > 0) {
+                int premier = noeuds[2*noeud];
+                for (int k = premier; k < premier + nombre; k++) action.accept(indices[k]);
+            } else {
+                if (hauteur + 2 > pile.length) pile = Arrays.copyOf(pile, 2 * pile.length);
+                pile[hauteur++] = noeuds[2*noeud];
+                pile[hauteur++] = noeuds[2*noeud] + 1;
+            }
+        }
+    }
+
+
+    /**
+     * indique si le segment de a à a + (1/ix, 1/iy, 1/iz) traverse la boîte du noeud élargie de marge
+     */
+    private boolean Traverse(int noeud, final Point a, float ix, float iy, float iz, float marge)
+    {
+        int b = 6 * noeud;
+        float tmin = 0.0f, tmax = 1.0f;
+        float t0 = (boites[b  ] - marge - a.x) * ix, t1 = (boites[b+3] + marge - a.x) * ix;
+        if (t0 > t1) { float t = t0; t0 = t1; t1 = t; }
+        if (t0 > tmin) tmin = t0;
+        if (t1 < tmax) tmax = t1;
+        t0 = (boites[b+1] - marge - a.y) * iy; t1 = (boites[b+4] + marge - a.y) * iy;
+        if (t0 > t1) { float t = t0; t0 = t1; t1 = t; }
+        if (t0 > tmin) tmin = t0;
+        if (t1 < tmax) tmax = t1;
+        t0 = (boites[b+2] - marge - a.z) * iz; t1 = (boites[b+5] + marge - a.z) * iz;
+        if (t0 > t1) { float t = t0; t0 = t1; t1 = t; }
+        if (t0 > tmin) tmin = t0;
+        if (t1 < tmax) tmax = t1;
+        return tmin <= tmax;
+    }
+
+
+    /**
+     * nombre de sphères : les objets de numéro inférieur sont des sphères
+     * (numéros de Scene.getObjets()), les suivants des triangles
+     * @return
+     */
+    public int getNombreSpheres()
+    {
+        return nombreSpheres;
+    }
+
+
+    /**
+     * maillage du triangle de numéro i
+     * @param i
+     * @return
+     */
+    public Maillage getMaillage(int i)
+    {
+        return maillages[Maillage(i)];
+    }
+
+
+    /**
+     * numéro du triangle de numéro i dans son maillage
+     * @param i
+     * @return
+     */
+    public int getFace(int i)
+    {
+        return i - premieres[Maillage(i)];
+    }
+
+
+    /**
+     * nombre de noeuds de l'arbre
+     * @return
+     */
+    public int getNombreNoeuds()
+    {
+        return nombreNoeuds.get();
+    }
+
+
+    /**
+     * coût estimé d'un rayon selon l'heuristique des surfaces : somme sur les noeuds
+     * du coût de la traversée (ou des tests des objets d'une feuille) pondéré par
+     * la probabilité qu'un rayon qui traverse la racine traverse le noeud
+     * @return
+     */
+    public double CoutSAH()
+    {
+        double racine = Aire(boites, 0);
+        double cout = 0;
+        for (int noeud = 0; noeud < nombreNoeuds.get(); noeud++) {
+            int nombre = noeuds[2*noeud+1];
+            cout += Aire(boites, 6*noeud) / racine * (nombre > 0 ? nombre * COUT_OBJET : COUT_NOEUD);
+        }
+        return cout;
+    }
+}
@@ -0,0 +1,1145 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.IntStream;
+
+import javax.imageio.ImageIO;
+
+
+/**
+ * Cette classe regroupe les mesures de performances du logiciel.
+ * Chaque mesure compare un mode accéléré ou approché au calcul exact,
+ * en temps et en écart sur l'image obtenue.
+ * usage : java Banc <mesure> [paramètres]
+ */
+public class Banc
+{
+    // dimensions des images de mesure
+    private static final int LARGEUR = 200;
+    private static final int HAUTEUR = 150;
+
+
+    /**
+     * calcule l'image entière, lignes réparties sur tous les processeurs
+     * @param scene
+     * @param camera
+     * @param maxReflets
+     * @return codes couleur des pixels, ligne par ligne
+     */
+    public static int[] Rendre(final Scene scene, final Camera camera, int maxReflets)
+    {
+        final int largeur = camera.getLargeur();
+        final int[] codes = new int[largeur * camera.getHauteur()];
+        IntStream.range(0, camera.getHauteur()).parallel().forEach(ye ->
+            camera.TracerLigne(scene, ye, maxReflets, codes, ye * largeur));
+        return codes;
+    }
+
+
+    /**
+     * calcule l'image par tuiles de TAILLE_TUILE pixels de côté, chacune tracée par
+     * paquets de rayons (Camera.TracerBloc), comme RenduTuiles
+     * @param scene
+     * @param camera
+     * @param maxReflets
+     * @return codes couleur des pixels, ligne par ligne
+     */
+    public static int[] RendreTuiles(final Scene scene, final Camera camera, int maxReflets)
+    {
+        final int largeur = camera.getLargeur(), hauteur = camera.getHauteur();
+        final int tuile = Constantes.TAILLE_TUILE;
+        final int colonnes = (largeur + tuile - 1) / tuile, lignes = (hauteur + tuile - 1) / tuile;
+        final int[] codes = new int[largeur * hauteur];
+        IntStream.range(0, colonnes * lignes).parallel().forEach(t -> {
+            int x0 = (t % colonnes) * tuile, y0 = (t / colonnes) * tuile;
+            camera.TracerBloc(scene, x0, y0, Math.min(tuile, largeur - x0), Math.min(tuile, hauteur - y0),
+                              maxReflets, codes, y0 * largeur + x0, largeur);
+        });
+        return codes;
+    }
+
+
+    /**
+     * écart entre deux images de même taille, composante par composante (0..255)
+     * @param a
+     * @param b
+     * @return chaîne décrivant l'écart moyen, l'écart maximal et le nombre de pixels différents
+     */
+    public static String Ecart(final int[] a, final int[] b)
+    {
+        long somme = 0;
+        int max = 0;
+        int differents = 0;
+        for (int i = 0; i < a.length; i++) {
+            int e = 0;
+            for (int decalage = 0; decalage <= 16; decalage += 8) {
+                int d = Math.abs(((a[i] >> decalage) & 0xFF) - ((b[i] >> decalage) & 0xFF));
+                somme += d;
+                e = Math.max(e, d);
+            }
+            max = Math.max(max, e);
+            if (e > 0) differents++;
+        }
+        return String.format("écart moyen %.4f, max %d, %.2f%% pixels différents",
+                somme / (3.0 * a.length), max, 100.0 * differents / a.length);
+    }
+
+
+    /**
+     * enregistre l'image des écarts entre a et b, amplifiés 16 fois
+     * @param a
+     * @param b
+     * @param largeur
+     * @param hauteur
+     * @param fichier
+     * @throws IOException
+     */
+    public static void EnregistrerEcart(final int[] a, final int[] b, int largeur, int hauteur, File fichier) throws IOException
+    {
+        BufferedImage image = new BufferedImage(largeur, hauteur, BufferedImage.TYPE_INT_RGB);
+        for (int i = 0; i < a.length; i++) {
+            int code = 0;
+            for (int decalage = 0; decalage <= 16; decalage += 8) {
+                int d = Math.abs(((a[i] >> decalage) & 0xFF) - ((b[i] >> decalage) & 0xFF));
+                code |= Math.min(255, d * 16) << decalage;
+            }
+            image.setRGB(i % largeur, i / largeur, code);
+        }
+        ImageIO.write(image, "png", fichier);
+    }
+
+
+    /**
+     * liste des scènes fournies avec le logiciel
+     */
+    private static String[] ScenesFournies()
+    {
+        String[] scenes = new String[9];
+        for (int i = 0; i < 9; i++) scenes[i] = "scenes/scene"+(i+1)+".txt";
+        return scenes;
+    }
+
+
+    /**
+     * crée une scène de nombre sphères aléatoires placées devant la caméra
+     * et éclairées par deux lampes
+     * @param nombre
+     * @param graine
+     * @return
+     */
+    public static Scene SceneAleatoire(int nombre, long graine)
+    {
+        Random hasard = new Random(graine);
+        Scene scene = new Scene();
+        // rayon choisi pour que les sphères couvrent l'écran plusieurs fois sans le saturer
+        float rayon = (float) (8.0 / Math.sqrt(nombre));
+        for (int i = 0; i < nombre; i++) {
+            Point centre = new Point(hasard.nextFloat()*20-10, hasard.nextFloat()*15-7.5f, 10 + hasard.nextFloat()*20);
+            Sphere sphere = new Sphere(centre, rayon * (0.5f + hasard.nextFloat()));
+            sphere.setKd(new Couleur(hasard.nextFloat(), hasard.nextFloat(), hasard.nextFloat()));
+            sphere.setKs(new Couleur(0.2f, 0.2f, 0.2f));
+            sphere.setNs(10 + hasard.nextFloat()*200);
+            scene.ajouterObjet(sphere);
+        }
+        scene.ajouterLampe(new Lampe(new Point(-10, 10, 5), new Couleur(0.6f, 0.6f, 0.6f)));
+        scene.ajouterLampe(new Lampe(new Point(10, 8, 20), new Couleur(0.8f, 0.8f, 0.8f)));
+        return scene;
+    }
+
+
+    /**
+     * mesure le temps d'exécution d'un calcul, en ms
+     */
+    private static long Chrono(Runnable calcul)
+    {
+        long debut = System.nanoTime();
+        calcul.run();
+        return (System.nanoTime() - debut) / 1000000L;
+    }
+
+
+    /**
+     * éclairage par beaucoup de lampes : temps et écart de la sélection
+     * des lampes (ArbreLampes) par rapport à l'éclairage exact
+     * paramètres : [scene.txt] [nombres de lampes...]
+     * @param args
+     * @throws Exception
+     */
+    private static void Lampes(String[] args) throws Exception
+    {
+        Scene modele = new Scene(args.length > 1 ? args[1] : Constantes.NOM_SCENE);
+        int[] nombres = { 1, 10, 100, 300, 1000 };
+        if (args.length > 2) {
+            nombres = new int[args.length - 2];
+            for (int i = 2; i < args.length; i++) nombres[i-2] = Integer.parseInt(args[i]);
+        }
+        Camera camera = new Camera(LARGEUR, HAUTEUR);
+
+        for (int nombre : nombres) {
+            // quatre rampes d'éclairage dont l'intensité totale ne dépend pas du nombre de lampes
+            Random hasard = new Random(nombre);
+            Scene scene = new Scene();
+            for (Sphere sphere : modele.getObjets()) scene.ajouterObjet(sphere);
+            float intensite = 1.5f / nombre;
+            for (int i = 0; i < nombre; i++) {
+                float cx = (i % 4 < 2) ? -12 : 12;
+                float cz = (i % 2 == 0) ? 0 : 25;
+                Point position = new Point(cx + (float) hasard.nextGaussian()*2, 10 + (float) hasard.nextGaussian()*2, cz + (float) hasard.nextGaussian()*2);
+                Couleur couleur = new Couleur(intensite*(0.5f+hasard.nextFloat()), intensite*(0.5f+hasard.nextFloat()), intensite*(0.5f+hasard.nextFloat()));
+                scene.ajouterLampe(new Lampe(position, couleur));
+            }
+
+            int[][] images = new int[2][];
+            scene.setSelectionLampes(false);
+            Rendre(scene, camera, Constantes.MAX_REFLETS);
+            long exact = Chrono(() -> images[0] = Rendre(scene, camera, Constantes.MAX_REFLETS));
+            scene.setSelectionLampes(true);
+            Rendre(scene, camera, Constantes.MAX_REFLETS);
+            long selection = Chrono(() -> images[1] = Rendre(scene, camera, Constantes.MAX_REFLETS));
+
+            System.out.println(nombre+" lampes : exact "+exact+" ms, sélection "+selection+" ms, "+Ecart(images[0], images[1]));
+        }
+    }
+
+
+    /**
+     * calculs approchés (MathRapide) : temps et écart par rapport au calcul exact
+     * paramètres : [dossier des images d'écart] [scènes...]
+     * @param args
+     * @throws Exception
+     */
+    private static void CalculsRapides(String[] args) throws Exception
+    {
+        File dossier = args.length > 1 ? new File(args[1]) : null;
+        String[] scenes = args.length > 2 ? Arrays.copyOfRange(args, 2, args.length) : ScenesFournies();
+        Camera camera = new Camera(LARGEUR, HAUTEUR);
+
+        for (String nom : scenes) {
+            Scene scene = new Scene(nom);
+            int[][] images = new int[2][];
+            MathRapide.actif = false;
+            Rendre(scene, camera, Constantes.MAX_REFLETS);
+            long exact = Chrono(() -> images[0] = Rendre(scene, camera, Constantes.MAX_REFLETS));
+            MathRapide.actif = true;
+            Rendre(scene, camera, Constantes.MAX_REFLETS);
+            long rapide = Chrono(() -> images[1] = Rendre(scene, camera, Constantes.MAX_REFLETS));
+            MathRapide.actif = Constantes.MATH_RAPIDE;
+
+            System.out.println(nom+" : exact "+exact+" ms, rapide "+rapide+" ms, "+Ecart(images[0], images[1]));
+            if (dossier != null) {
+                String base = new File(nom).getName().replace(".txt", "");
+                EnregistrerEcart(images[0], images[1], LARGEUR, HAUTEUR, new File(dossier, "ecart-mathrapide-"+base+".png"));
+            }
+        }
+    }
+
+
+    /**
+     * recherche des intersections des rayons primaires seuls, avec et sans
+     * les casiers par tuile (CasierEcran) : temps, rayons par seconde et
+     * nombre de contacts différents (il doit être nul)
+     * paramètres : [nombres de sphères...]
+     * @param args
+     */
+    private static void Casiers(String[] args)
+    {
+        int[] nombres = { 100, 1000, 10000, 100000 };
+        if (args.length > 1) {
+            nombres = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) nombres[i-1] = Integer.parseInt(args[i]);
+        }
+        for (int nombre : nombres) {
+            Scene scene = SceneAleatoire(nombre, nombre);
+            Camera camera = new Camera(LARGEUR, HAUTEUR);
+            Objet[][] objets = new Objet[2][LARGEUR * HAUTEUR];
+            long[] temps = new long[2];
+            for (int mode = 0; mode < 2; mode++) {
+                final int m = mode;
+                camera.setCasierEcran(mode == 1);
+                temps[mode] = Chrono(() -> {
+                    IntStream.range(0, HAUTEUR).parallel().forEach(ye -> {
+                        for (int xe = 0; xe < LARGEUR; xe++) {
+                            Rayon rayon = camera.RayonPrimaire(xe, ye);
+                            camera.ChercherIntersectionPrimaire(scene, rayon, xe, ye);
+                            objets[m][ye * LARGEUR + xe] = rayon.getObjet();
+                        }
+                    });
+                });
+            }
+            int differents = 0;
+            for (int i = 0; i < objets[0].length; i++) if (objets[0][i] != objets[1][i]) differents++;
+            System.out.println(nombre+" sphères : "+
+                    "sans casiers "+temps[0]+" ms ("+(LARGEUR*HAUTEUR*1000L/Math.max(1, temps[0]))+" rayons/s), "+
+                    "avec casiers "+temps[1]+" ms ("+(LARGEUR*HAUTEUR*1000L/Math.max(1, temps[1]))+" rayons/s, construction comprise), "+
+                    differents+" contacts différents");
+        }
+    }
+
+
+    /**
+     * image complète avec et sans le précalcul des termes d'intersection
+     * pour l'oeil et les lampes (OrigineCommune) : temps et écart (il doit être nul)
+     * paramètres : [nombres de sphères...]
+     * @param args
+     */
+    private static void Origines(String[] args)
+    {
+        int[] nombres = { 100, 1000, 3000 };
+        if (args.length > 1) {
+            nombres = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) nombres[i-1] = Integer.parseInt(args[i]);
+        }
+        for (int nombre : nombres) {
+            Scene scene = SceneAleatoire(nombre, nombre);
+            int[][] images = new int[2][];
+            long[] temps = new long[2];
+            for (int mode = 0; mode < 2; mode++) {
+                final int m = mode;
+                scene.setPrecalculOrigines(mode == 1);
+                Rendre(scene, new Camera(LARGEUR, HAUTEUR), Constantes.MAX_REFLETS);
+                temps[mode] = Chrono(() -> images[m] = Rendre(scene, new Camera(LARGEUR, HAUTEUR), Constantes.MAX_REFLETS));
+            }
+            System.out.println(nombre+" sphères : sans précalcul "+temps[0]+" ms, avec précalcul "+temps[1]+" ms, "+Ecart(images[0], images[1]));
+        }
+    }
+
+
+    /**
+     * moteur par vagues (MoteurVague) comparé au moteur récursif (Objet.Phong) :
+     * temps, rayons par seconde et écart (il doit être nul)
+     * paramètres : [scènes...]
+     * @param args
+     * @throws Exception
+     */
+    private static void Vagues(String[] args) throws Exception
+    {
+        String[] scenes = args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : ScenesFournies();
+        for (String nom : scenes) {
+            Scene scene = new Scene(nom);
+            int[][] images = new int[2][];
+            Rendre(scene, new Camera(LARGEUR, HAUTEUR), Constantes.MAX_REFLETS);
+            long recursif = Chrono(() -> images[0] = Rendre(scene, new Camera(LARGEUR, HAUTEUR), Constantes.MAX_REFLETS));
+            new MoteurVague(scene, new Camera(LARGEUR, HAUTEUR), Constantes.MAX_REFLETS).Rendre();
+            MoteurVague moteur = new MoteurVague(scene, new Camera(LARGEUR, HAUTEUR), Constantes.MAX_REFLETS);
+            long vagues = Chrono(() -> images[1] = moteur.Rendre());
+
+            // les deux moteurs lancent exactement les mêmes rayons
+            long rayons = moteur.getNombreRayons();
+            System.out.println(nom+" : "+rayons+" rayons, "+
+                    "récursif "+recursif+" ms ("+(rayons*1000/Math.max(1, recursif))+" rayons/s), "+
+                    "vagues "+vagues+" ms ("+(rayons*1000/Math.max(1, vagues))+" rayons/s), "+Ecart(images[0], images[1]));
+        }
+    }
+
+
+    /**
+     * paquets de rayons (PaquetRayons) de différentes tailles comparés aux rayons
+     * isolés, pour des scènes aléatoires : temps et écart (il doit être nul) ; à 100000
+     * sphères la scène a une hiérarchie (ArbreSpheres) et les paquets ne doivent pas
+     * être plus lents que les rayons isolés
+     * paramètres : [nombres de sphères...]
+     * @param args
+     */
+    private static void Paquets(String[] args)
+    {
+        int[] nombres = { 100, 1000, 10000, 100000 };
+        if (args.length > 1) {
+            nombres = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) nombres[i-1] = Integer.parseInt(args[i]);
+        }
+        final int[] tailles = { 1, 2, 4, 8 };
+        for (int nombre : nombres) {
+            Scene scene = SceneAleatoire(nombre, nombre);
+            StringBuilder ligne = new StringBuilder(nombre+" sphères :");
+            int[] reference = null;
+            for (int taille : tailles) {
+                final Camera camera = new Camera(LARGEUR, HAUTEUR);
+                camera.setTaillePaquet(taille);
+                final int[] codes = new int[LARGEUR * HAUTEUR];
+                Runnable calcul = () ->
+                    IntStream.range(0, (HAUTEUR + taille - 1) / taille).parallel().forEach(r ->
+                        camera.TracerBloc(scene, 0, r * taille, LARGEUR, Math.min(taille, HAUTEUR - r * taille),
+                                          Constantes.MAX_REFLETS, codes, r * taille * LARGEUR, LARGEUR));
+                calcul.run();
+                long temps = Chrono(calcul);
+                if (reference == null) {
+                    reference = codes;
+                    ligne.append(" isolés "+temps+" ms");
+                } else {
+                    ligne.append(", "+taille+"x"+taille+" "+temps+" ms ("+Ecart(reference, codes)+")");
+                }
+            }
+            System.out.println(ligne);
+        }
+    }
+
+
+    /**
+     * mise à jour incrémentale (Surveillance) après le déplacement de la plus petite
+     * sphère de chaque scène : temps comparé au calcul de l'image entière, nombre de
+     * tuiles recalculées et écart avec l'image entière de la scène modifiée (il doit être nul)
+     * paramètres : [scènes...]
+     * @param args
+     * @throws Exception
+     */
+    private static void Surveillances(String[] args) throws Exception
+    {
+        String[] scenes = args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : ScenesFournies();
+        for (String nom : scenes) {
+            Scene scene = new Scene(nom);
+            Surveillance[] surveillance = new Surveillance[1];
+            long entiere = Chrono(() -> surveillance[0] = new Surveillance(scene, LARGEUR, HAUTEUR));
+
+            // même scène, la plus petite sphère déplacée un peu
+            Scene nouvelle = new Scene(nom);
+            Sphere petite = nouvelle.getObjets().get(0);
+            for (Sphere sphere : nouvelle.getObjets()) if (sphere.getRayon() < petite.getRayon()) petite = sphere;
+            Point centre = petite.getCentre();
+            petite.setCentre(new Point(centre.x + petite.getRayon() * 0.5f, centre.y, centre.z));
+
+            int[] tuiles = new int[1];
+            long modification = Chrono(() -> tuiles[0] = surveillance[0].Modifier(nouvelle));
+            int[] reference = Rendre(nouvelle, new Camera(LARGEUR, HAUTEUR), Constantes.MAX_REFLETS);
+            System.out.println(nom+" : image entière "+entiere+" ms, mise à jour "+modification+" ms, "+
+                    tuiles[0]+" tuiles sur "+surveillance[0].getNombreTuiles()+", "+Ecart(reference, surveillance[0].getCodes()));
+        }
+    }
+
+
+    /**
+     * réemploi des pixels (Reprojection) pendant une rotation de la caméra autour
+     * de la scène, IMAGES images successives : pixels dont l'éclairage est calculé
+     * par image, temps comparé au calcul de chaque image entière, écart moyen et
+     * écart de la dernière image avec l'image entière
+     * paramètres : [scènes...]
+     * @param args
+     * @throws Exception
+     */
+    private static void Reprojections(String[] args) throws Exception
+    {
+        final int IMAGES = 30;
+        final float PAS = 0.01f;
+        String[] scenes = args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : ScenesFournies();
+        for (String nom : scenes) {
+            Scene scene = new Scene(nom);
+            CameraOrbite vue = new CameraOrbite(scene);
+            Reprojection reprojection = new Reprojection();
+            long entieres = 0, reemploi = 0, calcules = 0;
+            long somme = 0;
+            int[] codes = null, reference = null;
+            for (int n = 0; n < IMAGES; n++) {
+                vue.Tourner(PAS, PAS * 0.3f);
+                Camera camera = vue.getCamera(LARGEUR, HAUTEUR);
+                long debut = System.nanoTime();
+                reference = Rendre(scene, camera, Constantes.MAX_REFLETS);
+                entieres += System.nanoTime() - debut;
+                debut = System.nanoTime();
+                codes = reprojection.Tracer(scene, camera, Constantes.MAX_REFLETS);
+                reemploi += System.nanoTime() - debut;
+                calcules += reprojection.getCalcules();
+                for (int i = 0; i < codes.length; i++) {
+                    for (int decalage = 0; decalage <= 16; decalage += 8) {
+                        somme += Math.abs(((codes[i] >> decalage) & 0xFF) - ((reference[i] >> decalage) & 0xFF));
+                    }
+                }
+            }
+            System.out.println(String.format("%s : %d%% des pixels calculés par image, entières %d ms, réemploi %d ms, écart moyen %.3f, dernière image %s",
+                    nom, 100 * calcules / ((long) IMAGES * LARGEUR * HAUTEUR), entieres / 1000000L, reemploi / 1000000L,
+                    somme / (3.0 * IMAGES * LARGEUR * HAUTEUR), Ecart(reference, codes)));
+        }
+    }
+
+
+    /**
+     * échantillonnage adaptatif (RenduAdaptatif) comparé au calcul de tous les
+     * pixels : temps, proportion des pixels dont le rayon est lancé et écart
+     * paramètres : [dossier des images d'écart] [scènes...]
+     * @param args
+     * @throws Exception
+     */
+    private static void Adaptatif(String[] args) throws Exception
+    {
+        File dossier = args.length > 1 ? new File(args[1]) : null;
+        String[] scenes = args.length > 2 ? Arrays.copyOfRange(args, 2, args.length) : ScenesFournies();
+        for (String nom : scenes) {
+            Scene scene = new Scene(nom);
+            Camera camera = new Camera(LARGEUR, HAUTEUR);
+            int[][] images = new int[2][];
+            RenduAdaptatif[] rendu = new RenduAdaptatif[1];
+            long exact = Chrono(() -> images[0] = Rendre(scene, camera, Constantes.MAX_REFLETS));
+            long adaptatif = Chrono(() -> {
+                rendu[0] = new RenduAdaptatif(scene, camera, Constantes.MAX_REFLETS);
+                images[1] = rendu[0].Tracer();
+            });
+            System.out.println(nom+" : exact "+exact+" ms, adaptatif "+adaptatif+" ms, "+
+                    (100 * rendu[0].getNombreCalcules() / (LARGEUR * HAUTEUR))+"% des pixels calculés, "+Ecart(images[0], images[1]));
+            if (dossier != null) {
+                String base = new File(nom).getName().replace(".txt", "");
+                EnregistrerEcart(images[0], images[1], LARGEUR, HAUTEUR, new File(dossier, "ecart-adaptatif-"+base+".png"));
+            }
+        }
+    }
+
+
+    /**
+     * anticrénelage des bords seuls (AntiCrenelage) comparé au suréchantillonnage de
+     * tous les pixels, avec 4x4 rayons par pixel : temps, proportion des pixels
+     * suréchantillonnés et écart avec le suréchantillonnage de tous les pixels,
+     * à comparer à l'écart de l'image à un rayon par pixel
+     * paramètres : [scènes...]
+     * @param args
+     * @throws Exception
+     */
+    private static void Anticrenelage(String[] args) throws Exception
+    {
+        final int COTE = 4;
+        String[] scenes = args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : ScenesFournies();
+        for (String nom : scenes) {
+            Scene scene = new Scene(nom);
+            Camera camera = new Camera(LARGEUR, HAUTEUR);
+            int[][] images = new int[3][];
+            AntiCrenelage[] rendu = new AntiCrenelage[1];
+            Rendre(scene, camera, Constantes.MAX_REFLETS);
+            long simple = Chrono(() -> images[0] = Rendre(scene, camera, Constantes.MAX_REFLETS));
+            long bords = Chrono(() -> {
+                rendu[0] = new AntiCrenelage(scene, camera, Constantes.MAX_REFLETS);
+                images[1] = rendu[0].Tracer(COTE);
+            });
+            long uniforme = Chrono(() -> images[2] = rendu[0].TracerUniforme(COTE));
+            float rayons = 1 + COTE * COTE * rendu[0].getNombreBords() / (float) (LARGEUR * HAUTEUR);
+            System.out.println(String.format("%s : 1 rayon %d ms, bords %d ms (%d%% des pixels, %.1f rayons par pixel), uniforme %d ms (%d rayons par pixel)",
+                    nom, simple, bords, 100 * rendu[0].getNombreBords() / (LARGEUR * HAUTEUR), rayons, uniforme, COTE * COTE));
+            System.out.println("    écart avec l'uniforme : 1 rayon "+Ecart(images[2], images[0])+" ; bords "+Ecart(images[2], images[1]));
+        }
+    }
+
+
+    /**
+     * plusieurs éclairages d'une scène en un seul passage (RenduVariantes) comparés
+     * à un calcul par éclairage : temps et écart (il doit être nul). Les éclairages
+     * sont les lampes de la scène, les mêmes lampes de couleur atténuée (mêmes rayons
+     * d'ombre), la moitié des lampes et les lampes déplacées
+     * paramètres : [scènes...]
+     * @param args
+     * @throws Exception
+     */
+    private static void Variantes(String[] args) throws Exception
+    {
+        String[] scenes = args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : ScenesFournies();
+        for (String nom : scenes) {
+            Scene scene = new Scene(nom);
+            List<Lampe> lampes = scene.getLampes();
+            List<List<Lampe>> eclairages = new ArrayList<>();
+            eclairages.add(lampes);
+            List<Lampe> attenuees = new ArrayList<>(), moitie = new ArrayList<>(), deplacees = new ArrayList<>();
+            for (int i = 0; i < lampes.size(); i++) {
+                Lampe lampe = lampes.get(i);
+                attenuees.add(new Lampe(lampe.getPosition(), lampe.getCouleur().mul(0.5f)));
+                if (i % 2 == 0) moitie.add(lampe);
+                Point p = lampe.getPosition();
+                deplacees.add(new Lampe(new Point(p.x + 2.0f, p.y + 1.0f, p.z), lampe.getCouleur()));
+            }
+            eclairages.add(attenuees);
+            eclairages.add(moitie);
+            eclairages.add(deplacees);
+
+            Camera camera = new Camera(LARGEUR, HAUTEUR);
+            int[][][] images = new int[2][eclairages.size()][];
+            // premier calcul non mesuré pour que les deux méthodes soient compilées
+            Rendre(scene, camera, Constantes.MAX_REFLETS);
+            new RenduVariantes(scene, camera, eclairages).Tracer(Constantes.MAX_REFLETS);
+            long separes = Chrono(() -> {
+                for (int e = 0; e < eclairages.size(); e++) {
+                    images[0][e] = Rendre(RenduVariantes.Eclairer(scene, eclairages.get(e)), camera, Constantes.MAX_REFLETS);
+                }
+            });
+            long ensemble = Chrono(() -> images[1] = new RenduVariantes(scene, camera, eclairages).Tracer(Constantes.MAX_REFLETS));
+            StringBuilder ecarts = new StringBuilder();
+            for (int e = 0; e < eclairages.size(); e++) ecarts.append(" ; "+Ecart(images[0][e], images[1][e]));
+            System.out.println(nom+" : "+eclairages.size()+" éclairages séparés "+separes+" ms, en un passage "+ensemble+" ms"+ecarts);
+        }
+    }
+
+
+    /**
+     * construction de la hiérarchie des sphères (ArbreSpheres) pour des sphères
+     * aléatoires réparties comme celles de SceneAleatoire : temps avec un seul
+     * thread et avec tous les processeurs, nombre de noeuds et coût SAH ; puis
+     * temps de calcul d'images par lignes, par tuiles et par vagues, avec et sans
+     * la hiérarchie, et écart (il doit être nul)
+     * (10 millions de sphères demandent environ 1,5 Go : java -Xmx3g Banc arbre)
+     * paramètres : [nombres de sphères...]
+     * @param args
+     * @throws Exception
+     */
+    private static void Arbres(String[] args) throws Exception
+    {
+        int[] nombres = { 100000, 1000000, 10000000 };
+        if (args.length > 1) {
+            nombres = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) nombres[i-1] = Integer.parseInt(args[i]);
+        }
+        ForkJoinPool seul = new ForkJoinPool(1);
+        for (int nombre : nombres) {
+            Random hasard = new Random(nombre);
+            float rayon = (float) (8.0 / Math.sqrt(nombre));
+            float[] spheres = new float[4 * nombre];
+            for (int i = 0; i < nombre; i++) {
+                spheres[4*i  ] = hasard.nextFloat()*20-10;
+                spheres[4*i+1] = hasard.nextFloat()*15-7.5f;
+                spheres[4*i+2] = 10 + hasard.nextFloat()*20;
+                spheres[4*i+3] = rayon * (0.5f + hasard.nextFloat());
+            }
+            float[] boites = ArbreSpheres.Boites(spheres, nombre);
+            ArbreSpheres[] arbre = new ArbreSpheres[1];
+            long sequentiel = Chrono(() -> arbre[0] = new ArbreSpheres(boites, nombre, seul));
+            arbre[0] = null;
+            long parallele = Chrono(() -> arbre[0] = new ArbreSpheres(boites, nombre, ForkJoinPool.commonPool()));
+            System.out.println(String.format("%d sphères : construction 1 thread %d ms, %d threads %d ms, %d noeuds, coût SAH %.1f",
+                    nombre, sequentiel, ForkJoinPool.getCommonPoolParallelism(), parallele, arbre[0].getNombreNoeuds(), arbre[0].CoutSAH()));
+        }
+        seul.shutdown();
+
+        // lignes (TracerLigne), tuiles tracées par paquets (TracerBloc) et vagues (MoteurVague)
+        for (int nombre : new int[] { 1000, 10000 }) {
+            Scene scene = SceneAleatoire(nombre, nombre);
+            Camera camera = new Camera(LARGEUR, HAUTEUR);
+            StringBuilder ligne = new StringBuilder(nombre+" sphères :");
+            for (String chemin : new String[] { "lignes", "tuiles", "vagues" }) {
+                int[][] images = new int[2][];
+                long[] temps = new long[2];
+                for (int avec = 0; avec < 2; avec++) {
+                    scene.setArbreSpheres(avec == 1);
+                    final int k = avec;
+                    Runnable calcul;
+                    switch (chemin) {
+                    case "lignes": calcul = () -> images[k] = Rendre(scene, camera, Constantes.MAX_REFLETS); break;
+                    case "tuiles": calcul = () -> images[k] = RendreTuiles(scene, camera, Constantes.MAX_REFLETS); break;
+                    default:       calcul = () -> images[k] = new MoteurVague(scene, camera, Constantes.MAX_REFLETS).Rendre(); break;
+                    }
+                    temps[avec] = Chrono(calcul);
+                }
+                ligne.append((chemin.equals("lignes") ? " " : ", ")+chemin+" sans hiérarchie "+temps[0]+" ms, avec "+temps[1]+" ms ("+Ecart(images[0], images[1])+")");
+            }
+            System.out.println(ligne);
+        }
+    }
+
+
+    /**
+     * disposition d'une sphère avant le partage des matériaux, pour comparaison
+     */
+    private static class SphereIsolee
+    {
+        Point centre;
+        float rayon;
+        Couleur Kd, Ks;
+        float Ns;
+    }
+
+
+    /**
+     * mémoire occupée après ramasse-miettes, en octets
+     */
+    private static long Memoire()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+
+    /**
+     * mémoire des sphères d'une scène générée avec quelques matériaux : octets
+     * par sphère avec des couleurs propres à chaque sphère (disposition d'avant
+     * Materiau), avec les matériaux partagés de Scene.Interner, et sous la forme
+     * compacte de SpheresCompactes ; puis écart entre les images d'une scène et
+     * de sa forme compacte (il doit être nul)
+     * (10 millions de sphères isolées occupent plus d'1 Go : java -Xmx3g Banc materiaux)
+     * paramètres : [nombre de sphères] [nombre de matériaux]
+     * @param args
+     * @throws Exception
+     */
+    private static void Materiaux(String[] args) throws Exception
+    {
+        final int nombre = args.length > 1 ? Integer.parseInt(args[1]) : 10000000;
+        final int nombreMateriaux = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        Random hasard = new Random(nombre);
+        Materiau[] materiaux = new Materiau[nombreMateriaux];
+        for (int m = 0; m < nombreMateriaux; m++) {
+            materiaux[m] = new Materiau(new Couleur(hasard.nextFloat(), hasard.nextFloat(), hasard.nextFloat()),
+                    new Couleur(0.2f, 0.2f, 0.2f), 10 + hasard.nextFloat()*200);
+        }
+
+        long avant = Memoire();
+        SphereIsolee[] isolees = new SphereIsolee[nombre];
+        hasard = new Random(nombre);
+        for (int i = 0; i < nombre; i++) {
+            Materiau m = materiaux[hasard.nextInt(nombreMateriaux)];
+            SphereIsolee sphere = new SphereIsolee();
+            sphere.centre = new Point(hasard.nextFloat()*20-10, hasard.nextFloat()*15-7.5f, 10 + hasard.nextFloat()*20);
+            sphere.rayon = hasard.nextFloat();
+            sphere.Kd = new Couleur(m.Kd.r, m.Kd.v, m.Kd.b);
+            sphere.Ks = new Couleur(m.Ks.r, m.Ks.v, m.Ks.b);
+            sphere.Ns = m.Ns;
+            isolees[i] = sphere;
+        }
+        long octetsIsolees = Memoire() - avant;
+        isolees = null;
+
+        avant = Memoire();
+        Scene scene = new Scene();
+        hasard = new Random(nombre);
+        for (int i = 0; i < nombre; i++) {
+            Materiau m = materiaux[hasard.nextInt(nombreMateriaux)];
+            Sphere sphere = new Sphere(new Point(hasard.nextFloat()*20-10, hasard.nextFloat()*15-7.5f, 10 + hasard.nextFloat()*20), hasard.nextFloat());
+            sphere.setKd(new Couleur(m.Kd.r, m.Kd.v, m.Kd.b));
+            sphere.setKs(new Couleur(m.Ks.r, m.Ks.v, m.Ks.b));
+            sphere.setNs(m.Ns);
+            scene.ajouterObjet(sphere);
+        }
+        scene.getObjets().trimToSize();
+        long octetsPartages = Memoire() - avant;
+        int distincts = scene.getMateriaux().size();
+        scene = null;
+
+        avant = Memoire();
+        SpheresCompactes compactes = new SpheresCompactes(nombre);
+        hasard = new Random(nombre);
+        for (int i = 0; i < nombre; i++) {
+            Materiau m = materiaux[hasard.nextInt(nombreMateriaux)];
+            compactes.ajouter(hasard.nextFloat()*20-10, hasard.nextFloat()*15-7.5f, 10 + hasard.nextFloat()*20, hasard.nextFloat(), m);
+        }
+        long octetsCompactes = Memoire() - avant;
+
+        System.out.println(String.format("%d sphères, %d matériaux distincts : %.1f octets par sphère avec des couleurs propres, %.1f avec les matériaux partagés, %.1f sous forme compacte",
+                nombre, distincts, octetsIsolees / (double) nombre, octetsPartages / (double) nombre, octetsCompactes / (double) nombre));
+        compactes = null;
+
+        Scene aleatoire = SceneAleatoire(1000, 1000);
+        Scene reconstruite = new SpheresCompactes(aleatoire).CreerScene(aleatoire.getLampes());
+        Camera camera = new Camera(LARGEUR, HAUTEUR);
+        System.out.println("scène reconstruite de la forme compacte : "
+                + Ecart(Rendre(aleatoire, camera, Constantes.MAX_REFLETS), Rendre(reconstruite, camera, Constantes.MAX_REFLETS)));
+    }
+
+
+    /**
+     * maillage d'une sphère découpée en parallèles et méridiens, de 2 x divisions x divisions triangles
+     */
+    private static Maillage SphereMaillee(final Point centre, float rayon, int divisions)
+    {
+        int meridiens = 2 * divisions;
+        float[] sommets = new float[3 * (divisions + 1) * meridiens];
+        for (int p = 0; p <= divisions; p++) {
+            double theta = Math.PI * p / divisions;
+            for (int m = 0; m < meridiens; m++) {
+                double phi = 2 * Math.PI * m / meridiens;
+                int i = 3 * (p * meridiens + m);
+                sommets[i  ] = centre.x + rayon * (float) (Math.sin(theta) * Math.cos(phi));
+                sommets[i+1] = centre.y + rayon * (float) Math.cos(theta);
+                sommets[i+2] = centre.z + rayon * (float) (Math.sin(theta) * Math.sin(phi));
+            }
+        }
+        int[] faces = new int[3 * 2 * divisions * meridiens];
+        int f = 0;
+        for (int p = 0; p < divisions; p++) {
+            for (int m = 0; m < meridiens; m++) {
+                int a = p * meridiens + m, b = p * meridiens + (m + 1) % meridiens;
+                int c = a + meridiens, d = b + meridiens;
+                faces[f++] = a; faces[f++] = c; faces[f++] = b;
+                faces[f++] = b; faces[f++] = c; faces[f++] = d;
+            }
+        }
+        return new Maillage(sommets, faces);
+    }
+
+
+    /**
+     * maillages : écart entre une sphère et la même sphère découpée en triangles,
+     * relecture d'un fichier OBJ, puis pour des triangles aléatoires répartis comme
+     * les sphères de SceneAleatoire, temps de construction de la hiérarchie et de
+     * calcul de l'image, et écart avec la recherche parmi tous les triangles (il doit
+     * être nul) quand ils sont assez peu nombreux pour qu'elle soit possible
+     * paramètres : [nombres de triangles...]
+     * @param args
+     * @throws Exception
+     */
+    private static void Maillages(String[] args) throws Exception
+    {
+        Camera camera = new Camera(LARGEUR, HAUTEUR);
+        Point centre = new Point(0, 0, 10);
+        Sphere sphere = new Sphere(centre, 3.0f);
+        sphere.setKd(new Couleur(0.8f, 0.5f, 0.3f));
+        sphere.setKs(new Couleur(0.2f, 0.2f, 0.2f));
+        sphere.setNs(60);
+        Lampe lampe = new Lampe(new Point(-10, 10, 5), new Couleur(0.8f, 0.8f, 0.8f));
+        Scene ronde = new Scene();
+        ronde.ajouterObjet(sphere);
+        ronde.ajouterLampe(lampe);
+        int[] reference = Rendre(ronde, camera, Constantes.MAX_REFLETS);
+        for (int divisions : new int[] { 16, 64, 256 }) {
+            Maillage maillage = SphereMaillee(centre, 3.0f, divisions);
+            maillage.setMateriau(sphere.getMateriau());
+            Scene facettes = new Scene();
+            facettes.ajouterMaillage(maillage);
+            facettes.ajouterLampe(lampe);
+            int[][] image = new int[1][];
+            long temps = Chrono(() -> image[0] = Rendre(facettes, camera, Constantes.MAX_REFLETS));
+            System.out.println("sphère de "+maillage.getNombreFaces()+" triangles : "+temps+" ms, "+Ecart(reference, image[0]));
+        }
+
+        // écriture puis relecture d'un fichier OBJ
+        Maillage maillage = SphereMaillee(centre, 3.0f, 32);
+        File obj = File.createTempFile("sphere", ".obj");
+        try (PrintWriter sortie = new PrintWriter(obj, "UTF-8")) {
+            float[] sommets = maillage.getSommets();
+            for (int i = 0; i < sommets.length; i += 3) sortie.println("v "+sommets[i]+" "+sommets[i+1]+" "+sommets[i+2]);
+            int[] faces = maillage.getFaces();
+            for (int f = 0; f < faces.length; f += 3) sortie.println("f "+(faces[f]+1)+" "+(faces[f+1]+1)+"/1 "+(faces[f+2]+1)+"//1");
+        }
+        Maillage relu = Maillage.Charger(obj.getPath());
+        obj.delete();
+        System.out.println("fichier OBJ relu "+(Arrays.equals(maillage.getSommets(), relu.getSommets()) && Arrays.equals(maillage.getFaces(), relu.getFaces()) ? "identique" : "DIFFÉRENT"));
+
+        int[] nombres = { 10000, 1000000, 4000000 };
+        if (args.length > 1) {
+            nombres = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) nombres[i-1] = Integer.parseInt(args[i]);
+        }
+        for (int nombre : nombres) {
+            // triangles isolés de côté comparable au diamètre des sphères de SceneAleatoire
+            Random hasard = new Random(nombre);
+            float cote = (float) (16.0 / Math.sqrt(nombre));
+            float[] sommets = new float[9 * nombre];
+            int[] faces = new int[3 * nombre];
+            for (int t = 0; t < nombre; t++) {
+                float x = hasard.nextFloat()*20-10, y = hasard.nextFloat()*15-7.5f, z = 10 + hasard.nextFloat()*20;
+                for (int k = 0; k < 3; k++) {
+                    sommets[9*t+3*k  ] = x + cote * (hasard.nextFloat() - 0.5f);
+                    sommets[9*t+3*k+1] = y + cote * (hasard.nextFloat() - 0.5f);
+                    sommets[9*t+3*k+2] = z + cote * (hasard.nextFloat() - 0.5f);
+                    faces[3*t+k] = 3*t+k;
+                }
+            }
+            Maillage soupe = new Maillage(sommets, faces);
+            soupe.setKd(new Couleur(0.7f, 0.6f, 0.4f));
+            soupe.setKs(new Couleur(0.2f, 0.2f, 0.2f));
+            soupe.setNs(40);
+            Scene scene = new Scene();
+            scene.ajouterMaillage(soupe);
+            scene.ajouterLampe(new Lampe(new Point(-10, 10, 5), new Couleur(0.6f, 0.6f, 0.6f)));
+            scene.ajouterLampe(new Lampe(new Point(10, 8, 20), new Couleur(0.8f, 0.8f, 0.8f)));
+            long construction = Chrono(() -> scene.getArbre());
+            int[][] images = new int[2][];
+            long avec = Chrono(() -> images[0] = Rendre(scene, camera, Constantes.MAX_REFLETS));
+            String ligne = nombre+" triangles : construction "+construction+" ms, "+scene.getArbre().getNombreNoeuds()+" noeuds, image "+avec+" ms";
+            if (nombre <= 10000) {
+                scene.setArbreSpheres(false);
+                long sans = Chrono(() -> images[1] = Rendre(scene, camera, Constantes.MAX_REFLETS));
+                ligne += ", sans hiérarchie "+sans+" ms, "+Ecart(images[0], images[1]);
+            }
+            System.out.println(ligne);
+        }
+    }
+
+
+    /**
+     * ombres douces de lampes étendues (OmbreDouce) : les lampes des scènes reçoivent
+     * un rayon ; temps et écart du calcul direct par rapport à l'échantillonnage de
+     * chaque lampe par OmbreDouce.echantillons rayons, et part des calculs d'ombre
+     * qui ont dû lancer des rayons ; puis temps avec des lampes ponctuelles
+     * paramètres : [rayon des lampes] [scènes...]
+     * @param args
+     * @throws Exception
+     */
+    private static void Ombres(String[] args) throws Exception
+    {
+        final float rayon = args.length > 1 ? Float.parseFloat(args[1]) : 1.0f;
+        String[] scenes = args.length > 2 ? Arrays.copyOfRange(args, 2, args.length) : ScenesFournies();
+        for (String nom : scenes) {
+            Scene scene = new Scene(nom);
+            Camera camera = new Camera(LARGEUR, HAUTEUR);
+            int[][] images = new int[2][];
+            long ponctuelles = Chrono(() -> Rendre(scene, camera, Constantes.MAX_REFLETS));
+            for (Lampe lampe : scene.getLampes()) lampe.setRayon(rayon);
+            Rendre(scene, camera, Constantes.MAX_REFLETS);
+            OmbreDouce.Effacer();
+            long direct = Chrono(() -> images[0] = Rendre(scene, camera, Constantes.MAX_REFLETS));
+            long calculs = OmbreDouce.getNombreCalculs(), ambigus = OmbreDouce.getNombreAmbigus();
+            OmbreDouce.analytique = false;
+            long echantillons = Chrono(() -> images[1] = Rendre(scene, camera, Constantes.MAX_REFLETS));
+            OmbreDouce.analytique = true;
+            System.out.println(String.format("%s : lampes de rayon %.2f, direct %d ms (%.1f%% des calculs avec %d rayons), %d rayons par lampe %d ms, %s ; lampes ponctuelles %d ms",
+                    nom, rayon, direct, 100.0 * ambigus / Math.max(1, calculs), Constantes.ECHANTILLONS_OMBRE,
+                    OmbreDouce.echantillons, echantillons, Ecart(images[1], images[0]), ponctuelles));
+        }
+    }
+
+
+    /**
+     * cartes d'ombres des lampes (CarteOmbres) pour les aperçus, à plusieurs
+     * résolutions : temps de la première image (construction des cartes comprise),
+     * des images suivantes et d'une image après déplacement de la plus petite sphère
+     * (cartes reconstruites), comparés aux rayons d'ombre, et écart avec l'image exacte
+     * paramètres : [scènes...]
+     * @param args
+     * @throws Exception
+     */
+    private static void Cartes(String[] args) throws Exception
+    {
+        String[] scenes = args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : ScenesFournies();
+        for (String nom : scenes) {
+            Scene scene = new Scene(nom);
+            Camera exacte = new Camera(LARGEUR, HAUTEUR);
+            int[][] images = new int[2][];
+            Rendre(scene, exacte, Constantes.MAX_REFLETS);
+            long rayons = Chrono(() -> images[0] = Rendre(scene, exacte, Constantes.MAX_REFLETS));
+            System.out.println(nom+" : rayons d'ombre "+rayons+" ms");
+            Camera apercu = new Camera(LARGEUR, HAUTEUR);
+            apercu.setCartesOmbres(true);
+            for (int resolution : new int[] { 64, 128, 256 }) {
+                scene.setResolutionCartes(resolution);
+                long premiere = Chrono(() -> Rendre(scene, apercu, Constantes.MAX_REFLETS));
+                long suivante = Chrono(() -> images[1] = Rendre(scene, apercu, Constantes.MAX_REFLETS));
+                long octets = 0;
+                for (Lampe lampe : scene.getLampes()) octets += scene.getCarteOmbres(lampe).getTaille();
+                System.out.println(String.format("    cartes de %dx%d : première image %d ms, suivantes %d ms, %.1f Mo, %s",
+                        resolution, resolution, premiere, suivante, octets / 1048576.0, Ecart(images[0], images[1])));
+            }
+
+            // la plus petite sphère déplacée : les cartes sont reconstruites
+            Sphere petite = scene.getObjets().get(0);
+            for (Sphere sphere : scene.getObjets()) if (sphere.getRayon() < petite.getRayon()) petite = sphere;
+            Point centre = petite.getCentre();
+            petite.setCentre(new Point(centre.x + petite.getRayon() * 0.5f, centre.y, centre.z));
+            scene.Deplacement();
+            long deplacement = Chrono(() -> images[1] = Rendre(scene, apercu, Constantes.MAX_REFLETS));
+            images[0] = Rendre(scene, exacte, Constantes.MAX_REFLETS);
+            System.out.println("    après déplacement d'une sphère : "+deplacement+" ms, "+Ecart(images[0], images[1]));
+        }
+    }
+
+
+    /**
+     * affichage pendant le calcul de l'image finale (RenduTuiles) : temps du calcul
+     * par tuiles sans affichage, puis avec un thread qui recopie les tuiles publiées
+     * dans une image toutes les Constantes.INTERVALLE_AFFICHAGE ms comme le fait
+     * Lancer, et temps total de ces recopies ; écart avec l'image calculée par
+     * lignes (il doit être nul)
+     * paramètres : [largeur] [hauteur] [scènes...]
+     * @param args
+     * @throws Exception
+     */
+    private static void Affichage(String[] args) throws Exception
+    {
+        final int largeur = args.length > 1 ? Integer.parseInt(args[1]) : Constantes.LARGEUR_IMAGE;
+        final int hauteur = args.length > 2 ? Integer.parseInt(args[2]) : Constantes.HAUTEUR_IMAGE;
+        String[] scenes = args.length > 3 ? Arrays.copyOfRange(args, 3, args.length) : ScenesFournies();
+        for (String nom : scenes) {
+            Scene scene = new Scene(nom);
+            Camera camera = new Camera(largeur, hauteur);
+            int[][] images = new int[3][];
+            Rendre(scene, camera, Constantes.MAX_REFLETS);
+            long lignes = Chrono(() -> images[0] = Rendre(scene, camera, Constantes.MAX_REFLETS));
+            new RenduTuiles(scene, camera, Constantes.MAX_REFLETS, null).Tracer(() -> false);
+            long sans = Chrono(() -> images[1] = new RenduTuiles(scene, camera, Constantes.MAX_REFLETS, null).Tracer(() -> false));
+
+            RenduTuiles rendu = new RenduTuiles(scene, camera, Constantes.MAX_REFLETS, null);
+            BufferedImage ecran = new BufferedImage(largeur, hauteur, BufferedImage.TYPE_INT_RGB);
+            AtomicBoolean fini = new AtomicBoolean(false);
+            long[] recopie = new long[2];
+            Thread affichage = new Thread(() -> {
+                try {
+                    while (! fini.get()) {
+                        Thread.sleep(Constantes.INTERVALLE_AFFICHAGE);
+                        long debut = System.nanoTime();
+                        if (rendu.Afficher(ecran) != null) recopie[1]++;
+                        recopie[0] += System.nanoTime() - debut;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            affichage.start();
+            long avec = Chrono(() -> images[2] = rendu.Tracer(() -> false));
+            fini.set(true);
+            affichage.join();
+            rendu.Afficher(ecran);
+            int[] affiche = ecran.getRGB(0, 0, largeur, hauteur, null, 0, largeur);
+            System.out.println(String.format("%s : lignes %d ms, tuiles %d ms, tuiles affichées %d ms (%+.1f%%), %d recopies en %.1f ms (%.2f%% du calcul) ; %s ; image affichée %s",
+                    nom, lignes, sans, avec, 100.0 * (avec - sans) / Math.max(1, sans), recopie[1], recopie[0] / 1e6, recopie[0] / 1e4 / Math.max(1, avec),
+                    Ecart(images[0], images[2]), Ecart(images[0], affiche)));
+        }
+    }
+
+
+    /**
+     * plusieurs vues d'une scène en un seul travail (RenduVues) comparées à autant
+     * de calculs séparés, chacun lisant la scène et calculant une vue par tuiles
+     * (RenduTuiles) : temps sans et avec partage des ombres, part des ombres
+     * reprises d'une autre vue, et écart de chaque vue avec son calcul séparé (nul
+     * sans partage). Les vues sont alignées (stéréo, écart 0.5) puis tournées autour
+     * de la scène (2 degrés entre deux vues) ; des lampes étendues rendent les ombres
+     * plus chères à calculer, donc le partage plus utile
+     * paramètres : [nombre de vues] [rayon des lampes] [scènes...]
+     * @param args
+     * @throws Exception
+     */
+    private static void Vues(String[] args) throws Exception
+    {
+        final int nombre = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        final float rayon = args.length > 2 ? Float.parseFloat(args[2]) : 0.0f;
+        String[] scenes = args.length > 3 ? Arrays.copyOfRange(args, 3, args.length) : ScenesFournies();
+        for (String nom : scenes) {
+            Scene lue = new Scene(nom);
+            Camera[][] dispositions = {
+                RenduVues.Stereo(LARGEUR, HAUTEUR, nombre, 0.5f),
+                RenduVues.Orbite(lue, LARGEUR, HAUTEUR, nombre, (float) Math.toRadians(2.0))
+            };
+            String[] noms = { "stéréo", "orbite" };
+            for (int d = 0; d < dispositions.length; d++) {
+                final Camera[] cameras = dispositions[d];
+                final int[][][] images = new int[3][][];
+                images[0] = new int[nombre][];
+                // premier calcul non mesuré pour que les méthodes soient compilées
+                new RenduVues(Lire(nom, rayon), cameras, Constantes.MAX_REFLETS, true).Tracer();
+                RenduVues[] rendus = new RenduVues[2];
+                long separes = Long.MAX_VALUE, ensemble = Long.MAX_VALUE, partage = Long.MAX_VALUE;
+                // meilleur temps de trois mesures, les écarts entre les méthodes sont petits
+                for (int mesure = 0; mesure < 3; mesure++) {
+                    separes = Math.min(separes, Chrono(() -> {
+                        for (int v = 0; v < nombre; v++) {
+                            images[0][v] = new RenduTuiles(Lire(nom, rayon), cameras[v], Constantes.MAX_REFLETS, null).Tracer(() -> false);
+                        }
+                    }));
+                    ensemble = Math.min(ensemble, Chrono(() -> {
+                        rendus[0] = new RenduVues(Lire(nom, rayon), cameras, Constantes.MAX_REFLETS, false);
+                        images[1] = rendus[0].Tracer();
+                    }));
+                    partage = Math.min(partage, Chrono(() -> {
+                        rendus[1] = new RenduVues(Lire(nom, rayon), cameras, Constantes.MAX_REFLETS, true);
+                        images[2] = rendus[1].Tracer();
+                    }));
+                }
+                CacheOmbres cache = rendus[1].getCache();
+                long ombres = cache.getReprises() + cache.getCalculees();
+                StringBuilder ecarts = new StringBuilder();
+                for (int v = 0; v < nombre; v++) {
+                    ecarts.append(" ; vue "+(v+1)+" sans partage "+Ecart(images[0][v], images[1][v])+", avec "+Ecart(images[0][v], images[2][v]));
+                }
+                System.out.println(String.format("%s %s, %d vues : séparées %d ms, ensemble %d ms (x%.2f), ombres partagées %d ms (x%.2f), %.1f%% des ombres reprises%s",
+                        nom, noms[d], nombre, separes, ensemble, separes / (double) Math.max(1, ensemble), partage, separes / (double) Math.max(1, partage),
+                        100.0 * cache.getReprises() / Math.max(1, ombres), ecarts));
+            }
+        }
+    }
+
+
+    /**
+     * lit un fichier scène dans un calcul mesuré par Chrono, et donne ce rayon à ses lampes
+     */
+    private static Scene Lire(final String nom, float rayon)
+    {
+        Scene scene;
+        try {
+            scene = new Scene(nom);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (rayon > 0.0f) {
+            for (Lampe lampe : scene.getLampes()) lampe.setRayon(rayon);
+        }
+        return scene;
+    }
+
+
+    public static void main(String[] args) throws Exception
+    {
+        String mesure = args.length > 0 ? args[0] : "";
+        switch (mesure) {
+        case "lampes":
+            Lampes(args);
+            break;
+        case "mathrapide":
+            CalculsRapides(args);
+            break;
+        case "casiers":
+            Casiers(args);
+            break;
+        case "origines":
+            Origines(args);
+            break;
+        case "vagues":
+            Vagues(args);
+            break;
+        case "paquets":
+            Paquets(args);
+            break;
+        case "surveillance":
+            Surveillances(args);
+            break;
+        case "reprojection":
+            Reprojections(args);
+            break;
+        case "adaptatif":
+            Adaptatif(args);
+            break;
+        case "anticrenelage":
+            Anticrenelage(args);
+            break;
+        case "variantes":
+            Variantes(args);
+            break;
+        case "arbre":
+            Arbres(args);
+            break;
+        case "materiaux":
+            Materiaux(args);
+            break;
+        case "maillage":
+            Maillages(args);
+            break;
+        case "ombres":
+            Ombres(args);
+            break;
+        case "cartes":
+            Cartes(args);
+            break;
+        case "affichage":
+            Affichage(args);
+            break;
+        case "vues":
+            Vues(args);
+            break;
+        default:
+            System.err.println("usage : java Banc lampes [scene.txt] [nombres de lampes...]");
+            System.err.println("        java Banc mathrapide [dossier des images d'écart] [scènes...]");
+            System.err.println("        java Banc casiers [nombres de sphères...]");
+            System.err.println("        java Banc origines [nombres de sphères...]");
+            System.err.println("        java Banc vagues [scènes...]");
+            System.err.println("        java Banc paquets [nombres de sphères...]");
+            System.err.println("        java Banc surveillance [scènes...]");
+            System.err.println("        java Banc reprojection [scènes...]");
+            System.err.println("        java Banc adaptatif [dossier des images d'écart] [scènes...]");
+            System.err.println("        java Banc anticrenelage [scènes...]");
+            System.err.println("        java Banc variantes [scènes...]");
+            System.err.println("        java Banc arbre [nombres de sphères...]");
+            System.err.println("        java Banc materiaux [nombre de sphères] [nombre de matériaux]");
+            System.err.println("        java Banc maillage [nombres de triangles...]");
+            System.err.println("        java Banc ombres [rayon des lampes] [scènes...]");
+            System.err.println("        java Banc cartes [scènes...]");
+            System.err.println("        java Banc affichage [largeur] [hauteur] [scènes...]");
+            System.err.println("        java Banc vues [nombre de vues] [rayon des lampes] [scènes...]");
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,257 @@
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Cette classe garde, pendant le calcul de plusieurs vues d'une même scène (voir
+ * RenduVues), les ombres des lampes déjà calculées autour des points des
+ * surfaces : la fraction visible d'une lampe, ponctuelle ou étendue, ne dépend
+ * pas de la vue, et des vues proches (paire stéréo, planche de vues voisines)
+ * voient les mêmes points.
+ * L'espace est découpé en cellules cubiques dont le côté est compris entre la
+ * moitié et la totalité de la taille d'un pixel à la distance du point, arrondie à
+ * une puissance de 2 pour qu'un point soit dans la même cellule pour toutes les
+ * vues. Une vue reprend l'ombre calculée par une autre vue dans la même cellule
+ * du même objet (et du même triangle), jamais la sienne : une seule vue donne
+ * exactement l'image habituelle, et plusieurs vues ne diffèrent d'un calcul
+ * séparé qu'aux bords des ombres, d'au plus une cellule.
+ * Le terme diffus n'est pas gardé : une fois la direction de la lampe calculée
+ * (elle sert aussi au terme spéculaire), il ne coûte qu'un produit scalaire.
+ * La table est petite et de taille fixe : chaque cellule a une case choisie par
+ * hachage, qu'une autre cellule peut reprendre. Cela suffit parce que RenduVues
+ * calcule à la suite la même tuile de toutes les vues.
+ * Seules les 64 premières lampes de la scène sont gardées.
+ */
+public class CacheOmbres
+{
+    /**
+     * ombres d'une cellule calculées par une vue : bit k de connues si l'ombre de
+     * la lampe numéro k est connue, et sa fraction visible dans visibilites[k]
+     */
+    private static class Entree
+    {
+        final Objet objet;
+        final int face, niveau, ix, iy, iz;
+        final int vue;
+        final long connues;
+        final float[] visibilites;
+
+        Entree(final Cellule cellule, long connues, final float[] visibilites)
+        {
+            this.objet = cellule.objet;
+            this.face = cellule.face;
+            this.niveau = cellule.niveau;
+            this.ix = cellule.ix;
+            this.iy = cellule.iy;
+            this.iz = cellule.iz;
+            this.vue = cellule.vue;
+            this.connues = connues;
+            this.visibilites = visibilites;
+        }
+
+        boolean Meme(final Cellule cellule)
+        {
+            return objet == cellule.objet && face == cellule.face && niveau == cellule.niveau
+                && ix == cellule.ix && iy == cellule.iy && iz == cellule.iz;
+        }
+    }
+
+
+    /**
+     * cellule du point de contact d'un rayon, pendant son éclairage par Objet.Phong :
+     * ombres reprises d'une autre vue et ombres calculées, rangées par Ranger
+     */
+    public final class Cellule
+    {
+        private final Objet objet;
+        private final int face, niveau, ix, iy, iz;
+        private final int vue;
+        private final int cle;
+
+        // entrée de la table pour cette cellule au début de l'éclairage, null si aucune
+        private final Entree entree;
+
+        // ombres calculées pendant l'éclairage, créées au premier calcul
+        private long connues = 0;
+        private float[] visibilites = null;
+
+        // nombres d'ombres reprises et calculées, ajoutés aux totaux par Ranger
+        private int nombreReprises = 0, nombreCalculees = 0;
+
+        // dernière lampe demandée à Visibilite et son numéro, pour Noter
+        private Lampe derniere = null;
+        private Integer numero = null;
+
+        private Cellule(final Rayon incident, int vue)
+        {
+            Point c = incident.contact;
+            float dx = c.x - ox, dy = c.y - oy, dz = c.z - oz;
+            float taille = (float) Math.sqrt(dx*dx + dy*dy + dz*dz) * angle;
+            this.objet = incident.getObjet();
+            this.face = incident.getFace();
+            this.niveau = Math.getExponent(Math.max(taille, Float.MIN_NORMAL));
+            this.ix = (int) Math.floor(Math.scalb(c.x, -niveau));
+            this.iy = (int) Math.floor(Math.scalb(c.y, -niveau));
+            this.iz = (int) Math.floor(Math.scalb(c.z, -niveau));
+            this.vue = vue;
+            int h = System.identityHashCode(objet);
+            h = h * 31 + face;
+            h = h * 31 + niveau;
+            h = h * 73856093 ^ ix * 19349663 ^ iy * 83492791 ^ iz * 50331653;
+            this.cle = (h ^ (h >>> 16)) & (table.length - 1);
+            Entree e = table[cle];
+            this.entree = (e != null && e.Meme(this)) ? e : null;
+        }
+
+        /**
+         * fraction visible de la lampe calculée par une autre vue dans cette cellule
+         * @param lampe
+         * @return de 0 (lampe cachée) à 1 (lampe entièrement visible), -1 si elle est inconnue
+         */
+        public float Visibilite(final Lampe lampe)
+        {
+            Integer k = numeros.get(lampe);
+            derniere = lampe;
+            numero = k;
+            if (entree == null || entree.vue == vue) return -1.0f;
+            if (k == null || (entree.connues >>> k & 1L) == 0) return -1.0f;
+            nombreReprises++;
+            return entree.visibilites[k];
+        }
+
+        /**
+         * note la fraction visible de la lampe calculée par cette vue
+         * @param lampe
+         * @param visibilite
+         */
+        public void Noter(final Lampe lampe, float visibilite)
+        {
+            nombreCalculees++;
+            Integer k = (lampe == derniere) ? numero : numeros.get(lampe);
+            if (k == null) return;
+            if (visibilites == null) visibilites = new float[numeros.size()];
+            connues |= 1L << k;
+            visibilites[k] = visibilite;
+        }
+
+        /**
+         * range dans la table les ombres calculées : dans une nouvelle entrée si la
+         * case appartient à une autre cellule, en complétant l'entrée si elle vient
+         * de cette vue ; celle d'une autre vue est laissée telle quelle
+         */
+        public void Ranger()
+        {
+            if (nombreReprises > 0) reprises.add(nombreReprises);
+            if (nombreCalculees > 0) calculees.add(nombreCalculees);
+            if (connues == 0) return;
+            if (entree == null) {
+                table[cle] = new Entree(this, connues, visibilites);
+            } else if (entree.vue == vue && (connues & ~entree.connues) != 0) {
+                for (int k = 0; k < visibilites.length; k++) {
+                    if ((connues >>> k & 1L) == 0 && (entree.connues >>> k & 1L) != 0) visibilites[k] = entree.visibilites[k];
+                }
+                table[cle] = new Entree(this, entree.connues | connues, visibilites);
+            }
+        }
+    }
+
+
+    // cases de la table, partagées par toutes les vues (une entrée n'est jamais modifiée, seulement remplacée)
+    private final Entree[] table;
+
+    // numéros des lampes de la scène
+    private final Map<Lampe, Integer> numeros;
+
+    // point de référence commun aux vues et taille angulaire d'un pixel, pour la taille des cellules
+    private final float ox, oy, oz;
+    private final float angle;
+
+    // numéro de la vue qui emploie cet objet, voir Vue
+    private final int vue;
+
+    // nombre d'ombres reprises d'une autre vue et d'ombres calculées
+    private final LongAdder reprises;
+    private final LongAdder calculees;
+
+
+    /**
+     * constructeur
+     * @param scene
+     * @param reference point commun aux vues, par exemple le milieu des yeux
+     * @param angle taille angulaire d'un pixel, en radians
+     * @param taille nombre de cases de la table, arrondi à une puissance de 2
+     */
+    public CacheOmbres(final Scene scene, final Point reference, float angle, int taille)
+    {
+        this.table = new Entree[Integer.highestOneBit(Math.max(2, taille))];
+        this.numeros = new IdentityHashMap<>();
+        List<Lampe> lampes = scene.getLampes();
+        for (int k = 0; k < Math.min(64, lampes.size()); k++) numeros.put(lampes.get(k), k);
+        this.ox = reference.x;
+        this.oy = reference.y;
+        this.oz = reference.z;
+        this.angle = angle;
+        this.vue = 0;
+        this.reprises = new LongAdder();
+        this.calculees = new LongAdder();
+    }
+
+
+    private CacheOmbres(final CacheOmbres commun, int vue)
+    {
+        this.table = commun.table;
+        this.numeros = commun.numeros;
+        this.ox = commun.ox;
+        this.oy = commun.oy;
+        this.oz = commun.oz;
+        this.angle = commun.angle;
+        this.vue = vue;
+        this.reprises = commun.reprises;
+        this.calculees = commun.calculees;
+    }
+
+
+    /**
+     * retourne le cache vu par la vue numéro vue : même table, mais les ombres
+     * reprises sont celles des autres vues
+     * @param vue
+     * @return
+     */
+    public CacheOmbres Vue(int vue)
+    {
+        return new CacheOmbres(this, vue);
+    }
+
+
+    /**
+     * retourne la cellule du point de contact du rayon
+     * @param incident rayon qui a rencontré un objet
+     * @return
+     */
+    public Cellule Cellule(final Rayon incident)
+    {
+        return new Cellule(incident, vue);
+    }
+
+
+    /**
+     * nombre d'ombres reprises d'une autre vue
+     * @return
+     */
+    public long getReprises()
+    {
+        return reprises.sum();
+    }
+
+
+    /**
+     * nombre d'ombres calculées par des rayons
+     * @return
+     */
+    public long getCalculees()
+    {
+        return calculees.sum();
+    }
+}
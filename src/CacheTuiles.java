@@ -0,0 +1,362 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Cette classe conserve sur disque les tuiles d'images déjà calculées.
+ * Une tuile est rangée dans un fichier dont le nom est l'empreinte (SHA-256)
+ * de tout ce qui détermine ses pixels : le contenu de la scène, la caméra,
+ * la taille de l'image, le nombre de reflets et la position de la tuile.
+ * Une scène modifiée donne donc d'autres noms : les anciennes tuiles ne
+ * sont jamais relues, elles disparaissent quand la taille maximale du
+ * dossier est dépassée, les moins récemment employées d'abord.
+ * Les fichiers sont écrits sous un nom temporaire puis renommés : un autre
+ * rendu (ou un arrêt brutal) ne peut pas voir une tuile à moitié écrite.
+ */
+public class CacheTuiles
+{
+    // à changer si le format des tuiles ou le calcul des images change
+    private static final int VERSION = 4;
+
+    private static final String EXTENSION = ".tuile";
+
+    private final Path dossier;
+
+    // taille maximale des tuiles du dossier, en octets
+    private final long tailleMax;
+
+    // taille actuelle estimée des tuiles du dossier
+    private final AtomicLong taille = new AtomicLong();
+
+    // nombre de tuiles trouvées ou non dans le cache
+    private final AtomicLong succes = new AtomicLong();
+    private final AtomicLong echecs = new AtomicLong();
+
+    // fichier de tuile examiné lors de l'éviction
+    private static class Tuile
+    {
+        final Path fichier;
+        final long date;
+        final long octets;
+
+        Tuile(final Path fichier, long date, long octets)
+        {
+            this.fichier = fichier;
+            this.date = date;
+            this.octets = octets;
+        }
+    }
+
+
+    /**
+     * constructeur : le dossier est créé s'il n'existe pas
+     * @param dossier
+     * @param tailleMax taille maximale des tuiles du dossier en octets
+     * @throws IOException
+     */
+    public CacheTuiles(final Path dossier, long tailleMax) throws IOException
+    {
+        this.dossier = dossier;
+        this.tailleMax = tailleMax;
+        Files.createDirectories(dossier);
+        long total = 0;
+        for (Path fichier : Tuiles()) {
+            try {
+                total += Files.size(fichier);
+            } catch (NoSuchFileException e) {
+                // supprimée entre temps par un autre rendu
+            }
+        }
+        taille.set(total);
+    }
+
+
+    /**
+     * calcule l'empreinte de tout ce qui détermine l'image : contenu de la scène,
+     * modes de calcul approchés, caméra, taille de l'image et nombre de reflets
+     * @param scene
+     * @param camera
+     * @param maxReflets
+     * @return
+     */
+    public static byte[] Empreinte(final Scene scene, final Camera camera, int maxReflets)
+    {
+        Flot donnees = new Flot();
+        donnees.putInt(VERSION);
+        for (Sphere sphere : scene.getObjets()) {
+            Ajouter(donnees, sphere.getCentre());
+            donnees.putFloat(sphere.getRayon());
+            Ajouter(donnees, sphere.getKd());
+            Ajouter(donnees, sphere.getKs());
+            donnees.putFloat(sphere.getNs());
+        }
+        donnees.putInt(-1);
+        for (Maillage maillage : scene.getMaillages()) {
+            donnees.putInt(maillage.getNombreSommets());
+            for (float coordonnee : maillage.getSommets()) donnees.putFloat(coordonnee);
+            donnees.putInt(maillage.getNombreFaces());
+            for (int sommet : maillage.getFaces()) donnees.putInt(sommet);
+            Ajouter(donnees, maillage.getKd());
+            Ajouter(donnees, maillage.getKs());
+            donnees.putFloat(maillage.getNs());
+        }
+        donnees.putInt(-1);
+        for (Lampe lampe : scene.getLampes()) {
+            Ajouter(donnees, lampe.getPosition());
+            Ajouter(donnees, lampe.getCouleur());
+            donnees.putFloat(lampe.getRayon());
+        }
+        donnees.putInt(-1);
+        // seuls les modes approchés changent les pixels, les accélérations exactes n'en font pas partie
+        donnees.put((byte) (scene.isSelectionLampes() ? 1 : 0));
+        donnees.put((byte) (MathRapide.actif ? 1 : 0));
+        donnees.put((byte) (OmbreDouce.analytique ? 1 : 0));
+        donnees.putInt(OmbreDouce.echantillons);
+        Ajouter(donnees, camera.getOeil());
+        Ajouter(donnees, camera.getAvant());
+        Ajouter(donnees, camera.getHaut());
+        donnees.putFloat(Constantes.DISTECRAN);
+        donnees.putFloat(Constantes.CHAMP);
+        donnees.putInt(camera.getLargeur());
+        donnees.putInt(camera.getHauteur());
+        donnees.putInt(maxReflets);
+        return donnees.Empreinte();
+    }
+
+
+    private static void Ajouter(Flot donnees, final Tuple t)
+    {
+        donnees.putFloat(t.x).putFloat(t.y).putFloat(t.z);
+    }
+
+
+    private static void Ajouter(Flot donnees, final Couleur c)
+    {
+        donnees.putFloat(c.r).putFloat(c.v).putFloat(c.b);
+    }
+
+
+    /**
+     * données de l'empreinte, passées au SHA-256 par un petit tampon réemployé :
+     * même une très grande scène n'est jamais recopiée entière en mémoire
+     */
+    private static class Flot
+    {
+        private final MessageDigest sha = SHA256();
+        private final ByteBuffer tampon = ByteBuffer.allocate(4096);
+
+        Flot putInt(int valeur)
+        {
+            Reserver(4);
+            tampon.putInt(valeur);
+            return this;
+        }
+
+        Flot putFloat(float valeur)
+        {
+            Reserver(4);
+            tampon.putFloat(valeur);
+            return this;
+        }
+
+        Flot put(byte valeur)
+        {
+            Reserver(1);
+            tampon.put(valeur);
+            return this;
+        }
+
+        byte[] Empreinte()
+        {
+            Vider();
+            return sha.digest();
+        }
+
+        private void Reserver(int octets)
+        {
+            if (tampon.remaining() < octets) Vider();
+        }
+
+        private void Vider()
+        {
+            sha.update(tampon.array(), 0, tampon.position());
+            tampon.clear();
+        }
+    }
+
+
+    private static MessageDigest SHA256()
+    {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // toute JVM doit fournir SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+
+    /**
+     * nom du fichier de la tuile (x0,y0,l,h) de l'image d'empreinte donnée
+     */
+    private Path Fichier(final byte[] empreinte, int x0, int y0, int l, int h)
+    {
+        MessageDigest sha = SHA256();
+        sha.update(empreinte);
+        sha.update(ByteBuffer.allocate(16).putInt(x0).putInt(y0).putInt(l).putInt(h).array());
+        StringBuilder nom = new StringBuilder();
+        for (byte octet : sha.digest()) nom.append(String.format("%02x", octet));
+        return dossier.resolve(nom.append(EXTENSION).toString());
+    }
+
+
+    /**
+     * cherche la tuile dans le cache et la recopie dans codes si elle y est
+     * @param empreinte empreinte de l'image, voir Empreinte
+     * @param x0 colonne du premier pixel de la tuile
+     * @param y0 ligne du premier pixel de la tuile
+     * @param l nombre de colonnes
+     * @param h nombre de lignes
+     * @param codes tableau qui reçoit les codes couleur
+     * @param debut indice du code du pixel (x0,y0)
+     * @param pas écart entre deux lignes dans codes
+     * @return true si la tuile a été trouvée
+     */
+    public boolean Lire(final byte[] empreinte, int x0, int y0, int l, int h, int[] codes, int debut, int pas)
+    {
+        Path fichier = Fichier(empreinte, x0, y0, l, h);
+        try (DataInputStream entree = new DataInputStream(new BufferedInputStream(Files.newInputStream(fichier)))) {
+            if (entree.readInt() != l || entree.readInt() != h) throw new IOException("tuile incohérente "+fichier);
+            for (int dy = 0; dy < h; dy++) {
+                for (int dx = 0; dx < l; dx++) codes[debut + dy * pas + dx] = entree.readInt();
+            }
+        } catch (IOException e) {
+            // absente, supprimée entre temps ou illisible : elle sera recalculée
+            echecs.incrementAndGet();
+            return false;
+        }
+        // la date de modification sert de date de dernier emploi pour l'éviction
+        try {
+            Files.setLastModifiedTime(fichier, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // sans importance, la tuile sera seulement évincée plus tôt
+        }
+        succes.incrementAndGet();
+        return true;
+    }
+
+
+    /**
+     * range la tuile dans le cache, puis évince les plus anciennes si la taille
+     * maximale est dépassée
+     * @param empreinte empreinte de l'image, voir Empreinte
+     * @param x0
+     * @param y0
+     * @param l
+     * @param h
+     * @param codes
+     * @param debut
+     * @param pas
+     * @throws IOException
+     */
+    public void Ecrire(final byte[] empreinte, int x0, int y0, int l, int h, final int[] codes, int debut, int pas) throws IOException
+    {
+        Path fichier = Fichier(empreinte, x0, y0, l, h);
+        Path temporaire = Files.createTempFile(dossier, "tuile", ".tmp");
+        try {
+            try (DataOutputStream sortie = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaire)))) {
+                sortie.writeInt(l);
+                sortie.writeInt(h);
+                for (int dy = 0; dy < h; dy++) {
+                    for (int dx = 0; dx < l; dx++) sortie.writeInt(codes[debut + dy * pas + dx]);
+                }
+            }
+            try {
+                Files.move(temporaire, fichier, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporaire, fichier, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporaire);
+        }
+        if (taille.addAndGet(8 + 4L * l * h) > tailleMax) Evincer();
+    }
+
+
+    /**
+     * supprime les tuiles les moins récemment employées jusqu'à revenir
+     * aux trois quarts de la taille maximale
+     * @throws IOException
+     */
+    private synchronized void Evincer() throws IOException
+    {
+        // un autre thread a pu évincer pendant l'attente
+        if (taille.get() <= tailleMax) return;
+
+        List<Tuile> tuiles = new ArrayList<>();
+        long total = 0;
+        for (Path fichier : Tuiles()) {
+            try {
+                Tuile tuile = new Tuile(fichier, Files.getLastModifiedTime(fichier).toMillis(), Files.size(fichier));
+                tuiles.add(tuile);
+                total += tuile.octets;
+            } catch (NoSuchFileException e) {
+                // supprimée entre temps par un autre rendu
+            }
+        }
+        tuiles.sort((a, b) -> Long.compare(a.date, b.date));
+        for (Tuile tuile : tuiles) {
+            if (total <= tailleMax / 4 * 3) break;
+            Files.deleteIfExists(tuile.fichier);
+            total -= tuile.octets;
+        }
+        taille.set(total);
+    }
+
+
+    /**
+     * liste des fichiers de tuiles du dossier
+     */
+    private List<Path> Tuiles() throws IOException
+    {
+        List<Path> tuiles = new ArrayList<>();
+        try (DirectoryStream<Path> contenu = Files.newDirectoryStream(dossier, "*" + EXTENSION)) {
+            for (Path fichier : contenu) tuiles.add(fichier);
+        }
+        return tuiles;
+    }
+
+
+    /**
+     * nombre de tuiles trouvées dans le cache
+     */
+    public long getSucces()
+    {
+        return succes.get();
+    }
+
+
+    /**
+     * nombre de tuiles absentes du cache
+     */
+    public long getEchecs()
+    {
+        return echecs.get();
+    }
+}
@@ -0,0 +1,415 @@
+/**
+ * Cette classe représente la caméra : la position et l'orientation de l'oeil
+ * et la correspondance entre les pixels de l'image et le plan de l'écran,
+ * placé à DISTECRAN devant l'oeil. La caméra par défaut est en (0,0,-DISTECRAN)
+ * et regarde vers les z croissants : l'écran est alors le plan z=0.
+ */
+public class Camera
+{
+    /// position de l'oeil
+    protected Point Oeil;
+
+    /// repère de la caméra : axes unitaires de l'écran vers la droite et vers le haut, et direction visée
+    protected Vecteur droite;
+    protected Vecteur haut;
+    protected Vecteur avant;
+
+    /// centre de l'écran
+    protected Point centre;
+
+    /// dimensions de l'image en pixels
+    protected int largeur;
+    protected int hauteur;
+
+    /// facteur d'agrandissement qui dépend de la taille de l'image
+    protected float echelle;
+
+    /// rangement des sphères par tuile pour les rayons primaires, construit à la demande
+    private boolean casierEcran = Constantes.CASIER_ECRAN;
+    private volatile CasierEcran casier = null;
+
+    /// termes d'intersection précalculés pour les rayons partant de l'oeil, calculés à la demande
+    private volatile OrigineCommune origine = null;
+
+    /// côté des paquets de rayons primaires, voir TracerBloc
+    private int taillePaquet = Constantes.TAILLE_PAQUET;
+
+    /// réglages donnés aux rayons de cette caméra : cartes d'ombres (aperçus) et ombres
+    /// partagées avec les autres vues calculées en même temps, voir ContexteRayons
+    private ContexteRayons contexte = ContexteRayons.DEFAUT;
+
+
+    /**
+     * constructeur : caméra par défaut, placée en (0,0,-DISTECRAN)
+     * @param largeur
+     * @param hauteur
+     */
+    public Camera(int largeur, int hauteur)
+    {
+        this(new Point(0, 0, -Constantes.DISTECRAN), largeur, hauteur);
+    }
+
+
+    /**
+     * constructeur
+     * @param Oeil
+     * @param largeur
+     * @param hauteur
+     */
+    public Camera(final Point Oeil, int largeur, int hauteur)
+    {
+        this(Oeil, new Vecteur(0, 0, 1), new Vecteur(0, 1, 0), largeur, hauteur);
+    }
+
+
+    /**
+     * constructeur : caméra orientée
+     * @param Oeil
+     * @param avant direction visée
+     * @param vertical direction qui doit apparaître verticale sur l'image (non parallèle à avant)
+     * @param largeur
+     * @param hauteur
+     */
+    public Camera(final Point Oeil, final Vecteur avant, final Vecteur vertical, int largeur, int hauteur)
+    {
+        this.Oeil = Oeil;
+        this.avant = new Vecteur(avant.x, avant.y, avant.z);
+        this.avant.normaliser();
+        // droite = vertical ^ avant, haut = avant ^ droite (exacts pour la caméra par défaut)
+        this.droite = new Vecteur(vertical.y*this.avant.z - vertical.z*this.avant.y,
+                                  vertical.z*this.avant.x - vertical.x*this.avant.z,
+                                  vertical.x*this.avant.y - vertical.y*this.avant.x);
+        this.droite.normaliser();
+        this.haut = new Vecteur(this.avant.y*droite.z - this.avant.z*droite.y,
+                                this.avant.z*droite.x - this.avant.x*droite.z,
+                                this.avant.x*droite.y - this.avant.y*droite.x);
+        this.centre = new Point(Oeil.x + this.avant.x*Constantes.DISTECRAN,
+                                Oeil.y + this.avant.y*Constantes.DISTECRAN,
+                                Oeil.z + this.avant.z*Constantes.DISTECRAN);
+        this.largeur = largeur;
+        this.hauteur = hauteur;
+        this.echelle = Math.max(largeur, hauteur) * Constantes.CHAMP;
+    }
+
+
+    public Point getOeil()
+    {
+        return Oeil;
+    }
+
+
+    public Vecteur getDroite()
+    {
+        return droite;
+    }
+
+
+    public Vecteur getHaut()
+    {
+        return haut;
+    }
+
+
+    public Vecteur getAvant()
+    {
+        return avant;
+    }
+
+
+    public int getLargeur()
+    {
+        return largeur;
+    }
+
+
+    public int getHauteur()
+    {
+        return hauteur;
+    }
+
+
+    public float getEchelle()
+    {
+        return echelle;
+    }
+
+
+    /**
+     * crée le rayon qui part de l'oeil et qui passe par le pixel (xe,ye) (fractionnaire)
+     * @param xe
+     * @param ye
+     * @return
+     */
+    public Rayon RayonPrimaire(float xe, float ye)
+    {
+        // créer le rayon oeil->pixel
+        Rayon rayon = new Rayon(Oeil, PointEcran(xe, ye));
+        rayon.contexte = contexte;
+        return rayon;
+    }
+
+
+    /**
+     * calcule le point de l'écran qui correspond au pixel (xe,ye) (fractionnaire)
+     * @param xe
+     * @param ye
+     * @return
+     */
+    public Point PointEcran(float xe, float ye)
+    {
+        // Coordonnées du pixel dans le repère de l'écran
+        float x = (xe - largeur*0.5f) /echelle;
+        float y = (hauteur*0.5f - ye) /echelle;
+
+        // puis dans le repère 3D
+        return new Point(centre.x + droite.x*x + haut.x*y,
+                         centre.y + droite.y*x + haut.y*y,
+                         centre.z + droite.z*x + haut.z*y);
+    }
+
+
+    /**
+     * calcule le pixel (fractionnaire) où est vu le point P, inverse de PointEcran
+     * @param P
+     * @return {xe, ye, distance de P à l'oeil selon l'axe de visée}, ou null si P
+     *         n'est pas au delà de l'écran
+     */
+    public float[] Projeter(final Point P)
+    {
+        Vecteur w = new Vecteur(Oeil, P);
+        float z = w.dot(avant);
+        if (z <= Constantes.DISTECRAN) return null;
+        float x = w.dot(droite) * Constantes.DISTECRAN / z;
+        float y = w.dot(haut) * Constantes.DISTECRAN / z;
+        return new float[] { x*echelle + largeur*0.5f, hauteur*0.5f - y*echelle, z };
+    }
+
+
+    public boolean isCasierEcran()
+    {
+        return casierEcran;
+    }
+
+
+    /**
+     * active ou désactive l'emploi des casiers par tuile pour les rayons primaires
+     * @param casierEcran
+     */
+    public void setCasierEcran(boolean casierEcran)
+    {
+        this.casierEcran = casierEcran;
+    }
+
+
+    public int getTaillePaquet()
+    {
+        return taillePaquet;
+    }
+
+
+    /**
+     * change le côté des paquets de rayons primaires employés par TracerBloc
+     * @param taillePaquet 1 pour tracer les rayons un par un
+     */
+    public void setTaillePaquet(int taillePaquet)
+    {
+        this.taillePaquet = Math.max(1, taillePaquet);
+    }
+
+
+    /**
+     * réglages donnés aux rayons primaires de cette caméra
+     * @return
+     */
+    public ContexteRayons getContexte()
+    {
+        return contexte;
+    }
+
+
+    public boolean isCartesOmbres()
+    {
+        return contexte.cartesOmbres;
+    }
+
+
+    /**
+     * active ou désactive l'emploi des cartes d'ombres des lampes au lieu des rayons d'ombre
+     * @param cartesOmbres
+     */
+    public void setCartesOmbres(boolean cartesOmbres)
+    {
+        this.contexte = contexte.avecCartesOmbres(cartesOmbres);
+    }
+
+
+    public CacheOmbres getCacheOmbres()
+    {
+        return contexte.cacheOmbres;
+    }
+
+
+    /**
+     * partage les ombres des points vus par les rayons primaires avec d'autres vues
+     * @param cacheOmbres obtenu par CacheOmbres.Vue, null pour ne rien partager
+     */
+    public void setCacheOmbres(final CacheOmbres cacheOmbres)
+    {
+        this.contexte = contexte.avecCacheOmbres(cacheOmbres);
+    }
+
+
+    /**
+     * retourne les casiers de la scène pour cette caméra, en les calculant
+     * la première fois (une seule fois par image) puis chaque fois que des
+     * sphères ont été ajoutées ou déplacées
+     * @param scene
+     * @return
+     */
+    public CasierEcran getCasier(final Scene scene)
+    {
+        CasierEcran casier = this.casier;
+        if (casier != null && casier.Valide(scene)) return casier;
+        synchronized (this) {
+            if (this.casier == null || ! this.casier.Valide(scene)) {
+                this.casier = new CasierEcran(scene, this, Constantes.TAILLE_TUILE);
+            }
+            return this.casier;
+        }
+    }
+
+
+    /**
+     * retourne les termes d'intersection précalculés pour les rayons partant
+     * de l'oeil, en les calculant la première fois (une seule fois par image)
+     * puis chaque fois que des sphères ont été ajoutées ou déplacées
+     * @param scene
+     * @return null si le précalcul n'est pas actif pour cette scène
+     */
+    public OrigineCommune getOrigine(final Scene scene)
+    {
+        if (! scene.isPrecalculOrigines()) return null;
+        OrigineCommune origine = this.origine;
+        if (origine != null && origine.Valide(scene)) return origine;
+        synchronized (this) {
+            if (this.origine == null || ! this.origine.Valide(scene)) {
+                this.origine = new OrigineCommune(scene, Oeil);
+            }
+            return this.origine;
+        }
+    }
+
+
+    /**
+     * cherche l'objet le plus proche rencontré par le rayon primaire du pixel (xe,ye)
+     * en ne testant que les sphères du casier de la tuile qui contient ce pixel
+     * @param scene
+     * @param initial rayon construit par RayonPrimaire(xe, ye)
+     * @param xe
+     * @param ye
+     * @return true s'il y a un contact
+     */
+    public boolean ChercherIntersectionPrimaire(final Scene scene, Rayon initial, float xe, float ye)
+    {
+        OrigineCommune origine = getOrigine(scene);
+        if (! casierEcran) return scene.ChercherIntersection(initial, null, origine);
+        CasierEcran casier = getCasier(scene);
+        int numero = casier.Casier(xe, ye);
+        return scene.ChercherIntersection(initial, null, casier.getIndices(), casier.getDebut(numero), casier.getFin(numero), origine);
+    }
+
+
+    /**
+     * calcule la couleur du pixel (xe,ye) (fractionnaire)
+     * avec un nombre maximal de reflets possibles
+     * @param scene
+     * @param xe
+     * @param ye
+     * @param maxReflets
+     * @return
+     */
+    public Couleur CouleurPixel(final Scene scene, float xe, float ye, int maxReflets)
+    {
+        return CouleurPixel(scene, xe, ye, maxReflets, null);
+    }
+
+
+    /**
+     * calcule la couleur du pixel (xe,ye) en enregistrant tous les rayons lancés
+     * @param scene
+     * @param xe
+     * @param ye
+     * @param maxReflets
+     * @param suivi reçoit les rayons lancés, null si aucun
+     * @return
+     */
+    public Couleur CouleurPixel(final Scene scene, float xe, float ye, int maxReflets, SuiviTuile suivi)
+    {
+        Rayon initial = RayonPrimaire(xe, ye);
+        if (suivi != null) initial.contexte = contexte.avecSuivi(suivi);
+
+        // chercher quel objet de la scène le rencontre au plus près
+        boolean contact = ChercherIntersectionPrimaire(scene, initial, xe, ye);
+        if (suivi != null) suivi.Rayon(maxReflets, initial);
+        if (contact) {
+            // il y a un objet
+            return initial.getObjet().Phong(scene, initial, maxReflets);
+        } else {
+            // c'est le ciel
+            return initial.Ciel();
+        }
+    }
+
+
+    /**
+     * calcule les codes couleur (gamma corrigés) de la ligne ye
+     * @param scene
+     * @param ye
+     * @param maxReflets
+     * @param codes tableau qui reçoit les largeur codes
+     * @param debut indice du premier code dans le tableau
+     */
+    public void TracerLigne(final Scene scene, int ye, int maxReflets, int[] codes, int debut)
+    {
+        for (int xe = 0; xe < largeur; xe++) {
+            Couleur couleur = CouleurPixel(scene, xe, ye, maxReflets);
+            codes[debut + xe] = couleur.correctionGamma(0.8f).getCode();
+        }
+    }
+
+
+    /**
+     * calcule les codes couleur (gamma corrigés) d'un rectangle de pixels,
+     * par paquets de rayons de taillePaquet de côté alignés sur l'image
+     * @param scene
+     * @param x0 colonne du premier pixel
+     * @param y0 ligne du premier pixel
+     * @param l nombre de colonnes
+     * @param h nombre de lignes
+     * @param maxReflets
+     * @param codes tableau qui reçoit les codes
+     * @param debut indice du code du pixel (x0,y0)
+     * @param pas écart entre deux lignes dans codes
+     */
+    public void TracerBloc(final Scene scene, int x0, int y0, int l, int h, int maxReflets, int[] codes, int debut, int pas)
+    {
+        if (taillePaquet <= 1) {
+            for (int dy = 0; dy < h; dy++) {
+                for (int dx = 0; dx < l; dx++) {
+                    Couleur couleur = CouleurPixel(scene, x0 + dx, y0 + dy, maxReflets);
+                    codes[debut + dy * pas + dx] = couleur.correctionGamma(0.8f).getCode();
+                }
+            }
+            return;
+        }
+        final int k = taillePaquet;
+        for (int py = y0; py < y0 + h; py = (py / k + 1) * k) {
+            int ph = Math.min((py / k + 1) * k, y0 + h) - py;
+            for (int px = x0; px < x0 + l; px = (px / k + 1) * k) {
+                int pl = Math.min((px / k + 1) * k, x0 + l) - px;
+                PaquetRayons paquet = new PaquetRayons(scene, this, px, py, pl, ph);
+                paquet.Tracer(maxReflets, codes, debut + (py - y0) * pas + (px - x0), pas);
+            }
+        }
+    }
+}
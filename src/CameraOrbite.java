@@ -0,0 +1,140 @@
+/**
+ * Cette classe représente une caméra que l'utilisateur déplace : elle tourne
+ * autour d'un point pivot (orbite), se déplace parallèlement à l'écran
+ * (panoramique) et s'approche ou s'éloigne du pivot (zoom).
+ * Au départ, c'est la caméra par défaut, en (0,0,-DISTECRAN) regardant vers
+ * les z croissants, et le pivot est devant elle au milieu de la scène.
+ * Les méthodes sont synchronisées car l'interface modifie la caméra pendant
+ * que le calcul de l'image la lit.
+ */
+public class CameraOrbite
+{
+    // limite de l'élévation pour ne jamais regarder exactement à la verticale
+    private static final float ELEVATION_MAX = (float) (Math.PI/2 - 0.01);
+
+    // distance minimale de l'oeil au pivot
+    private static final float DISTANCE_MIN = 0.1f;
+
+    // position initiale du pivot
+    private final Point pivotInitial;
+
+    private Point Oeil;
+    private Point pivot;
+
+    // direction visée : angle autour de l'axe y (0 = vers les z croissants) et au dessus de l'horizontale
+    private float azimut;
+    private float elevation;
+
+    // numéro de la position, augmenté à chaque déplacement
+    private long version = 0;
+
+
+    /**
+     * constructeur : caméra par défaut, pivot au centre des sphères de la scène
+     * projeté sur l'axe de visée
+     * @param scene
+     */
+    public CameraOrbite(final Scene scene)
+    {
+        float z = 0;
+        for (Sphere sphere : scene.getObjets()) z += sphere.getCentre().z;
+        if (! scene.getObjets().isEmpty()) z /= scene.getObjets().size();
+        pivotInitial = new Point(0, 0, Math.max(z, 0.0f));
+        Initialiser();
+    }
+
+
+    /**
+     * remet la caméra dans sa position de départ
+     */
+    public synchronized void Initialiser()
+    {
+        Oeil = new Point(0, 0, -Constantes.DISTECRAN);
+        pivot = pivotInitial;
+        azimut = 0;
+        elevation = 0;
+        version++;
+    }
+
+
+    /**
+     * direction visée, unitaire
+     */
+    private Vecteur Avant()
+    {
+        return new Vecteur(Math.sin(azimut) * Math.cos(elevation), Math.sin(elevation), Math.cos(azimut) * Math.cos(elevation));
+    }
+
+
+    private float Distance()
+    {
+        return Math.max(DISTANCE_MIN, new Vecteur(Oeil, pivot).norme());
+    }
+
+
+    /**
+     * fait tourner l'oeil autour du pivot, en continuant à le regarder
+     * @param dAzimut angle horizontal en radians
+     * @param dElevation angle vertical en radians
+     */
+    public synchronized void Tourner(float dAzimut, float dElevation)
+    {
+        float distance = Distance();
+        azimut += dAzimut;
+        elevation = Math.max(-ELEVATION_MAX, Math.min(ELEVATION_MAX, elevation + dElevation));
+        Vecteur avant = Avant();
+        Oeil = new Point(pivot.x - avant.x*distance, pivot.y - avant.y*distance, pivot.z - avant.z*distance);
+        version++;
+    }
+
+
+    /**
+     * déplace l'oeil et le pivot parallèlement à l'écran
+     * @param dx déplacement vers la droite, en proportion de la distance au pivot
+     * @param dy déplacement vers le haut, en proportion de la distance au pivot
+     */
+    public synchronized void Deplacer(float dx, float dy)
+    {
+        Camera camera = getCamera(1, 1);
+        float distance = Distance();
+        Vecteur d = camera.getDroite().mul(dx * distance).add(camera.getHaut().mul(dy * distance));
+        Oeil = new Point(Oeil.x + d.x, Oeil.y + d.y, Oeil.z + d.z);
+        pivot = new Point(pivot.x + d.x, pivot.y + d.y, pivot.z + d.z);
+        version++;
+    }
+
+
+    /**
+     * rapproche (facteur < 1) ou éloigne (facteur > 1) l'oeil du pivot
+     * @param facteur
+     */
+    public synchronized void Zoomer(float facteur)
+    {
+        float distance = Math.max(DISTANCE_MIN, Distance() * facteur);
+        Vecteur avant = Avant();
+        Oeil = new Point(pivot.x - avant.x*distance, pivot.y - avant.y*distance, pivot.z - avant.z*distance);
+        version++;
+    }
+
+
+    /**
+     * numéro de la position actuelle, pour savoir si la caméra a bougé
+     * @return
+     */
+    public synchronized long getVersion()
+    {
+        return version;
+    }
+
+
+    /**
+     * crée la caméra pour une image de cette taille
+     * @param largeur
+     * @param hauteur
+     * @return
+     */
+    public synchronized Camera getCamera(int largeur, int hauteur)
+    {
+        return new Camera(Oeil, Avant(), new Vecteur(0, 1, 0), largeur, hauteur);
+    }
+}
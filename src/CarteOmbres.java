@@ -0,0 +1,154 @@
+import java.util.stream.IntStream;
+
+
+/**
+ * Cette classe représente la carte d'ombres d'une lampe, pour les aperçus : pour
+ * chaque direction partant de la lampe, la distance du premier objet rencontré.
+ * Les directions sont celles des texels des six faces d'un cube centré sur la
+ * lampe (resolution x resolution texels par face) ; un rayon est lancé une fois
+ * par texel à la construction. Un point est alors éclairé si sa distance à la
+ * lampe ne dépasse pas celle de la carte dans sa direction : l'ombre ne coûte plus
+ * de rayon, mais ses bords sont approchés à la taille d'un texel près.
+ * La carte reste valable tant que la lampe et les objets ne bougent pas (voir
+ * Scene.Deplacement et Scene.getCarteOmbres).
+ */
+public class CarteOmbres
+{
+    // position de la lampe à la construction
+    private final float lx, ly, lz;
+
+    // version de la scène à la construction, voir Scene.getVersion
+    private final int version;
+
+    // nombre de texels par côté de chaque face
+    private final int resolution;
+
+    // distance du premier objet rencontré pour chaque texel, face par face, ligne par ligne
+    private final float[] distances;
+
+
+    /**
+     * constructeur : lance un rayon depuis la lampe par texel
+     * @param scene
+     * @param lampe
+     * @param resolution nombre de texels par côté de chaque face du cube
+     */
+    public CarteOmbres(final Scene scene, final Lampe lampe, int resolution)
+    {
+        final Point position = lampe.getPosition();
+        this.lx = position.x;
+        this.ly = position.y;
+        this.lz = position.z;
+        this.version = scene.getVersion();
+        this.resolution = resolution;
+        this.distances = new float[6 * resolution * resolution];
+        final OrigineCommune origine = scene.getOrigine(lampe);
+        IntStream.range(0, 6 * resolution).parallel().forEach(ligne -> {
+            int face = ligne / resolution;
+            float t = 2.0f * (ligne % resolution + 0.5f) / resolution - 1.0f;
+            for (int i = 0; i < resolution; i++) {
+                float s = 2.0f * (i + 0.5f) / resolution - 1.0f;
+                Rayon rayon = new Rayon(position, Direction(face, s, t));
+                scene.ChercherIntersection(rayon, null, origine);
+                distances[ligne * resolution + i] = rayon.getDistance();
+            }
+        });
+    }
+
+
+    /**
+     * direction de la face (+x, -x, +y, -y, +z, -z) de coordonnées s et t (de -1 à 1)
+     */
+    private static Vecteur Direction(int face, float s, float t)
+    {
+        float signe = (face & 1) == 0 ? 1.0f : -1.0f;
+        switch (face >> 1) {
+        case 0:  return new Vecteur(signe, s, t);
+        case 1:  return new Vecteur(s, signe, t);
+        default: return new Vecteur(s, t, signe);
+        }
+    }
+
+
+    /**
+     * indique si la carte correspond encore à la lampe et à la scène
+     * @param lampe
+     * @param version version actuelle de la scène
+     * @return
+     */
+    public boolean Valide(final Lampe lampe, int version)
+    {
+        Point position = lampe.getPosition();
+        return version == this.version && position.x == lx && position.y == ly && position.z == lz;
+    }
+
+
+    /**
+     * calcule la fraction éclairée du point : comparaison de sa distance avec celles
+     * des quatre texels les plus proches de sa direction, pondérées selon sa position
+     * entre leurs centres. La tolérance tient compte de l'inclinaison de la surface :
+     * à la taille d'un texel, la distance d'une surface rasante varie beaucoup.
+     * @param contact point à éclairer
+     * @param nl cosinus entre la normale du point et la direction de la lampe
+     * @param objet objet auquel appartient le point, qui borne la tolérance
+     * @return de 0 (ombre) à 1 (éclairé)
+     */
+    public float Visibilite(final Point contact, float nl, final Objet objet)
+    {
+        float x = contact.x - lx, y = contact.y - ly, z = contact.z - lz;
+        float ax = Math.abs(x), ay = Math.abs(y), az = Math.abs(z);
+        int face;
+        float s, t, m;
+        if (ax >= ay && ax >= az) {
+            face = x >= 0 ? 0 : 1; m = ax; s = y; t = z;
+        } else if (ay >= az) {
+            face = y >= 0 ? 2 : 3; m = ay; s = x; t = z;
+        } else {
+            face = z >= 0 ? 4 : 5; m = az; s = x; t = y;
+        }
+        if (m == 0.0f) return 1.0f;
+        float distance = (float) Math.sqrt(x*x + y*y + z*z);
+
+        // tolérance : variation de distance sur un texel et demi pour cette inclinaison,
+        // au plus le rayon pour une sphère : vu de la lampe, un point éclairé d'une sphère
+        // est à moins d'un rayon derrière tout autre point de la même sphère, et une
+        // tolérance plus grande laisserait passer la lumière à travers les vrais obstacles
+        float c = Math.max(0.05f, Math.abs(nl));
+        float tolerance = distance * (3.0f / resolution) * ((float) Math.sqrt(1.0f - c*c) / c + 0.05f);
+        if (objet instanceof Sphere) tolerance = Math.min(tolerance, ((Sphere) objet).getRayon());
+
+        // position dans la face, en texels, et les quatre texels voisins
+        float fs = (s / m + 1.0f) * 0.5f * resolution - 0.5f;
+        float ft = (t / m + 1.0f) * 0.5f * resolution - 0.5f;
+        int i0 = Math.max(0, Math.min(resolution - 1, (int) Math.floor(fs)));
+        int j0 = Math.max(0, Math.min(resolution - 1, (int) Math.floor(ft)));
+        int i1 = Math.min(resolution - 1, i0 + 1);
+        int j1 = Math.min(resolution - 1, j0 + 1);
+        float ps = Math.max(0.0f, Math.min(1.0f, fs - i0));
+        float pt = Math.max(0.0f, Math.min(1.0f, ft - j0));
+
+        int base = face * resolution * resolution;
+        float limite = distance - tolerance;
+        float v00 = distances[base + j0 * resolution + i0] >= limite ? 1.0f : 0.0f;
+        float v10 = distances[base + j0 * resolution + i1] >= limite ? 1.0f : 0.0f;
+        float v01 = distances[base + j1 * resolution + i0] >= limite ? 1.0f : 0.0f;
+        float v11 = distances[base + j1 * resolution + i1] >= limite ? 1.0f : 0.0f;
+        return (v00 * (1 - ps) + v10 * ps) * (1 - pt) + (v01 * (1 - ps) + v11 * ps) * pt;
+    }
+
+
+    public int getResolution()
+    {
+        return resolution;
+    }
+
+
+    /**
+     * mémoire occupée par les distances, en octets
+     * @return
+     */
+    public long getTaille()
+    {
+        return 4L * distances.length;
+    }
+}
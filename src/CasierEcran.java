@@ -0,0 +1,214 @@
+/**
+ * Cette classe range les sphères de la scène dans des casiers, un par tuile
+ * carrée de l'écran : une sphère est mise dans le casier de chaque tuile
+ * que sa projection peut recouvrir. Un rayon primaire qui passe par un
+ * pixel de la tuile n'a besoin d'être testé qu'avec les sphères du casier.
+ * Les casiers sont rangés à la suite dans un seul tableau d'indices.
+ */
+public class CasierEcran
+{
+    // scène dont les sphères sont rangées
+    private final Scene scene;
+
+    // version de la scène à la construction, voir Scene.getVersion
+    private final int version;
+
+    // taille des tuiles en pixels
+    private final int taille;
+
+    // nombre de tuiles en largeur et en hauteur
+    private final int nx;
+    private final int ny;
+
+    // les indices des sphères du casier t sont dans indices[debuts[t] .. debuts[t+1]-1]
+    private final int[] debuts;
+    private final int[] indices;
+
+
+    /**
+     * constructeur : projette chaque sphère de la scène sur l'écran de la caméra
+     * @param scene
+     * @param camera
+     * @param taille des tuiles en pixels
+     */
+    public CasierEcran(final Scene scene, final Camera camera, int taille)
+    {
+        this.scene = scene;
+        this.version = scene.getVersion();
+        this.taille = taille;
+        this.nx = (camera.getLargeur() + taille - 1) / taille;
+        this.ny = (camera.getHauteur() + taille - 1) / taille;
+
+        // rectangle de tuiles couvert par chaque sphère : tx0, tx1, ty0, ty1
+        int nombre = scene.getObjets().size();
+        int[] rectangles = new int[4 * nombre];
+        int[] compte = new int[nx * ny + 1];
+        for (int i = 0; i < nombre; i++) {
+            if (! Projeter(scene.getObjets().get(i), camera, rectangles, 4*i)) continue;
+            for (int ty = rectangles[4*i+2]; ty <= rectangles[4*i+3]; ty++) {
+                for (int tx = rectangles[4*i]; tx <= rectangles[4*i+1]; tx++) {
+                    compte[ty * nx + tx + 1]++;
+                }
+            }
+        }
+
+        // débuts des casiers, puis remplissage dans l'ordre des sphères
+        debuts = new int[nx * ny + 1];
+        for (int t = 0; t < nx * ny; t++) debuts[t+1] = debuts[t] + compte[t+1];
+        indices = new int[debuts[nx * ny]];
+        int[] remplissage = new int[nx * ny];
+        for (int i = 0; i < nombre; i++) {
+            if (rectangles[4*i] > rectangles[4*i+1]) continue;
+            for (int ty = rectangles[4*i+2]; ty <= rectangles[4*i+3]; ty++) {
+                for (int tx = rectangles[4*i]; tx <= rectangles[4*i+1]; tx++) {
+                    int t = ty * nx + tx;
+                    indices[debuts[t] + remplissage[t]++] = i;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * calcule le rectangle de tuiles que peut recouvrir la sphère, vue de l'oeil
+     * @param sphere
+     * @param camera
+     * @param rectangles reçoit tx0, tx1, ty0, ty1 (tx0 > tx1 si invisible)
+     * @param i indice de rangement dans rectangles
+     * @return false si la sphère ne peut pas être vue
+     */
+    private boolean Projeter(final Sphere sphere, final Camera camera, int[] rectangles, int i)
+    {
+        rectangles[i] = 1;
+        rectangles[i+1] = 0;
+
+        // centre dans le repère de la caméra (pour la caméra par défaut : mêmes valeurs qu'en 3D, oeil en z=-DISTECRAN)
+        Vecteur w = new Vecteur(camera.getOeil(), sphere.centre);
+        float cx = w.dot(camera.getDroite());
+        float cy = w.dot(camera.getHaut());
+        float dz = w.dot(camera.getAvant());
+
+        // plage des abscisses puis des ordonnées sur l'écran
+        float[] plageX = Plage(cx, 0.0f, dz, sphere.rayon, Constantes.DISTECRAN);
+        if (plageX == null) return false;
+        float[] plageY = Plage(cy, 0.0f, dz, sphere.rayon, Constantes.DISTECRAN);
+        if (plageY == null) return false;
+
+        // conversion en pixels avec une marge d'un pixel pour les arrondis, puis en tuiles
+        float echelle = camera.getEchelle();
+        float xe0 = plageX[0] * echelle + camera.getLargeur()*0.5f - 1.0f;
+        float xe1 = plageX[1] * echelle + camera.getLargeur()*0.5f + 1.0f;
+        float ye0 = camera.getHauteur()*0.5f - plageY[1] * echelle - 1.0f;
+        float ye1 = camera.getHauteur()*0.5f - plageY[0] * echelle + 1.0f;
+        if (xe1 < 0 || ye1 < 0 || xe0 > camera.getLargeur() || ye0 > camera.getHauteur()) return false;
+
+        rectangles[i  ] = Tuile(xe0, nx);
+        rectangles[i+1] = Tuile(xe1, nx);
+        rectangles[i+2] = Tuile(ye0, ny);
+        rectangles[i+3] = Tuile(ye1, ny);
+        return true;
+    }
+
+
+    /**
+     * calcule la plage des coordonnées (x ou y) sur l'écran des rayons partant
+     * de l'oeil qui peuvent rencontrer le disque projection de la sphère sur
+     * le plan (x,z) ou (y,z) : le rayon doit faire avec le centre du disque un
+     * angle inférieur au demi-angle sous lequel on voit le disque.
+     * @param c coordonnée x ou y du centre
+     * @param o coordonnée x ou y de l'oeil
+     * @param dz écart en z entre le centre et l'oeil
+     * @param rayon
+     * @param distecran distance de l'oeil à l'écran
+     * @return {min, max} ou null si aucun rayon ne peut rencontrer la sphère
+     */
+    private static float[] Plage(float c, float o, float dz, float rayon, float distecran)
+    {
+        final float INFINI = Constantes.INFINI;
+        double a = c - o;
+        double b = dz;
+        double distance = Math.sqrt(a*a + b*b);
+
+        // l'oeil est dans le disque : tous les rayons peuvent le rencontrer
+        if (distance <= rayon) return new float[] { -INFINI, INFINI };
+
+        double theta = Math.atan2(a, b);
+        double alpha = Math.asin(rayon / distance);
+        double min = theta - alpha;
+        double max = theta + alpha;
+
+        // les rayons vont vers les z croissants : angles dans ]-pi/2, pi/2[
+        if (min >= Math.PI/2 || max <= -Math.PI/2) return null;
+        return new float[] {
+            min <= -Math.PI/2 ? -INFINI : (float) (o + distecran * Math.tan(min)),
+            max >=  Math.PI/2 ?  INFINI : (float) (o + distecran * Math.tan(max)) };
+    }
+
+
+    /**
+     * numéro de la tuile contenant la coordonnée pixel, limité à [0, n-1]
+     */
+    private int Tuile(float pixel, int n)
+    {
+        if (pixel <= 0) return 0;
+        if (pixel >= n * (float) taille) return n-1;
+        return Math.min(n-1, (int) (pixel / taille));
+    }
+
+
+    /**
+     * numéro du casier de la tuile qui contient le pixel (xe,ye)
+     * @param xe
+     * @param ye
+     * @return
+     */
+    public int Casier(float xe, float ye)
+    {
+        return Tuile(ye, ny) * nx + Tuile(xe, nx);
+    }
+
+
+    /**
+     * indice du premier élément du casier dans getIndices()
+     */
+    public int getDebut(int casier)
+    {
+        return debuts[casier];
+    }
+
+
+    /**
+     * indice qui suit le dernier élément du casier dans getIndices()
+     */
+    public int getFin(int casier)
+    {
+        return debuts[casier+1];
+    }
+
+
+    public Scene getScene()
+    {
+        return scene;
+    }
+
+
+    /**
+     * indique si les casiers correspondent encore à la scène : aucune sphère
+     * n'a été ajoutée ni déplacée depuis leur construction
+     * @param scene
+     * @return
+     */
+    public boolean Valide(final Scene scene)
+    {
+        return scene == this.scene && scene.getVersion() == version;
+    }
+
+
+    /**
+     * tableau des indices des sphères de tous les casiers
+     */
+    public int[] getIndices()
+    {
+        return indices;
+    }
+}
@@ -21,6 +21,60 @@ public final class Constantes
     public static final int HAUTEUR_IMAGE = 600;
     public static final String NOM_IMAGE = "image.png";
 
+    // enregistrer aussi l'image en réels (PFM) pour pouvoir la redévelopper sans recalcul, voir ImageHDR
+    public static final boolean HDR = false;
+    public static final String NOM_IMAGE_HDR = "image.pfm";
+
+    // rangement des sphères par tuile d'écran pour les rayons primaires, voir CasierEcran
+    public static final boolean CASIER_ECRAN = true;
+    public static final int TAILLE_TUILE = 16;
+
+    // côté des paquets de rayons primaires traités ensemble (1 : rayons isolés), voir PaquetRayons
+    public static final int TAILLE_PAQUET = 4;
+
+    // taille maximale du dossier des tuiles déjà calculées, voir CacheTuiles
+    public static final long TAILLE_CACHE = 256L << 20;
+
+    // précalcul des termes d'intersection pour les rayons partant de l'oeil ou d'une lampe, voir OrigineCommune
+    public static final boolean PRECALCUL_ORIGINES = true;
+
+    // place maximale des termes précalculés des lampes d'une scène (16 octets par sphère et par lampe),
+    // au-delà de laquelle il faut demander le précalcul par Scene.setPrecalculOrigines(true)
+    public static final long MAX_OCTETS_ORIGINES = 64L << 20;
+
+    // hiérarchie de boîtes englobantes pour les scènes d'au moins ce nombre de sphères et de triangles, voir ArbreSpheres
+    public static final int MIN_SPHERES_ARBRE = 256;
+
+    // mode interactif (voir RenduInteractif) : temps visé pour chaque aperçu et délai
+    // sans mouvement avant de calculer l'image finale, en ms
+    public static final int BUDGET_IMAGE = 33;
+    public static final int DELAI_AFFINAGE = 300;
+
+    // intervalle minimal entre deux recopies des tuiles terminées de l'image finale à l'écran, en ms
+    public static final int INTERVALLE_AFFICHAGE = 40;
+
+    // réemploi des pixels de l'aperçu précédent pendant les mouvements, voir Reprojection
+    public static final boolean REPROJECTION = true;
+
+    // ombres des aperçus lues dans une carte par lampe au lieu de lancer des rayons,
+    // et nombre de texels par côté de chaque face de ces cartes, voir CarteOmbres ;
+    // désactivé par défaut : les bords d'ombre sont approchés à un texel près (Banc cartes)
+    public static final boolean CARTES_OMBRES = false;
+    public static final int RESOLUTION_CARTES_OMBRES = 128;
+
+    // ombres des lampes étendues (voir OmbreDouce) : nombre de rayons lancés vers la lampe
+    // quand l'ombre ne peut pas être calculée directement
+    public static final int ECHANTILLONS_OMBRE = 8;
+
     // nombre de rayons réfléchis successifs
     public static final int MAX_REFLETS = 5;
+
+    // calculs approchés rapides pour l'éclairage, voir MathRapide
+    public static final boolean MATH_RAPIDE = false;
+
+    // sélection des lampes (voir ArbreLampes), approchée et donc à demander par Scene.setSelectionLampes(true) :
+    // employée par défaut ou non, contribution négligeable (moins d'un demi niveau sur 255) et angle (sinus) d'un groupe lointain
+    public static final boolean SELECTION_LAMPES = false;
+    public static final float SEUIL_LAMPES = 0.5f/255.0f;
+    public static final float ANGLE_LAMPES = 0.1f;
 }
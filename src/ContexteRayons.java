@@ -0,0 +1,72 @@
+/**
+ * Cette classe regroupe les réglages d'un calcul qui accompagnent ses rayons
+ * jusqu'à Objet.Phong : la caméra (ou le paquet, ou la tuile suivie) en
+ * prépare un, chaque rayon n'en porte que la référence, et les rayons
+ * réfléchis reprennent celle de getReflets.
+ * Un contexte ne change pas : un autre réglage donne un autre contexte,
+ * voir les méthodes avec...
+ */
+public final class ContexteRayons
+{
+    /// rayons isolés, ombres calculées par des rayons, rien d'enregistré ni de partagé
+    public static final ContexteRayons DEFAUT = new ContexteRayons(false, null, null, null);
+
+    /// ombres lues dans les cartes d'ombres des lampes (aperçus), voir CarteOmbres
+    protected final boolean cartesOmbres;
+
+    /// enregistrement des rayons de la tuile, null si aucun, voir SuiviTuile
+    protected final SuiviTuile suivi;
+
+    /// paquet dont font partie les rayons primaires, null pour des rayons isolés, voir PaquetRayons
+    protected final PaquetRayons paquet;
+
+    /// ombres partagées avec les autres vues de la même scène, null si aucune, voir CacheOmbres
+    protected final CacheOmbres cacheOmbres;
+
+    // contexte des rayons réfléchis : paquet et ombres partagées ne valent que pour les rayons primaires
+    private final ContexteRayons reflets;
+
+
+    private ContexteRayons(boolean cartesOmbres, final SuiviTuile suivi, final PaquetRayons paquet, final CacheOmbres cacheOmbres)
+    {
+        this.cartesOmbres = cartesOmbres;
+        this.suivi = suivi;
+        this.paquet = paquet;
+        this.cacheOmbres = cacheOmbres;
+        this.reflets = (paquet == null && cacheOmbres == null) ? this : new ContexteRayons(cartesOmbres, suivi, null, null);
+    }
+
+
+    /**
+     * contexte des rayons réfléchis par un rayon de ce contexte
+     * @return
+     */
+    public ContexteRayons getReflets()
+    {
+        return reflets;
+    }
+
+
+    public ContexteRayons avecCartesOmbres(boolean cartesOmbres)
+    {
+        return new ContexteRayons(cartesOmbres, suivi, paquet, cacheOmbres);
+    }
+
+
+    public ContexteRayons avecSuivi(final SuiviTuile suivi)
+    {
+        return new ContexteRayons(cartesOmbres, suivi, paquet, cacheOmbres);
+    }
+
+
+    public ContexteRayons avecPaquet(final PaquetRayons paquet)
+    {
+        return new ContexteRayons(cartesOmbres, suivi, paquet, cacheOmbres);
+    }
+
+
+    public ContexteRayons avecCacheOmbres(final CacheOmbres cacheOmbres)
+    {
+        return new ContexteRayons(cartesOmbres, suivi, paquet, cacheOmbres);
+    }
+}
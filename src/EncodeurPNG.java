@@ -0,0 +1,159 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+
+/**
+ * Cette classe écrit un fichier PNG (RVB 8 bits) ligne par ligne, sans
+ * jamais garder l'image entière en mémoire : chaque ligne reçue est
+ * compressée aussitôt et les données compressées sont émises par blocs IDAT.
+ */
+public class EncodeurPNG
+{
+    // signature de tout fichier PNG
+    private static final byte[] SIGNATURE = { (byte) 137, 80, 78, 71, 13, 10, 26, 10 };
+
+    // taille maximale d'un bloc IDAT
+    private static final int TAILLE_BLOC = 1 << 16;
+
+    private final OutputStream sortie;
+    private final int largeur;
+    private final int hauteur;
+
+    // compression des lignes filtrées
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+
+    // ligne filtrée : 1 octet de filtre + 3 octets par pixel
+    private final byte[] ligne;
+
+    // données compressées en attente d'être émises dans un bloc IDAT
+    private final byte[] bloc = new byte[TAILLE_BLOC];
+    private int remplissage = 0;
+
+    // nombre de lignes déjà reçues
+    private int lignes = 0;
+
+
+    /**
+     * constructeur : écrit la signature et l'entête du fichier
+     * @param sortie flux qui reçoit le fichier PNG
+     * @param largeur
+     * @param hauteur
+     * @throws IOException
+     */
+    public EncodeurPNG(OutputStream sortie, int largeur, int hauteur) throws IOException
+    {
+        this.sortie = sortie;
+        this.largeur = largeur;
+        this.hauteur = hauteur;
+        this.ligne = new byte[1 + 3*largeur];
+
+        sortie.write(SIGNATURE);
+
+        // IHDR : largeur, hauteur, 8 bits, couleur RVB, compression, filtre et entrelacement standard
+        byte[] ihdr = new byte[13];
+        ecrireEntier(ihdr, 0, largeur);
+        ecrireEntier(ihdr, 4, hauteur);
+        ihdr[8] = 8;
+        ihdr[9] = 2;
+        EcrireBloc("IHDR", ihdr, ihdr.length);
+    }
+
+
+    /**
+     * ajoute une ligne à l'image
+     * @param codes codes couleur 0xRRVVBB tels que fournis par Couleur.getCode
+     * @param debut indice du premier pixel de la ligne dans codes
+     * @throws IOException
+     */
+    public void AjouterLigne(final int[] codes, int debut) throws IOException
+    {
+        if (lignes >= hauteur) throw new IOException("EncodeurPNG : trop de lignes");
+        lignes++;
+
+        // filtre "Sub" : chaque octet est remplacé par sa différence avec celui du pixel de gauche
+        ligne[0] = 1;
+        int precedent = 0;
+        for (int xe = 0; xe < largeur; xe++) {
+            int code = codes[debut + xe];
+            int i = 1 + 3*xe;
+            ligne[i  ] = (byte) ((code >> 16) - (precedent >> 16));
+            ligne[i+1] = (byte) ((code >>  8) - (precedent >>  8));
+            ligne[i+2] = (byte) ( code        -  precedent       );
+            precedent = code;
+        }
+
+        deflater.setInput(ligne);
+        while (! deflater.needsInput()) Compresser();
+    }
+
+
+    /**
+     * termine le fichier : vide le compresseur et écrit le bloc final
+     * NB : le flux de sortie n'est pas fermé
+     * @throws IOException
+     */
+    public void Terminer() throws IOException
+    {
+        if (lignes != hauteur) throw new IOException("EncodeurPNG : "+lignes+" lignes reçues sur "+hauteur);
+        deflater.finish();
+        while (! deflater.finished()) Compresser();
+        deflater.end();
+        if (remplissage > 0) EcrireBloc("IDAT", bloc, remplissage);
+        EcrireBloc("IEND", bloc, 0);
+        sortie.flush();
+    }
+
+
+    /**
+     * fait avancer la compression et émet un bloc IDAT dès qu'il est plein
+     * @throws IOException
+     */
+    private void Compresser() throws IOException
+    {
+        remplissage += deflater.deflate(bloc, remplissage, TAILLE_BLOC - remplissage);
+        if (remplissage == TAILLE_BLOC) {
+            EcrireBloc("IDAT", bloc, remplissage);
+            remplissage = 0;
+        }
+    }
+
+
+    /**
+     * écrit un bloc PNG : longueur, type, données et CRC
+     * @param type
+     * @param donnees
+     * @param longueur
+     * @throws IOException
+     */
+    private void EcrireBloc(String type, final byte[] donnees, int longueur) throws IOException
+    {
+        byte[] entete = new byte[8];
+        ecrireEntier(entete, 0, longueur);
+        System.arraycopy(type.getBytes(StandardCharsets.US_ASCII), 0, entete, 4, 4);
+
+        CRC32 crc = new CRC32();
+        crc.update(entete, 4, 4);
+        crc.update(donnees, 0, longueur);
+        byte[] fin = new byte[4];
+        ecrireEntier(fin, 0, (int) crc.getValue());
+
+        sortie.write(entete);
+        sortie.write(donnees, 0, longueur);
+        sortie.write(fin);
+    }
+
+
+    /**
+     * écrit un entier 32 bits gros-boutiste dans un tableau d'octets
+     */
+    private static void ecrireEntier(byte[] tab, int indice, int valeur)
+    {
+        tab[indice  ] = (byte) (valeur >>> 24);
+        tab[indice+1] = (byte) (valeur >>> 16);
+        tab[indice+2] = (byte) (valeur >>>  8);
+        tab[indice+3] = (byte)  valeur;
+    }
+}
@@ -0,0 +1,221 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import javax.imageio.ImageIO;
+
+
+/**
+ * Cette classe représente une image dont les couleurs sont conservées en
+ * réels, avant toute troncature ni correction gamma (High Dynamic Range).
+ * Les composantes sont rangées dans un seul tableau de float, r v b par pixel.
+ * Elle peut être enregistrée au format PFM, puis convertie rapidement en
+ * image 8 bits avec une autre exposition ou un autre gamma, sans relancer le calcul.
+ */
+public class ImageHDR
+{
+    // exposition équivalente à couleur.correctionGamma(0.8f) effectuée par Lancer
+    public static final float EXPOSITION_DEFAUT = (float) Math.pow(0.8, 0.8);
+
+    private final int largeur;
+    private final int hauteur;
+
+    // composantes r,v,b des pixels, ligne par ligne à partir du haut
+    private final float[] rvb;
+
+
+    /**
+     * constructeur : image noire
+     * @param largeur
+     * @param hauteur
+     */
+    public ImageHDR(int largeur, int hauteur)
+    {
+        this.largeur = largeur;
+        this.hauteur = hauteur;
+        this.rvb = new float[3 * largeur * hauteur];
+    }
+
+
+    public int getLargeur()
+    {
+        return largeur;
+    }
+
+
+    public int getHauteur()
+    {
+        return hauteur;
+    }
+
+
+    /**
+     * affecte la couleur du pixel (xe,ye), sans aucune correction
+     * @param xe
+     * @param ye
+     * @param couleur
+     */
+    public void setPixel(int xe, int ye, final Couleur couleur)
+    {
+        if (xe < 0 || ye < 0 || xe >= largeur || ye >= hauteur) return;
+        int i = 3 * (ye * largeur + xe);
+        rvb[i  ] = couleur.r;
+        rvb[i+1] = couleur.v;
+        rvb[i+2] = couleur.b;
+    }
+
+
+    /**
+     * retourne la couleur du pixel (xe,ye)
+     * @param xe
+     * @param ye
+     * @return
+     */
+    public Couleur getPixel(int xe, int ye)
+    {
+        int i = 3 * (ye * largeur + xe);
+        return new Couleur(rvb[i], rvb[i+1], rvb[i+2]);
+    }
+
+
+    /**
+     * convertit l'image en 8 bits : chaque composante est multipliée par
+     * l'exposition, tronquée à [0,1] puis élevée à la puissance 1/gamma
+     * NB : avec EXPOSITION_DEFAUT et gamma=1, le résultat est identique à celui de Lancer
+     * @param exposition
+     * @param gamma
+     * @return
+     */
+    public BufferedImage Developper(float exposition, float gamma)
+    {
+        BufferedImage image = new BufferedImage(largeur, hauteur, BufferedImage.TYPE_INT_RGB);
+        int[] codes = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+        // table de conversion pour la courbe gamma, inutile si gamma vaut 1
+        final int TAILLE = 4096;
+        int[] table = null;
+        if (gamma != 1.0f) {
+            table = new int[TAILLE+1];
+            for (int i = 0; i <= TAILLE; i++) {
+                table[i] = (int) (Math.pow(i / (double) TAILLE, 1.0 / gamma) * 255.0 + 0.5);
+            }
+        }
+
+        for (int p = 0, i = 0; p < codes.length; p++, i += 3) {
+            int r = composante(rvb[i  ] * exposition, table, TAILLE);
+            int v = composante(rvb[i+1] * exposition, table, TAILLE);
+            int b = composante(rvb[i+2] * exposition, table, TAILLE);
+            codes[p] = (r << 16) | (v << 8) | b;
+        }
+        return image;
+    }
+
+
+    /**
+     * convertit une composante réelle en octet, comme le fait java.awt.Color
+     */
+    private static int composante(float val, final int[] table, int taille)
+    {
+        if (val < 0.0f) val = 0.0f;
+        if (val > 1.0f) val = 1.0f;
+        if (table == null) return (int) (val * 255 + 0.5);
+        return table[(int) (val * taille + 0.5f)];
+    }
+
+
+    /**
+     * enregistre l'image au format PFM (Portable Float Map, couleur, petit-boutiste)
+     * @param fichier
+     * @throws IOException
+     */
+    public void EcrirePFM(File fichier) throws IOException
+    {
+        try (OutputStream sortie = new BufferedOutputStream(new FileOutputStream(fichier))) {
+            sortie.write(("PF\n"+largeur+" "+hauteur+"\n-1.0\n").getBytes(StandardCharsets.US_ASCII));
+
+            // les lignes d'un PFM sont rangées de bas en haut
+            ByteBuffer ligne = ByteBuffer.allocate(12 * largeur).order(ByteOrder.LITTLE_ENDIAN);
+            for (int ye = hauteur-1; ye >= 0; ye--) {
+                ligne.clear();
+                ligne.asFloatBuffer().put(rvb, 3 * ye * largeur, 3 * largeur);
+                sortie.write(ligne.array());
+            }
+        }
+    }
+
+
+    /**
+     * charge une image au format PFM couleur
+     * @param fichier
+     * @return
+     * @throws IOException
+     */
+    public static ImageHDR LirePFM(File fichier) throws IOException
+    {
+        try (DataInputStream entree = new DataInputStream(new BufferedInputStream(new FileInputStream(fichier)))) {
+            if (! "PF".equals(lireMot(entree))) throw new IOException(fichier+" : ce n'est pas un fichier PFM couleur");
+            int largeur = Integer.parseInt(lireMot(entree));
+            int hauteur = Integer.parseInt(lireMot(entree));
+            float echelle = Float.parseFloat(lireMot(entree));
+            ByteOrder ordre = echelle < 0 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+
+            ImageHDR image = new ImageHDR(largeur, hauteur);
+            byte[] octets = new byte[12 * largeur];
+            for (int ye = hauteur-1; ye >= 0; ye--) {
+                entree.readFully(octets);
+                ByteBuffer.wrap(octets).order(ordre).asFloatBuffer().get(image.rvb, 3 * ye * largeur, 3 * largeur);
+            }
+            return image;
+        }
+    }
+
+
+    /**
+     * lit un mot de l'entête d'un fichier PFM, le séparateur qui le suit est consommé
+     */
+    private static String lireMot(DataInputStream entree) throws IOException
+    {
+        StringBuilder mot = new StringBuilder();
+        int c = entree.read();
+        while (c == ' ' || c == '\n' || c == '\r' || c == '\t') c = entree.read();
+        while (c >= 0 && c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+            mot.append((char) c);
+            c = entree.read();
+        }
+        return mot.toString();
+    }
+
+
+    /**
+     * développe une image PFM en PNG sans refaire le calcul
+     * usage : java ImageHDR image.pfm image.png [exposition] [gamma]
+     * @param args
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length < 2) {
+            System.err.println("usage : java ImageHDR image.pfm image.png [exposition] [gamma]");
+            System.exit(1);
+        }
+        float exposition = args.length > 2 ? Float.parseFloat(args[2]) : EXPOSITION_DEFAUT;
+        float gamma = args.length > 3 ? Float.parseFloat(args[3]) : 1.0f;
+
+        ImageHDR hdr = LirePFM(new File(args[0]));
+        long startTime = System.nanoTime();
+        BufferedImage image = hdr.Developper(exposition, gamma);
+        long temps = (System.nanoTime() - startTime) / 1000000L;
+        ImageIO.write(image, "png", new File(args[1]));
+        System.out.println("Développement: "+temps+" ms");
+    }
+}
@@ -4,6 +4,15 @@ public class Lampe
 
     protected Point position = new Point(0, 0, 0);
     protected Couleur couleur = new Couleur(1, 1, 1);
+    // rayon de la boule lumineuse, 0 pour une lampe ponctuelle (ombres nettes), voir OmbreDouce
+    protected float rayon = 0.0f;
+
+    public Lampe() {
+    }
+    public Lampe(Point position, Couleur couleur) {
+        this.position = position;
+        this.couleur = couleur;
+    }
 
     public final Point getPosition() {
         return position;
@@ -17,5 +26,11 @@ public class Lampe
     public final void setCouleur(Couleur couleur) {
         this.couleur = couleur;
     }
+    public final float getRayon() {
+        return rayon;
+    }
+    public final void setRayon(float rayon) {
+        this.rayon = rayon;
+    }
 
 }
@@ -1,8 +1,16 @@
+import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.event.ComponentEvent;
 import java.awt.event.ComponentListener;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
 import java.awt.image.BufferedImage;
@@ -13,12 +21,19 @@ import javax.imageio.ImageIO;
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.ProgressMonitor;
+import javax.swing.SwingUtilities;
 import javax.swing.SwingWorker;
+import javax.swing.Timer;
 
 
 /**
  * C'est la classe principale du logiciel : elle crée la fenêtre
- * et lance le calcul
+ * et lance le calcul.
+ * La caméra se déplace à la souris (bouton gauche : tourner autour de la scène,
+ * bouton droit : déplacer, molette : zoomer) ou au clavier (flèches : tourner,
+ * majuscule + flèches : déplacer, +/- ou page haut/bas : zoomer, début : revenir
+ * au départ). Pendant le mouvement, des aperçus rapides sont affichés (voir
+ * RenduInteractif), puis l'image finale est calculée dès que la caméra s'arrête.
  */
 public class Lancer extends JPanel implements ComponentListener
 {
@@ -26,41 +41,47 @@ public class Lancer extends JPanel implements ComponentListener
 
 
     // caméra
-    private Point Oeil = new Point(0,0,-Constantes.DISTECRAN);
+    private Camera camera;
+
+    // position de la caméra choisie par l'utilisateur
+    private final CameraOrbite vue;
+
+    // calcul des aperçus pendant les mouvements de la caméra
+    private final RenduInteractif interactif;
+
+    // dernier aperçu, affiché à la place du canvas tant que la caméra bouge
+    private volatile BufferedImage apercu = null;
+    private volatile boolean enMouvement = false;
+
+    // informations affichées sur l'image : qualité de l'aperçu ou de l'image finale
+    private volatile String infos = null;
+    private long dernierApercu = 0;
+    private float intervalleMoyen = 0;
+
+    // calcul de l'image finale lancé quand la caméra ne bouge plus
+    private final Timer affinage;
+
+    // calcul de l'image finale en cours, et recopie régulière de ses tuiles terminées dans le canvas
+    private volatile RenduTuiles rendu = null;
+    private final Timer affichage;
+
+    // position de la souris lors du dernier déplacement
+    private int sourisX, sourisY;
 
     // scène à dessiner dans le canvas
     private Scene scene;
 
-    // dimensions et échelle du dessin
+    // dimensions du dessin
     private int largeur;
     private int hauteur;
-    private float echelle;
 
     // le canvas évite de tout redessiner quand une autre fenêtre masque temporairement celle-ci
     private BufferedImage canvas;
-    private ProgressMonitor progressMonitor;
-
-
-
-    /**
-     * dessin d'un pixel en couleur
-     * NB: le pixel est dessiné hors écran, dans le canvas
-     * @param couleur
-     * @param xe
-     * @param ye
-     */
-    public void drawPixel(final Couleur couleur, int xe, int ye)
-    {
-        // clipping : ignorer les points hors plage
-        if (xe < 0 || ye < 0) return;
-        if (xe >= largeur || ye >= hauteur) return;
 
-        // définir la couleur du pixel en limitant les composantes à 0..1 (sinon ça fait planter)
-        int code_color = couleur.getCode();
+    // image en réels, avant correction gamma, si Constantes.HDR
+    private ImageHDR hdr;
+    private ProgressMonitor progressMonitor;
 
-        // dessiner le pixel
-        canvas.setRGB(xe,  ye, code_color);
-    }
 
 
     /**
@@ -73,24 +94,7 @@ public class Lancer extends JPanel implements ComponentListener
      */
     private Couleur CouleurPixel(float xe, float ye, int maxReflets)
     {
-        /// créer un rayon qui part de l'oeil et qui passe par le pixel
-
-        // Coordonnée du pixel dans le repère 3D
-        float x = (xe - largeur*0.5f) /echelle;
-        float y = (hauteur*0.5f - ye) /echelle;
-
-        // créer le rayon oeil->pixel
-        Point pixel = new Point(x, y, 0.0f);
-        Rayon initial = new Rayon(Oeil, pixel);
-
-        // chercher quel objet de la scène le rencontre au plus près
-        if (scene.ChercherIntersection(initial, null)) {
-            // il y a un objet
-            return initial.getObjet().Phong(scene, initial, Constantes.MAX_REFLETS);
-        } else {
-            // c'est le ciel
-            return initial.Ciel();
-        }
+        return camera.CouleurPixel(scene, xe, ye, maxReflets);
     }
 
 
@@ -106,62 +110,54 @@ public class Lancer extends JPanel implements ComponentListener
         this.largeur = largeur;
         this.hauteur = hauteur;
 
-        // facteur d'agrandissement qui dépend de la taille de la vue
-        echelle = Math.max(largeur, hauteur) * Constantes.CHAMP;
+        // caméra adaptée à la taille de la vue
+        camera = vue.getCamera(largeur, hauteur);
+
+        hdr = Constantes.HDR ? new ImageHDR(largeur, hauteur) : null;
+        final RenduTuiles rendu = new RenduTuiles(scene, camera, Constantes.MAX_REFLETS, hdr);
+        this.rendu = rendu;
 
         // brouillon rapide (ce dessin est fait en une fraction de secondes)
         final int N = 4;
+        int[] brouillon = new int[largeur * hauteur];
         for (int ye = 0; ye < hauteur; ye+=N) {
             for (int xe = 0; xe < largeur; xe+=N) {
                 // couleur du pixel au centre du carré N*N
                 Couleur couleur = CouleurPixel(xe+N*0.5f, ye+N*0.5f, 1);
 
                 // correction gamma
-                couleur = couleur.correctionGamma(0.8f);
+                int code = couleur.correctionGamma(0.8f).getCode();
 
-                // dessiner les pixels du carré NxN
-                for (int dy=0; dy<N; dy++) {
-                    for (int dx=0; dx<N; dx++) {
-                        drawPixel(couleur, xe+dx,ye+dy);
+                // remplir les pixels du carré NxN
+                for (int dy=0; dy<N && ye+dy<hauteur; dy++) {
+                    for (int dx=0; dx<N && xe+dx<largeur; dx++) {
+                        brouillon[(ye+dy)*largeur + xe+dx] = code;
                     }
                 }
             }
         }
-        // afficher le brouillon
-        repaint();
+        // afficher le brouillon à la place de l'aperçu ; l'aperçu est abandonné avant la
+        // publication, sinon le timer peut recopier le brouillon sans le redessiner
+        if (! task.isCancelled()) apercu = null;
+        infos = null;
+        rendu.Publier(0, 0, largeur, hauteur, brouillon);
 
-        // avancement du dessin lent
-        progressMonitor.setMaximum(hauteur);
+        // passer en revue tous les pixels de l'écran, par tuiles affichées au fur et à mesure
         long startTime = System.nanoTime();
-
-        // passer en revue tous les pixels de l'écran
-        for (int ye = 0; ye < hauteur; ye++) {
-            // avancement ou arrêt
-            if (task.progress(ye)) break;
-            // passer en revue tous les pixels de la ligne
-            for (int xe = 0; xe < largeur; xe++) {
-                // couleur du pixel
-                Couleur couleur = CouleurPixel(xe, ye, Constantes.MAX_REFLETS);
-
-                // correction gamma
-                couleur = couleur.correctionGamma(0.8f);
-
-                // dessiner le pixel de cette couleur
-                drawPixel(couleur, xe,ye);
-            }
-        }
+        int[] codes = rendu.Tracer(task::isCancelled);
 
         if (! task.isCancelled()) {
             long temps = (System.nanoTime() - startTime) / 1000000L;
             System.out.println("Temps: "+temps+" ms soit "+(largeur*hauteur*1000/temps)+" pixels par seconde");
-
-            // afficher l'image (forcer au cas où la fenêtre soit masquée)
-            repaint();
+            infos = "image finale "+largeur+"x"+hauteur+", "+Constantes.MAX_REFLETS+" reflets, "+temps+" ms";
 
             // enregistrement de l'image dans un fichier
             try {
+                BufferedImage image = new BufferedImage(largeur, hauteur, BufferedImage.TYPE_INT_RGB);
+                image.setRGB(0, 0, largeur, hauteur, codes, 0, largeur);
                 File outputfile = new File(Constantes.NOM_IMAGE);
-                ImageIO.write(canvas, "png", outputfile);
+                ImageIO.write(image, "png", outputfile);
+                if (hdr != null) hdr.EcrirePFM(new File(Constantes.NOM_IMAGE_HDR));
             } catch (IOException e) {
                 e.printStackTrace();
             }
@@ -244,33 +240,14 @@ public class Lancer extends JPanel implements ComponentListener
             return null;
         }
 
-        /**
-         * met à jour la jauge d'avancement et regarde si un arrêt a été demandé
-         * @param ye ligne en cours de traitement
-         * @return true s'il faut interrompre le dessin, false s'il faut continuer
-         */
-        public boolean progress(int ye)
-        {
-            // on s'en soucie seulement 1 ligne sur 8
-            if (ye % 8 > 0) return false;
-
-            // si la tâche a été annulée, quitter
-            if (isCancelled()) return true;
-
-            // jauge d'avancement
-            progressMonitor.setProgress(ye);
-            if (progressMonitor.isCanceled() || isDone()) {
-                // annuler la tâche
-                cancel(true);
-                return true;
-            }
-            if (ye % 16 == 0) repaint();
-            return false;
-        }
-
         @Override
         public void done()
         {
+            // dernières tuiles, puis arrêt de l'affichage si aucun autre dessin n'a commencé
+            if (task == this) {
+                AfficherTuiles();
+                affichage.stop();
+            }
             progressMonitor.close();
             repaint();
         }
@@ -284,6 +261,144 @@ public class Lancer extends JPanel implements ComponentListener
         if (task != null) task.cancel(true);
         task = new TaskTracerImage();
         task.execute();
+        affichage.restart();
+    }
+
+
+    /**
+     * recopie dans le canvas les tuiles terminées depuis le dernier appel et redessine
+     * seulement le rectangle qui les englobe ; appelé par le timer d'affichage, au plus
+     * toutes les Constantes.INTERVALLE_AFFICHAGE ms, quel que soit le nombre de tuiles
+     */
+    private void AfficherTuiles()
+    {
+        RenduTuiles rendu = this.rendu;
+        if (rendu == null) return;
+        // tuiles d'un dessin d'une autre taille que le canvas : abandonnées
+        if (rendu.getCamera().getLargeur() != canvas.getWidth() || rendu.getCamera().getHauteur() != canvas.getHeight()) return;
+        Rectangle zone = rendu.Afficher(canvas);
+        if (zone != null && apercu == null) repaint(zone);
+
+        // jauge d'avancement, et arrêt demandé par l'utilisateur
+        progressMonitor.setMaximum(rendu.getNombreTuiles());
+        progressMonitor.setProgress(rendu.getTerminees());
+        if (progressMonitor.isCanceled() && task != null) task.cancel(true);
+    }
+
+
+    /**
+     * la caméra vient de bouger : arrêter le calcul de l'image finale,
+     * demander un aperçu et reporter l'affinage
+     */
+    private void Bouger()
+    {
+        enMouvement = true;
+        if (task != null) task.cancel(true);
+        interactif.Demander(getWidth(), getHeight());
+        affinage.restart();
+    }
+
+
+    /**
+     * reçoit un aperçu du thread de calcul des aperçus
+     * @param image
+     * @param millisecondes
+     * @param reflets
+     * @param calcules nombre de pixels dont l'éclairage a été calculé
+     */
+    private void AfficherApercu(final BufferedImage image, long millisecondes, int reflets, int calcules)
+    {
+        SwingUtilities.invokeLater(() -> {
+            // aperçu arrivé après le début de l'affinage : inutile
+            if (! enMouvement) return;
+            long maintenant = System.nanoTime();
+            float intervalle = (dernierApercu == 0) ? millisecondes : Math.min(1000, (maintenant - dernierApercu) / 1e6f);
+            intervalleMoyen = (intervalleMoyen == 0) ? intervalle : 0.8f * intervalleMoyen + 0.2f * intervalle;
+            dernierApercu = maintenant;
+            apercu = image;
+            int pixels = image.getWidth() * image.getHeight();
+            infos = String.format("aperçu %dx%d, %d reflets, %d pixels calculés (%d%%), %d ms, %.1f images/s",
+                    image.getWidth(), image.getHeight(), reflets, calcules, 100 * calcules / pixels,
+                    millisecondes, 1000 / Math.max(1, intervalleMoyen));
+            repaint();
+        });
+    }
+
+
+    /**
+     * gestion du clavier
+     */
+    private void Touche(final KeyEvent e)
+    {
+        final float ANGLE = 0.05f;
+        final float PAS = 0.02f;
+        boolean majuscule = e.isShiftDown();
+        switch (e.getKeyCode()) {
+        case KeyEvent.VK_LEFT:
+            if (majuscule) vue.Deplacer(-PAS, 0); else vue.Tourner(ANGLE, 0);
+            break;
+        case KeyEvent.VK_RIGHT:
+            if (majuscule) vue.Deplacer(PAS, 0); else vue.Tourner(-ANGLE, 0);
+            break;
+        case KeyEvent.VK_UP:
+            if (majuscule) vue.Deplacer(0, PAS); else vue.Tourner(0, ANGLE);
+            break;
+        case KeyEvent.VK_DOWN:
+            if (majuscule) vue.Deplacer(0, -PAS); else vue.Tourner(0, -ANGLE);
+            break;
+        case KeyEvent.VK_PLUS: case KeyEvent.VK_ADD: case KeyEvent.VK_PAGE_UP: case KeyEvent.VK_EQUALS:
+            vue.Zoomer(0.9f);
+            break;
+        case KeyEvent.VK_MINUS: case KeyEvent.VK_SUBTRACT: case KeyEvent.VK_PAGE_DOWN:
+            vue.Zoomer(1.1f);
+            break;
+        case KeyEvent.VK_HOME:
+            vue.Initialiser();
+            break;
+        default:
+            return;
+        }
+        Bouger();
+    }
+
+
+    /**
+     * gestion de la souris : glissement avec le bouton gauche pour tourner,
+     * avec un autre bouton pour déplacer, molette pour zoomer
+     */
+    private class Souris extends MouseAdapter
+    {
+        @Override
+        public void mousePressed(MouseEvent e)
+        {
+            requestFocusInWindow();
+            sourisX = e.getX();
+            sourisY = e.getY();
+        }
+
+        @Override
+        public void mouseDragged(MouseEvent e)
+        {
+            int dx = e.getX() - sourisX;
+            int dy = e.getY() - sourisY;
+            sourisX = e.getX();
+            sourisY = e.getY();
+            if (SwingUtilities.isLeftMouseButton(e)) {
+                vue.Tourner(-dx * 0.005f, dy * 0.005f);
+            } else {
+                // l'image suit la souris : déplacement relatif à la taille de la vue
+                float echelle = Math.max(getWidth(), getHeight()) * Constantes.CHAMP * Constantes.DISTECRAN;
+                vue.Deplacer(-dx / echelle, dy / echelle);
+            }
+            Bouger();
+        }
+
+        @Override
+        public void mouseWheelMoved(MouseWheelEvent e)
+        {
+            vue.Zoomer((float) Math.pow(1.1, e.getPreciseWheelRotation()));
+            Bouger();
+        }
     }
 
 
@@ -338,6 +453,31 @@ public class Lancer extends JPanel implements ComponentListener
         this.scene = scene;
         canvas = new BufferedImage(width,  height, BufferedImage.TYPE_INT_RGB);
         addComponentListener(this);
+
+        // caméra mobile
+        vue = new CameraOrbite(scene);
+        interactif = new RenduInteractif(scene, vue, this::AfficherApercu);
+        affinage = new Timer(Constantes.DELAI_AFFINAGE, e -> {
+            enMouvement = false;
+            dernierApercu = 0;
+            intervalleMoyen = 0;
+            startTracerImage();
+        });
+        affinage.setRepeats(false);
+        affichage = new Timer(Constantes.INTERVALLE_AFFICHAGE, e -> AfficherTuiles());
+        setFocusable(true);
+        addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e)
+            {
+                Touche(e);
+            }
+        });
+        Souris souris = new Souris();
+        addMouseListener(souris);
+        addMouseMotionListener(souris);
+        addMouseWheelListener(souris);
+
         progressMonitor = new ProgressMonitor(this, "Dessin en cours", "", 0, Constantes.HAUTEUR_IMAGE);
     }
 
@@ -353,9 +493,25 @@ public class Lancer extends JPanel implements ComponentListener
     public void paintComponent(Graphics g)
     {
         super.paintComponent(g);
-        // recopier le canvas sur l'écran
+        // recopier le canvas sur l'écran, ou bien l'aperçu agrandi
         Graphics2D g2 = (Graphics2D) g;
-        g2.drawImage(canvas, null, null);
+        BufferedImage apercu = this.apercu;
+        if (apercu != null) {
+            g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+            g2.drawImage(apercu, 0, 0, getWidth(), getHeight(), null);
+        } else {
+            g2.drawImage(canvas, null, null);
+        }
+
+        // qualité de l'image affichée
+        String infos = this.infos;
+        if (infos != null) {
+            int largeurTexte = g2.getFontMetrics().stringWidth(infos);
+            g2.setColor(new Color(0, 0, 0, 160));
+            g2.fillRect(4, 4, largeurTexte + 8, g2.getFontMetrics().getHeight() + 4);
+            g2.setColor(Color.WHITE);
+            g2.drawString(infos, 8, 6 + g2.getFontMetrics().getAscent());
+        }
     }
 
 
@@ -0,0 +1,244 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+
+
+/**
+ * Cette classe représente un ensemble de triangles à dessiner, d'un même matériau.
+ * Les sommets sont rangés une seule fois dans un tableau de float (x, y, z à la
+ * suite) et chaque triangle est désigné par les numéros de ses trois sommets :
+ * un maillage de millions de triangles n'a pas d'objet par triangle.
+ * Les triangles sont vus des deux côtés et éclairés selon leur normale (facettes).
+ */
+public class Maillage extends Objet
+{
+    // x, y, z de chaque sommet
+    private final float[] sommets;
+
+    // numéros des trois sommets de chaque triangle
+    private final int[] faces;
+
+    // fichier OBJ d'où le maillage a été chargé, null s'il a été construit autrement
+    private String fichier = null;
+
+
+    /**
+     * constructeur
+     * @param sommets x, y, z de chaque sommet
+     * @param faces numéros des trois sommets de chaque triangle
+     */
+    public Maillage(final float[] sommets, final int[] faces)
+    {
+        this.sommets = sommets;
+        this.faces = faces;
+    }
+
+
+    /**
+     * charge un fichier OBJ : seuls les sommets (v) et les faces (f) sont lus, les
+     * faces de plus de trois sommets sont découpées en éventail
+     * @param nom du fichier
+     * @return
+     * @throws IOException
+     */
+    public static Maillage Charger(String nom) throws IOException
+    {
+        float[] sommets = new float[3 * 1024];
+        int[] faces = new int[3 * 1024];
+        int nombreSommets = 0, nombreFaces = 0;
+        BufferedReader br = new BufferedReader(new FileReader(nom));
+        try {
+            int numero = 0;
+            String line = br.readLine();
+            while (line != null) {
+                numero++;
+                String[] mots = line.trim().split("\\s+");
+                switch (mots[0]) {
+
+                case "v":
+                    // v <x> <y> <z> [w]
+                    if (3 * nombreSommets + 3 > sommets.length) sommets = Arrays.copyOf(sommets, 2 * sommets.length);
+                    for (int a = 0; a < 3; a++) sommets[3 * nombreSommets + a] = Float.parseFloat(mots[1 + a]);
+                    nombreSommets++;
+                    break;
+
+                case "f":
+                    // f <v1>[/vt1][/vn1] <v2>... ; les numéros négatifs comptent depuis le dernier sommet lu
+                    int[] numeros = new int[mots.length - 1];
+                    for (int k = 1; k < mots.length; k++) {
+                        int slash = mots[k].indexOf('/');
+                        int n = Integer.parseInt(slash < 0 ? mots[k] : mots[k].substring(0, slash));
+                        n = (n < 0) ? nombreSommets + n : n - 1;
+                        if (n < 0 || n >= nombreSommets) throw new IOException(nom+", ligne "+numero+" : sommet "+mots[k]+" inconnu");
+                        numeros[k-1] = n;
+                    }
+                    for (int k = 1; k + 1 < numeros.length; k++) {
+                        if (3 * nombreFaces + 3 > faces.length) faces = Arrays.copyOf(faces, 2 * faces.length);
+                        faces[3 * nombreFaces    ] = numeros[0];
+                        faces[3 * nombreFaces + 1] = numeros[k];
+                        faces[3 * nombreFaces + 2] = numeros[k+1];
+                        nombreFaces++;
+                    }
+                    break;
+                }
+                line = br.readLine();
+            }
+        } finally {
+            br.close();
+        }
+        Maillage maillage = new Maillage(Arrays.copyOf(sommets, 3 * nombreSommets), Arrays.copyOf(faces, 3 * nombreFaces));
+        maillage.fichier = nom;
+        return maillage;
+    }
+
+
+    /**
+     * calcule la distance du point d'intersection entre le triangle f et le rayon
+     * (méthode de Möller et Trumbore : coordonnées barycentriques du contact
+     * calculées directement à partir des sommets, sans le plan du triangle)
+     * @param incident
+     * @param f numéro du triangle
+     * @return Constantes.INFINI si pas d'intersection correcte
+     */
+    public float Intersection(final Rayon incident, int f)
+    {
+        int a = 3 * faces[3*f], b = 3 * faces[3*f+1], c = 3 * faces[3*f+2];
+        float ax = sommets[a], ay = sommets[a+1], az = sommets[a+2];
+        // côtés AB et AC
+        float e1x = sommets[b] - ax, e1y = sommets[b+1] - ay, e1z = sommets[b+2] - az;
+        float e2x = sommets[c] - ax, e2y = sommets[c+1] - ay, e2z = sommets[c+2] - az;
+        final Vecteur V = incident.V;
+        // p = V ^ AC
+        float px = V.y * e2z - V.z * e2y, py = V.z * e2x - V.x * e2z, pz = V.x * e2y - V.y * e2x;
+        float det = e1x * px + e1y * py + e1z * pz;
+        // rayon parallèle au triangle
+        if (det == 0.0f) return Constantes.INFINI;
+        float inv = 1.0f / det;
+        float tx = incident.P.x - ax, ty = incident.P.y - ay, tz = incident.P.z - az;
+        float u = (tx * px + ty * py + tz * pz) * inv;
+        if (u < 0.0f || u > 1.0f) return Constantes.INFINI;
+        // q = AP ^ AB
+        float qx = ty * e1z - tz * e1y, qy = tz * e1x - tx * e1z, qz = tx * e1y - ty * e1x;
+        float v = (V.x * qx + V.y * qy + V.z * qz) * inv;
+        if (v < 0.0f || u + v > 1.0f) return Constantes.INFINI;
+        float t = (e2x * qx + e2y * qy + e2z * qz) * inv;
+        return (t > 0.0f) ? t : Constantes.INFINI;
+    }
+
+
+    /**
+     * cherche parmi tous les triangles un contact plus proche que celui du rayon,
+     * et l'affecte au rayon s'il y en a un
+     * @param incident
+     * @param sauflui si c'est this, le triangle incident.depart est ignoré
+     */
+    public void Chercher(final Rayon incident, final Objet sauflui)
+    {
+        int sauf = (sauflui == this) ? incident.depart : -1;
+        for (int f = 0; f < faces.length / 3; f++) {
+            if (f == sauf) continue;
+            float distance = Intersection(incident, f);
+            if (distance < incident.getDistance()) {
+                incident.setDistanceFace(distance, this, f);
+            }
+        }
+    }
+
+
+    /**
+     * calcule la normale unitaire du triangle rencontré par le rayon, tournée vers l'origine du rayon
+     * @param incident
+     * @return
+     */
+    @Override
+    public Vecteur Normale(final Rayon incident)
+    {
+        int f = incident.getFace();
+        int a = 3 * faces[3*f], b = 3 * faces[3*f+1], c = 3 * faces[3*f+2];
+        float e1x = sommets[b] - sommets[a], e1y = sommets[b+1] - sommets[a+1], e1z = sommets[b+2] - sommets[a+2];
+        float e2x = sommets[c] - sommets[a], e2y = sommets[c+1] - sommets[a+1], e2z = sommets[c+2] - sommets[a+2];
+        // produit vectoriel AB ^ AC
+        Vecteur n = new Vecteur(e1y * e2z - e1z * e2y, e1z * e2x - e1x * e2z, e1x * e2y - e1y * e2x);
+        n.normaliser();
+        return (n.dot(incident.V) > 0.0f) ? n.neg() : n;
+    }
+
+
+    /**
+     * range dans boites, à partir du triangle numéro premier, le centre et les
+     * demi-côtés de la boîte englobante de chaque triangle (voir ArbreSpheres)
+     * @param boites
+     * @param premier
+     */
+    public void Boites(float[] boites, int premier)
+    {
+        for (int f = 0; f < faces.length / 3; f++) {
+            int i = 6 * (premier + f);
+            for (int a = 0; a < 3; a++) {
+                float p = sommets[3*faces[3*f]+a], q = sommets[3*faces[3*f+1]+a], r = sommets[3*faces[3*f+2]+a];
+                float min = Math.min(p, Math.min(q, r)), max = Math.max(p, Math.max(q, r));
+                boites[i+a] = (min + max) * 0.5f;
+                boites[i+a+3] = (max - min) * 0.5f;
+            }
+        }
+    }
+
+
+    /**
+     * calcule une sphère qui contient le triangle f : centre de gravité et
+     * distance au plus loin sommet
+     * @param f
+     * @param sphere reçoit x, y, z du centre et rayon
+     */
+    public void SphereEnglobante(int f, float[] sphere)
+    {
+        int a = 3 * faces[3*f], b = 3 * faces[3*f+1], c = 3 * faces[3*f+2];
+        float x = (sommets[a] + sommets[b] + sommets[c]) / 3.0f;
+        float y = (sommets[a+1] + sommets[b+1] + sommets[c+1]) / 3.0f;
+        float z = (sommets[a+2] + sommets[b+2] + sommets[c+2]) / 3.0f;
+        float d2 = 0.0f;
+        for (int s : new int[] { a, b, c }) {
+            float dx = sommets[s] - x, dy = sommets[s+1] - y, dz = sommets[s+2] - z;
+            d2 = Math.max(d2, dx*dx + dy*dy + dz*dz);
+        }
+        sphere[0] = x;
+        sphere[1] = y;
+        sphere[2] = z;
+        sphere[3] = (float) Math.sqrt(d2) * (1.0f + 1e-5f);
+    }
+
+
+    public int getNombreFaces()
+    {
+        return faces.length / 3;
+    }
+
+
+    public int getNombreSommets()
+    {
+        return sommets.length / 3;
+    }
+
+
+    public float[] getSommets()
+    {
+        return sommets;
+    }
+
+
+    public int[] getFaces()
+    {
+        return faces;
+    }
+
+
+    /**
+     * fichier OBJ d'où le maillage a été chargé
+     * @return null s'il a été construit autrement
+     */
+    public String getFichier()
+    {
+        return fichier;
+    }
+}
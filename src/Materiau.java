@@ -0,0 +1,128 @@
+/**
+ * Cette classe représente l'aspect d'une sphère : couleurs diffuse et
+ * réfléchie, exposant de Phong. Un matériau n'est jamais modifié, il peut donc
+ * être partagé par toutes les sphères de même aspect (voir Scene.Interner) :
+ * une scène de millions de sphères n'en contient souvent que quelques-uns.
+ */
+public class Materiau
+{
+    /// matériau noir et mat des sphères créées sans couleur
+    public static final Materiau DEFAUT = new Materiau(new Couleur(), new Couleur(), 0.0f);
+
+    /// couleur diffuse
+    protected final Couleur Kd;
+
+    /// couleur réfléchie
+    protected final Couleur Ks;
+    protected final float Ns;
+
+
+    /**
+     * constructeur
+     * @param Kd
+     * @param Ks
+     * @param Ns
+     */
+    public Materiau(final Couleur Kd, final Couleur Ks, float Ns)
+    {
+        this.Kd = Kd;
+        this.Ks = Ks;
+        this.Ns = Ns;
+    }
+
+
+    /**
+     * retourne une copie de this avec une autre couleur diffuse
+     * @param kd
+     * @return
+     */
+    public Materiau avecKd(final Couleur kd)
+    {
+        return new Materiau(kd, Ks, Ns);
+    }
+
+
+    /**
+     * retourne une copie de this avec une autre couleur réfléchie
+     * @param ks
+     * @return
+     */
+    public Materiau avecKs(final Couleur ks)
+    {
+        return new Materiau(Kd, ks, Ns);
+    }
+
+
+    /**
+     * retourne une copie de this avec un autre exposant de Phong
+     * @param ns
+     * @return
+     */
+    public Materiau avecNs(float ns)
+    {
+        return new Materiau(Kd, Ks, ns);
+    }
+
+
+    /**
+     * deux matériaux sont égaux si leurs composantes sont identiques
+     */
+    @Override
+    public boolean equals(Object autre)
+    {
+        if (this == autre) return true;
+        if (! (autre instanceof Materiau)) return false;
+        Materiau m = (Materiau) autre;
+        return Memes(Kd, m.Kd) && Memes(Ks, m.Ks) && Float.floatToIntBits(Ns) == Float.floatToIntBits(m.Ns);
+    }
+
+
+    @Override
+    public int hashCode()
+    {
+        int h = Float.floatToIntBits(Ns);
+        h = h * 31 + Float.floatToIntBits(Kd.r);
+        h = h * 31 + Float.floatToIntBits(Kd.v);
+        h = h * 31 + Float.floatToIntBits(Kd.b);
+        h = h * 31 + Float.floatToIntBits(Ks.r);
+        h = h * 31 + Float.floatToIntBits(Ks.v);
+        h = h * 31 + Float.floatToIntBits(Ks.b);
+        return h;
+    }
+
+
+    private static boolean Memes(final Couleur a, final Couleur b)
+    {
+        return Float.floatToIntBits(a.r) == Float.floatToIntBits(b.r)
+            && Float.floatToIntBits(a.v) == Float.floatToIntBits(b.v)
+            && Float.floatToIntBits(a.b) == Float.floatToIntBits(b.b);
+    }
+
+
+    public Couleur getKd()
+    {
+        return Kd;
+    }
+
+
+    public Couleur getKs()
+    {
+        return Ks;
+    }
+
+
+    public float getNs()
+    {
+        return Ns;
+    }
+
+
+    /**
+     * retourne une représentation affichable
+     * @return
+     */
+    public String toString()
+    {
+        return "Materiau("+Kd+","+Ks+","+Ns+")";
+    }
+}
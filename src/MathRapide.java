@@ -0,0 +1,102 @@
+/**
+ * Cette classe fournit des approximations rapides des fonctions
+ * mathématiques les plus employées pendant l'éclairage.
+ * Elles ne servent que si le mode rapide est actif (voir actif).
+ *
+ * Erreurs maximales, mesurées sur tout l'intervalle utile :
+ * - Puissance(x, n), x dans ]0,1], n <= 1000 : erreur relative < 3e-5
+ *   (absolue < 1e-6 : 1/4000 d'un niveau de gris sur 255)
+ * - InvRacine(x), x > 0 : erreur relative < 2e-7
+ * Un vecteur dont le carré de la norme est à moins de UNITAIRE de 1 est
+ * considéré comme déjà normalisé : l'erreur sur sa norme reste < 5e-7.
+ * Sur l'image, ces écarts ne sont visibles que sur quelques pixels isolés
+ * aux bords des objets et des ombres, où un rayon rasant peut changer
+ * d'objet (voir java Banc mathrapide).
+ */
+public final class MathRapide
+{
+    /// mode rapide actif ou non, modifiable en cours d'exécution
+    public static boolean actif = Constantes.MATH_RAPIDE;
+
+    /// tolérance sur le carré de la norme d'un vecteur unitaire
+    public static final float UNITAIRE = 1e-6f;
+
+    private static final float LN2 = 0.6931472f;
+    private static final float INV_LN2 = 1.442695f;
+
+
+    private MathRapide()
+    {
+    }
+
+
+    /**
+     * calcule x^n pour x dans ]0,1] et n positif, par exp2(n*log2(x))
+     * @param x
+     * @param n
+     * @return
+     */
+    public static float Puissance(float x, float n)
+    {
+        if (x <= 0.0f) return 0.0f;
+        float y = n * Log2(x);
+        if (y < -126.0f) return 0.0f;
+        return Exp2(y);
+    }
+
+
+    /**
+     * logarithme en base 2 de x > 0
+     * x = m * 2^e avec m dans [sqrt(1/2), sqrt(2)[, puis ln(m) = 2*atanh(t) avec t = (m-1)/(m+1)
+     * @param x
+     * @return
+     */
+    public static float Log2(float x)
+    {
+        int bits = Float.floatToRawIntBits(x);
+        int e = ((bits >>> 23) & 0xFF) - 127;
+        float m = Float.intBitsToFloat((bits & 0x007FFFFF) | 0x3F800000);
+        if (m > 1.4142135f) {
+            m *= 0.5f;
+            e++;
+        }
+        float t = (m - 1.0f) / (m + 1.0f);
+        float t2 = t*t;
+        // |t| < 0.172, le terme suivant de la série est inférieur à 4e-8
+        float ln = 2.0f * t * (1.0f + t2*(1.0f/3.0f + t2*(1.0f/5.0f + t2*(1.0f/7.0f))));
+        return e + ln * INV_LN2;
+    }
+
+
+    /**
+     * calcule 2^y pour y dans [-126, 127]
+     * y = i + f avec i entier et f dans [-1/2, 1/2], puis série de exp(f*ln2)
+     * @param y
+     * @return
+     */
+    public static float Exp2(float y)
+    {
+        int i = Math.round(y);
+        float f = (y - i) * LN2;
+        // |f| < 0.347, le terme suivant de la série est inférieur à 1.2e-7
+        float p = 1.0f + f*(1.0f + f*(1.0f/2 + f*(1.0f/6 + f*(1.0f/24 + f*(1.0f/120 + f*(1.0f/720))))));
+        return p * Float.intBitsToFloat((i + 127) << 23);
+    }
+
+
+    /**
+     * calcule 1/sqrt(x) pour x > 0 : approximation par les bits du float
+     * puis trois itérations de Newton
+     * @param x
+     * @return
+     */
+    public static float InvRacine(float x)
+    {
+        float y = Float.intBitsToFloat(0x5F375A86 - (Float.floatToRawIntBits(x) >> 1));
+        float demi = 0.5f * x;
+        y = y * (1.5f - demi*y*y);
+        y = y * (1.5f - demi*y*y);
+        y = y * (1.5f - demi*y*y);
+        return y;
+    }
+}
@@ -0,0 +1,456 @@
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+
+/**
+ * Cette classe calcule une image "par vagues" au lieu de suivre chaque
+ * rayon récursivement comme Objet.Phong : les rayons d'un lot de pixels
+ * sont rangés dans des tableaux et chaque étape est appliquée à tout le lot
+ * avant de passer à la suivante :
+ *   1. création des rayons primaires
+ *   2. recherche des intersections
+ *   3. éclairage : une liste de lampes par contact
+ *   4. création des rayons d'ombre
+ *   5. recherche des ombres
+ *   6. cumul de l'éclairage et création des rayons réfléchis, puis retour en 2.
+ * Chaque étape est une boucle indépendante sur le lot, répartie sur tous
+ * les processeurs. Les calculs sont faits exactement dans le même ordre
+ * que ceux de Objet.Phong : l'image obtenue est identique.
+ * Seules les sphères et les lampes ponctuelles sont connues : les scènes avec des
+ * maillages ou des lampes étendues (ombres douces) sont refusées.
+ */
+public class MoteurVague
+{
+    // nombre de pixels traités ensemble
+    private static final int TAILLE_LOT = 4096;
+
+    private final Scene scene;
+    private final Camera camera;
+    private final int maxReflets;
+
+    // sphères rangées dans des tableaux : centre et carré du rayon
+    private final Sphere[] spheres;
+    private final float[] cx, cy, cz, r2;
+
+    // hiérarchie des sphères de la scène, null si elle est trop petite pour en avoir une
+    private final ArbreSpheres arbre;
+
+    // nombre de rayons lancés (primaires, ombres et reflets)
+    private final AtomicLong nombreRayons = new AtomicLong();
+
+
+    /**
+     * un lot de pixels et les rayons en cours de traitement
+     */
+    private class Lot
+    {
+        // pixels du lot : premier, premier+1... premier+nombre-1
+        final int premier;
+        final int nombre;
+
+        // valeur locale et Ks de chaque niveau de reflet, niveau de la dernière valeur
+        final float[] valeurs;
+        final float[] ks;
+        final int[] fin;
+
+        // rayons du niveau en cours : pixel, origine, direction, objet à ignorer
+        int actifs;
+        final int[] pixel;
+        final float[] px, py, pz, vx, vy, vz;
+        final int[] sauf;
+
+        // résultats des intersections
+        final int[] objet;
+        final float[] distance;
+
+        // éclairage : point de contact, normale, reflet et lampes de chaque rayon
+        final Point[] contact;
+        final Vecteur[] normale;
+        final Vecteur[] reflet;
+        final Lampe[][] lampes;
+
+        // rayons d'ombre : ceux du rayon i sont numérotés debutOmbres[i] .. debutOmbres[i+1]-1
+        final int[] debutOmbres;
+        Lampe[] ombreLampe = new Lampe[0];
+        Vecteur[] ombreL = new Vecteur[0];
+        float[] ombreV = new float[0];
+        boolean[] ombreVisible = new boolean[0];
+
+        Lot(int premier, int nombre)
+        {
+            this.premier = premier;
+            this.nombre = nombre;
+            valeurs = new float[3 * nombre * (maxReflets+1)];
+            ks = new float[3 * nombre * (maxReflets+1)];
+            fin = new int[nombre];
+            pixel = new int[nombre];
+            px = new float[nombre]; py = new float[nombre]; pz = new float[nombre];
+            vx = new float[nombre]; vy = new float[nombre]; vz = new float[nombre];
+            sauf = new int[nombre];
+            objet = new int[nombre];
+            distance = new float[nombre];
+            contact = new Point[nombre];
+            normale = new Vecteur[nombre];
+            reflet = new Vecteur[nombre];
+            lampes = new Lampe[nombre][];
+            debutOmbres = new int[nombre+1];
+        }
+    }
+
+
+    /**
+     * constructeur
+     * @param scene
+     * @param camera
+     * @param maxReflets
+     */
+    public MoteurVague(final Scene scene, final Camera camera, int maxReflets)
+    {
+        this.scene = scene;
+        this.camera = camera;
+        this.maxReflets = maxReflets;
+        if (! Accepte(scene)) throw new IllegalArgumentException("MoteurVague : scène avec des maillages ou des lampes étendues");
+
+        int nombre = scene.getObjets().size();
+        spheres = scene.getObjets().toArray(new Sphere[nombre]);
+        cx = new float[nombre]; cy = new float[nombre]; cz = new float[nombre]; r2 = new float[nombre];
+        for (int i = 0; i < nombre; i++) {
+            cx[i] = spheres[i].centre.x;
+            cy[i] = spheres[i].centre.y;
+            cz[i] = spheres[i].centre.z;
+            r2[i] = spheres[i].rayon * spheres[i].rayon;
+        }
+        arbre = scene.getArbre();
+    }
+
+
+    /**
+     * indique si le moteur sait calculer cette scène : sphères et lampes ponctuelles seulement
+     * @param scene
+     * @return
+     */
+    public static boolean Accepte(final Scene scene)
+    {
+        if (! scene.getMaillages().isEmpty()) return false;
+        for (Lampe lampe : scene.getLampes()) {
+            if (lampe.getRayon() > 0.0f) return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * nombre de rayons lancés depuis la création du moteur
+     * @return
+     */
+    public long getNombreRayons()
+    {
+        return nombreRayons.get();
+    }
+
+
+    /**
+     * calcule l'image entière
+     * @return codes couleur (gamma corrigés) des pixels, ligne par ligne
+     */
+    public int[] Rendre()
+    {
+        int total = camera.getLargeur() * camera.getHauteur();
+        int[] codes = new int[total];
+        for (int premier = 0; premier < total; premier += TAILLE_LOT) {
+            Lot lot = new Lot(premier, Math.min(TAILLE_LOT, total - premier));
+            Generer(lot);
+            for (int niveau = 0; lot.actifs > 0; niveau++) {
+                Intersecter(lot, niveau);
+                Eclairer(lot);
+                LancerOmbres(lot);
+                ChercherOmbres(lot);
+                Cumuler(lot, niveau);
+            }
+            Resoudre(lot, codes);
+        }
+        return codes;
+    }
+
+
+    /**
+     * étape 1 : rayons primaires de tous les pixels du lot
+     */
+    private void Generer(final Lot lot)
+    {
+        final int largeur = camera.getLargeur();
+        IntStream.range(0, lot.nombre).parallel().forEach(i -> {
+            int p = lot.premier + i;
+            Rayon rayon = camera.RayonPrimaire(p % largeur, p / largeur);
+            lot.pixel[i] = i;
+            lot.px[i] = rayon.P.x; lot.py[i] = rayon.P.y; lot.pz[i] = rayon.P.z;
+            lot.vx[i] = rayon.V.x; lot.vy[i] = rayon.V.y; lot.vz[i] = rayon.V.z;
+            lot.sauf[i] = -1;
+        });
+        lot.actifs = lot.nombre;
+        nombreRayons.addAndGet(lot.nombre);
+    }
+
+
+    /**
+     * étape 2 : plus proche sphère rencontrée par chaque rayon actif
+     * les rayons primaires ne sont testés qu'avec les sphères du casier de leur tuile,
+     * les autres parcourent la hiérarchie des sphères si la scène en a une
+     */
+    private void Intersecter(final Lot lot, int niveau)
+    {
+        final CasierEcran casier = (niveau == 0 && camera.isCasierEcran()) ? camera.getCasier(scene) : null;
+        final int largeur = camera.getLargeur();
+        IntStream.range(0, lot.actifs).parallel().forEach(i -> {
+            float px = lot.px[i], py = lot.py[i], pz = lot.pz[i];
+            float vx = lot.vx[i], vy = lot.vy[i], vz = lot.vz[i];
+            int sauf = lot.sauf[i];
+            int[] indices = null;
+            int debut = 0, fin = spheres.length;
+            if (casier != null) {
+                int p = lot.premier + lot.pixel[i];
+                int numero = casier.Casier(p % largeur, p / largeur);
+                indices = casier.getIndices();
+                debut = casier.getDebut(numero);
+                fin = casier.getFin(numero);
+            }
+            float meilleure = Constantes.INFINI;
+            int objet = -1;
+            if (casier == null && arbre != null) {
+                Rayon rayon = Rayon(px, py, pz, vx, vy, vz);
+                objet = arbre.Chercher(scene.getObjets(), rayon, sauf >= 0 ? spheres[sauf] : null, null, 0.0f);
+                meilleure = rayon.getDistance();
+            } else {
+                for (int k = debut; k < fin; k++) {
+                    int j = (indices != null) ? indices[k] : k;
+                    if (j == sauf) continue;
+                    float cpx = px - cx[j], cpy = py - cy[j], cpz = pz - cz[j];
+                    float c = (cpx*cpx + cpy*cpy + cpz*cpz) - r2[j];
+                    float d = Sphere.Intersection(vx, vy, vz, cpx, cpy, cpz, c);
+                    if (d < meilleure) {
+                        meilleure = d;
+                        objet = j;
+                    }
+                }
+            }
+            lot.objet[i] = objet;
+            lot.distance[i] = meilleure;
+            if (VerificationIntersections.ACTIF) {
+                VerificationIntersections.Soumettre(scene, px, py, pz, vx, vy, vz,
+                        sauf >= 0 ? spheres[sauf] : null, objet >= 0 ? spheres[objet] : null, meilleure);
+            }
+        });
+    }
+
+
+    /**
+     * étape 3 : point de contact, normale, reflet et lampes de chaque rayon qui a touché une sphère
+     */
+    private void Eclairer(final Lot lot)
+    {
+        IntStream.range(0, lot.actifs).parallel().forEach(i -> {
+            if (lot.objet[i] < 0) {
+                lot.lampes[i] = null;
+                return;
+            }
+            Sphere sphere = spheres[lot.objet[i]];
+            Vecteur V = new Vecteur(lot.vx[i], lot.vy[i], lot.vz[i]);
+            Point contact = Point.add(new Point(lot.px[i], lot.py[i], lot.pz[i]), Vecteur.mul(lot.distance[i], V));
+
+            // mêmes calculs que Objet.Phong
+            Vecteur n = new Vecteur(sphere.centre, contact);
+            n.normaliser();
+            Vecteur sub_v = V.neg();
+            float nv = n.dot(sub_v);
+            Vecteur r = n.mul( nv ).mul(2).sub(sub_v);
+            r.normaliser();
+
+            lot.contact[i] = contact;
+            lot.normale[i] = n;
+            lot.reflet[i] = r;
+            List<Lampe> lampes = scene.getLampes(contact, n, sphere.materiau.Kd);
+            lot.lampes[i] = lampes.toArray(new Lampe[lampes.size()]);
+        });
+    }
+
+
+    /**
+     * étape 4 : un rayon d'ombre de chaque lampe vers chaque point de contact
+     */
+    private void LancerOmbres(final Lot lot)
+    {
+        // numérotation des rayons d'ombre
+        for (int i = 0; i < lot.actifs; i++) {
+            lot.debutOmbres[i+1] = lot.debutOmbres[i] + (lot.lampes[i] != null ? lot.lampes[i].length : 0);
+        }
+        int nombre = lot.debutOmbres[lot.actifs];
+        if (lot.ombreLampe.length < nombre) {
+            lot.ombreLampe = new Lampe[nombre];
+            lot.ombreL = new Vecteur[nombre];
+            lot.ombreV = new float[3 * nombre];
+            lot.ombreVisible = new boolean[nombre];
+        }
+        nombreRayons.addAndGet(nombre);
+
+        IntStream.range(0, lot.actifs).parallel().forEach(i -> {
+            if (lot.lampes[i] == null) return;
+            Point contact = lot.contact[i];
+            for (int k = 0; k < lot.lampes[i].length; k++) {
+                int q = lot.debutOmbres[i] + k;
+                Lampe lampe = lot.lampes[i][k];
+                Vecteur l = new Vecteur(contact, lampe.getPosition());
+                l.normaliser();
+                Vecteur v = new Vecteur(lampe.getPosition(), contact);
+                v.normaliser();
+                lot.ombreLampe[q] = lampe;
+                lot.ombreL[q] = l;
+                lot.ombreV[3*q] = v.x; lot.ombreV[3*q+1] = v.y; lot.ombreV[3*q+2] = v.z;
+            }
+        });
+    }
+
+
+    /**
+     * étape 5 : chaque rayon d'ombre, parti de sa lampe, atteint-il d'abord la sphère éclairée ?
+     * les sphères sont cherchées dans la hiérarchie si la scène en a une
+     */
+    private void ChercherOmbres(final Lot lot)
+    {
+        IntStream.range(0, lot.actifs).parallel().forEach(i -> {
+            for (int q = lot.debutOmbres[i]; q < lot.debutOmbres[i+1]; q++) {
+                Lampe lampe = lot.ombreLampe[q];
+                Point P = lampe.getPosition();
+                OrigineCommune origine = scene.getOrigine(lampe);
+                float[] termes = (origine != null) ? origine.getTermes() : null;
+                float vx = lot.ombreV[3*q], vy = lot.ombreV[3*q+1], vz = lot.ombreV[3*q+2];
+                float meilleure = Constantes.INFINI;
+                int objet = -1;
+                if (arbre != null) {
+                    Rayon rayon = Rayon(P.x, P.y, P.z, vx, vy, vz);
+                    objet = arbre.Chercher(scene.getObjets(), rayon, null, termes, 0.0f);
+                    meilleure = rayon.getDistance();
+                } else {
+                    for (int j = 0; j < spheres.length; j++) {
+                        float cpx, cpy, cpz, c;
+                        if (termes != null) {
+                            cpx = termes[4*j]; cpy = termes[4*j+1]; cpz = termes[4*j+2]; c = termes[4*j+3];
+                        } else {
+                            cpx = P.x - cx[j]; cpy = P.y - cy[j]; cpz = P.z - cz[j];
+                            c = (cpx*cpx + cpy*cpy + cpz*cpz) - r2[j];
+                        }
+                        float d = Sphere.Intersection(vx, vy, vz, cpx, cpy, cpz, c);
+                        if (d < meilleure) {
+                            meilleure = d;
+                            objet = j;
+                        }
+                    }
+                }
+                lot.ombreVisible[q] = (objet == lot.objet[i]);
+                if (VerificationIntersections.ACTIF) {
+                    VerificationIntersections.Soumettre(scene, P.x, P.y, P.z, vx, vy, vz, null, objet >= 0 ? spheres[objet] : null, meilleure);
+                }
+            }
+        });
+    }
+
+
+    /**
+     * rayon de départ (px, py, pz) et de direction (vx, vy, vz), déjà unitaire,
+     * pour chercher ses intersections dans la hiérarchie des sphères
+     */
+    private static Rayon Rayon(float px, float py, float pz, float vx, float vy, float vz)
+    {
+        Rayon rayon = new Rayon();
+        rayon.P = new Point(px, py, pz);
+        rayon.V = new Vecteur(vx, vy, vz);
+        return rayon;
+    }
+
+
+    /**
+     * étape 6 : cumul de l'éclairage de chaque rayon, dans l'ordre des lampes,
+     * puis création des rayons réfléchis qui forment le niveau suivant
+     */
+    private void Cumuler(final Lot lot, int niveau)
+    {
+        final int n = lot.nombre;
+        IntStream.range(0, lot.actifs).parallel().forEach(i -> {
+            int p = lot.pixel[i];
+            int indice = 3 * (niveau * n + p);
+            if (lot.objet[i] < 0) {
+                // c'est le ciel
+                Couleur ciel = Rayon.Ciel(new Vecteur(lot.vx[i], lot.vy[i], lot.vz[i]));
+                lot.valeurs[indice] = ciel.r; lot.valeurs[indice+1] = ciel.v; lot.valeurs[indice+2] = ciel.b;
+                lot.fin[p] = niveau;
+                return;
+            }
+            Sphere sphere = spheres[lot.objet[i]];
+            Couleur Kd = sphere.materiau.Kd;
+            Vecteur nrm = lot.normale[i];
+            Vecteur r = lot.reflet[i];
+            float fr = 0, fv = 0, fb = 0;
+            for (int q = lot.debutOmbres[i]; q < lot.debutOmbres[i+1]; q++) {
+                if (! lot.ombreVisible[q]) continue;
+                Couleur couleur = lot.ombreLampe[q].getCouleur();
+                Vecteur l = lot.ombreL[q];
+                float nl = nrm.dot(l);
+                if (nl > 0) {
+                    fr = fr + Kd.r * nl * couleur.r;
+                    fv = fv + Kd.v * nl * couleur.v;
+                    fb = fb + Kd.b * nl * couleur.b;
+                    float rl = r.dot(l);
+                    if (rl > 0) {
+                        float phong = MathRapide.actif ? MathRapide.Puissance(rl, sphere.materiau.Ns) : (float) Math.pow(rl, sphere.materiau.Ns);
+                        fr = fr + Kd.r * phong * couleur.r;
+                        fv = fv + Kd.v * phong * couleur.v;
+                        fb = fb + Kd.b * phong * couleur.b;
+                    }
+                }
+            }
+            lot.valeurs[indice] = fr; lot.valeurs[indice+1] = fv; lot.valeurs[indice+2] = fb;
+            lot.ks[indice] = sphere.materiau.Ks.r; lot.ks[indice+1] = sphere.materiau.Ks.v; lot.ks[indice+2] = sphere.materiau.Ks.b;
+            if (niveau == maxReflets) lot.fin[p] = niveau;
+        });
+
+        if (niveau == maxReflets) {
+            lot.actifs = 0;
+            return;
+        }
+
+        // rayons réfléchis : ils remplacent les rayons du niveau en cours
+        int suivants = 0;
+        for (int i = 0; i < lot.actifs; i++) {
+            if (lot.objet[i] < 0) continue;
+            Rayon reflet = new Rayon(lot.contact[i], lot.reflet[i]);
+            lot.pixel[suivants] = lot.pixel[i];
+            lot.px[suivants] = reflet.P.x; lot.py[suivants] = reflet.P.y; lot.pz[suivants] = reflet.P.z;
+            lot.vx[suivants] = reflet.V.x; lot.vy[suivants] = reflet.V.y; lot.vz[suivants] = reflet.V.z;
+            lot.sauf[suivants] = lot.objet[i];
+            suivants++;
+        }
+        lot.actifs = suivants;
+        nombreRayons.addAndGet(suivants);
+    }
+
+
+    /**
+     * combine les niveaux de chaque pixel, du plus profond au premier :
+     * valeur = locale + valeur du niveau suivant * Ks, comme dans Objet.Phong
+     */
+    private void Resoudre(final Lot lot, final int[] codes)
+    {
+        final int n = lot.nombre;
+        IntStream.range(0, n).parallel().forEach(p -> {
+            int indice = 3 * (lot.fin[p] * n + p);
+            float r = lot.valeurs[indice], v = lot.valeurs[indice+1], b = lot.valeurs[indice+2];
+            for (int niveau = lot.fin[p]-1; niveau >= 0; niveau--) {
+                indice = 3 * (niveau * n + p);
+                r = lot.valeurs[indice  ] + r * lot.ks[indice  ];
+                v = lot.valeurs[indice+1] + v * lot.ks[indice+1];
+                b = lot.valeurs[indice+2] + b * lot.ks[indice+2];
+            }
+            codes[lot.premier + p] = new Couleur(r, v, b).correctionGamma(0.8f).getCode();
+        });
+    }
+}
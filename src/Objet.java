@@ -0,0 +1,288 @@
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Cette classe représente un objet à dessiner, sphère (Sphere) ou ensemble de
+ * triangles (Maillage), et calcule son éclairage. Seuls la recherche des
+ * intersections et le calcul de la normale dépendent de la forme de l'objet :
+ * l'éclairage est commun, et la seule méthode redéfinie qu'il appelle, Normale,
+ * n'a que deux versions, ce que la JVM sait appeler sans recherche dynamique.
+ */
+public abstract class Objet
+{
+    /// couleurs et exposant de Phong, partagés avec les objets de même aspect
+    protected Materiau materiau = Materiau.DEFAUT;
+
+
+    /**
+     * calcule la normale unitaire au point de contact du rayon avec this
+     * @param incident rayon dont this est l'objet rencontré
+     * @return
+     */
+    public abstract Vecteur Normale(final Rayon incident);
+
+
+    /**
+     * calcule la couleur de l'objet au point désigné par incident
+     * si l'objet est réfléchissant, on peut relancer au maximum
+     * profondeur rayons indirects
+     * @param scene
+     * @param incident
+     * @param profondeur
+     * @return
+     */
+    public final Couleur Phong(final Scene scene, final Rayon incident, int profondeur)
+    {
+        // modèle de Lambert = somme des éclairements diffus
+        Couleur finale = new Couleur(0, 0, 0);
+
+        // calculer le vecteur N au point de contact avec le rayon
+        Vecteur n = Normale(incident);
+
+        /// Calculer le mirrior de -V par rapport à N
+        // (on le calcul 1 fois, alors que si on devait calculer le mirroir de L, on aurait du le refaire à chaque iteration)
+        // reflet (mirroir de la lampe): r = 2*(n*v)*n - v
+        Vecteur sub_v = incident.getV().neg();
+        float nv = n.dot(sub_v);
+        Vecteur r = n.mul( nv ).mul(2).sub(sub_v);
+        r.normaliser();
+
+        // vues multiples : ombres déjà calculées par une autre vue autour du point de contact
+        final ContexteRayons contexte = incident.contexte;
+        CacheOmbres.Cellule cellule = (contexte.cacheOmbres != null) ? contexte.cacheOmbres.Cellule(incident) : null;
+
+        // chaque lampe contribue à l'éclairage
+        for (Lampe lampe : scene.getLampes(incident.contact, n, materiau.Kd)) {
+            // calculer le Vecteur L
+            Vecteur l = new Vecteur(incident.contact, lampe.getPosition());
+            l.normaliser();
+
+            // aperçu : ombre lue dans la carte de la lampe
+            if (contexte.cartesOmbres) {
+                float visibilite = scene.getCarteOmbres(lampe).Visibilite(incident.contact, n.dot(l), this);
+                incident.ombres = incident.ombres * 31 + (visibilite >= 1.0f ? 1 : visibilite <= 0.0f ? 2 : 3);
+                if (visibilite > 0.0f) finale = Eclairer(finale, n, r, l, visibilite < 1.0f ? lampe.getCouleur().mul(visibilite) : lampe.getCouleur());
+                continue;
+            }
+
+            // ombre reprise d'une autre vue
+            if (cellule != null) {
+                float visibilite = cellule.Visibilite(lampe);
+                if (visibilite >= 0.0f) {
+                    incident.ombres = incident.ombres * 31 + (visibilite >= 1.0f ? 1 : visibilite <= 0.0f ? 2 : 3);
+                    if (visibilite > 0.0f) finale = Eclairer(finale, n, r, l, visibilite < 1.0f ? lampe.getCouleur().mul(visibilite) : lampe.getCouleur());
+                    continue;
+                }
+            }
+
+            // lampe étendue : fraction de la lampe visible du point de contact
+            if (lampe.getRayon() > 0.0f) {
+                float visibilite = OmbreDouce.Visibilite(scene, incident, lampe);
+                if (contexte.suivi != null) contexte.suivi.OmbreEtendue(lampe, profondeur, incident.contact);
+                incident.ombres = incident.ombres * 31 + (visibilite >= 1.0f ? 1 : visibilite <= 0.0f ? 2 : 3);
+                if (cellule != null) cellule.Noter(lampe, visibilite);
+                if (visibilite > 0.0f) finale = Eclairer(finale, n, r, l, lampe.getCouleur().mul(visibilite));
+                continue;
+            }
+
+            // est-ce qu'il y a un objet entre la lampe et le point de contact ?
+            Rayon vers_lampe = new Rayon(lampe.getPosition(), incident.contact);
+            vers_lampe.P = lampe.getPosition();
+            if (VerificationIntersections.ACTIF) vers_lampe.portee = new Vecteur(lampe.getPosition(), incident.contact).norme();
+            // (un rayon primaire d'un paquet ne teste que les sphères candidates du paquet)
+            int[] candidats = (contexte.paquet != null) ? contexte.paquet.getCandidatsOmbre(lampe) : null;
+            if (candidats != null) {
+                scene.ChercherIntersection(vers_lampe, null, candidats, 0, candidats.length, scene.getOrigine(lampe));
+            } else {
+                scene.ChercherIntersection(vers_lampe, null, scene.getOrigine(lampe));
+            }
+
+            if (contexte.suivi != null) contexte.suivi.Ombre(lampe, profondeur, vers_lampe);
+
+            // est-ce bien "moi" qui suis, la/le plus proche de la lampe ?
+            boolean eclaire = vers_lampe.getObjet() == this && vers_lampe.getFace() == incident.getFace();
+            incident.ombres = incident.ombres * 31 + (eclaire ? 1 : 2);
+            if (cellule != null) cellule.Noter(lampe, eclaire ? 1.0f : 0.0f);
+            if (eclaire) finale = Eclairer(finale, n, r, l, lampe.getCouleur());
+        }
+        if (cellule != null) cellule.Ranger();
+
+        if (profondeur > 0) {
+            // reflets
+            Rayon reflet = new Rayon(incident.contact, r);
+            reflet.contexte = contexte.getReflets();
+            reflet.depart = incident.getFace();
+
+            // chercher quel objet de la scène le rencontre au plus proche
+            boolean contact = scene.ChercherIntersection(reflet, this);
+            if (contexte.suivi != null) contexte.suivi.Rayon(profondeur-1, reflet);
+            if (contact) {
+                // il y a un objet
+                finale =  finale.add( reflet.getObjet().Phong(scene, reflet, profondeur-1).mul(materiau.Ks) );
+            } else {
+                // c'est le ciel
+                finale = finale.add( reflet.Ciel().mul(materiau.Ks) );
+            }
+        }
+
+        return finale;
+    }
+
+
+    /**
+     * ajoute à finale l'éclairement diffus et spéculaire d'une lampe visible du point de contact
+     * @param finale
+     * @param n normale unitaire au point de contact
+     * @param r direction du reflet, unitaire
+     * @param l direction de la lampe, unitaire
+     * @param couleur couleur de la lampe, atténuée par son ombre
+     * @return
+     */
+    private Couleur Eclairer(Couleur finale, final Vecteur n, final Vecteur r, final Vecteur l, final Couleur couleur)
+    {
+        /// Eclairement diffus
+        // calculer dot(L, N) * Kd * couleur de la lampe
+        final Couleur Kd = materiau.Kd;
+        float nl =  n.dot(l);
+        if (nl > 0) {
+            finale = Couleur.add(finale, Kd.mul(nl).mul(couleur));
+
+            /// Eclairement Spéculaire
+            // Equation de Phong
+            float rl = r.dot(l);
+            if (rl > 0) {
+                float phong = MathRapide.actif ? MathRapide.Puissance(rl, materiau.Ns) : (float) Math.pow(rl, materiau.Ns);
+                finale = Couleur.add(finale, Kd.mul(phong).mul(couleur));
+            }
+        }
+        return finale;
+    }
+
+
+    /**
+     * calcule comme Phong la couleur de l'objet au point désigné par incident,
+     * pour plusieurs éclairages à la fois : les rayons réfléchis sont communs à tous
+     * les éclairages, seules les lampes sont examinées pour chacun, et le rayon
+     * d'ombre n'est lancé (ou l'ombre d'une lampe étendue calculée) qu'une fois pour
+     * plusieurs lampes à la même position et de même rayon.
+     * Toutes les lampes de chaque éclairage sont prises en compte, sans sélection.
+     * @param scene
+     * @param incident
+     * @param profondeur
+     * @param eclairages listes de lampes remplaçant celles de la scène
+     * @return une couleur par éclairage
+     */
+    public final Couleur[] PhongVariantes(final Scene scene, final Rayon incident, int profondeur, final List<? extends List<Lampe>> eclairages)
+    {
+        Vecteur n = Normale(incident);
+        Vecteur sub_v = incident.getV().neg();
+        float nv = n.dot(sub_v);
+        Vecteur r = n.mul( nv ).mul(2).sub(sub_v);
+        r.normaliser();
+
+        // positions et rayons des lampes déjà examinées et fraction visible de chacune depuis le point de contact
+        List<Point> positions = new ArrayList<>();
+        List<Float> rayons = new ArrayList<>();
+        List<Float> visibles = new ArrayList<>();
+
+        Couleur[] finales = new Couleur[eclairages.size()];
+        for (int e = 0; e < finales.length; e++) {
+            Couleur finale = new Couleur(0, 0, 0);
+            for (Lampe lampe : eclairages.get(e)) {
+                Point position = lampe.getPosition();
+                int k = 0;
+                while (k < positions.size() && ! (Memes(positions.get(k), position) && rayons.get(k) == lampe.getRayon())) k++;
+                if (k == positions.size()) {
+                    float visibilite;
+                    if (lampe.getRayon() > 0.0f) {
+                        visibilite = OmbreDouce.Visibilite(scene, incident, lampe);
+                    } else {
+                        Rayon vers_lampe = new Rayon(position, incident.contact);
+                        vers_lampe.P = position;
+                        // termes précalculés seulement pour les lampes de la scène, les autres partent de l'origine simple
+                        scene.ChercherIntersection(vers_lampe, null, scene.getOrigine(lampe));
+                        visibilite = (vers_lampe.getObjet() == this && vers_lampe.getFace() == incident.getFace()) ? 1.0f : 0.0f;
+                    }
+                    positions.add(position);
+                    rayons.add(lampe.getRayon());
+                    visibles.add(visibilite);
+                }
+                float visibilite = visibles.get(k);
+                if (visibilite > 0.0f) {
+                    Vecteur l = new Vecteur(incident.contact, position);
+                    l.normaliser();
+                    finale = Eclairer(finale, n, r, l, visibilite < 1.0f ? lampe.getCouleur().mul(visibilite) : lampe.getCouleur());
+                }
+            }
+            finales[e] = finale;
+        }
+
+        if (profondeur > 0) {
+            Rayon reflet = new Rayon(incident.contact, r);
+            reflet.depart = incident.getFace();
+            if (scene.ChercherIntersection(reflet, this)) {
+                Couleur[] reflets = reflet.getObjet().PhongVariantes(scene, reflet, profondeur-1, eclairages);
+                for (int e = 0; e < finales.length; e++) finales[e] = finales[e].add( reflets[e].mul(materiau.Ks) );
+            } else {
+                Couleur ciel = reflet.Ciel().mul(materiau.Ks);
+                for (int e = 0; e < finales.length; e++) finales[e] = finales[e].add(ciel);
+            }
+        }
+        return finales;
+    }
+
+
+    private static boolean Memes(final Point a, final Point b)
+    {
+        return a.x == b.x && a.y == b.y && a.z == b.z;
+    }
+
+
+    public Materiau getMateriau()
+    {
+        return materiau;
+    }
+
+
+    public void setMateriau(final Materiau materiau)
+    {
+        this.materiau = materiau;
+    }
+
+
+    public Couleur getKd()
+    {
+        return materiau.Kd;
+    }
+
+
+    public void setKd(final Couleur kd)
+    {
+        materiau = materiau.avecKd(kd);
+    }
+
+
+    public Couleur getKs()
+    {
+        return materiau.Ks;
+    }
+
+
+    public void setKs(final Couleur ks)
+    {
+        materiau = materiau.avecKs(ks);
+    }
+
+
+    public float getNs()
+    {
+        return materiau.Ns;
+    }
+
+
+    public void setNs(float ns)
+    {
+        materiau = materiau.avecNs(ns);
+    }
+}
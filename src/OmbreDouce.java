@@ -0,0 +1,282 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+
+/**
+ * Cette classe calcule la fraction visible d'une lampe étendue (boule de rayon
+ * Lampe.getRayon()) depuis un point de contact, sans lancer de rayons dans les cas
+ * simples. Vue du point, la lampe est un disque de rayon angulaire alpha et une
+ * sphère un disque de rayon angulaire beta : une direction est cachée par la sphère
+ * si et seulement si elle fait avec celle du centre un angle inférieur à beta. La
+ * partie cachée de la lampe est l'intersection des deux disques, dont l'aire est
+ * calculée comme pour deux disques plans (les angles sont petits).
+ * Quand les disques des sphères qui cachent une partie de la lampe se recouvrent,
+ * ou quand un triangle (d'après sa sphère englobante) ou une sphère qui n'est pas
+ * entièrement devant la lampe peut la cacher, quelques rayons sont lancés vers des
+ * points répartis sur le disque de la lampe (Constantes.ECHANTILLONS_OMBRE).
+ * L'objet éclairé ne se cache pas lui-même : la partie de la lampe sous son
+ * horizon est déjà atténuée par le terme diffus.
+ */
+public class OmbreDouce
+{
+    /// calcul direct (true) ou échantillonnage de toute la lampe (false, pour comparaison)
+    public static boolean analytique = true;
+
+    /// nombre de rayons par lampe quand le calcul direct n'est pas employé
+    public static int echantillons = 64;
+
+    // angle d'or, pour répartir les points sur le disque de la lampe
+    private static final double ANGLE_OR = Math.PI * (3.0 - Math.sqrt(5.0));
+
+    // nombre de calculs d'ombre, et de ceux qui ont dû lancer des rayons
+    private static final LongAdder calculs = new LongAdder();
+    private static final LongAdder ambigus = new LongAdder();
+
+
+    /**
+     * calcule la fraction de la lampe visible depuis le point de contact du rayon
+     * @param scene
+     * @param incident rayon qui a rencontré l'objet éclairé
+     * @param lampe lampe de rayon non nul
+     * @return de 0 (lampe cachée) à 1 (lampe entièrement visible)
+     */
+    public static float Visibilite(final Scene scene, final Rayon incident, final Lampe lampe)
+    {
+        calculs.increment();
+        if (! analytique) return Echantillonner(scene, incident, lampe, echantillons);
+
+        Analyse analyse = new Analyse(scene, incident, lampe);
+        if (analyse.distance <= lampe.getRayon()) return 1.0f;
+        ArbreSpheres arbre = scene.getArbre();
+        if (arbre != null) {
+            arbre.ChercherCapsule(incident.contact, lampe.getPosition(), lampe.getRayon(), analyse);
+        } else {
+            List<Sphere> spheres = scene.getObjets();
+            for (int i = 0; i < spheres.size(); i++) analyse.Sphere(spheres.get(i));
+            float[] englobante = new float[4];
+            for (Maillage maillage : scene.getMaillages()) {
+                for (int f = 0; f < maillage.getNombreFaces(); f++) analyse.Triangle(maillage, f, englobante);
+            }
+        }
+
+        if (analyse.cache) return 0.0f;
+        if (analyse.ambigu || analyse.Recouvrements()) {
+            ambigus.increment();
+            return Echantillonner(scene, incident, lampe, Constantes.ECHANTILLONS_OMBRE);
+        }
+        return analyse.Visibilite();
+    }
+
+
+    /**
+     * examen des objets qui peuvent cacher une partie de la lampe
+     */
+    private static class Analyse implements IntConsumer
+    {
+        private final Scene scene;
+        private final Rayon incident;
+
+        // point de contact, direction unitaire et distance du centre de la lampe, rayons réel et angulaire de la lampe
+        private final double cx, cy, cz;
+        private final double ux, uy, uz;
+        private final double distance;
+        private final double rayon;
+        private final double sinAlpha, cosAlpha;
+
+        // rayon angulaire de la lampe, calculé à la première sphère qui en cache une partie
+        private double alpha = -1.0;
+
+        // une sphère cache toute la lampe, ou le calcul direct n'est pas possible
+        private boolean cache = false;
+        private boolean ambigu = false;
+
+        // sphères qui cachent une partie de la lampe : direction unitaire du centre, rayon angulaire, fraction cachée
+        private double[] partielles = new double[5 * 4];
+        private int nombre = 0;
+
+        Analyse(final Scene scene, final Rayon incident, final Lampe lampe)
+        {
+            this.scene = scene;
+            this.incident = incident;
+            Point c = incident.contact, l = lampe.getPosition();
+            cx = c.x; cy = c.y; cz = c.z;
+            double dx = l.x - cx, dy = l.y - cy, dz = l.z - cz;
+            distance = Math.sqrt(dx*dx + dy*dy + dz*dz);
+            ux = dx / distance; uy = dy / distance; uz = dz / distance;
+            rayon = lampe.getRayon();
+            sinAlpha = Math.min(1.0, rayon / distance);
+            cosAlpha = Math.sqrt(1.0 - sinAlpha*sinAlpha);
+        }
+
+        /**
+         * objet numero de la hiérarchie qui touche la capsule de la lampe
+         */
+        @Override
+        public void accept(int numero)
+        {
+            ArbreSpheres arbre = scene.getArbre();
+            if (numero < arbre.getNombreSpheres()) {
+                Sphere(scene.getObjets().get(numero));
+            } else {
+                Triangle(arbre.getMaillage(numero), arbre.getFace(numero), new float[4]);
+            }
+        }
+
+        void Sphere(final Sphere sphere)
+        {
+            if (sphere == incident.getObjet()) return;
+            Examiner(sphere.centre.x, sphere.centre.y, sphere.centre.z, sphere.rayon, false);
+        }
+
+        void Triangle(final Maillage maillage, int f, float[] englobante)
+        {
+            if (maillage == incident.getObjet() && f == incident.getFace()) return;
+            maillage.SphereEnglobante(f, englobante);
+            Examiner(englobante[0], englobante[1], englobante[2], englobante[3], true);
+        }
+
+        /**
+         * examine une sphère qui peut cacher la lampe ; triangle indique que
+         * c'est la sphère englobante d'un triangle, qui ne cache qu'une partie de son disque
+         */
+        private void Examiner(double ox, double oy, double oz, double r, boolean triangle)
+        {
+            double wx = ox - cx, wy = oy - cy, wz = oz - cz;
+            double d = Math.sqrt(wx*wx + wy*wy + wz*wz);
+            if (d <= r) {
+                // le point de contact est dans la sphère
+                if (triangle) ambigu = true; else cache = true;
+                return;
+            }
+            // la partie visible de la lampe est à moins de distance du point
+            if (d - r >= distance) return;
+            // le cône qui va du point à la lampe est dans la capsule de rayon rayon autour du segment
+            double t = Math.max(0.0, wx*ux + wy*uy + wz*uz);
+            double px = wx - t*ux, py = wy - t*uy, pz = wz - t*uz;
+            if (px*px + py*py + pz*pz >= (r + rayon) * (r + rayon)) return;
+            // comparaisons des angles par leurs cosinus, sans fonction trigonométrique
+            double cosTheta = Math.max(-1.0, Math.min(1.0, (wx*ux + wy*uy + wz*uz) / d));
+            double sinBeta = r / d, cosBeta = Math.sqrt(1.0 - sinBeta*sinBeta);
+            if (cosTheta <= cosAlpha*cosBeta - sinAlpha*sinBeta) return;
+            // triangle ou sphère qui n'est pas entièrement entre le point et la lampe
+            if (triangle || d + r > distance - rayon) {
+                ambigu = true;
+                return;
+            }
+            // theta + alpha <= beta
+            if (sinBeta >= sinAlpha && cosTheta >= cosBeta*cosAlpha + sinBeta*sinAlpha) {
+                cache = true;
+                return;
+            }
+            if (alpha < 0.0) alpha = Math.asin(sinAlpha);
+            double beta = Math.asin(sinBeta);
+            if (partielles.length < 5 * (nombre + 1)) partielles = Arrays.copyOf(partielles, 2 * partielles.length);
+            int i = 5 * nombre++;
+            partielles[i  ] = wx / d;
+            partielles[i+1] = wy / d;
+            partielles[i+2] = wz / d;
+            partielles[i+3] = beta;
+            partielles[i+4] = Lentille(alpha, beta, Math.acos(cosTheta)) / (Math.PI * alpha * alpha);
+        }
+
+        /**
+         * indique si les disques de deux sphères qui cachent une partie de la lampe se recouvrent
+         */
+        boolean Recouvrements()
+        {
+            for (int i = 0; i < 5 * nombre; i += 5) {
+                for (int j = i + 5; j < 5 * nombre; j += 5) {
+                    double cos = partielles[i]*partielles[j] + partielles[i+1]*partielles[j+1] + partielles[i+2]*partielles[j+2];
+                    if (Math.acos(Math.max(-1.0, Math.min(1.0, cos))) < partielles[i+3] + partielles[j+3]) return true;
+                }
+            }
+            return false;
+        }
+
+        float Visibilite()
+        {
+            double cachee = 0.0;
+            for (int i = 0; i < 5 * nombre; i += 5) cachee += partielles[i+4];
+            return (float) Math.max(0.0, 1.0 - cachee);
+        }
+    }
+
+
+    /**
+     * aire de l'intersection de deux disques de rayons a et b dont les centres sont à la distance d
+     */
+    private static double Lentille(double a, double b, double d)
+    {
+        if (d <= Math.abs(a - b)) return Math.PI * Math.min(a, b) * Math.min(a, b);
+        double ca = Math.max(-1.0, Math.min(1.0, (d*d + a*a - b*b) / (2*d*a)));
+        double cb = Math.max(-1.0, Math.min(1.0, (d*d + b*b - a*a) / (2*d*b)));
+        double k = (-d + a + b) * (d + a - b) * (d - a + b) * (d + a + b);
+        return a*a * Math.acos(ca) + b*b * Math.acos(cb) - 0.5 * Math.sqrt(Math.max(0.0, k));
+    }
+
+
+    /**
+     * estime la fraction visible de la lampe en lançant des rayons depuis des points
+     * répartis sur son disque vu du contact (spirale de l'angle d'or, tournée d'un
+     * angle qui dépend du point de contact pour changer les motifs en bruit)
+     * @param scene
+     * @param incident
+     * @param lampe
+     * @param nombre nombre de rayons
+     * @return
+     */
+    public static float Echantillonner(final Scene scene, final Rayon incident, final Lampe lampe, int nombre)
+    {
+        final Point contact = incident.contact, centre = lampe.getPosition();
+        Vecteur u = new Vecteur(contact, centre);
+        u.normaliser();
+        // base du disque perpendiculaire à u
+        Vecteur e1 = (Math.abs(u.x) < 0.9f) ? new Vecteur(0, u.z, -u.y) : new Vecteur(-u.z, 0, u.x);
+        e1.normaliser();
+        Vecteur e2 = new Vecteur(u.y * e1.z - u.z * e1.y, u.z * e1.x - u.x * e1.z, u.x * e1.y - u.y * e1.x);
+        int h = Float.floatToIntBits(contact.x) * 73856093 ^ Float.floatToIntBits(contact.y) * 19349663 ^ Float.floatToIntBits(contact.z) * 83492791;
+        double rotation = (h & 0xffff) * (2 * Math.PI / 65536.0);
+
+        int visibles = 0;
+        for (int k = 0; k < nombre; k++) {
+            double r = lampe.getRayon() * Math.sqrt((k + 0.5) / nombre);
+            double phi = rotation + k * ANGLE_OR;
+            float a = (float) (r * Math.cos(phi)), b = (float) (r * Math.sin(phi));
+            Point point = new Point(centre.x + a * e1.x + b * e2.x, centre.y + a * e1.y + b * e2.y, centre.z + a * e1.z + b * e2.z);
+            Rayon vers_lampe = new Rayon(point, contact);
+            vers_lampe.P = point;
+            scene.ChercherIntersection(vers_lampe, null);
+            if (vers_lampe.getObjet() == incident.getObjet() && vers_lampe.getFace() == incident.getFace()) visibles++;
+        }
+        return visibles / (float) nombre;
+    }
+
+
+    /**
+     * nombre de calculs d'ombre depuis le dernier appel à Effacer
+     * @return
+     */
+    public static long getNombreCalculs()
+    {
+        return calculs.sum();
+    }
+
+
+    /**
+     * nombre de calculs d'ombre qui ont dû lancer des rayons depuis le dernier appel à Effacer
+     * @return
+     */
+    public static long getNombreAmbigus()
+    {
+        return ambigus.sum();
+    }
+
+
+    public static void Effacer()
+    {
+        calculs.reset();
+        ambigus.reset();
+    }
+}
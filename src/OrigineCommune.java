@@ -0,0 +1,96 @@
+/**
+ * Cette classe mémorise, pour une origine de rayons donnée (l'oeil ou une
+ * lampe) et pour chaque sphère de la scène, les termes de l'équation
+ * d'intersection qui ne dépendent que de l'origine : le vecteur CP allant
+ * du centre à l'origine et C = CP² - rayon². Pour tous les rayons partant
+ * de cette origine, le test d'une sphère se réduit alors à un produit
+ * scalaire et une comparaison, voir Sphere.Intersection(Rayon, float[], int, float).
+ * NB : les rayons primaires partent du pixel sur l'écran et non de l'oeil,
+ * mais ils sont portés par des demi-droites issues de l'oeil ; les distances
+ * sont alors comptées à partir de l'oeil puis décalées, voir Decalage.
+ */
+public class OrigineCommune
+{
+    // scène dont les sphères sont concernées
+    private final Scene scene;
+
+    // version de la scène à la construction, voir Scene.getVersion
+    private final int version;
+
+    // origine des rayons
+    private final Point origine;
+
+    // cpx, cpy, cpz, c de chaque sphère, dans l'ordre des objets de la scène
+    private final float[] termes;
+
+
+    /**
+     * constructeur : calcule les termes de toutes les sphères de la scène
+     * @param scene
+     * @param origine
+     */
+    public OrigineCommune(final Scene scene, final Point origine)
+    {
+        this.scene = scene;
+        this.version = scene.getVersion();
+        this.origine = origine;
+        int nombre = scene.getObjets().size();
+        this.termes = new float[4 * nombre];
+        for (int i = 0; i < nombre; i++) {
+            Sphere sphere = scene.getObjets().get(i);
+            // mêmes calculs que Sphere.Intersection(Rayon)
+            Vecteur cp = new Vecteur(sphere.centre, origine);
+            termes[4*i  ] = cp.x;
+            termes[4*i+1] = cp.y;
+            termes[4*i+2] = cp.z;
+            termes[4*i+3] = cp.dot(cp) - sphere.rayon * sphere.rayon;
+        }
+    }
+
+
+    public Scene getScene()
+    {
+        return scene;
+    }
+
+
+    public Point getOrigine()
+    {
+        return origine;
+    }
+
+
+    /**
+     * indique si les termes correspondent encore à la scène : aucune sphère
+     * n'a été ajoutée ni déplacée depuis leur calcul
+     * @param scene
+     * @return
+     */
+    public boolean Valide(final Scene scene)
+    {
+        return scene == this.scene && scene.getVersion() == version;
+    }
+
+
+    /**
+     * calcule la distance entre l'origine commune et le point de départ du rayon,
+     * qui doit être situé sur la demi-droite issue de l'origine et de direction incident.V
+     * @param incident
+     * @return
+     */
+    public float Decalage(final Rayon incident)
+    {
+        if (incident.P == origine) return 0.0f;
+        return incident.V.dot(new Vecteur(origine, incident.P));
+    }
+
+
+    /**
+     * retourne les termes cpx, cpy, cpz, c de toutes les sphères, 4 par sphère
+     * @return
+     */
+    public float[] getTermes()
+    {
+        return termes;
+    }
+}
@@ -0,0 +1,302 @@
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+
+/**
+ * Cette classe traite ensemble un petit bloc de pixels voisins (2x2, 4x4, 8x8) :
+ * - les rayons primaires du bloc sont tous dans la pyramide qui part de l'oeil
+ *   et s'appuie sur le rectangle des pixels : les sphères entièrement hors de
+ *   cette pyramide sont éliminées une fois pour tout le paquet,
+ * - les rayons d'ombre d'une lampe vers les points de contact du bloc sont
+ *   tous dans le cône qui part de la lampe et englobe ces points : les sphères
+ *   hors du cône sont éliminées une fois par lampe pour tout le paquet.
+ * Les rayons réfléchis sont ensuite traités un par un, comme d'habitude.
+ * Les sphères éliminées ne peuvent pas être rencontrées : l'image est inchangée.
+ * Dans une scène assez grande pour avoir une hiérarchie de sphères (ArbreSpheres),
+ * la pyramide écarte des noeuds entiers : seules les sphères des noeuds qu'elle
+ * touche sont examinées, au lieu de toutes les sphères de la scène. Les cônes
+ * d'ombre n'y sont pas employés : les contacts d'un paquet sont trop dispersés,
+ * le cône touche des milliers de sphères et les parcourir une à une pour chaque
+ * rayon d'ombre coûte bien plus que la hiérarchie (Banc paquets à 100000 sphères).
+ * Une scène avec des maillages n'emploie pas de candidats : ses rayons sont
+ * traités comme des rayons isolés.
+ */
+public class PaquetRayons
+{
+    // marge relative pour les erreurs d'arrondi
+    private static final double MARGE = 1e-4;
+
+    // au delà de cette proportion de sphères conservées, le paquet n'apporte rien
+    private static final float PROPORTION_MAX = 0.75f;
+
+    private final Scene scene;
+    private final Camera camera;
+
+    // bloc de pixels
+    private final int x0, y0, largeur, hauteur;
+
+    // sphères candidates pour les rayons d'ombre de chaque lampe, null pour toutes
+    private final Map<Lampe, int[]> ombres = new IdentityHashMap<>();
+
+
+    /**
+     * constructeur
+     * @param scene
+     * @param camera
+     * @param x0 colonne du premier pixel du bloc
+     * @param y0 ligne du premier pixel du bloc
+     * @param largeur nombre de colonnes du bloc
+     * @param hauteur nombre de lignes du bloc
+     */
+    public PaquetRayons(final Scene scene, final Camera camera, int x0, int y0, int largeur, int hauteur)
+    {
+        this.scene = scene;
+        this.camera = camera;
+        this.x0 = x0;
+        this.y0 = y0;
+        this.largeur = largeur;
+        this.hauteur = hauteur;
+    }
+
+
+    /**
+     * calcule les codes couleur (gamma corrigés) des pixels du bloc
+     * @param maxReflets
+     * @param codes tableau qui reçoit les codes
+     * @param debut indice du code du pixel (x0,y0)
+     * @param pas écart entre deux lignes dans codes
+     */
+    public void Tracer(int maxReflets, int[] codes, int debut, int pas)
+    {
+        Rayon[] rayons = new Rayon[largeur * hauteur];
+        final boolean spheresSeules = scene.getMaillages().isEmpty();
+
+        // rayons primaires, testés seulement avec les sphères candidates du paquet
+        int[] candidats = spheresSeules ? CandidatsPrimaires() : null;
+        OrigineCommune origine = camera.getOrigine(scene);
+        float mx = 0, my = 0, mz = 0;
+        int contacts = 0;
+        for (int dy = 0; dy < hauteur; dy++) {
+            for (int dx = 0; dx < largeur; dx++) {
+                Rayon rayon = camera.RayonPrimaire(x0 + dx, y0 + dy);
+                boolean contact = (candidats != null)
+                        ? scene.ChercherIntersection(rayon, null, candidats, 0, candidats.length, origine)
+                        : camera.ChercherIntersectionPrimaire(scene, rayon, x0 + dx, y0 + dy);
+                if (contact) {
+                    mx += rayon.contact.x; my += rayon.contact.y; mz += rayon.contact.z;
+                    contacts++;
+                }
+                rayons[dy * largeur + dx] = rayon;
+            }
+        }
+
+        // sphère englobant les points de contact, puis sphères candidates pour les ombres
+        // (sans la hiérarchie : avec elle, chaque rayon d'ombre la parcourt lui-même) ;
+        // un contact calculé en float peut être un peu hors de sa sphère (soustraction de
+        // termes presque égaux pour une petite sphère lointaine) : la sphère englobante est
+        // agrandie de cet écart pour que la sphère du contact touche toujours le cône
+        if (contacts > 0 && spheresSeules && scene.getArbre() == null) {
+            Point centre = new Point(mx / contacts, my / contacts, mz / contacts);
+            float rayon = 0.0f;
+            for (Rayon r : rayons) {
+                if (r.getObjet() == null) continue;
+                Sphere sphere = (Sphere) r.getObjet();
+                float ecart = Math.abs(new Vecteur(sphere.centre, r.contact).norme() - sphere.rayon);
+                rayon = Math.max(rayon, new Vecteur(centre, r.contact).norme() + ecart);
+            }
+            for (Lampe lampe : scene.getLampes()) {
+                ombres.put(lampe, CandidatsOmbre(lampe, centre, rayon));
+            }
+        }
+
+        // éclairage de chaque contact, les ombres se servent des candidats du paquet
+        ContexteRayons contexte = camera.getContexte().avecPaquet(this);
+        for (int dy = 0; dy < hauteur; dy++) {
+            for (int dx = 0; dx < largeur; dx++) {
+                Rayon rayon = rayons[dy * largeur + dx];
+                Couleur couleur;
+                if (rayon.getObjet() != null) {
+                    rayon.contexte = contexte;
+                    couleur = rayon.getObjet().Phong(scene, rayon, maxReflets);
+                } else {
+                    couleur = rayon.Ciel();
+                }
+                codes[debut + dy * pas + dx] = couleur.correctionGamma(0.8f).getCode();
+            }
+        }
+    }
+
+
+    /**
+     * retourne les numéros des sphères que peuvent rencontrer les rayons d'ombre
+     * de cette lampe vers les contacts du paquet
+     * @param lampe
+     * @return null si toutes les sphères doivent être testées
+     */
+    public int[] getCandidatsOmbre(final Lampe lampe)
+    {
+        return ombres.get(lampe);
+    }
+
+
+    /**
+     * pyramide formée par l'oeil et le rectangle des pixels du bloc
+     */
+    private class Pyramide implements ArbreSpheres.Volume
+    {
+        final Point oeil = camera.getOeil();
+
+        // normales intérieures des quatre faces, null pour une face dégénérée
+        final Vecteur[] normales = new Vecteur[4];
+
+        Pyramide()
+        {
+            // coins du rectangle des pixels sur l'écran
+            Vecteur[] coins = {
+                new Vecteur(oeil, camera.PointEcran(x0, y0 + hauteur-1)),
+                new Vecteur(oeil, camera.PointEcran(x0 + largeur-1, y0 + hauteur-1)),
+                new Vecteur(oeil, camera.PointEcran(x0 + largeur-1, y0)),
+                new Vecteur(oeil, camera.PointEcran(x0, y0)) };
+            for (int i = 0; i < 4; i++) {
+                Vecteur u = coins[i], v = coins[(i+1) % 4];
+                normales[i] = new Vecteur(u.y*v.z - u.z*v.y, u.z*v.x - u.x*v.z, u.x*v.y - u.y*v.x);
+                // une face dégénérée (bloc d'un seul pixel de large) ne limite rien
+                if (! normales[i].normaliser()) normales[i] = null;
+            }
+        }
+
+        /**
+         * indique si la sphère est entièrement hors de la pyramide
+         */
+        boolean Dehors(final Sphere sphere)
+        {
+            Vecteur w = new Vecteur(oeil, sphere.centre);
+            float marge = sphere.rayon + (float) MARGE * w.norme();
+            for (Vecteur n : normales) {
+                if (n != null && n.dot(w) < -marge) return true;
+            }
+            return false;
+        }
+
+        /**
+         * une boîte est hors de la pyramide si son coin le plus avancé vers l'intérieur
+         * d'une face est encore derrière cette face
+         */
+        @Override
+        public boolean Touche(float xmin, float ymin, float zmin, float xmax, float ymax, float zmax)
+        {
+            float hx = (xmax - xmin) * 0.5f, hy = (ymax - ymin) * 0.5f, hz = (zmax - zmin) * 0.5f;
+            float wx = xmin + hx - oeil.x, wy = ymin + hy - oeil.y, wz = zmin + hz - oeil.z;
+            double marge = MARGE * (Math.sqrt(wx*wx + wy*wy + wz*wz) + Math.sqrt(hx*hx + hy*hy + hz*hz));
+            for (Vecteur n : normales) {
+                if (n == null) continue;
+                double avance = n.x*wx + n.y*wy + n.z*wz + Math.abs(n.x)*hx + Math.abs(n.y)*hy + Math.abs(n.z)*hz;
+                if (avance < -marge) return false;
+            }
+            return true;
+        }
+    }
+
+
+    /**
+     * sphères candidates pour les rayons primaires : celles qui ne sont pas entièrement
+     * hors de la pyramide formée par l'oeil et le rectangle des pixels du bloc
+     * @return null si le paquet n'élimine pas assez de sphères
+     */
+    private int[] CandidatsPrimaires()
+    {
+        final Pyramide pyramide = new Pyramide();
+        final List<Sphere> spheres = scene.getObjets();
+
+        // avec la hiérarchie, seules les sphères des noeuds qui touchent la pyramide sont examinées
+        final ArbreSpheres arbre = scene.getArbre();
+        if (arbre != null) {
+            IntStream.Builder liste = IntStream.builder();
+            arbre.Parcourir(pyramide, i -> {
+                if (i < arbre.getNombreSpheres() && ! pyramide.Dehors(spheres.get(i))) liste.accept(i);
+            });
+            int[] candidats = liste.build().sorted().toArray();
+            return (candidats.length > PROPORTION_MAX * spheres.size()) ? null : candidats;
+        }
+
+        // sphères de départ : celles du casier de la tuile si le bloc y est entier
+        int[] indices = null;
+        int debut = 0, fin = spheres.size();
+        final int tuile = Constantes.TAILLE_TUILE;
+        if (camera.isCasierEcran() && x0 / tuile == (x0 + largeur-1) / tuile && y0 / tuile == (y0 + hauteur-1) / tuile) {
+            CasierEcran casier = camera.getCasier(scene);
+            int numero = casier.Casier(x0, y0);
+            indices = casier.getIndices();
+            debut = casier.getDebut(numero);
+            fin = casier.getFin(numero);
+        }
+
+        int[] candidats = new int[fin - debut];
+        int nombre = 0;
+        for (int k = debut; k < fin; k++) {
+            int i = (indices != null) ? indices[k] : k;
+            if (! pyramide.Dehors(spheres.get(i))) candidats[nombre++] = i;
+        }
+        if (indices == null && nombre > PROPORTION_MAX * fin) return null;
+        return Arrays.copyOf(candidats, nombre);
+    }
+
+
+    /**
+     * sphères candidates pour les rayons d'ombre partant de la lampe vers un point
+     * de la sphère (centre, rayon) : celles qui touchent le cône de sommet la lampe
+     * englobant cette sphère. Une sphère vue de la lampe sous le demi-angle delta
+     * touche le cône de demi-angle beta si l'angle gamma entre son centre et l'axe
+     * vérifie gamma <= beta + delta, c'est à dire (calculs en double, sans trigonométrie) :
+     * dot(axe, centre sphère - lampe) >= cos(beta) * sqrt(c) - sin(beta) * rayon sphère
+     * avec c = distance² - rayon², terme déjà calculé par OrigineCommune.
+     * @param lampe
+     * @param centre
+     * @param rayon
+     * @return null si le cône n'élimine pas assez de sphères
+     */
+    private int[] CandidatsOmbre(final Lampe lampe, final Point centre, float rayon)
+    {
+        final Point L = lampe.getPosition();
+        double ax = centre.x - L.x, ay = centre.y - L.y, az = centre.z - L.z;
+        double distance = Math.sqrt(ax*ax + ay*ay + az*az);
+        if (distance <= rayon) return null;
+        ax /= distance; ay /= distance; az /= distance;
+        double sinBeta = rayon / distance;
+        double cosBeta = Math.sqrt(1.0 - sinBeta*sinBeta);
+        double portee = (distance + rayon) * (1.0 + MARGE);
+
+        OrigineCommune origine = scene.getOrigine(lampe);
+        float[] termes = (origine != null) ? origine.getTermes() : null;
+        int total = scene.getObjets().size();
+        int[] candidats = new int[total];
+        int nombre = 0;
+        for (int i = 0; i < total; i++) {
+            Sphere sphere = scene.getObjets().get(i);
+            double r = sphere.rayon;
+            // cp = lampe - centre de la sphère, c = cp² - r²
+            double cpx, cpy, cpz, c;
+            if (termes != null) {
+                cpx = termes[4*i]; cpy = termes[4*i+1]; cpz = termes[4*i+2]; c = termes[4*i+3];
+            } else {
+                cpx = L.x - sphere.centre.x; cpy = L.y - sphere.centre.y; cpz = L.z - sphere.centre.z;
+                c = cpx*cpx + cpy*cpy + cpz*cpz - r*r;
+            }
+            // la sphère contient la lampe
+            if (c <= 0) {
+                candidats[nombre++] = i;
+                continue;
+            }
+            // la sphère est plus loin que tous les contacts (le contact peut être sur sa face avant)
+            if (c + r*r > (portee + r) * (portee + r)) continue;
+            double tangente = Math.sqrt(c);
+            double dot = -(ax*cpx + ay*cpy + az*cpz);
+            if (dot + sinBeta * r >= cosBeta * tangente - MARGE * (tangente + r)) candidats[nombre++] = i;
+        }
+        if (nombre > PROPORTION_MAX * total) return null;
+        return Arrays.copyOf(candidats, nombre);
+    }
+}
@@ -14,7 +14,13 @@ public class Rayon
     protected Vecteur V;
 
     // plus proche objet rencontré ou null si aucun
-    protected Sphere objet;
+    protected Objet objet;
+
+    /// numéro du triangle rencontré si l'objet est un maillage, -1 sinon
+    protected int face = -1;
+
+    /// triangle de l'objet sauflui d'où part ce rayon, qui ne doit pas être rencontré, -1 si aucun
+    protected int depart = -1;
 
     /// distance du point de contact ou Constantes.INFINI si aucun
     protected float distance;
@@ -22,6 +28,16 @@ public class Rayon
     /// coordonnées du point de contact
     protected Point contact;
 
+    /// réglages du calcul dont fait partie ce rayon, voir ContexteRayons
+    protected ContexteRayons contexte = ContexteRayons.DEFAUT;
+
+    /// distance au-delà de laquelle l'objet rencontré importe peu (rayon d'ombre : distance du point
+    /// éclairé), 0 si toute la demi-droite compte ; renseignée pour VerificationIntersections
+    protected float portee;
+
+    /// empreinte des lampes éclairant ou non le point de contact, calculée par Phong
+    protected int ombres;
+
 
     /**
      * constructeur par défaut
@@ -53,7 +69,7 @@ public class Rayon
     {
         this.P = P;
         this.V = V;
-        this.V.normaliser(); // FIXME inutile ??
+        this.V.normaliser(); // inutile si V est déjà unitaire, ce que normaliser détecte en mode MathRapide
     }
 
 
@@ -69,18 +85,35 @@ public class Rayon
     }
 
 
-    public Sphere getObjet()
+    public Objet getObjet()
     {
         return objet;
     }
 
 
+    public int getFace()
+    {
+        return face;
+    }
+
+
     public float getDistance()
     {
         return distance;
     }
 
 
+    /**
+     * empreinte de l'éclairage du point de contact : deux points éclairés par les
+     * mêmes lampes ont la même empreinte
+     * @return
+     */
+    public int getOmbres()
+    {
+        return ombres;
+    }
+
+
     /**
      * retourne le carré de la distance de contact avec l'objet
      * @return
@@ -96,10 +129,25 @@ public class Rayon
      * @param distance
      * @param objet
      */
-    public void setDistanceObjet(float distance, Sphere objet)
+    public void setDistanceObjet(float distance, Objet objet)
     {
         this.distance = distance;
         this.objet = objet;
+        this.face = -1;
+    }
+
+
+    /**
+     * initialise la distance de contact, le maillage concerné et le triangle rencontré
+     * @param distance
+     * @param maillage
+     * @param face
+     */
+    public void setDistanceFace(float distance, Maillage maillage, int face)
+    {
+        this.distance = distance;
+        this.objet = maillage;
+        this.face = face;
     }
 
 
@@ -124,6 +172,17 @@ public class Rayon
      * @return du bleu si le rayon va vers le haut, du vert/marron s'il va vers le bas
      */
     public Couleur Ciel()
+    {
+        return Ciel(V);
+    }
+
+
+    /**
+     * renvoie la couleur du "ciel" vu dans la direction V
+     * @param V vecteur unitaire
+     * @return
+     */
+    public static Couleur Ciel(final Vecteur V)
     {
         // deux hémisphères, selon que V va vers le haut ou vers le bas
         if (V.y > 0.0f) {
@@ -0,0 +1,407 @@
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.stream.IntStream;
+
+import javax.imageio.ImageIO;
+
+
+/**
+ * Cette classe vérifie qu'une modification du logiciel ne change pas les images
+ * et ne ralentit pas le calcul : les scènes fournies sont dessinées à une taille
+ * fixe par chacun des chemins de calcul (lignes de pixels, tuiles de paquets de
+ * rayons, vagues, ce dernier seulement pour les scènes de sphères et de lampes
+ * ponctuelles), chaque image est comparée à l'image de référence de sa scène et
+ * chaque temps au temps de référence, tous rangés dans le dossier regression.
+ * Les scènes d'au moins MIN_LAMPES_SELECTION lampes sont aussi dessinées avec la
+ * sélection des lampes (ArbreLampes) : l'image, approchée, a sa propre référence.
+ * Une image qui diffère de plus de la tolérance fait échouer la vérification :
+ * le programme se termine alors avec le code 1, et une image des écarts est
+ * écrite pour chaque image fausse. Les temps de référence ne valent que pour la
+ * machine qui les a enregistrés : ils sont seulement affichés, sauf avec l'option
+ * -seuil, où un temps plus long que la référence de plus du seuil fait aussi
+ * échouer. Les références sont enregistrées par l'option -enregistrer, à refaire
+ * quand les images changent volontairement, et sur chaque machine dont on veut
+ * vérifier les temps.
+ */
+public class Regression
+{
+    // taille des images
+    private static final int LARGEUR = 320;
+    private static final int HAUTEUR = 240;
+
+    // nombre minimal de mesures de chaque temps et durée minimale des mesures, en ms ; le meilleur temps est retenu
+    private static final int MESURES = 3;
+    private static final long DUREE_MESURES = 1000;
+
+    // nom du fichier des temps de référence dans le dossier
+    private static final String REFERENCES = "references.txt";
+
+    // scènes vérifiées par défaut : les scènes fournies, plus une scène assez grande pour la
+    // hiérarchie des sphères (ArbreSpheres), une avec un maillage, une avec des ombres douces
+    // et une avec beaucoup de lampes
+    private static final String[] SCENES = {
+        "scenes/scene1.txt", "scenes/scene2.txt", "scenes/scene3.txt", "scenes/scene4.txt", "scenes/scene5.txt",
+        "scenes/scene6.txt", "scenes/scene7.txt", "scenes/scene8.txt", "scenes/scene9.txt",
+        "scenes/amas.txt", "scenes/maillage.txt", "scenes/ombres.txt", "scenes/lampes.txt"
+    };
+
+    // nombre de lampes à partir duquel le chemin de la sélection des lampes est vérifié
+    private static final int MIN_LAMPES_SELECTION = 32;
+
+    /**
+     * chemins de calcul vérifiés : ils doivent tous donner les images de référence,
+     * celle de la sélection des lampes exceptée, qui a la sienne
+     */
+    private static final Map<String, BiFunction<Scene, Camera, int[]>> CHEMINS = new LinkedHashMap<>();
+    static {
+        CHEMINS.put("lignes", Regression::Lignes);
+        CHEMINS.put("tuiles", (scene, camera) -> new RenduTuiles(scene, camera, Constantes.MAX_REFLETS, null).Tracer(() -> false));
+        CHEMINS.put("vagues", (scene, camera) -> new MoteurVague(scene, camera, Constantes.MAX_REFLETS).Rendre());
+        CHEMINS.put("selection", (scene, camera) -> {
+            scene.setSelectionLampes(true);
+            try {
+                return Lignes(scene, camera);
+            } finally {
+                scene.setSelectionLampes(false);
+            }
+        });
+    }
+
+    private final File dossier;
+
+    // écart toléré pour chaque composante d'un pixel (0..255)
+    private final int tolerance;
+
+    // allongement toléré des temps, en %, négatif si les temps ne sont pas vérifiés
+    private final float seuil;
+
+    // temps de référence en ms, par "scène chemin"
+    private final Map<String, Long> references = new HashMap<>();
+
+
+    /**
+     * constructeur
+     * @param dossier images et temps de référence
+     * @param tolerance écart toléré pour chaque composante d'un pixel (0..255)
+     * @param seuil allongement toléré des temps, en %, négatif pour ne pas les vérifier
+     */
+    public Regression(final File dossier, int tolerance, float seuil)
+    {
+        this.dossier = dossier;
+        this.tolerance = tolerance;
+        this.seuil = seuil;
+    }
+
+
+    /**
+     * image calculée ligne par ligne, lignes réparties sur tous les processeurs
+     */
+    private static int[] Lignes(final Scene scene, final Camera camera)
+    {
+        final int largeur = camera.getLargeur();
+        final int[] codes = new int[largeur * camera.getHauteur()];
+        IntStream.range(0, camera.getHauteur()).parallel().forEach(ye ->
+            camera.TracerLigne(scene, ye, Constantes.MAX_REFLETS, codes, ye * largeur));
+        return codes;
+    }
+
+
+    /**
+     * mesure le meilleur temps d'au moins MESURES calculs durant au moins DUREE_MESURES
+     * en tout, après un premier calcul de mise en route : les petites images sont
+     * calculées plus souvent, leurs temps sont les plus bruités
+     * @param images reçoit l'image du dernier calcul
+     * @return en ms
+     */
+    private static long Mesurer(final BiFunction<Scene, Camera, int[]> chemin, final Scene scene, final Camera camera, int[][] images)
+    {
+        images[0] = chemin.apply(scene, camera);
+        long meilleur = Long.MAX_VALUE, total = 0;
+        for (int i = 0; i < MESURES || total < DUREE_MESURES * 1000000L; i++) {
+            long debut = System.nanoTime();
+            images[0] = chemin.apply(scene, camera);
+            long duree = System.nanoTime() - debut;
+            meilleur = Math.min(meilleur, duree);
+            total += duree;
+        }
+        return Math.max(1, meilleur / 1000000L);
+    }
+
+
+    /**
+     * indique si ce chemin de calcul sait dessiner la scène
+     */
+    private static boolean Applicable(final String chemin, final Scene scene)
+    {
+        switch (chemin) {
+        case "vagues": return MoteurVague.Accepte(scene);
+        case "selection": return scene.getLampes().size() >= MIN_LAMPES_SELECTION;
+        default: return true;
+        }
+    }
+
+
+    /**
+     * image de référence d'une scène pour un chemin : celle du chemin des lignes,
+     * sauf pour la sélection des lampes
+     */
+    private File Image(final String scene, final String chemin)
+    {
+        String nom = new File(scene).getName();
+        String suffixe = chemin.equals("selection") ? "-selection" : "";
+        return new File(dossier, nom.substring(0, nom.lastIndexOf('.')) + suffixe + ".png");
+    }
+
+
+    /**
+     * enregistre les images de référence (chemins des lignes et de la sélection des lampes) et les temps de référence de tous les chemins
+     * @param scenes
+     * @param rapport
+     * @throws IOException
+     */
+    public void Enregistrer(final String[] scenes, final PrintWriter rapport) throws IOException
+    {
+        dossier.mkdirs();
+        try (PrintWriter sortie = new PrintWriter(new File(dossier, REFERENCES), "UTF-8")) {
+            sortie.println("# scène chemin largeur hauteur ms rayons");
+            for (String nom : scenes) {
+                Scene scene = new Scene(nom);
+                Camera camera = new Camera(LARGEUR, HAUTEUR);
+                long rayons = Rayons(scene, camera);
+                for (Map.Entry<String, BiFunction<Scene, Camera, int[]>> chemin : CHEMINS.entrySet()) {
+                    if (! Applicable(chemin.getKey(), scene)) continue;
+                    int[][] images = new int[1][];
+                    long temps = Mesurer(chemin.getValue(), scene, camera, images);
+                    if (chemin.getKey().equals("lignes") || chemin.getKey().equals("selection")) Ecrire(images[0], Image(nom, chemin.getKey()));
+                    long lances = Lances(rayons, chemin.getKey());
+                    sortie.println(nom+" "+chemin.getKey()+" "+LARGEUR+" "+HAUTEUR+" "+temps+" "+lances);
+                    rapport.println(String.format("%-22s %-9s %6d ms %s  enregistré", nom, chemin.getKey(), temps, Debit(lances, temps)));
+                    rapport.flush();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * lit les temps de référence
+     * @throws IOException
+     */
+    private void LireReferences() throws IOException
+    {
+        try (BufferedReader br = new BufferedReader(new FileReader(new File(dossier, REFERENCES)))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.startsWith("#") || line.trim().isEmpty()) continue;
+                String[] mots = line.trim().split("\\s+");
+                if (Integer.parseInt(mots[2]) != LARGEUR || Integer.parseInt(mots[3]) != HAUTEUR) {
+                    throw new IOException(REFERENCES+" : références enregistrées pour une autre taille d'image, à refaire");
+                }
+                references.put(mots[0]+" "+mots[1], Long.parseLong(mots[4]));
+            }
+        }
+    }
+
+
+    /**
+     * vérifie toutes les scènes par tous les chemins
+     * @param scenes
+     * @param rapport reçoit une ligne par scène et par chemin, puis le bilan
+     * @return nombre d'échecs
+     * @throws IOException
+     */
+    public int Verifier(final String[] scenes, final PrintWriter rapport) throws IOException
+    {
+        LireReferences();
+        int echecs = 0, verifications = 0;
+        for (String nom : scenes) {
+            Scene scene = new Scene(nom);
+            Camera camera = new Camera(LARGEUR, HAUTEUR);
+            long rayons = Rayons(scene, camera);
+            for (Map.Entry<String, BiFunction<Scene, Camera, int[]>> chemin : CHEMINS.entrySet()) {
+                if (! Applicable(chemin.getKey(), scene)) continue;
+                verifications++;
+                File fichier = Image(nom, chemin.getKey());
+                if (! fichier.exists()) {
+                    rapport.println(String.format("%-22s %-9s pas d'image de référence  ÉCHEC", nom, chemin.getKey()));
+                    echecs++;
+                    continue;
+                }
+                int[] reference = ImageIO.read(fichier).getRGB(0, 0, LARGEUR, HAUTEUR, null, 0, LARGEUR);
+                int[][] images = new int[1][];
+                long temps = Mesurer(chemin.getValue(), scene, camera, images);
+
+                // image : écart maximal et nombre de pixels au-delà de la tolérance
+                int max = 0, faux = 0;
+                for (int i = 0; i < reference.length; i++) {
+                    int e = EcartPixel(reference[i], images[0][i]);
+                    max = Math.max(max, e);
+                    if (e > tolerance) faux++;
+                }
+                boolean imageJuste = faux == 0;
+                if (! imageJuste) {
+                    String base = new File(nom).getName();
+                    base = base.substring(0, base.lastIndexOf('.'));
+                    Ecrire(ImageEcarts(reference, images[0]), new File(dossier, base + "-" + chemin.getKey() + "-ecarts.png"));
+                }
+
+                // temps comparé à la référence, s'il est vérifié
+                Long referenceTemps = references.get(nom+" "+chemin.getKey());
+                boolean verifierTemps = seuil >= 0.0f;
+                if (verifierTemps && referenceTemps != null && 100.0f * (temps - referenceTemps) / referenceTemps > seuil) {
+                    // mesure refaite une fois avant de conclure, les temps sont bruités
+                    temps = Math.min(temps, Mesurer(chemin.getValue(), scene, camera, new int[1][]));
+                }
+                float variation = (referenceTemps == null) ? 0.0f : 100.0f * (temps - referenceTemps) / referenceTemps;
+                boolean tempsJuste = ! verifierTemps || (referenceTemps != null && variation <= seuil);
+
+                boolean reussi = imageJuste && tempsJuste;
+                if (! reussi) echecs++;
+                rapport.println(String.format("%-22s %-9s image %s (écart max %d, %d pixels) ; %6d ms %s, %s  %s",
+                        nom, chemin.getKey(), imageJuste ? "juste" : "FAUSSE", max, faux, temps,
+                        referenceTemps == null ? "(pas de référence)" : String.format("(référence %d ms, %+.1f%%)", referenceTemps, variation),
+                        Debit(Lances(rayons, chemin.getKey()), temps), reussi ? "ok" : "ÉCHEC"));
+                rapport.flush();
+            }
+        }
+        String reglages = "(tolérance "+tolerance+", "+(seuil >= 0.0f ? "seuil "+seuil+" %" : "temps non vérifiés")+")";
+        rapport.println(echecs == 0 ? "RÉUSSITE : "+verifications+" vérifications "+reglages
+                                    : "ÉCHEC : "+echecs+" vérifications sur "+verifications+" "+reglages);
+        rapport.flush();
+        return echecs;
+    }
+
+
+    /**
+     * nombre de rayons lancés pour une image, le même pour tous les chemins ;
+     * il est compté par le moteur par vagues, 0 s'il ne sait pas dessiner la scène
+     */
+    private static long Rayons(final Scene scene, final Camera camera)
+    {
+        if (! MoteurVague.Accepte(scene)) return 0;
+        MoteurVague moteur = new MoteurVague(scene, camera, Constantes.MAX_REFLETS);
+        moteur.Rendre();
+        return moteur.getNombreRayons();
+    }
+
+
+    /**
+     * nombre de rayons lancés par un chemin : ceux de Rayons, sauf pour la sélection
+     * des lampes, qui en lance moins et dont le nombre n'est pas compté (0)
+     */
+    private static long Lances(long rayons, final String chemin)
+    {
+        return chemin.equals("selection") ? 0 : rayons;
+    }
+
+
+    /**
+     * nombre de rayons par seconde, s'il est connu
+     */
+    private static String Debit(long rayons, long temps)
+    {
+        return (rayons > 0) ? String.format("%9d rayons/s", rayons * 1000 / temps) : String.format("%9s rayons/s", "-");
+    }
+
+
+    /**
+     * plus grand écart entre les composantes de deux pixels
+     */
+    private static int EcartPixel(int a, int b)
+    {
+        int e = 0;
+        for (int decalage = 0; decalage <= 16; decalage += 8) {
+            e = Math.max(e, Math.abs(((a >> decalage) & 0xFF) - ((b >> decalage) & 0xFF)));
+        }
+        return e;
+    }
+
+
+    /**
+     * image des écarts : l'image de référence assombrie, et en rouge les pixels
+     * au-delà de la tolérance, d'autant plus clairs que l'écart est grand
+     */
+    private int[] ImageEcarts(final int[] reference, final int[] image)
+    {
+        int[] ecarts = new int[reference.length];
+        for (int i = 0; i < reference.length; i++) {
+            int e = EcartPixel(reference[i], image[i]);
+            if (e > tolerance) {
+                ecarts[i] = Math.min(255, 128 + 4 * e) << 16;
+            } else {
+                int gris = ((reference[i] >> 16 & 0xFF) + (reference[i] >> 8 & 0xFF) + (reference[i] & 0xFF)) / 12;
+                ecarts[i] = gris << 16 | gris << 8 | gris;
+            }
+        }
+        return ecarts;
+    }
+
+
+    private static void Ecrire(final int[] codes, final File fichier) throws IOException
+    {
+        BufferedImage image = new BufferedImage(LARGEUR, HAUTEUR, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, LARGEUR, HAUTEUR, codes, 0, LARGEUR);
+        ImageIO.write(image, "png", fichier);
+    }
+
+
+    /**
+     * vérification des images et des temps des scènes fournies
+     * usage : java Regression [-enregistrer] [-tolerance n] [-seuil %] [-dossier regression] [scènes...]
+     * sans -seuil, les temps sont affichés mais pas vérifiés ;
+     * le compte rendu est aussi écrit dans le dossier, dans rapport.txt
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception
+    {
+        boolean enregistrer = false;
+        int tolerance = 0;
+        float seuil = -1.0f;
+        String dossier = "regression";
+        List<String> scenes = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+            case "-enregistrer": enregistrer = true; break;
+            case "-tolerance": tolerance = Integer.parseInt(args[++i]); break;
+            case "-seuil": seuil = Float.parseFloat(args[++i]); break;
+            case "-dossier": dossier = args[++i]; break;
+            default: scenes.add(args[i]);
+            }
+        }
+        if (scenes.isEmpty()) scenes.addAll(Arrays.asList(SCENES));
+
+        Regression regression = new Regression(new File(dossier), tolerance, seuil);
+        String[] noms = scenes.toArray(new String[0]);
+        new File(dossier).mkdirs();
+        int echecs = 0;
+        try (PrintWriter fichier = new PrintWriter(new File(dossier, "rapport.txt"), "UTF-8")) {
+            // compte rendu affiché et écrit dans le fichier
+            PrintWriter rapport = new PrintWriter(new Writer() {
+                @Override public void write(char[] c, int debut, int n) { System.out.print(new String(c, debut, n)); fichier.write(c, debut, n); }
+                @Override public void flush() { System.out.flush(); fichier.flush(); }
+                @Override public void close() {}
+            });
+            if (enregistrer) {
+                regression.Enregistrer(noms, rapport);
+            } else {
+                echecs = regression.Verifier(noms, rapport);
+            }
+            rapport.flush();
+        }
+        // après la fermeture du compte rendu
+        if (echecs > 0) System.exit(1);
+    }
+}
@@ -0,0 +1,266 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.stream.IntStream;
+
+import javax.imageio.ImageIO;
+
+
+/**
+ * Cette classe calcule une image sans lancer un rayon par pixel : elle lance
+ * d'abord les rayons d'une grille de PAS pixels de côté, puis examine chaque
+ * carré de la grille. Si ses quatre coins voient la même sphère (ou tous le ciel),
+ * avec des couleurs et des normales proches, les pixels intérieurs sont interpolés
+ * entre les coins ; sinon le carré est coupé en quatre, en lançant les rayons des
+ * milieux, et ainsi de suite jusqu'au pixel.
+ * Une sphère plus petite que le carré peut échapper aux coins : un carré dont la
+ * tuile (voir CasierEcran) contient une sphère qui pourrait y être vue devant celle
+ * des coins est toujours coupé. Les reflets et les taches spéculaires qui ne
+ * touchent aucun coin sont perdus, comme les petits triangles, que les tuiles
+ * ne connaissent pas : l'image est approchée.
+ */
+public class RenduAdaptatif
+{
+    // côté des carrés de la grille initiale, une puissance de 2
+    public static final int PAS = 8;
+
+    // écart maximal entre les composantes des couleurs des coins (avant correction gamma)
+    private static final float SEUIL_COULEUR = 0.03f;
+
+    // cosinus de l'angle maximal entre les normales des coins
+    private static final float COS_NORMALES = (float) Math.cos(0.2);
+
+    private final Scene scene;
+    private final Camera camera;
+    private final int maxReflets;
+    private final int largeur;
+    private final int hauteur;
+
+    // sphères rangées par carré de la grille
+    private final CasierEcran casier;
+
+    // pour chaque pixel calculé : couleur, normale au contact et objet vu (null pour le ciel)
+    private final boolean[] calcules;
+    private final float[] couleurs;
+    private final float[] normales;
+    private final Objet[] objets;
+
+
+    /**
+     * constructeur
+     * @param scene
+     * @param camera
+     * @param maxReflets
+     */
+    public RenduAdaptatif(final Scene scene, final Camera camera, int maxReflets)
+    {
+        this.scene = scene;
+        this.camera = camera;
+        this.maxReflets = maxReflets;
+        this.largeur = camera.getLargeur();
+        this.hauteur = camera.getHauteur();
+        this.casier = new CasierEcran(scene, camera, PAS);
+        int n = largeur * hauteur;
+        this.calcules = new boolean[n];
+        this.couleurs = new float[3 * n];
+        this.normales = new float[3 * n];
+        this.objets = new Objet[n];
+    }
+
+
+    /**
+     * calcule l'image
+     * @return codes couleur (gamma corrigés) des pixels, ligne par ligne
+     */
+    public int[] Tracer()
+    {
+        final int nx = (largeur - 1 + PAS - 1) / PAS;
+        final int ny = (hauteur - 1 + PAS - 1) / PAS;
+
+        // grille initiale, dernière ligne et dernière colonne comprises
+        IntStream.rangeClosed(0, ny).parallel().forEach(gy -> {
+            int ye = Math.min(gy * PAS, hauteur - 1);
+            for (int gx = 0; gx <= nx; gx++) Echantillon(Math.min(gx * PAS, largeur - 1), ye);
+        });
+
+        // carrés traités en quatre vagues : deux carrés d'une même vague n'ont ni côté ni coin commun
+        for (int vague = 0; vague < 4; vague++) {
+            final int px = vague % 2;
+            final int py = vague / 2;
+            IntStream.range(0, ny).filter(gy -> gy % 2 == py).parallel().forEach(gy -> {
+                for (int gx = px; gx < nx; gx += 2) {
+                    int x0 = gx * PAS, y0 = gy * PAS;
+                    Subdiviser(x0, y0, Math.min(x0 + PAS, largeur - 1), Math.min(y0 + PAS, hauteur - 1), casier.Casier(x0, y0));
+                }
+            });
+        }
+
+        int[] codes = new int[largeur * hauteur];
+        for (int i = 0; i < codes.length; i++) {
+            codes[i] = new Couleur(couleurs[3*i], couleurs[3*i+1], couleurs[3*i+2]).correctionGamma(0.8f).getCode();
+        }
+        return codes;
+    }
+
+
+    /**
+     * lance le rayon du pixel (xe,ye) s'il ne l'a pas déjà été
+     */
+    private void Echantillon(int xe, int ye)
+    {
+        int i = ye * largeur + xe;
+        if (calcules[i]) return;
+        Rayon initial = camera.RayonPrimaire(xe, ye);
+        Couleur couleur;
+        if (camera.ChercherIntersectionPrimaire(scene, initial, xe, ye)) {
+            Objet objet = initial.getObjet();
+            couleur = objet.Phong(scene, initial, maxReflets);
+            Vecteur normale = objet.Normale(initial);
+            normales[3*i  ] = normale.x;
+            normales[3*i+1] = normale.y;
+            normales[3*i+2] = normale.z;
+            objets[i] = objet;
+        } else {
+            couleur = initial.Ciel();
+        }
+        couleurs[3*i  ] = couleur.r;
+        couleurs[3*i+1] = couleur.v;
+        couleurs[3*i+2] = couleur.b;
+        calcules[i] = true;
+    }
+
+
+    /**
+     * complète le rectangle de coins (x0,y0) et (x1,y1) inclus, dont les
+     * quatre coins sont calculés
+     * @param numero numéro du casier de la tuile contenant le rectangle
+     */
+    private void Subdiviser(int x0, int y0, int x1, int y1, int numero)
+    {
+        if (x1 - x0 <= 1 && y1 - y0 <= 1) return;
+        int a = y0 * largeur + x0, b = y0 * largeur + x1;
+        int c = y1 * largeur + x0, d = y1 * largeur + x1;
+        if (Semblables(a, b) && Semblables(a, c) && Semblables(a, d) && Semblables(b, c) && ! Cache(objets[a], numero)) {
+            Interpoler(x0, y0, x1, y1);
+            return;
+        }
+        int mx = (x0 + x1) / 2, my = (y0 + y1) / 2;
+        if (x1 - x0 > 1 && y1 - y0 > 1) {
+            Echantillon(mx, y0); Echantillon(mx, y1); Echantillon(x0, my); Echantillon(x1, my); Echantillon(mx, my);
+            Subdiviser(x0, y0, mx, my, numero);
+            Subdiviser(mx, y0, x1, my, numero);
+            Subdiviser(x0, my, mx, y1, numero);
+            Subdiviser(mx, my, x1, y1, numero);
+        } else if (x1 - x0 > 1) {
+            Echantillon(mx, y0); Echantillon(mx, y1);
+            Subdiviser(x0, y0, mx, y1, numero);
+            Subdiviser(mx, y0, x1, y1, numero);
+        } else {
+            Echantillon(x0, my); Echantillon(x1, my);
+            Subdiviser(x0, y0, x1, my, numero);
+            Subdiviser(x0, my, x1, y1, numero);
+        }
+    }
+
+
+    /**
+     * indique si deux pixels calculés voient la même sphère sous une couleur et
+     * une normale proches, ou tous deux le ciel avec une couleur proche
+     */
+    private boolean Semblables(int i, int j)
+    {
+        if (objets[i] != objets[j]) return false;
+        for (int k = 0; k < 3; k++) {
+            if (Math.abs(couleurs[3*i+k] - couleurs[3*j+k]) > SEUIL_COULEUR) return false;
+        }
+        if (objets[i] == null) return true;
+        float cos = normales[3*i]*normales[3*j] + normales[3*i+1]*normales[3*j+1] + normales[3*i+2]*normales[3*j+2];
+        return cos >= COS_NORMALES;
+    }
+
+
+    /**
+     * indique si une autre sphère du casier que celle vue aux coins peut être vue
+     * entre les coins. Quand les quatre coins voient la même sphère, tous les rayons
+     * du carré la rencontrent (les rayons qui rencontrent une sphère forment un cône
+     * convexe) : seule une sphère qui peut passer devant elle est à craindre.
+     * Quand ils voient le ciel ou un maillage, toute sphère du casier est à craindre.
+     */
+    private boolean Cache(final Objet objet, int numero)
+    {
+        Point oeil = camera.getOeil();
+        float loin = Constantes.INFINI;
+        if (objet instanceof Sphere) {
+            Sphere sphere = (Sphere) objet;
+            loin = new Vecteur(oeil, sphere.centre).norme() + sphere.rayon;
+        }
+        int[] indices = casier.getIndices();
+        for (int k = casier.getDebut(numero); k < casier.getFin(numero); k++) {
+            Sphere autre = scene.getObjets().get(indices[k]);
+            if (autre != objet && new Vecteur(oeil, autre.centre).norme() - autre.rayon < loin) return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * remplit les pixels non calculés du rectangle par interpolation bilinéaire des coins
+     */
+    private void Interpoler(int x0, int y0, int x1, int y1)
+    {
+        int a = y0 * largeur + x0, b = y0 * largeur + x1;
+        int c = y1 * largeur + x0, d = y1 * largeur + x1;
+        for (int ye = y0; ye <= y1; ye++) {
+            float v = (y1 > y0) ? (ye - y0) / (float) (y1 - y0) : 0.0f;
+            for (int xe = x0; xe <= x1; xe++) {
+                int i = ye * largeur + xe;
+                if (calcules[i]) continue;
+                float u = (x1 > x0) ? (xe - x0) / (float) (x1 - x0) : 0.0f;
+                for (int k = 0; k < 3; k++) {
+                    float haut = couleurs[3*a+k] + (couleurs[3*b+k] - couleurs[3*a+k]) * u;
+                    float bas  = couleurs[3*c+k] + (couleurs[3*d+k] - couleurs[3*c+k]) * u;
+                    couleurs[3*i+k] = haut + (bas - haut) * v;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * nombre de pixels dont le rayon a été lancé, les autres ont été interpolés
+     * @return
+     */
+    public int getNombreCalcules()
+    {
+        int nombre = 0;
+        for (boolean calcule : calcules) if (calcule) nombre++;
+        return nombre;
+    }
+
+
+    /**
+     * rendu adaptatif sans fenêtre
+     * usage : java RenduAdaptatif scene.txt image.png largeur hauteur
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 4) {
+            System.err.println("usage : java RenduAdaptatif scene.txt image.png largeur hauteur");
+            System.exit(1);
+        }
+        Scene scene = new Scene(args[0]);
+        int largeur = Integer.parseInt(args[2]);
+        int hauteur = Integer.parseInt(args[3]);
+
+        long startTime = System.nanoTime();
+        RenduAdaptatif rendu = new RenduAdaptatif(scene, new Camera(largeur, hauteur), Constantes.MAX_REFLETS);
+        int[] codes = rendu.Tracer();
+        long temps = Math.max(1, (System.nanoTime() - startTime) / 1000000L);
+
+        BufferedImage image = new BufferedImage(largeur, hauteur, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, largeur, hauteur, codes, 0, largeur);
+        ImageIO.write(image, "png", new File(args[1]));
+        System.out.println("Temps: "+temps+" ms, "+(100L * rendu.getNombreCalcules() / ((long) largeur * hauteur))+"% des pixels calculés");
+    }
+}
@@ -0,0 +1,226 @@
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+
+/**
+ * Cette classe dessine une image de très grande taille sans fenêtre :
+ * l'image est calculée par bandes horizontales de quelques lignes, et
+ * chaque bande terminée est confiée à un thread qui l'encode en PNG
+ * pendant que la bande suivante est calculée.
+ * La mémoire occupée dépend de la hauteur des bandes, pas de celle de l'image.
+ * Avec un cache (voir CacheTuiles), les bandes sont découpées en tuiles carrées
+ * et les tuiles déjà calculées lors d'un rendu précédent sont relues.
+ */
+public class RenduBandes
+{
+    // nombre de bandes allouées : une en calcul, les autres en attente ou en encodage
+    private static final int NB_BANDES = 3;
+
+    // attente maximale d'une bande libre avant de vérifier que le thread d'encodage tourne encore, en ms
+    private static final long ATTENTE = 100;
+
+    private final Scene scene;
+    private final Camera camera;
+    private final int hauteurBande;
+    private int maxReflets = Constantes.MAX_REFLETS;
+
+    // tuiles déjà calculées, null si aucun
+    private CacheTuiles cache = null;
+
+
+    /**
+     * constructeur
+     * @param scene
+     * @param largeur
+     * @param hauteur
+     * @param hauteurBande nombre de lignes calculées ensemble
+     */
+    public RenduBandes(final Scene scene, int largeur, int hauteur, int hauteurBande)
+    {
+        this.scene = scene;
+        this.camera = new Camera(largeur, hauteur);
+        this.hauteurBande = hauteurBande;
+    }
+
+
+    /**
+     * change le nombre maximal de reflets, Constantes.MAX_REFLETS par défaut
+     * @param maxReflets
+     */
+    public void setMaxReflets(int maxReflets)
+    {
+        this.maxReflets = maxReflets;
+    }
+
+
+    /**
+     * emploie un cache de tuiles, null pour tout calculer
+     * @param cache
+     */
+    public void setCache(final CacheTuiles cache)
+    {
+        this.cache = cache;
+    }
+
+
+    /**
+     * calcule l'image et l'écrit en PNG dans le flux sortie
+     * @param sortie
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void Tracer(OutputStream sortie) throws IOException, InterruptedException
+    {
+        final int largeur = camera.getLargeur();
+        final int hauteur = camera.getHauteur();
+        final EncodeurPNG encodeur = new EncodeurPNG(sortie, largeur, hauteur);
+
+        // bandes libres et bandes calculées, l'ordre des lignes est conservé par la file
+        final BlockingQueue<int[]> libres = new ArrayBlockingQueue<>(NB_BANDES);
+        final BlockingQueue<int[]> pretes = new ArrayBlockingQueue<>(NB_BANDES);
+        for (int i = 0; i < NB_BANDES; i++) libres.add(new int[largeur * hauteurBande]);
+
+        // thread d'encodage : il consomme les bandes dans l'ordre
+        // en cas d'erreur d'écriture, il continue à rendre les bandes pour ne pas bloquer le calcul ;
+        // toute autre panne (mémoire, erreur de l'encodeur) l'arrête, et le calcul s'arrête aussi, voir Prendre
+        final Throwable[] erreur = new Throwable[1];
+        Thread encodage = new Thread(() -> {
+            try {
+                for (int y0 = 0; y0 < hauteur; y0 += hauteurBande) {
+                    int[] bande = pretes.take();
+                    int lignes = Math.min(hauteurBande, hauteur - y0);
+                    try {
+                        for (int dy = 0; dy < lignes && erreur[0] == null; dy++) {
+                            encodeur.AjouterLigne(bande, dy * largeur);
+                        }
+                    } catch (IOException e) {
+                        erreur[0] = e;
+                    }
+                    libres.put(bande);
+                }
+                if (erreur[0] == null) encodeur.Terminer();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+                erreur[0] = e;
+            }
+        }, "encodage PNG");
+        encodage.start();
+
+        // calcul des bandes, les rangées de paquets (ou les tuiles) d'une bande sont réparties sur tous les processeurs
+        final byte[] empreinte = (cache != null) ? CacheTuiles.Empreinte(scene, camera, maxReflets) : null;
+        boolean termine = false;
+        try {
+            int y0;
+            for (y0 = 0; y0 < hauteur; y0 += hauteurBande) {
+                final int[] bande = Prendre(libres, encodage);
+                if (bande == null) break;
+                final int debut = y0;
+                final int lignes = Math.min(hauteurBande, hauteur - y0);
+                if (cache != null) {
+                    IntStream.range(0, (largeur + hauteurBande - 1) / hauteurBande).parallel().forEach(t ->
+                        TracerTuile(empreinte, t * hauteurBande, debut, Math.min(hauteurBande, largeur - t * hauteurBande), lignes, bande));
+                } else {
+                    final int k = camera.getTaillePaquet();
+                    IntStream.range(0, (lignes + k - 1) / k).parallel().forEach(r ->
+                        camera.TracerBloc(scene, 0, debut + r * k, largeur, Math.min(k, lignes - r * k),
+                                          maxReflets, bande, r * k * largeur, largeur));
+                }
+                pretes.put(bande);
+            }
+            termine = (y0 >= hauteur);
+        } finally {
+            if (! termine) encodage.interrupt();
+            encodage.join();
+        }
+        Throwable panne = erreur[0];
+        if (panne instanceof IOException) throw (IOException) panne;
+        if (panne instanceof RuntimeException) throw (RuntimeException) panne;
+        if (panne instanceof Error) throw (Error) panne;
+        if (panne != null || ! termine) throw new IOException("encodage PNG interrompu", panne);
+    }
+
+
+    /**
+     * prend une bande libre, en vérifiant régulièrement pendant l'attente que le
+     * thread d'encodage, seul à rendre les bandes, ne s'est pas arrêté sur une panne
+     * @param libres
+     * @param encodage
+     * @return null si le thread d'encodage s'est arrêté sans rendre de bande
+     * @throws InterruptedException
+     */
+    private static int[] Prendre(final BlockingQueue<int[]> libres, final Thread encodage) throws InterruptedException
+    {
+        int[] bande;
+        while ((bande = libres.poll(ATTENTE, TimeUnit.MILLISECONDS)) == null) {
+            if (! encodage.isAlive()) return libres.poll();
+        }
+        return bande;
+    }
+
+
+    /**
+     * relit la tuile (x0,y0,l,h) dans le cache ou bien la calcule et l'y range
+     * @param empreinte empreinte de l'image
+     * @param x0
+     * @param y0 première ligne de la bande
+     * @param l
+     * @param h
+     * @param bande codes de la bande
+     */
+    private void TracerTuile(final byte[] empreinte, int x0, int y0, int l, int h, int[] bande)
+    {
+        int largeur = camera.getLargeur();
+        if (cache.Lire(empreinte, x0, y0, l, h, bande, x0, largeur)) return;
+        camera.TracerBloc(scene, x0, y0, l, h, maxReflets, bande, x0, largeur);
+        try {
+            cache.Ecrire(empreinte, x0, y0, l, h, bande, x0, largeur);
+        } catch (IOException e) {
+            // l'image reste juste, la tuile sera seulement recalculée la prochaine fois
+            System.err.println("cache : "+e);
+        }
+    }
+
+
+    /**
+     * rendu sans fenêtre d'une image de grande taille
+     * usage : java RenduBandes scene.txt image.png largeur hauteur [lignes par bande] [dossier du cache]
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 4) {
+            System.err.println("usage : java RenduBandes scene.txt image.png largeur hauteur [lignes par bande] [dossier du cache]");
+            System.exit(1);
+        }
+        Scene scene = new Scene(args[0]);
+        int largeur = Integer.parseInt(args[2]);
+        int hauteur = Integer.parseInt(args[3]);
+        int hauteurBande = args.length > 4 ? Integer.parseInt(args[4]) : 64;
+
+        RenduBandes rendu = new RenduBandes(scene, largeur, hauteur, hauteurBande);
+        CacheTuiles cache = null;
+        if (args.length > 5) {
+            cache = new CacheTuiles(Paths.get(args[5]), Constantes.TAILLE_CACHE);
+            rendu.setCache(cache);
+        }
+
+        long startTime = System.nanoTime();
+        try (OutputStream sortie = new BufferedOutputStream(new FileOutputStream(args[1]))) {
+            rendu.Tracer(sortie);
+        }
+        long temps = Math.max(1, (System.nanoTime() - startTime) / 1000000L);
+        System.out.println("Temps: "+temps+" ms soit "+((long) largeur*hauteur*1000/temps)+" pixels par seconde");
+        if (cache != null) {
+            System.out.println("Cache: "+cache.getSucces()+" tuiles relues, "+cache.getEchecs()+" tuiles calculées");
+        }
+    }
+}
@@ -0,0 +1,155 @@
+import java.awt.image.BufferedImage;
+import java.util.stream.IntStream;
+
+
+/**
+ * Cette classe calcule les images d'aperçu pendant que l'utilisateur déplace la
+ * caméra. Pour tenir le temps alloué à chaque image (Constantes.BUDGET_IMAGE),
+ * elle ajuste d'après les temps mesurés la taille des pixels de l'aperçu puis le
+ * nombre de reflets : elle réduit d'abord les reflets, puis la définition, et
+ * rétablit d'abord la définition, puis les reflets.
+ * Les aperçus sont calculés dans un thread à part, un à la fois ; une demande
+ * faite pendant un calcul est traitée dès qu'il se termine. Si Constantes.REPROJECTION,
+ * les pixels de l'aperçu précédent encore valables sont réemployés (voir Reprojection).
+ * Si Constantes.CARTES_OMBRES, les ombres sont lues dans les cartes d'ombres des
+ * lampes au lieu de lancer des rayons (voir CarteOmbres).
+ */
+public class RenduInteractif
+{
+    // taille maximale des pixels de l'aperçu
+    private static final float FACTEUR_MAX = 16.0f;
+
+    /**
+     * ce qui reçoit les aperçus calculés
+     */
+    public interface Destinataire
+    {
+        /**
+         * appelé dans le thread de calcul à chaque aperçu terminé
+         * @param image aperçu, à agrandir à la taille de la vue
+         * @param millisecondes temps de calcul de l'aperçu
+         * @param reflets nombre de reflets calculés
+         * @param calcules nombre de pixels dont l'éclairage a été calculé, les autres ont été réemployés
+         */
+        void Afficher(BufferedImage image, long millisecondes, int reflets, int calcules);
+    }
+
+    private final Scene scene;
+    private final CameraOrbite vue;
+    private final Destinataire destinataire;
+
+    // taille de la vue en pixels
+    private int largeur = 1;
+    private int hauteur = 1;
+
+    // taille des pixels de l'aperçu et nombre de reflets actuels
+    private float facteur = 4.0f;
+    private int reflets = 1;
+
+    // une demande d'aperçu est en attente
+    private boolean demande = false;
+
+    // pixels de l'aperçu précédent, null si la reprojection n'est pas employée
+    private final Reprojection reprojection = Constantes.REPROJECTION ? new Reprojection() : null;
+
+
+    /**
+     * constructeur : démarre le thread de calcul, qui attend les demandes
+     * @param scene
+     * @param vue
+     * @param destinataire
+     */
+    public RenduInteractif(final Scene scene, final CameraOrbite vue, final Destinataire destinataire)
+    {
+        this.scene = scene;
+        this.vue = vue;
+        this.destinataire = destinataire;
+        Thread thread = new Thread(this::Boucle, "aperçu interactif");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    /**
+     * demande un nouvel aperçu de la vue
+     * @param largeur taille de la vue
+     * @param hauteur
+     */
+    public synchronized void Demander(int largeur, int hauteur)
+    {
+        this.largeur = Math.max(1, largeur);
+        this.hauteur = Math.max(1, hauteur);
+        demande = true;
+        notifyAll();
+    }
+
+
+    private void Boucle()
+    {
+        try {
+            while (true) {
+                int l, h;
+                synchronized (this) {
+                    while (! demande) wait();
+                    demande = false;
+                    l = Math.max(1, Math.round(largeur / facteur));
+                    h = Math.max(1, Math.round(hauteur / facteur));
+                }
+                long debut = System.nanoTime();
+                Camera camera = vue.getCamera(l, h);
+                camera.setCartesOmbres(Constantes.CARTES_OMBRES);
+                BufferedImage image = Tracer(camera, reflets);
+                long temps = (System.nanoTime() - debut) / 1000000L;
+                int calcules = (reprojection != null) ? reprojection.getCalcules() : l * h;
+                destinataire.Afficher(image, temps, reflets, calcules);
+                Ajuster(temps);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * calcule un aperçu, lignes réparties sur tous les processeurs
+     */
+    private BufferedImage Tracer(final Camera camera, int reflets)
+    {
+        final int l = camera.getLargeur();
+        final int[] codes;
+        if (reprojection != null) {
+            codes = reprojection.Tracer(scene, camera, reflets);
+        } else {
+            codes = new int[l * camera.getHauteur()];
+            IntStream.range(0, camera.getHauteur()).parallel().forEach(ye ->
+                camera.TracerLigne(scene, ye, reflets, codes, ye * l));
+        }
+        BufferedImage image = new BufferedImage(l, camera.getHauteur(), BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, l, camera.getHauteur(), codes, 0, l);
+        return image;
+    }
+
+
+    /**
+     * adapte la qualité du prochain aperçu au temps de calcul du dernier :
+     * le temps est à peu près proportionnel au nombre de pixels, donc à 1/facteur²
+     * @param temps en ms
+     */
+    private synchronized void Ajuster(long temps)
+    {
+        final float budget = Constantes.BUDGET_IMAGE;
+        if (temps > budget) {
+            if (reflets > 1) {
+                reflets--;
+            } else {
+                facteur = Math.min(FACTEUR_MAX, facteur * (float) Math.sqrt(temps / budget) * 1.1f);
+            }
+        } else if (temps < budget * 0.5f) {
+            if (facteur > 1.0f) {
+                facteur = Math.max(1.0f, facteur * (float) Math.sqrt(Math.max(temps, 1) / (budget * 0.8f)));
+            } else if (reflets < Constantes.MAX_REFLETS) {
+                reflets++;
+            }
+        }
+    }
+}
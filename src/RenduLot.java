@@ -0,0 +1,399 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+
+/**
+ * Cette classe dessine sans fenêtre un lot d'images, une par scène, dans une
+ * seule JVM : les scènes sont lues, calculées et encodées en PNG (RenduBandes)
+ * à la suite, les étapes de travaux différents se recouvrant. Une scène est lue
+ * pendant que d'autres sont calculées ; les calculs, au plus calculs à la fois,
+ * se partagent un seul ensemble de threads (ForkJoinPool) ; chaque image est
+ * encodée pendant son calcul.
+ * Un travail n'est commencé que si la mémoire qu'il demande (estimée d'après la
+ * taille de ses fichiers, ses nombres d'objets et de lampes, et la taille de
+ * l'image) est disponible : une très grosse
+ * scène attend que les autres travaux soient terminés au lieu de faire manquer
+ * de mémoire tout le lot.
+ */
+public class RenduLot
+{
+    // mémoire estimée par octet des fichiers scène et maillages (objets lus)
+    private static final int OCTETS_PAR_OCTET_LU = 8;
+
+    // octets de fichier OBJ par triangle au moins (sommets compris), pour estimer le nombre de triangles
+    private static final int OCTETS_OBJ_PAR_TRIANGLE = 16;
+
+    // mémoire de la hiérarchie (ArbreSpheres) par objet pendant sa construction : boîtes des
+    // objets, indices, et boîtes et liens des noeuds, au plus deux par objet
+    private static final int OCTETS_ARBRE_PAR_OBJET = 120;
+
+    // lignes par bande des images
+    private static final int HAUTEUR_BANDE = 64;
+
+    /**
+     * un travail : une scène, la taille de l'image et le nombre de reflets, et ce qui a été mesuré
+     */
+    private static class Travail
+    {
+        final String scene;
+        final int largeur, hauteur, reflets;
+        String image;
+        int memoire;
+
+        // instants (System.nanoTime) de l'admission, de la fin de lecture, du début et de la fin du calcul
+        long admis, lu, debut, fin;
+        String erreur = null;
+
+        Travail(final String scene, int largeur, int hauteur, int reflets)
+        {
+            this.scene = scene;
+            this.largeur = largeur;
+            this.hauteur = hauteur;
+            this.reflets = reflets;
+        }
+    }
+
+    private final File dossier;
+    private final int calculs;
+    private final ForkJoinPool pool;
+
+    // mémoire disponible pour les travaux en cours, en Mo
+    private final int memoireTotale;
+    private final Semaphore memoire;
+
+    private final List<Travail> travaux = new ArrayList<>();
+
+
+    /**
+     * constructeur
+     * @param dossier reçoit les images
+     * @param calculs nombre maximal d'images calculées en même temps
+     * @param memoireTotale mémoire que les travaux en cours peuvent occuper, en Mo
+     */
+    public RenduLot(final File dossier, int calculs, int memoireTotale)
+    {
+        this.dossier = dossier;
+        this.calculs = Math.max(1, calculs);
+        this.pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        this.memoireTotale = Math.max(1, memoireTotale);
+        this.memoire = new Semaphore(this.memoireTotale);
+    }
+
+
+    /**
+     * ajoute les travaux d'un motif : un fichier scène, ou bien un motif de noms
+     * (glob : scenes/*.txt, scenes/**.txt...), chaque image étant nommée
+     * d'après sa scène
+     * @param motif
+     * @param largeur
+     * @param hauteur
+     * @param reflets
+     * @throws IOException
+     */
+    public void Ajouter(final String motif, int largeur, int hauteur, int reflets) throws IOException
+    {
+        for (String scene : Developper(motif)) travaux.add(new Travail(scene, largeur, hauteur, reflets));
+    }
+
+
+    /**
+     * lit une liste de travaux : une ligne par motif, suivi éventuellement de la
+     * largeur et de la hauteur de l'image et du nombre de reflets ; les lignes vides
+     * et celles qui commencent par # sont ignorées
+     * @param nom du fichier liste
+     * @param largeur par défaut
+     * @param hauteur par défaut
+     * @param reflets par défaut
+     * @throws IOException
+     */
+    public void Lire(final String nom, int largeur, int hauteur, int reflets) throws IOException
+    {
+        try (BufferedReader br = new BufferedReader(new FileReader(nom))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] mots = line.split("\\s+");
+                Ajouter(mots[0],
+                        mots.length > 2 ? Integer.parseInt(mots[1]) : largeur,
+                        mots.length > 2 ? Integer.parseInt(mots[2]) : hauteur,
+                        mots.length > 3 ? Integer.parseInt(mots[3]) : reflets);
+            }
+        }
+    }
+
+
+    /**
+     * noms des fichiers qui correspondent au motif, dans l'ordre alphabétique
+     */
+    private static List<String> Developper(final String motif) throws IOException
+    {
+        if (! motif.matches(".*[*?\\[{].*")) {
+            List<String> un = new ArrayList<>();
+            un.add(motif);
+            return un;
+        }
+        // dossier de départ : les éléments du chemin avant le premier qui contient un joker
+        Path chemin = Paths.get(motif);
+        Path base = (chemin.isAbsolute()) ? chemin.getRoot() : Paths.get("");
+        for (Path element : chemin) {
+            if (element.toString().matches(".*[*?\\[{].*")) break;
+            base = base.resolve(element);
+        }
+        final PathMatcher filtre = FileSystems.getDefault().getPathMatcher("glob:" + motif);
+        final boolean relatif = base.toString().isEmpty();
+        final Path depart = relatif ? Paths.get(".") : base;
+        try (Stream<Path> fichiers = Files.walk(depart)) {
+            return fichiers.filter(Files::isRegularFile)
+                    .map(p -> relatif ? depart.relativize(p) : p)
+                    .filter(filtre::matches)
+                    .map(Path::toString)
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+
+    /**
+     * estime la mémoire occupée par un travail : objets de la scène et des
+     * maillages qu'elle cite, termes précalculés des origines communes (16
+     * octets par sphère pour l'oeil et pour chaque lampe), hiérarchie des
+     * objets, et bandes de l'image
+     * @return en Mo, au plus la mémoire totale : un travail plus gros est fait seul
+     */
+    private int Estimer(final Travail travail)
+    {
+        long octets = 0, spheres = 0, lampes = 0, triangles = 0;
+        File fichier = new File(travail.scene);
+        octets += fichier.length();
+        try (BufferedReader br = new BufferedReader(new FileReader(fichier))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] mots = line.trim().split("[ \t]");
+                if (mots[0].equalsIgnoreCase("objet")) {
+                    spheres++;
+                } else if (mots[0].equalsIgnoreCase("lampe")) {
+                    lampes++;
+                } else if (mots.length > 1 && mots[0].equalsIgnoreCase("maillage")) {
+                    File obj = new File(mots[1]);
+                    if (! obj.isAbsolute()) obj = new File(fichier.getAbsoluteFile().getParentFile(), mots[1]);
+                    octets += obj.length();
+                    triangles += obj.length() / OCTETS_OBJ_PAR_TRIANGLE;
+                }
+            }
+        } catch (IOException e) {
+            // la lecture de la scène signalera l'erreur
+        }
+        // termes précalculés de l'oeil et des lampes, représentants des groupes compris, limités par Scene.getOrigine
+        long origines = Constantes.SELECTION_LAMPES ? 2 * lampes - 1 : lampes;
+        long termes = 16L * spheres + Math.min(16L * spheres * origines, Constantes.MAX_OCTETS_ORIGINES);
+        long arbre = (spheres + triangles >= Constantes.MIN_SPHERES_ARBRE) ? OCTETS_ARBRE_PAR_OBJET * (spheres + triangles) : 0;
+        octets = octets * OCTETS_PAR_OCTET_LU + termes + arbre + 4L * 4 * travail.largeur * HAUTEUR_BANDE;
+        return (int) Math.min(memoireTotale, Math.max(1, (octets + (1 << 20) - 1) >> 20));
+    }
+
+
+    /**
+     * nom de l'image d'une scène dans le dossier, différent de ceux déjà donnés
+     */
+    private String NommerImage(final String scene, final Set<String> noms)
+    {
+        String nom = new File(scene).getName();
+        if (nom.lastIndexOf('.') > 0) nom = nom.substring(0, nom.lastIndexOf('.'));
+        String image = nom + ".png";
+        for (int i = 2; ! noms.add(image); i++) image = nom + "-" + i + ".png";
+        return new File(dossier, image).getPath();
+    }
+
+
+    /**
+     * fait tous les travaux : le thread appelant admet les travaux un à un dans
+     * l'ordre, en attendant si nécessaire que la mémoire se libère
+     * @throws InterruptedException
+     */
+    public void Executer() throws InterruptedException
+    {
+        dossier.mkdirs();
+        ExecutorService lecture = Executors.newSingleThreadExecutor();
+        ExecutorService calcul = Executors.newFixedThreadPool(calculs);
+        List<CompletableFuture<Void>> encours = new ArrayList<>();
+        Set<String> noms = new HashSet<>();
+        try {
+            for (final Travail travail : travaux) {
+                travail.image = NommerImage(travail.scene, noms);
+                travail.memoire = Estimer(travail);
+                memoire.acquire(travail.memoire);
+                travail.admis = System.nanoTime();
+                encours.add(CompletableFuture
+                        .supplyAsync(() -> LireScene(travail), lecture)
+                        .thenAcceptAsync(scene -> Tracer(travail, scene), calcul)
+                        .whenComplete((rien, e) -> {
+                            if (e != null) {
+                                Throwable cause = e;
+                                while (cause.getCause() != null) cause = cause.getCause();
+                                travail.erreur = cause.toString();
+                            }
+                            if (travail.fin == 0) travail.fin = System.nanoTime();
+                            memoire.release(travail.memoire);
+                        }));
+            }
+            for (CompletableFuture<Void> f : encours) {
+                try {
+                    f.join();
+                } catch (RuntimeException e) {
+                    // erreur notée dans le travail
+                }
+            }
+        } finally {
+            lecture.shutdown();
+            calcul.shutdown();
+        }
+    }
+
+
+    private Scene LireScene(final Travail travail)
+    {
+        try {
+            Scene scene = new Scene(travail.scene);
+            travail.lu = System.nanoTime();
+            return scene;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    /**
+     * calcule et encode l'image d'un travail, les lignes étant réparties sur les threads communs
+     */
+    private void Tracer(final Travail travail, final Scene scene)
+    {
+        travail.debut = System.nanoTime();
+        RenduBandes rendu = new RenduBandes(scene, travail.largeur, travail.hauteur, HAUTEUR_BANDE);
+        rendu.setMaxReflets(travail.reflets);
+        try {
+            pool.submit(() -> {
+                try (OutputStream sortie = new BufferedOutputStream(new FileOutputStream(travail.image))) {
+                    rendu.Tracer(sortie);
+                }
+                return null;
+            }).get();
+        } catch (Exception e) {
+            throw new RuntimeException(e.getCause() != null ? e.getCause() : e);
+        }
+        travail.fin = System.nanoTime();
+    }
+
+
+    /**
+     * écrit le compte rendu : pour chaque travail, temps de lecture, d'attente d'un
+     * calcul, de calcul (avec l'encodage) et total depuis son admission ; puis débit
+     * du lot et rapport entre les temps de lecture et de calcul cumulés et sa durée
+     * @param sortie
+     * @param total durée du lot en ns
+     */
+    public void Rapport(final PrintWriter sortie, long total)
+    {
+        sortie.println(String.format("%-40s %11s %8s %9s %8s %8s %8s  %s", "scène", "image", "mémoire", "lecture", "attente", "calcul", "total", "état"));
+        long pixels = 0, somme = 0;
+        int reussis = 0;
+        for (Travail t : travaux) {
+            long lecture = (t.lu > 0) ? (t.lu - t.admis) / 1000000L : 0;
+            long attente = (t.debut > 0) ? (t.debut - t.lu) / 1000000L : 0;
+            long calcul = (t.debut > 0 && t.fin > 0) ? (t.fin - t.debut) / 1000000L : 0;
+            long duree = (t.fin - t.admis) / 1000000L;
+            sortie.println(String.format("%-40s %5dx%-5d %5d Mo %6d ms %5d ms %5d ms %5d ms  %s",
+                    t.scene, t.largeur, t.hauteur, t.memoire, lecture, attente, calcul, duree, (t.erreur == null) ? "ok" : t.erreur));
+            if (t.erreur == null) {
+                reussis++;
+                pixels += (long) t.largeur * t.hauteur;
+                somme += lecture + calcul;
+            }
+        }
+        long ms = Math.max(1, total / 1000000L);
+        sortie.println(String.format("%d images sur %d en %d ms : %.1f images/min, %d pixels/s ; lectures et calculs cumulés %d ms (recouvrement x%.2f)",
+                reussis, travaux.size(), ms, reussis * 60000.0 / ms, pixels * 1000 / ms, somme, somme / (double) ms));
+        sortie.flush();
+    }
+
+
+    /**
+     * rendu sans fenêtre d'un lot de scènes
+     * usage : java RenduLot dossier_images (scène|motif|@liste)... [-taille LxH] [-reflets n] [-calculs n] [-memoire Mo]
+     * les options -taille et -reflets s'appliquent aux motifs qui les suivent et
+     * sont les valeurs par défaut des listes ; le compte rendu est aussi écrit
+     * dans dossier_images/rapport.txt
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 2) {
+            System.err.println("usage : java RenduLot dossier_images (scène|motif|@liste)... [-taille LxH] [-reflets n] [-calculs n] [-memoire Mo]");
+            System.exit(1);
+        }
+        int largeur = Constantes.LARGEUR_IMAGE, hauteur = Constantes.HAUTEUR_IMAGE, reflets = Constantes.MAX_REFLETS;
+        int calculs = 2;
+        Runtime runtime = Runtime.getRuntime();
+        int memoire = (int) ((runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory())) * 3 / 4 >> 20);
+        // les options sont lues avant les motifs, sauf -taille et -reflets qui s'appliquent dans l'ordre
+        for (int i = 1; i < args.length - 1; i++) {
+            if (args[i].equals("-calculs")) calculs = Integer.parseInt(args[i+1]);
+            if (args[i].equals("-memoire")) memoire = Integer.parseInt(args[i+1]);
+        }
+        RenduLot lot = new RenduLot(new File(args[0]), calculs, memoire);
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+            case "-taille":
+                String[] taille = args[++i].split("x");
+                largeur = Integer.parseInt(taille[0]);
+                hauteur = Integer.parseInt(taille[1]);
+                break;
+            case "-reflets":
+                reflets = Integer.parseInt(args[++i]);
+                break;
+            case "-calculs":
+            case "-memoire":
+                i++;
+                break;
+            default:
+                if (args[i].startsWith("@")) {
+                    lot.Lire(args[i].substring(1), largeur, hauteur, reflets);
+                } else {
+                    lot.Ajouter(args[i], largeur, hauteur, reflets);
+                }
+            }
+        }
+
+        long debut = System.nanoTime();
+        lot.Executer();
+        long total = System.nanoTime() - debut;
+        lot.Rapport(new PrintWriter(System.out), total);
+        try (PrintWriter rapport = new PrintWriter(new File(args[0], "rapport.txt"), "UTF-8")) {
+            lot.Rapport(rapport, total);
+        }
+        lot.pool.shutdown();
+    }
+}
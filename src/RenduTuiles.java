@@ -0,0 +1,156 @@
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
+
+
+/**
+ * Cette classe calcule une image par tuiles carrées réparties sur tous les
+ * processeurs, pour l'affichage pendant le calcul : chaque tuile terminée est
+ * publiée dans une file sans verrou, et c'est le thread d'affichage qui la
+ * recopie dans l'image affichée quand il le veut (voir Afficher). Les threads de
+ * calcul n'écrivent jamais dans l'image affichée et n'attendent jamais l'affichage.
+ */
+public class RenduTuiles
+{
+    // côté des tuiles en pixels
+    private static final int COTE = 32;
+
+    /**
+     * tuile terminée : position, taille et codes couleur de ses pixels, ligne par ligne
+     */
+    private static class Tuile
+    {
+        final int x, y, l, h;
+        final int[] codes;
+
+        Tuile(int x, int y, int l, int h, final int[] codes)
+        {
+            this.x = x;
+            this.y = y;
+            this.l = l;
+            this.h = h;
+            this.codes = codes;
+        }
+    }
+
+    private final Scene scene;
+    private final Camera camera;
+    private final int maxReflets;
+
+    // image en réels, avant correction gamma, null si aucune
+    private final ImageHDR hdr;
+
+    // nombre de tuiles en largeur et en hauteur
+    private final int nx, ny;
+
+    // tuiles publiées et pas encore affichées
+    private final ConcurrentLinkedQueue<Tuile> publiees = new ConcurrentLinkedQueue<>();
+
+    // nombre de tuiles terminées
+    private final AtomicInteger terminees = new AtomicInteger();
+
+
+    /**
+     * constructeur
+     * @param scene
+     * @param camera
+     * @param maxReflets
+     * @param hdr reçoit les couleurs avant correction gamma, null si aucune
+     */
+    public RenduTuiles(final Scene scene, final Camera camera, int maxReflets, final ImageHDR hdr)
+    {
+        this.scene = scene;
+        this.camera = camera;
+        this.maxReflets = maxReflets;
+        this.hdr = hdr;
+        this.nx = (camera.getLargeur() + COTE - 1) / COTE;
+        this.ny = (camera.getHauteur() + COTE - 1) / COTE;
+    }
+
+
+    /**
+     * calcule toutes les tuiles, en parallèle, et publie chacune dès qu'elle est terminée
+     * @param arret indique s'il faut abandonner le calcul, consulté avant chaque tuile
+     * @return codes couleur de l'image entière, ligne par ligne (incomplets si le calcul a été abandonné)
+     */
+    public int[] Tracer(final BooleanSupplier arret)
+    {
+        final int largeur = camera.getLargeur();
+        final int[] image = new int[largeur * camera.getHauteur()];
+        IntStream.range(0, nx * ny).parallel().forEach(t -> {
+            if (arret.getAsBoolean()) return;
+            int x0 = (t % nx) * COTE, y0 = (t / nx) * COTE;
+            int l = Math.min(COTE, largeur - x0), h = Math.min(COTE, camera.getHauteur() - y0);
+            int[] codes = new int[l * h];
+            if (hdr == null) {
+                camera.TracerBloc(scene, x0, y0, l, h, maxReflets, codes, 0, l);
+            } else {
+                for (int dy = 0; dy < h; dy++) {
+                    for (int dx = 0; dx < l; dx++) {
+                        Couleur couleur = camera.CouleurPixel(scene, x0 + dx, y0 + dy, maxReflets);
+                        hdr.setPixel(x0 + dx, y0 + dy, couleur);
+                        codes[dy * l + dx] = couleur.correctionGamma(0.8f).getCode();
+                    }
+                }
+            }
+            for (int dy = 0; dy < h; dy++) System.arraycopy(codes, dy * l, image, (y0 + dy) * largeur + x0, l);
+            Publier(x0, y0, l, h, codes);
+            terminees.incrementAndGet();
+        });
+        return image;
+    }
+
+
+    /**
+     * publie un rectangle de pixels à afficher, par exemple un brouillon de l'image
+     * @param x colonne du premier pixel
+     * @param y ligne du premier pixel
+     * @param l nombre de colonnes
+     * @param h nombre de lignes
+     * @param codes codes couleur, ligne par ligne ; ils ne doivent plus être modifiés
+     */
+    public void Publier(int x, int y, int l, int h, final int[] codes)
+    {
+        publiees.add(new Tuile(x, y, l, h, codes));
+    }
+
+
+    /**
+     * recopie dans image les tuiles publiées depuis le dernier appel ; à appeler
+     * dans le thread d'affichage, seul à écrire dans image
+     * @param image de la taille de la caméra
+     * @return rectangle qui englobe les tuiles recopiées, à redessiner, null si aucune
+     */
+    public Rectangle Afficher(final BufferedImage image)
+    {
+        Rectangle zone = null;
+        Tuile tuile;
+        while ((tuile = publiees.poll()) != null) {
+            image.setRGB(tuile.x, tuile.y, tuile.l, tuile.h, tuile.codes, 0, tuile.l);
+            Rectangle r = new Rectangle(tuile.x, tuile.y, tuile.l, tuile.h);
+            zone = (zone == null) ? r : zone.union(r);
+        }
+        return zone;
+    }
+
+
+    public int getNombreTuiles()
+    {
+        return nx * ny;
+    }
+
+
+    public int getTerminees()
+    {
+        return terminees.get();
+    }
+
+
+    public Camera getCamera()
+    {
+        return camera;
+    }
+}
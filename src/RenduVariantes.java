@@ -0,0 +1,110 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import javax.imageio.ImageIO;
+
+
+/**
+ * Cette classe calcule en un seul passage les images d'une même scène sous
+ * plusieurs éclairages : les rayons primaires et réfléchis, qui ne dépendent
+ * pas des lampes, sont lancés une seule fois pour tous les éclairages, puis
+ * les lampes de chaque éclairage sont examinées (voir Objet.PhongVariantes).
+ * Chaque image est identique à celle de la scène dont les lampes seraient
+ * celles de l'éclairage, sans sélection des lampes.
+ */
+public class RenduVariantes
+{
+    private final Scene scene;
+    private final Camera camera;
+    private final List<List<Lampe>> eclairages;
+
+
+    /**
+     * constructeur
+     * @param scene sphères à dessiner, ses lampes sont ignorées
+     * @param camera
+     * @param eclairages listes de lampes, une par image
+     */
+    public RenduVariantes(final Scene scene, final Camera camera, final List<List<Lampe>> eclairages)
+    {
+        this.scene = scene;
+        this.camera = camera;
+        this.eclairages = eclairages;
+    }
+
+
+    /**
+     * calcule les images, lignes réparties sur tous les processeurs
+     * @param maxReflets
+     * @return pour chaque éclairage, codes couleur (gamma corrigés) des pixels ligne par ligne
+     */
+    public int[][] Tracer(int maxReflets)
+    {
+        final int largeur = camera.getLargeur();
+        final int[][] codes = new int[eclairages.size()][largeur * camera.getHauteur()];
+        IntStream.range(0, camera.getHauteur()).parallel().forEach(ye -> {
+            for (int xe = 0; xe < largeur; xe++) {
+                int i = ye * largeur + xe;
+                Rayon initial = camera.RayonPrimaire(xe, ye);
+                if (camera.ChercherIntersectionPrimaire(scene, initial, xe, ye)) {
+                    Couleur[] couleurs = initial.getObjet().PhongVariantes(scene, initial, maxReflets, eclairages);
+                    for (int e = 0; e < codes.length; e++) codes[e][i] = couleurs[e].correctionGamma(0.8f).getCode();
+                } else {
+                    int ciel = initial.Ciel().correctionGamma(0.8f).getCode();
+                    for (int e = 0; e < codes.length; e++) codes[e][i] = ciel;
+                }
+            }
+        });
+        return codes;
+    }
+
+
+    /**
+     * crée une scène avec les sphères de scene et les lampes indiquées
+     * @param scene
+     * @param lampes
+     * @return
+     */
+    public static Scene Eclairer(final Scene scene, final List<Lampe> lampes)
+    {
+        Scene eclairee = new Scene();
+        for (Sphere sphere : scene.getObjets()) eclairee.ajouterObjet(sphere);
+        for (Lampe lampe : lampes) eclairee.ajouterLampe(lampe);
+        return eclairee;
+    }
+
+
+    /**
+     * rendu sans fenêtre d'une scène sous plusieurs éclairages, chacun pris dans
+     * les lampes d'un fichier scène ; l'image de l'éclairage n est écrite dans prefixe-n.png
+     * usage : java RenduVariantes scene.txt prefixe largeur hauteur eclairage1.txt [eclairage2.txt...]
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 5) {
+            System.err.println("usage : java RenduVariantes scene.txt prefixe largeur hauteur eclairage1.txt [eclairage2.txt...]");
+            System.exit(1);
+        }
+        Scene scene = new Scene(args[0]);
+        int largeur = Integer.parseInt(args[2]);
+        int hauteur = Integer.parseInt(args[3]);
+        List<List<Lampe>> eclairages = new ArrayList<>();
+        for (int i = 4; i < args.length; i++) eclairages.add(new Scene(args[i]).getLampes());
+
+        long startTime = System.nanoTime();
+        int[][] codes = new RenduVariantes(scene, new Camera(largeur, hauteur), eclairages).Tracer(Constantes.MAX_REFLETS);
+        long temps = Math.max(1, (System.nanoTime() - startTime) / 1000000L);
+
+        for (int e = 0; e < codes.length; e++) {
+            BufferedImage image = new BufferedImage(largeur, hauteur, BufferedImage.TYPE_INT_RGB);
+            image.setRGB(0, 0, largeur, hauteur, codes[e], 0, largeur);
+            ImageIO.write(image, "png", new File(args[1]+"-"+(e+1)+".png"));
+        }
+        System.out.println("Temps: "+temps+" ms pour "+codes.length+" éclairages");
+    }
+}
@@ -0,0 +1,188 @@
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.stream.IntStream;
+
+import javax.imageio.ImageIO;
+
+
+/**
+ * Cette classe calcule en un seul travail plusieurs vues d'une même scène, par
+ * exemple une paire stéréo ou une planche de vues voisines : la scène, sa
+ * hiérarchie et les termes précalculés des lampes sont communs à toutes les vues,
+ * et les tuiles de toutes les vues sont réparties ensemble sur les processeurs,
+ * la même tuile de chaque vue à la suite. Les ombres des lampes, ponctuelles ou
+ * étendues, aux points vus par les rayons primaires peuvent être partagées entre
+ * les vues (voir CacheOmbres) ; sans ce partage, chaque image est identique à
+ * celle de sa caméra calculée seule.
+ */
+public class RenduVues
+{
+    // côté des tuiles en pixels
+    private static final int COTE = 32;
+
+    // nombre de cases de la table des ombres partagées
+    private static final int TAILLE_CACHE = 1 << 16;
+
+    private final Scene scene;
+    private final Camera[] cameras;
+    private final int maxReflets;
+
+    // ombres partagées entre les vues, null si aucune
+    private final CacheOmbres cache;
+
+
+    /**
+     * constructeur
+     * @param scene
+     * @param cameras une par vue, toutes de la même taille d'image
+     * @param maxReflets
+     * @param partage partage des ombres entre les vues
+     */
+    public RenduVues(final Scene scene, final Camera[] cameras, int maxReflets, boolean partage)
+    {
+        for (Camera camera : cameras) {
+            if (camera.getLargeur() != cameras[0].getLargeur() || camera.getHauteur() != cameras[0].getHauteur()) {
+                throw new IllegalArgumentException("RenduVues : vues de tailles différentes");
+            }
+        }
+        this.scene = scene;
+        this.cameras = cameras;
+        this.maxReflets = maxReflets;
+        if (partage) {
+            // cellules de la taille d'un pixel vu depuis le milieu des yeux
+            float x = 0, y = 0, z = 0;
+            for (Camera camera : cameras) {
+                x += camera.getOeil().x; y += camera.getOeil().y; z += camera.getOeil().z;
+            }
+            Point milieu = new Point(x / cameras.length, y / cameras.length, z / cameras.length);
+            float angle = 1.0f / (Constantes.DISTECRAN * cameras[0].getEchelle());
+            this.cache = new CacheOmbres(scene, milieu, angle, TAILLE_CACHE);
+        } else {
+            this.cache = null;
+        }
+    }
+
+
+    /**
+     * calcule toutes les vues, tuiles réparties sur tous les processeurs
+     * @return pour chaque vue, codes couleur (gamma corrigés) des pixels ligne par ligne
+     */
+    public int[][] Tracer()
+    {
+        final int largeur = cameras[0].getLargeur(), hauteur = cameras[0].getHauteur();
+        final int nx = (largeur + COTE - 1) / COTE, ny = (hauteur + COTE - 1) / COTE;
+        final int vues = cameras.length;
+        final int[][] codes = new int[vues][largeur * hauteur];
+        for (int v = 0; v < vues; v++) cameras[v].setCacheOmbres(cache != null ? cache.Vue(v) : null);
+        try {
+            IntStream.range(0, vues * nx * ny).parallel().forEach(t -> {
+                int v = t % vues, tuile = t / vues;
+                int x0 = (tuile % nx) * COTE, y0 = (tuile / nx) * COTE;
+                int l = Math.min(COTE, largeur - x0), h = Math.min(COTE, hauteur - y0);
+                cameras[v].TracerBloc(scene, x0, y0, l, h, maxReflets, codes[v], y0 * largeur + x0, largeur);
+            });
+        } finally {
+            for (Camera camera : cameras) camera.setCacheOmbres(null);
+        }
+        return codes;
+    }
+
+
+    /**
+     * ombres partagées entre les vues
+     * @return null si aucune
+     */
+    public CacheOmbres getCache()
+    {
+        return cache;
+    }
+
+
+    /**
+     * caméras alignées horizontalement autour de la caméra par défaut, axes parallèles
+     * @param largeur
+     * @param hauteur
+     * @param nombre nombre de vues, 2 pour une paire stéréo
+     * @param ecart distance entre deux yeux voisins
+     * @return
+     */
+    public static Camera[] Stereo(int largeur, int hauteur, int nombre, float ecart)
+    {
+        Camera[] cameras = new Camera[nombre];
+        for (int v = 0; v < nombre; v++) {
+            float x = (v - (nombre - 1) * 0.5f) * ecart;
+            cameras[v] = new Camera(new Point(x, 0, -Constantes.DISTECRAN), largeur, hauteur);
+        }
+        return cameras;
+    }
+
+
+    /**
+     * caméras tournées autour du pivot de CameraOrbite, de part et d'autre de la caméra par défaut
+     * @param scene
+     * @param largeur
+     * @param hauteur
+     * @param nombre nombre de vues
+     * @param pas angle entre deux vues voisines, en radians
+     * @return
+     */
+    public static Camera[] Orbite(final Scene scene, int largeur, int hauteur, int nombre, float pas)
+    {
+        CameraOrbite orbite = new CameraOrbite(scene);
+        orbite.Tourner(-pas * (nombre - 1) * 0.5f, 0.0f);
+        Camera[] cameras = new Camera[nombre];
+        for (int v = 0; v < nombre; v++) {
+            if (v > 0) orbite.Tourner(pas, 0.0f);
+            cameras[v] = orbite.getCamera(largeur, hauteur);
+        }
+        return cameras;
+    }
+
+
+    /**
+     * rendu sans fenêtre de plusieurs vues d'une scène ; la vue n est écrite dans prefixe-n.png
+     * usage : java RenduVues scene.txt prefixe largeur hauteur [-vues n] [-ecart e | -orbite degrés] [-separees]
+     * par défaut, une paire stéréo d'écart 0.5 ; -separees désactive le partage des ombres
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 4) {
+            System.err.println("usage : java RenduVues scene.txt prefixe largeur hauteur [-vues n] [-ecart e | -orbite degrés] [-separees]");
+            System.exit(1);
+        }
+        Scene scene = new Scene(args[0]);
+        int largeur = Integer.parseInt(args[2]);
+        int hauteur = Integer.parseInt(args[3]);
+        int nombre = 2;
+        float ecart = 0.5f, orbite = 0.0f;
+        boolean partage = true;
+        for (int i = 4; i < args.length; i++) {
+            switch (args[i]) {
+            case "-vues": nombre = Integer.parseInt(args[++i]); break;
+            case "-ecart": ecart = Float.parseFloat(args[++i]); break;
+            case "-orbite": orbite = (float) Math.toRadians(Float.parseFloat(args[++i])); break;
+            case "-separees": partage = false; break;
+            default:
+                System.err.println("option inconnue : "+args[i]);
+                System.exit(1);
+            }
+        }
+        Camera[] cameras = (orbite != 0.0f) ? Orbite(scene, largeur, hauteur, nombre, orbite) : Stereo(largeur, hauteur, nombre, ecart);
+
+        long startTime = System.nanoTime();
+        RenduVues rendu = new RenduVues(scene, cameras, Constantes.MAX_REFLETS, partage);
+        int[][] codes = rendu.Tracer();
+        long temps = Math.max(1, (System.nanoTime() - startTime) / 1000000L);
+
+        for (int v = 0; v < codes.length; v++) {
+            BufferedImage image = new BufferedImage(largeur, hauteur, BufferedImage.TYPE_INT_RGB);
+            image.setRGB(0, 0, largeur, hauteur, codes[v], 0, largeur);
+            ImageIO.write(image, "png", new File(args[1]+"-"+(v+1)+".png"));
+        }
+        CacheOmbres cache = rendu.getCache();
+        System.out.println("Temps: "+temps+" ms pour "+codes.length+" vues"
+                + (cache == null ? "" : ", "+cache.getReprises()+" ombres reprises d'une autre vue, "+cache.getCalculees()+" calculées"));
+    }
+}
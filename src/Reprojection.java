@@ -0,0 +1,167 @@
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+
+/**
+ * Cette classe réemploie les pixels de l'image précédente quand la caméra bouge
+ * un peu : elle garde pour chaque pixel le point de contact, l'objet vu et la
+ * couleur, projette ces points dans la nouvelle vue, puis garde la couleur d'un
+ * pixel si son rayon primaire rencontre bien le même objet, au même endroit à
+ * un pixel et demi près, et si la direction d'où l'oeil voit ce point a peu changé
+ * depuis le calcul de sa couleur (reflets et taches spéculaires en dépendent).
+ * Seul l'éclairage des autres pixels (zones découvertes, objets différents) est
+ * recalculé, ainsi qu'une fraction tournante des pixels (un sur PERIODE à chaque
+ * image) pour que les reflets et les reflets spéculaires, qui dépendent de la
+ * position de l'oeil, finissent par être justes.
+ * Rien n'est réemployé quand la taille de l'image ou le nombre de reflets change :
+ * les couleurs précédentes ont été calculées avec d'autres réglages.
+ */
+public class Reprojection
+{
+    // chaque pixel est recalculé au moins une image sur PERIODE
+    private static final int PERIODE = 8;
+
+    // écart accepté entre le point reprojeté et le nouveau contact, en pixels
+    private static final float TOLERANCE = 1.5f;
+
+    // cosinus de l'angle maximal entre la direction de vue actuelle d'un point et celle du calcul de sa couleur
+    private static final float COS_VUE = (float) Math.cos(0.03);
+
+    // image précédente : scène, taille, nombre de reflets, et pour chaque pixel contact,
+    // objet, couleur et position de l'oeil lors du calcul de cette couleur
+    private Scene scene = null;
+    private int largeur, hauteur;
+    private int reflets;
+    private Point[] contacts;
+    private Objet[] objets;
+    private int[] faces;
+    private int[] codes;
+    private Point[] oeils;
+
+    // numéro de l'image, pour le rafraîchissement tournant
+    private int numero = 0;
+
+    // nombre de pixels dont l'éclairage a été calculé ou réemployé lors de la dernière image
+    private int calcules;
+    private int reemployes;
+
+
+    /**
+     * calcule une image en réemployant si possible les pixels de la précédente
+     * @param scene
+     * @param camera
+     * @param reflets
+     * @return codes couleur (gamma corrigés) des pixels, ligne par ligne
+     */
+    public int[] Tracer(final Scene scene, final Camera camera, int reflets)
+    {
+        final int l = camera.getLargeur();
+        final int h = camera.getHauteur();
+
+        // projection des contacts précédents : pour chaque nouveau pixel, le plus proche de l'oeil
+        final int[] source = new int[l * h];
+        Arrays.fill(source, -1);
+        if (scene == this.scene && l == largeur && h == hauteur && reflets == this.reflets) {
+            float[] profondeurs = new float[l * h];
+            for (int i = 0; i < largeur * hauteur; i++) {
+                if (objets[i] == null) continue;
+                float[] pixel = camera.Projeter(contacts[i]);
+                if (pixel == null) continue;
+                int xe = Math.round(pixel[0]);
+                int ye = Math.round(pixel[1]);
+                if (xe < 0 || ye < 0 || xe >= l || ye >= h) continue;
+                int j = ye * l + xe;
+                if (source[j] < 0 || pixel[2] < profondeurs[j]) {
+                    source[j] = i;
+                    profondeurs[j] = pixel[2];
+                }
+            }
+        }
+
+        // validation par le rayon primaire, sinon calcul de l'éclairage
+        final Point[] nouveauxContacts = new Point[l * h];
+        final Objet[] nouveauxObjets = new Objet[l * h];
+        final int[] nouvellesFaces = new int[l * h];
+        final int[] nouveauxCodes = new int[l * h];
+        final Point[] nouveauxOeils = new Point[l * h];
+        final int tour = numero++ % PERIODE;
+        final float tolerance = TOLERANCE / (Constantes.DISTECRAN * camera.getEchelle());
+        calcules = IntStream.range(0, h).parallel().map(ye -> {
+            int nombre = 0;
+            for (int xe = 0; xe < l; xe++) {
+                int j = ye * l + xe;
+                Rayon rayon = camera.RayonPrimaire(xe, ye);
+                boolean contact = camera.ChercherIntersectionPrimaire(scene, rayon, xe, ye);
+                nouveauxContacts[j] = rayon.contact;
+                nouveauxObjets[j] = rayon.getObjet();
+                nouvellesFaces[j] = rayon.getFace();
+                int i = source[j];
+                boolean rafraichir = ((xe * 73856093 ^ ye * 19349663) & 0x7fffffff) % PERIODE == tour;
+                if (contact && i >= 0 && ! rafraichir && rayon.getObjet() == objets[i] && rayon.getFace() == faces[i]) {
+                    // tolérance proportionnelle à la taille d'un pixel à cette distance
+                    Vecteur vue = new Vecteur(camera.getOeil(), rayon.contact);
+                    float z = vue.dot(camera.getAvant());
+                    if (new Vecteur(contacts[i], rayon.contact).norme() <= tolerance * z) {
+                        Vecteur ancienne = new Vecteur(oeils[i], rayon.contact);
+                        if (vue.dot(ancienne) >= COS_VUE * vue.norme() * ancienne.norme()) {
+                            nouveauxCodes[j] = codes[i];
+                            nouveauxOeils[j] = oeils[i];
+                            continue;
+                        }
+                    }
+                }
+                Couleur couleur = contact ? rayon.getObjet().Phong(scene, rayon, reflets) : rayon.Ciel();
+                nouveauxCodes[j] = couleur.correctionGamma(0.8f).getCode();
+                nouveauxOeils[j] = camera.getOeil();
+                nombre++;
+            }
+            return nombre;
+        }).sum();
+        reemployes = l * h - calcules;
+
+        this.scene = scene;
+        this.largeur = l;
+        this.hauteur = h;
+        this.reflets = reflets;
+        this.contacts = nouveauxContacts;
+        this.objets = nouveauxObjets;
+        this.faces = nouvellesFaces;
+        this.codes = nouveauxCodes;
+        this.oeils = nouveauxOeils;
+        return nouveauxCodes;
+    }
+
+
+    /**
+     * oublie l'image précédente
+     */
+    public void Oublier()
+    {
+        scene = null;
+        contacts = null;
+        objets = null;
+        faces = null;
+        codes = null;
+        oeils = null;
+    }
+
+
+    /**
+     * nombre de pixels dont l'éclairage a été calculé lors de la dernière image
+     * (chacun avec ses rayons d'ombre et ses reflets)
+     */
+    public int getCalcules()
+    {
+        return calcules;
+    }
+
+
+    /**
+     * nombre de pixels dont la couleur a été reprise de l'image précédente
+     * (chacun n'a coûté que son rayon primaire)
+     */
+    public int getReemployes()
+    {
+        return reemployes;
+    }
+}
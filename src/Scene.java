@@ -1,7 +1,13 @@
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
@@ -12,9 +18,45 @@ public class Scene
     // objets
     private ArrayList<Sphere> Objets = new ArrayList<>();
 
+    // ensembles de triangles
+    private final ArrayList<Maillage> maillages = new ArrayList<>();
+
     // lumières
     private ArrayList<Lampe> Lampes = new ArrayList<>();
 
+    // matériaux distincts des sphères et leurs numéros, voir Interner
+    private final ArrayList<Materiau> materiaux = new ArrayList<>();
+    private final Map<Materiau, Integer> numerosMateriaux = new HashMap<>();
+
+    // hiérarchie des lampes, construite à la demande si la sélection des lampes est active
+    private boolean selectionLampes = Constantes.SELECTION_LAMPES;
+    private volatile ArbreLampes arbreLampes = null;
+
+    // termes d'intersection précalculés pour les rayons partant de chaque lampe ; au-delà de
+    // MAX_OCTETS_ORIGINES, seulement si le précalcul a été demandé par setPrecalculOrigines
+    private boolean precalculOrigines = Constantes.PRECALCUL_ORIGINES;
+    private boolean precalculDemande = false;
+    private final Map<Lampe, OrigineCommune> origines = new ConcurrentHashMap<>();
+
+    // lampes qui peuvent avoir des termes précalculés : celles de la scène et les représentants
+    // des groupes de arbreLampes, jamais les lampes d'autres éclairages (voir Objet.PhongVariantes)
+    private final Set<Lampe> lampesPropres = ConcurrentHashMap.newKeySet();
+
+    // hiérarchie des sphères et des triangles, construite à la demande pour les scènes d'au moins MIN_SPHERES_ARBRE objets
+    private boolean arbreSpheres = true;
+    private volatile ArbreSpheres arbre = null;
+
+    // cartes d'ombres des lampes pour les aperçus, construites à la demande (voir CarteOmbres)
+    private int resolutionCartes = Constantes.RESOLUTION_CARTES_OMBRES;
+    private final Map<Lampe, CarteOmbres> cartes = new ConcurrentHashMap<>();
+
+    // numéro incrémenté à chaque ajout ou déplacement d'objets, voir Deplacement
+    private volatile int version = 0;
+
+    // nombre de triangles des maillages et version de la scène quand il a été compté, voir NombreTriangles
+    private volatile long triangles = 0;
+    private volatile int versionTriangles = -1;
+
 
     /**
      * cette méthode affecte objet, distance et contact avec le plus proche
@@ -25,7 +67,25 @@ public class Scene
      * @param sauflui
      * @return
      */
-    public boolean ChercherIntersection(Rayon incident, final Sphere sauflui)
+    public boolean ChercherIntersection(Rayon incident, final Objet sauflui)
+    {
+        ArbreSpheres arbre = getArbre();
+        if (arbre == null) return ChercherIntersectionLineaire(incident, sauflui);
+
+        arbre.Chercher(Objets, incident, sauflui, null, 0.0f);
+        return Terminer(incident, sauflui);
+    }
+
+
+    /**
+     * cette méthode fait comme ChercherIntersection(incident, sauflui) en examinant
+     * tous les objets un par un, sans aucune accélération : c'est la référence des
+     * autres recherches, voir VerificationIntersections
+     * @param incident
+     * @param sauflui
+     * @return
+     */
+    public boolean ChercherIntersectionLineaire(Rayon incident, final Objet sauflui)
     {
         // initialisation à aucun contact
         incident.setDistanceObjet(Constantes.INFINI, null);
@@ -42,12 +102,102 @@ public class Scene
                 incident.setDistanceObjet(distance, sphere);
             }
         }
+        for (Maillage maillage : maillages) maillage.Chercher(incident, sauflui);
 
         // retourne true s'il y a un contact et dans ce cas, calcule ses coordonnées, false sinon
         return incident.calcContact();
     }
 
 
+    /**
+     * calcule le point de contact trouvé par une recherche accélérée, et la fait
+     * vérifier si la vérification des intersections est active
+     */
+    private boolean Terminer(Rayon incident, final Objet sauflui)
+    {
+        if (VerificationIntersections.ACTIF) VerificationIntersections.Soumettre(this, incident, sauflui);
+        return incident.calcContact();
+    }
+
+
+    /**
+     * cette méthode fait comme ChercherIntersection(incident, sauflui) pour un
+     * rayon situé sur une demi-droite qui part de l'origine commune dont les
+     * termes ont été précalculés
+     * @param incident
+     * @param sauflui
+     * @param origine termes précalculés pour l'origine de la demi-droite, ou null
+     * @return
+     */
+    public boolean ChercherIntersection(Rayon incident, final Objet sauflui, final OrigineCommune origine)
+    {
+        if (origine == null) return ChercherIntersection(incident, sauflui);
+
+        ArbreSpheres arbre = getArbre();
+        if (arbre != null) {
+            arbre.Chercher(Objets, incident, sauflui, origine.getTermes(), origine.Decalage(incident));
+            return Terminer(incident, sauflui);
+        }
+
+        // initialisation à aucun contact
+        incident.setDistanceObjet(Constantes.INFINI, null);
+
+        // recherche du plus proche objet intersecté par incident
+        final float[] termes = origine.getTermes();
+        final float decalage = origine.Decalage(incident);
+        for (int i = 0; i < Objets.size(); i++) {
+            Sphere sphere = Objets.get(i);
+            if (sphere == sauflui) continue;
+
+            float distance = sphere.Intersection(incident, termes, 4*i, decalage);
+            if (distance < incident.getDistance()) {
+                incident.setDistanceObjet(distance, sphere);
+            }
+        }
+        for (Maillage maillage : maillages) maillage.Chercher(incident, sauflui);
+
+        return Terminer(incident, sauflui);
+    }
+
+
+    /**
+     * cette méthode fait comme ChercherIntersection(incident, sauflui, origine) mais
+     * en ne passant en revue que les objets dont les numéros sont dans
+     * indices[debut .. fin-1], rangés dans l'ordre croissant ; les candidats ne
+     * désignent que des sphères : une scène qui contient des maillages est
+     * entièrement examinée
+     * @param incident
+     * @param sauflui
+     * @param indices
+     * @param debut
+     * @param fin
+     * @param origine termes précalculés pour l'origine de la demi-droite, ou null
+     * @return
+     */
+    public boolean ChercherIntersection(Rayon incident, final Objet sauflui, final int[] indices, int debut, int fin, final OrigineCommune origine)
+    {
+        if (! maillages.isEmpty()) return ChercherIntersection(incident, sauflui, origine);
+
+        // initialisation à aucun contact
+        incident.setDistanceObjet(Constantes.INFINI, null);
+
+        // recherche du plus proche objet intersecté par incident parmi les candidats
+        final float[] termes = origine != null ? origine.getTermes() : null;
+        final float decalage = origine != null ? origine.Decalage(incident) : 0.0f;
+        for (int i = debut; i < fin; i++) {
+            Sphere sphere = Objets.get(indices[i]);
+            if (sphere == sauflui) continue;
+
+            float distance = termes != null ? sphere.Intersection(incident, termes, 4*indices[i], decalage) : sphere.Intersection(incident);
+            if (distance < incident.getDistance()) {
+                incident.setDistanceObjet(distance, sphere);
+            }
+        }
+
+        return Terminer(incident, sauflui);
+    }
+
+
     /**
      * cette méthode affecte objet, distance et contact avec le premier
      * objet rencontré par ce rayon. Elle passe en revue tous les objets sauf
@@ -57,7 +207,7 @@ public class Scene
      * @param sauflui
      * @return
      */
-    public boolean ChercherPremiereIntersection(Rayon incident, final Sphere sauflui)
+    public boolean ChercherPremiereIntersection(Rayon incident, final Objet sauflui)
     {
         // initialisation à aucun contact
         incident.setDistanceObjet(Constantes.INFINI, null);
@@ -69,6 +219,14 @@ public class Scene
     }
 
 
+    /**
+     * constructeur : scène vide, à remplir avec ajouterObjet et ajouterLampe
+     */
+    public Scene()
+    {
+    }
+
+
     /**
      * constructeur : charge un fichier de description d'une scène
      * @param nom du fichier scène à charger
@@ -78,52 +236,81 @@ public class Scene
         BufferedReader br = new BufferedReader(new FileReader(nom));
         try {
             Sphere sphere_courante = null;
+            Objet objet_courant = null;
             Lampe lampe_courante = null;
 
+            int numero = 0;
             String line = br.readLine();
             while (line != null) {
+                numero++;
                 String[] mots = line.trim().split("[ \t]");
                 switch (mots[0].toLowerCase()) {
 
                 case "objet":
                     sphere_courante = new Sphere();
+                    objet_courant = sphere_courante;
+                    lampe_courante = null;
                     Objets.add(sphere_courante);
                     break;
 
+                case "maillage":
+                    // maillage <fichier.obj>, relatif au dossier du fichier scène
+                    File obj = new File(mots[1]);
+                    if (! obj.isAbsolute()) obj = new File(new File(nom).getAbsoluteFile().getParentFile(), mots[1]);
+                    Maillage maillage = Maillage.Charger(obj.getPath());
+                    objet_courant = maillage;
+                    sphere_courante = null;
+                    lampe_courante = null;
+                    maillages.add(maillage);
+                    break;
+
                 case "centre":
-                    // centre <x> <y> <z>
+                    // centre <x> <y> <z>, d'une sphère seulement
+                    if (sphere_courante == null) throw new IOException(nom+", ligne "+numero+" : centre hors d'une sphère");
                     Point centre = new Point(Float.parseFloat(mots[1]), Float.parseFloat(mots[2]), Float.parseFloat(mots[3]));
                     sphere_courante.setCentre(centre);
                     break;
 
                 case "rayon":
-                    // rayon <n>
-                    sphere_courante.setRayon(Float.parseFloat(mots[1]));
+                    // rayon <n>, d'une sphère ou d'une lampe étendue
+                    if (lampe_courante != null) {
+                        lampe_courante.setRayon(Float.parseFloat(mots[1]));
+                    } else if (sphere_courante == null) {
+                        throw new IOException(nom+", ligne "+numero+" : rayon hors d'une sphère ou d'une lampe");
+                    } else {
+                        sphere_courante.setRayon(Float.parseFloat(mots[1]));
+                    }
                     break;
 
                 case "kd":
                     // kd <r> <v> <b>
+                    if (objet_courant == null) throw new IOException(nom+", ligne "+numero+" : kd hors d'une sphère ou d'un maillage");
                     Couleur kd = new Couleur(Float.parseFloat(mots[1]), Float.parseFloat(mots[2]), Float.parseFloat(mots[3]));
-                    sphere_courante.setKd(kd);
+                    objet_courant.setKd(kd);
                     break;
 
                 case "kr":
                 case "ks":
                     // Kr ou Ks <r> <v> <b>
+                    if (objet_courant == null) throw new IOException(nom+", ligne "+numero+" : "+mots[0]+" hors d'une sphère ou d'un maillage");
                     Couleur ks = new Couleur(Float.parseFloat(mots[1]), Float.parseFloat(mots[2]), Float.parseFloat(mots[3]));
-                    sphere_courante.setKs(ks);
+                    objet_courant.setKs(ks);
                     break;
 
                 case "ns":
                     // ns <n>
-                    sphere_courante.setNs(Float.parseFloat(mots[1]));
+                    if (objet_courant == null) throw new IOException(nom+", ligne "+numero+" : ns hors d'une sphère ou d'un maillage");
+                    objet_courant.setNs(Float.parseFloat(mots[1]));
                     break;
 
 
                 case "lampe":
                     // lampe <numero>
                     lampe_courante = new Lampe();
+                    sphere_courante = null;
+                    objet_courant = null;
                     Lampes.add(lampe_courante);
+                    lampesPropres.add(lampe_courante);
                     break;
 
                 case "position":
@@ -144,7 +331,149 @@ public class Scene
         } finally {
             br.close();
         }
-        System.out.println(Objets.size()+" sphères, "+Lampes.size()+" lampes");
+        for (Sphere sphere : Objets) sphere.setMateriau(Interner(sphere.getMateriau()));
+        for (Maillage maillage : maillages) maillage.setMateriau(Interner(maillage.getMateriau()));
+        System.out.println(Objets.size()+" sphères, "+NombreTriangles()+" triangles, "+Lampes.size()+" lampes, "+materiaux.size()+" matériaux");
+    }
+
+
+    /**
+     * ajoute une sphère à la scène
+     * @param sphere
+     */
+    public void ajouterObjet(final Sphere sphere)
+    {
+        sphere.setMateriau(Interner(sphere.getMateriau()));
+        Objets.add(sphere);
+        origines.clear();
+        arbre = null;
+        version++;
+    }
+
+
+    /**
+     * ajoute un maillage à la scène
+     * @param maillage
+     */
+    public void ajouterMaillage(final Maillage maillage)
+    {
+        maillage.setMateriau(Interner(maillage.getMateriau()));
+        maillages.add(maillage);
+        arbre = null;
+        version++;
+    }
+
+
+    /**
+     * retourne le matériau de la scène égal à materiau, après l'avoir ajouté
+     * à la table des matériaux s'il n'y était pas : les sphères de même aspect
+     * partagent ainsi un seul matériau
+     * @param materiau
+     * @return matériau partagé
+     */
+    public Materiau Interner(final Materiau materiau)
+    {
+        Integer numero = numerosMateriaux.get(materiau);
+        if (numero != null) return materiaux.get(numero);
+        numerosMateriaux.put(materiau, materiaux.size());
+        materiaux.add(materiau);
+        return materiau;
+    }
+
+
+    /**
+     * retourne le numéro d'un matériau dans la table des matériaux
+     * @param materiau
+     * @return -1 s'il n'y est pas
+     */
+    public int NumeroMateriau(final Materiau materiau)
+    {
+        Integer numero = numerosMateriaux.get(materiau);
+        return (numero != null) ? numero : -1;
+    }
+
+
+    /**
+     * retourne la table des matériaux distincts des sphères
+     * @return
+     */
+    public final List<Materiau> getMateriaux()
+    {
+        return materiaux;
+    }
+
+
+    /**
+     * ajoute une lampe à la scène
+     * @param lampe
+     */
+    public void ajouterLampe(final Lampe lampe)
+    {
+        Lampes.add(lampe);
+        lampesPropres.add(lampe);
+        OublierGroupes();
+    }
+
+
+    /**
+     * signale que des sphères, des triangles ou des lampes ont été déplacés : les
+     * données calculées d'après leurs positions (hiérarchies, termes d'intersection,
+     * cartes d'ombres) seront recalculées à leur prochain emploi
+     */
+    public void Deplacement()
+    {
+        origines.clear();
+        arbre = null;
+        OublierGroupes();
+        version++;
+    }
+
+
+    /**
+     * numéro de version des objets de la scène, qui change à chaque ajout ou déplacement
+     * @return
+     */
+    public int getVersion()
+    {
+        return version;
+    }
+
+
+    /**
+     * retourne la liste des objets
+     * @return liste des sphères
+     */
+    public final ArrayList<Sphere> getObjets()
+    {
+        return Objets;
+    }
+
+
+    /**
+     * retourne la liste des maillages
+     * @return
+     */
+    public final List<Maillage> getMaillages()
+    {
+        return maillages;
+    }
+
+
+    /**
+     * nombre total de triangles des maillages, recompté seulement quand la version
+     * de la scène a changé : getArbre le demande à chaque recherche d'intersection
+     * @return
+     */
+    public long NombreTriangles()
+    {
+        int v = version;
+        if (versionTriangles != v) {
+            long nombre = 0;
+            for (Maillage maillage : maillages) nombre += maillage.getNombreFaces();
+            triangles = nombre;
+            versionTriangles = v;
+        }
+        return triangles;
     }
 
 
@@ -156,4 +485,189 @@ public class Scene
     {
         return Lampes;
     }
+
+
+    /**
+     * retourne les lampes à prendre en compte pour éclairer le point contact
+     * de normale n et de couleur diffuse Kd : toutes les lampes, ou bien
+     * une sélection faite par l'ArbreLampes si la sélection est active
+     * @param contact
+     * @param n normale unitaire
+     * @param Kd
+     * @return
+     */
+    public final List<Lampe> getLampes(final Point contact, final Vecteur n, final Couleur Kd)
+    {
+        if (! selectionLampes) return Lampes;
+        ArbreLampes arbre = arbreLampes;
+        if (arbre == null) {
+            synchronized (this) {
+                arbre = arbreLampes;
+                if (arbre == null) {
+                    arbre = new ArbreLampes(Lampes, Constantes.SEUIL_LAMPES, Constantes.ANGLE_LAMPES);
+                    lampesPropres.addAll(arbre.getRepresentants());
+                    arbreLampes = arbre;
+                }
+            }
+        }
+        return arbre.Selectionner(contact, n, Kd);
+    }
+
+
+    /**
+     * abandonne la hiérarchie des lampes, avec les termes précalculés des représentants de ses groupes
+     */
+    private synchronized void OublierGroupes()
+    {
+        ArbreLampes ancien = arbreLampes;
+        arbreLampes = null;
+        if (ancien == null) return;
+        for (Lampe representant : ancien.getRepresentants()) {
+            lampesPropres.remove(representant);
+            origines.remove(representant);
+        }
+    }
+
+
+    /**
+     * retourne la hiérarchie des sphères et des triangles, en la construisant la
+     * première fois ; les sphères ne doivent plus être déplacées ensuite
+     * @return null si la scène a trop peu d'objets ou si la hiérarchie n'est pas active
+     */
+    public final ArbreSpheres getArbre()
+    {
+        if (! arbreSpheres || Objets.size() + NombreTriangles() < Constantes.MIN_SPHERES_ARBRE) return null;
+        ArbreSpheres a = arbre;
+        if (a == null) {
+            synchronized (this) {
+                a = arbre;
+                if (a == null) {
+                    a = new ArbreSpheres(this);
+                    arbre = a;
+                }
+            }
+        }
+        return a;
+    }
+
+
+    public boolean isArbreSpheres()
+    {
+        return arbreSpheres;
+    }
+
+
+    /**
+     * active ou désactive la recherche des intersections dans la hiérarchie des sphères
+     * @param arbreSpheres
+     */
+    public void setArbreSpheres(boolean arbreSpheres)
+    {
+        this.arbreSpheres = arbreSpheres;
+    }
+
+
+    /**
+     * retourne les termes d'intersection précalculés pour les rayons partant
+     * de cette lampe (ou d'une lampe représentant un groupe), en les calculant
+     * la première fois. Chaque lampe prend 16 octets par sphère : sauf si le
+     * précalcul a été demandé, les lampes sont prises tant que le total ne
+     * dépasse pas MAX_OCTETS_ORIGINES, les suivantes n'ont pas de termes.
+     * Une lampe qui n'appartient pas à la scène n'en a jamais : chaque nouvelle
+     * lampe d'un autre éclairage ajouterait des termes jamais libérés.
+     * Les termes calculés avant un ajout ou un déplacement d'objets sont refaits
+     * @param lampe
+     * @return null si le précalcul n'est pas actif, si la place manque ou si la lampe n'est pas de la scène
+     */
+    public final OrigineCommune getOrigine(final Lampe lampe)
+    {
+        if (! precalculOrigines) return null;
+        OrigineCommune origine = origines.get(lampe);
+        if (origine != null && ! origine.Valide(this)) {
+            origines.remove(lampe, origine);
+            origine = null;
+        }
+        if (origine == null) {
+            if (! lampesPropres.contains(lampe)) return null;
+            if (! precalculDemande && (origines.size() + 1L) * 16L * Objets.size() > Constantes.MAX_OCTETS_ORIGINES) return null;
+            origine = new OrigineCommune(this, lampe.getPosition());
+            origines.put(lampe, origine);
+        }
+        return origine;
+    }
+
+
+    /**
+     * retourne la carte d'ombres de cette lampe, en la construisant la première fois
+     * puis chaque fois que la lampe ou les objets de la scène ont bougé
+     * @param lampe
+     * @return
+     */
+    public final CarteOmbres getCarteOmbres(final Lampe lampe)
+    {
+        CarteOmbres carte = cartes.get(lampe);
+        if (carte == null || ! carte.Valide(lampe, version) || carte.getResolution() != resolutionCartes) {
+            // les termes d'intersection de la lampe sont à refaire si elle a bougé
+            if (carte != null) origines.remove(lampe);
+            carte = new CarteOmbres(this, lampe, resolutionCartes);
+            cartes.put(lampe, carte);
+        }
+        return carte;
+    }
+
+
+    public int getResolutionCartes()
+    {
+        return resolutionCartes;
+    }
+
+
+    /**
+     * change le nombre de texels par côté de chaque face des cartes d'ombres
+     * @param resolutionCartes
+     */
+    public void setResolutionCartes(int resolutionCartes)
+    {
+        this.resolutionCartes = Math.max(1, resolutionCartes);
+    }
+
+
+    /**
+     * indique si les termes d'intersection sont précalculés pour les origines communes
+     * (oeil et lampes)
+     * @return
+     */
+    public boolean isPrecalculOrigines()
+    {
+        return precalculOrigines;
+    }
+
+
+    /**
+     * active ou désactive le précalcul des termes d'intersection pour les origines communes ;
+     * activé ainsi, il n'est plus limité à MAX_OCTETS_ORIGINES
+     * @param precalculOrigines
+     */
+    public void setPrecalculOrigines(boolean precalculOrigines)
+    {
+        this.precalculOrigines = precalculOrigines;
+        this.precalculDemande = precalculOrigines;
+    }
+
+
+    public boolean isSelectionLampes()
+    {
+        return selectionLampes;
+    }
+
+
+    /**
+     * active ou désactive la sélection des lampes : l'éclairage est alors approché,
+     * les groupes de lampes lointaines étant remplacés par leurs représentants
+     * @param selectionLampes
+     */
+    public void setSelectionLampes(boolean selectionLampes)
+    {
+        this.selectionLampes = selectionLampes;
+    }
 }
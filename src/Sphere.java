@@ -1,7 +1,7 @@
 /**
  * Cette classe représente une sphère à dessiner
  */
-public class Sphere
+public class Sphere extends Objet
 {
     // note: toutes ces variables sont publiques afin de ne pas recourir à des getters
 
@@ -11,13 +11,6 @@ public class Sphere
     /// demi-diamètre
     protected float rayon = 0.0f;
 
-    /// couleur diffuse
-    protected Couleur Kd = new Couleur();
-
-    /// couleur réfléchie
-    protected Couleur Ks = new Couleur();
-    protected float Ns = 0.0f;
-
 
     /**
      * constructeur par défaut
@@ -47,11 +40,61 @@ public class Sphere
      */
     public float Intersection(Rayon incident)
     {
-        // calculer B et C
-        // a vaut 1 car nous avons normalise le vecteur (xv² + yv² + zv²)
+        // calculer CP et C
         Vecteur cp = new Vecteur(this.centre, incident.P);
-        float b = 2.0f * incident.V.dot(cp);
         float c = cp.dot(cp) - rayon * rayon;
+        return Intersection(incident.V.x, incident.V.y, incident.V.z, cp.x, cp.y, cp.z, c);
+    }
+
+
+    /**
+     * comme Intersection(Rayon), pour un rayon situé sur une demi-droite partant
+     * d'une origine commune dont les termes CP et C ont été précalculés.
+     * Si le rayon part de l'origine commune, le résultat est exactement celui de
+     * Intersection(Rayon). Sinon (rayons primaires, qui partent de l'écran),
+     * les termes ne servent qu'à éliminer rapidement les sphères qui ne sont
+     * manifestement pas rencontrées, avec une marge pour les erreurs d'arrondi,
+     * et le calcul exact est fait pour les autres.
+     * @param incident rayon dont le point de départ P est sur la demi-droite
+     * @param termes voir OrigineCommune.getTermes()
+     * @param i indice des termes de cette sphère dans le tableau
+     * @param decalage distance entre l'origine commune et incident.P
+     * @return Constantes.INFINI si pas d'intersection correcte
+     */
+    public float Intersection(Rayon incident, final float[] termes, int i, float decalage)
+    {
+        float cpx = termes[i], cpy = termes[i+1], cpz = termes[i+2], c = termes[i+3];
+        if (decalage == 0.0f) return Intersection(incident.V.x, incident.V.y, incident.V.z, cpx, cpy, cpz, c);
+
+        // la demi-droite issue de l'origine commune ne rencontre pas la sphère (B²/4 - C < 0)
+        final Vecteur V = incident.V;
+        float b = V.x * cpx + V.y * cpy + V.z * cpz;
+        float delta = b*b - c;
+        if (delta < -1e-4f * (b*b + Math.abs(c))) return Constantes.INFINI;
+        return Intersection(incident);
+    }
+
+
+    /**
+     * résout l'équation d'intersection, connaissant CP (du centre à l'origine du rayon)
+     * et C = CP² - rayon²
+     * @param vx
+     * @param vy
+     * @param vz vecteur directeur unitaire du rayon
+     * @param cpx
+     * @param cpy
+     * @param cpz
+     * @param c
+     * @return Constantes.INFINI si pas d'intersection correcte
+     */
+    public static float Intersection(float vx, float vy, float vz, float cpx, float cpy, float cpz, float c)
+    {
+        // calculer B
+        // a vaut 1 car nous avons normalise le vecteur (xv² + yv² + zv²)
+        float b = 2.0f * (vx * cpx + vy * cpy + vz * cpz);
+
+        // origine hors de la sphère (C > 0) et rayon qui s'éloigne du centre (B > 0) : k1 et k2 négatifs
+        if (c > 0 && b > 0) return Constantes.INFINI;
 
         // résoudre Ak² + Bk + C = 0 => k1 et k2
         float delta = b*b - 4.0f*c;
@@ -74,73 +117,16 @@ public class Sphere
 
 
     /**
-     * calcule la couleur de la sphère au point désigné par incident
-     * si la sphère est réfléchissante, on peut relancer au maximum
-     * profondeur rayons indirects
-     * @param scene
+     * calcule la normale unitaire au point de contact du rayon avec this
      * @param incident
-     * @param profondeur
      * @return
      */
-    public Couleur Phong(final Scene scene, final Rayon incident, int profondeur)
+    @Override
+    public Vecteur Normale(final Rayon incident)
     {
-        // modèle de Lambert = somme des éclairements diffus
-        Couleur finale = new Couleur(0, 0, 0);
-
-        // calculer le vecteur N au point de contact avec le rayon
-        Vecteur n = new Vecteur(incident.getObjet().centre, incident.contact);
+        Vecteur n = new Vecteur(centre, incident.contact);
         n.normaliser();
-
-        /// Calculer le mirrior de -V par rapport à N
-        // (on le calcul 1 fois, alors que si on devait calculer le mirroir de L, on aurait du le refaire à chaque iteration)
-        // reflet (mirroir de la lampe): r = 2*(n*v)*n - v
-        Vecteur sub_v = incident.getV().neg();
-        float nv = n.dot(sub_v);
-        Vecteur r = n.mul( nv ).mul(2).sub(sub_v);
-        r.normaliser();
-
-        // chaque lampe contribue à l'éclairage
-        for (Lampe lampe : scene.getLampes()) {
-            // calculer le Vecteur L
-            Vecteur l = new Vecteur(incident.contact, lampe.getPosition());
-            l.normaliser();
-
-            // est-ce qu'il y a un objet entre la lampe et le point de contact ?
-            Rayon vers_lampe = new Rayon(lampe.getPosition(), incident.contact);
-            vers_lampe.P = lampe.getPosition();
-            scene.ChercherIntersection(vers_lampe, null);
-
-            // est-ce bien "moi" qui suis, la/le plus proche de la lampe ?
-            if (vers_lampe.getObjet() == this) {
-                /// Eclairement diffus
-                // calculer dot(L, N) * Kd * couleur de la lampe
-                float nl =  n.dot(l);
-                if (nl > 0) {
-                    finale = Couleur.add(finale, Kd.mul(nl).mul(lampe.getCouleur()));
-
-                    /// Eclairement Spéculaire
-                    // Equation de Phong
-                    float rl = r.dot(l);
-                    if (rl > 0) finale = Couleur.add(finale, Kd.mul( (float) Math.pow(rl, this.Ns) ).mul(lampe.getCouleur()));
-                }
-            }
-        }
-
-        if (profondeur > 0) {
-            // reflets
-            Rayon reflet = new Rayon(incident.contact, r);
-
-            // chercher quel objet de la scène le rencontre au plus proche
-            if (scene.ChercherIntersection(reflet, this)) {
-                // il y a un objet
-                finale =  finale.add( reflet.getObjet().Phong(scene, reflet, profondeur-1).mul(this.Ks) );
-            } else {
-                // c'est le ciel
-                finale = finale.add( reflet.Ciel().mul(this.Ks) );
-            }
-        }
-
-        return finale;
+        return n;
     }
 
 
@@ -166,40 +152,4 @@ public class Sphere
     {
         this.rayon = rayon;
     }
-
-
-    public Couleur getKd()
-    {
-        return Kd;
-    }
-
-
-    public void setKd(final Couleur kd)
-    {
-        Kd = kd;
-    }
-
-
-    public Couleur getKs()
-    {
-        return Ks;
-    }
-
-
-    public void setKs(final Couleur ks)
-    {
-        Ks = ks;
-    }
-
-
-    public float getNs()
-    {
-        return Ns;
-    }
-
-
-    public void setNs(float ns)
-    {
-        Ns = ns;
-    }
 }
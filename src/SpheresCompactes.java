@@ -0,0 +1,163 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Cette classe range des sphères sous forme compacte, sans un objet par sphère :
+ * centre et rayon dans un tableau de float (x, y, z, rayon à la suite, que
+ * ArbreSpheres.Boites change en boîtes pour la hiérarchie), numéro du matériau
+ * dans un tableau de short, et la table des matériaux distincts. Une sphère y
+ * occupe 18 octets, contre une cinquantaine pour un objet Sphere, son Point et
+ * sa référence dans la liste.
+ */
+public class SpheresCompactes
+{
+    // nombre maximal de matériaux distincts, numérotés sur 16 bits non signés
+    public static final int MAX_MATERIAUX = 1 << 16;
+
+    private float[] spheres;
+    private short[] numeros;
+    private int nombre = 0;
+
+    // matériaux distincts et leurs numéros
+    private final ArrayList<Materiau> materiaux = new ArrayList<>();
+    private final Map<Materiau, Integer> numerosMateriaux = new HashMap<>();
+
+
+    /**
+     * constructeur
+     * @param capacite nombre de sphères prévu
+     */
+    public SpheresCompactes(int capacite)
+    {
+        capacite = Math.max(1, capacite);
+        this.spheres = new float[4 * capacite];
+        this.numeros = new short[capacite];
+    }
+
+
+    /**
+     * constructeur : range les sphères d'une scène
+     * @param scene
+     */
+    public SpheresCompactes(final Scene scene)
+    {
+        this(scene.getObjets().size());
+        for (Sphere sphere : scene.getObjets()) ajouter(sphere);
+    }
+
+
+    /**
+     * ajoute une sphère
+     * @param x centre
+     * @param y
+     * @param z
+     * @param rayon
+     * @param materiau
+     */
+    public void ajouter(float x, float y, float z, float rayon, final Materiau materiau)
+    {
+        if (nombre == numeros.length) {
+            int capacite = (int) Math.min(Integer.MAX_VALUE / 4 - 8, 2L * nombre);
+            spheres = Arrays.copyOf(spheres, 4 * capacite);
+            numeros = Arrays.copyOf(numeros, capacite);
+        }
+        spheres[4*nombre  ] = x;
+        spheres[4*nombre+1] = y;
+        spheres[4*nombre+2] = z;
+        spheres[4*nombre+3] = rayon;
+        numeros[nombre] = (short) Numero(materiau);
+        nombre++;
+    }
+
+
+    /**
+     * ajoute une sphère
+     * @param sphere
+     */
+    public void ajouter(final Sphere sphere)
+    {
+        Point centre = sphere.getCentre();
+        ajouter(centre.x, centre.y, centre.z, sphere.getRayon(), sphere.getMateriau());
+    }
+
+
+    /**
+     * numéro du matériau, ajouté à la table s'il n'y était pas
+     */
+    private int Numero(final Materiau materiau)
+    {
+        Integer numero = numerosMateriaux.get(materiau);
+        if (numero != null) return numero;
+        if (materiaux.size() == MAX_MATERIAUX) {
+            throw new IllegalStateException("plus de "+MAX_MATERIAUX+" matériaux distincts");
+        }
+        numerosMateriaux.put(materiau, materiaux.size());
+        materiaux.add(materiau);
+        return materiaux.size() - 1;
+    }
+
+
+    /**
+     * reconstruit l'objet Sphere numéro i, avec son matériau partagé
+     * @param i
+     * @return
+     */
+    public Sphere getSphere(int i)
+    {
+        Sphere sphere = new Sphere(new Point(spheres[4*i], spheres[4*i+1], spheres[4*i+2]), spheres[4*i+3]);
+        sphere.setMateriau(getMateriau(i));
+        return sphere;
+    }
+
+
+    /**
+     * matériau de la sphère numéro i
+     * @param i
+     * @return
+     */
+    public Materiau getMateriau(int i)
+    {
+        return materiaux.get(numeros[i] & 0xFFFF);
+    }
+
+
+    /**
+     * crée une scène avec ces sphères et les lampes indiquées
+     * @param lampes
+     * @return
+     */
+    public Scene CreerScene(final List<Lampe> lampes)
+    {
+        Scene scene = new Scene();
+        for (int i = 0; i < nombre; i++) scene.ajouterObjet(getSphere(i));
+        for (Lampe lampe : lampes) scene.ajouterLampe(lampe);
+        return scene;
+    }
+
+
+    /**
+     * centres et rayons : x, y, z, rayon de chaque sphère, à passer à ArbreSpheres.Boites
+     * pour construire une hiérarchie ; le tableau peut être plus long que 4 * getNombre()
+     * @return
+     */
+    public float[] getSpheres()
+    {
+        return spheres;
+    }
+
+
+    public int getNombre()
+    {
+        return nombre;
+    }
+
+
+    public List<Materiau> getMateriaux()
+    {
+        return materiaux;
+    }
+}
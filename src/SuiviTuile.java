@@ -0,0 +1,209 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Cette classe enregistre les rayons lancés pour calculer une tuile de l'image
+ * (rayons primaires, rayons d'ombre, rayons réfléchis) afin de savoir ensuite,
+ * quand la scène est modifiée, si une sphère ajoutée, supprimée ou changée peut
+ * changer les pixels de la tuile.
+ * Les rayons sont regroupés en familles (rayons d'un même niveau de reflet, rayons
+ * d'ombre d'une même lampe et d'un même niveau), puis par pixels voisins tant que
+ * leurs rayons restent proches ; chaque groupe est résumé par le volume qu'il
+ * balaie : une boule contenant les origines des rayons, un cône contenant leurs
+ * directions et la longueur du plus long rayon.
+ * Une sphère qui ne touche aucun de ces volumes ne rencontre aucun rayon de la tuile.
+ */
+public class SuiviTuile
+{
+    // marge relative pour les erreurs d'arrondi
+    private static final double MARGE = 1e-4;
+
+    // rayons en cours d'enregistrement : par famille, x,y,z de l'origine, x,y,z de la direction unitaire, longueur
+    private Map<Object, float[]> rayons = new HashMap<>();
+    private Map<Object, Integer> nombres = new HashMap<>();
+
+    // largeur maximale d'un volume : demi-angle du cône des directions (cosinus) et rayon de la boule des origines
+    private static final double COS_ANGLE_MAX = Math.cos(0.02);
+    private static final double RAYON_MAX = 0.05;
+
+    // volumes balayés par des rayons consécutifs, calculés par Terminer, ZONE nombres par volume :
+    // boule contenant les origines (ox,oy,oz,rho), cône contenant les directions (ax,ay,az,theta)
+    // et longueur du plus long rayon
+    private static final int ZONE = 9;
+    private float[] zones = null;
+
+    // au moins un rayon de la tuile a rencontré une sphère
+    private boolean contact = false;
+
+
+    /**
+     * enregistre un rayon primaire ou réfléchi après la recherche de son intersection
+     * @param niveau nombre de reflets encore possibles au contact de ce rayon
+     * @param rayon
+     */
+    public void Rayon(int niveau, final Rayon rayon)
+    {
+        if (rayon.getObjet() != null) {
+            contact = true;
+            Ajouter(niveau, rayon.P, rayon.V, rayon.getDistance());
+        } else {
+            Ajouter(niveau, rayon.P, rayon.V, Constantes.INFINI);
+        }
+    }
+
+
+    /**
+     * enregistre un rayon d'ombre après la recherche de son intersection : seule
+     * compte la partie entre la lampe et la première sphère rencontrée, une sphère
+     * placée plus loin ne changerait pas le résultat
+     * @param lampe
+     * @param niveau niveau du rayon qui a donné le point de contact éclairé
+     * @param vers_lampe rayon partant de la lampe
+     */
+    public void Ombre(final Lampe lampe, int niveau, final Rayon vers_lampe)
+    {
+        float longueur = (vers_lampe.getObjet() != null) ? vers_lampe.getDistance() : Constantes.INFINI;
+        Ajouter(Arrays.asList(lampe, niveau), vers_lampe.P, vers_lampe.V, longueur);
+    }
+
+
+    /**
+     * enregistre l'ombre d'une lampe étendue calculée par OmbreDouce pour un point
+     * de contact : le rayon de la lampe au point de contact, élargi du rayon de la
+     * lampe, contient le cône qui joint la lampe au point (voir Terminer)
+     * @param lampe
+     * @param niveau niveau du rayon qui a donné le point de contact
+     * @param contact
+     */
+    public void OmbreEtendue(final Lampe lampe, int niveau, final Point contact)
+    {
+        Vecteur V = new Vecteur(lampe.getPosition(), contact);
+        float longueur = V.norme();
+        V.normaliser();
+        Ajouter(Arrays.asList(lampe, niveau), lampe.getPosition(), V, longueur);
+    }
+
+
+    private void Ajouter(final Object famille, final Point P, final Vecteur V, float longueur)
+    {
+        float[] tableau = rayons.get(famille);
+        int nombre = nombres.getOrDefault(famille, 0);
+        if (tableau == null) {
+            tableau = new float[7 * 64];
+        } else if (tableau.length < 7 * (nombre + 1)) {
+            tableau = Arrays.copyOf(tableau, 2 * tableau.length);
+        }
+        int i = 7 * nombre;
+        tableau[i  ] = P.x; tableau[i+1] = P.y; tableau[i+2] = P.z;
+        tableau[i+3] = V.x; tableau[i+4] = V.y; tableau[i+5] = V.z;
+        tableau[i+6] = longueur;
+        rayons.put(famille, tableau);
+        nombres.put(famille, nombre + 1);
+    }
+
+
+    /**
+     * résume les rayons enregistrés en volumes balayés et libère les rayons ;
+     * les rayons consécutifs d'une famille (pixels voisins) sont réunis dans un
+     * même volume tant qu'il reste étroit, voir ANGLE_MAX et RAYON_MAX ; les
+     * rayons d'une lampe étendue sont élargis du rayon de la lampe
+     */
+    public void Terminer()
+    {
+        float[] resume = new float[ZONE * 64];
+        int z = 0;
+        for (Map.Entry<Object, float[]> famille : rayons.entrySet()) {
+            float[] t = famille.getValue();
+            int nombre = nombres.get(famille.getKey());
+            float elargissement = 0.0f;
+            if (famille.getKey() instanceof List) elargissement = ((Lampe) ((List<?>) famille.getKey()).get(0)).getRayon();
+            int debut = 0;
+            while (debut < nombre) {
+                if (resume.length < z + ZONE) resume = Arrays.copyOf(resume, 2 * resume.length);
+                debut = Resumer(t, debut, nombre, resume, z, elargissement);
+                z += ZONE;
+            }
+        }
+        zones = Arrays.copyOf(resume, z);
+        rayons = null;
+        nombres = null;
+    }
+
+
+    /**
+     * calcule le volume balayé par les rayons debut, debut+1... du tableau t, en s'arrêtant
+     * au premier qui élargirait trop le volume : la boule des origines est centrée sur
+     * l'origine du premier rayon, le cône des directions est centré sur sa direction
+     * @param t rayons, 7 nombres par rayon
+     * @param debut
+     * @param fin
+     * @param zones reçoit ox,oy,oz,rho, ax,ay,az,theta, longueur
+     * @param z indice de rangement dans zones
+     * @param elargissement ajouté au rayon de la boule des origines
+     * @return indice du premier rayon qui n'est pas dans le volume
+     */
+    private static int Resumer(final float[] t, int debut, int fin, float[] zones, int z, float elargissement)
+    {
+        double ox = t[7*debut], oy = t[7*debut+1], oz = t[7*debut+2];
+        double ax = t[7*debut+3], ay = t[7*debut+4], az = t[7*debut+5];
+        double rho = 0, cosinus = 1.0, longueur = t[7*debut+6];
+        int i = debut + 1;
+        for (; i < fin; i++) {
+            double dx = t[7*i] - ox, dy = t[7*i+1] - oy, dz = t[7*i+2] - oz;
+            double r = Math.sqrt(dx*dx + dy*dy + dz*dz);
+            double c = ax*t[7*i+3] + ay*t[7*i+4] + az*t[7*i+5];
+            if (r > RAYON_MAX || c < COS_ANGLE_MAX) break;
+            rho = Math.max(rho, r);
+            cosinus = Math.min(cosinus, c);
+            longueur = Math.max(longueur, t[7*i+6]);
+        }
+        // arrondis vers l'extérieur du volume
+        zones[z  ] = (float) ox;
+        zones[z+1] = (float) oy;
+        zones[z+2] = (float) oz;
+        zones[z+3] = (float) ((rho + elargissement) * (1 + MARGE) + MARGE);
+        zones[z+4] = (float) ax;
+        zones[z+5] = (float) ay;
+        zones[z+6] = (float) az;
+        zones[z+7] = (float) (Math.acos(Math.max(-1.0, Math.min(1.0, cosinus))) + MARGE);
+        zones[z+8] = (float) (longueur * (1 + MARGE));
+        return i;
+    }
+
+
+    /**
+     * indique si au moins un rayon de la tuile a rencontré une sphère, auquel cas
+     * les pixels de la tuile dépendent des lampes
+     * @return
+     */
+    public boolean isContact()
+    {
+        return contact;
+    }
+
+
+    /**
+     * indique si la sphère peut rencontrer un des rayons de la tuile. Un point d'un rayon
+     * est à moins de rho d'un point du rayon de même direction partant du centre de
+     * la boule des origines : il suffit de tester la sphère agrandie de rho avec le
+     * cône partant de ce centre (voir aussi PaquetRayons.CandidatsOmbre)
+     * @param sphere
+     * @return false si aucun rayon de la tuile ne peut la rencontrer
+     */
+    public boolean Touche(final Sphere sphere)
+    {
+        for (int z = 0; z < zones.length; z += ZONE) {
+            double wx = sphere.centre.x - zones[z], wy = sphere.centre.y - zones[z+1], wz = sphere.centre.z - zones[z+2];
+            double distance = Math.sqrt(wx*wx + wy*wy + wz*wz);
+            double rayon = sphere.rayon + zones[z+3] + MARGE * (distance + sphere.rayon);
+            if (distance <= rayon) return true;
+            if (distance - rayon > zones[z+8]) continue;
+            double gamma = Math.acos(Math.max(-1.0, Math.min(1.0, (zones[z+4]*wx + zones[z+5]*wy + zones[z+6]*wz) / distance)));
+            if (gamma <= zones[z+7] + Math.asin(rayon / distance)) return true;
+        }
+        return false;
+    }
+}
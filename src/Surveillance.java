@@ -0,0 +1,400 @@
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsEnvironment;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import javax.imageio.ImageIO;
+import javax.swing.JFrame;
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+
+
+/**
+ * Cette classe affiche une scène et la redessine à chaque modification de son
+ * fichier, sans avoir à relancer le logiciel. Seules les tuiles de l'image
+ * dont un rayon peut rencontrer une sphère ajoutée, supprimée ou modifiée sont
+ * recalculées (voir SuiviTuile) ; une modification des lampes fait recalculer
+ * toutes les tuiles où un rayon a rencontré une sphère, et celle d'un maillage
+ * (ajouté, supprimé, de matériau ou de fichier OBJ modifié) toutes les tuiles.
+ * Les fichiers OBJ des maillages sont surveillés comme le fichier de la scène.
+ * usage : java Surveillance scene.txt [largeur hauteur] [image.png]
+ */
+public class Surveillance extends JPanel
+{
+    private static final long serialVersionUID = 1L;
+
+    // délai pour laisser l'éditeur finir d'écrire le fichier, en ms
+    private static final long DELAI = 100;
+
+    // côté des blocs de pixels tracés à la suite dans une tuile
+    private static final int BLOC = 4;
+
+    private Scene scene;
+    private final Camera camera;
+
+    // découpage de l'image en tuiles
+    private final int taille;
+    private final int nx;
+    private final int ny;
+
+    // codes couleur (gamma corrigés) de l'image et rayons lancés pour chaque tuile
+    private final int[] codes;
+    private final SuiviTuile[] suivis;
+
+    private final BufferedImage canvas;
+
+    // réglages des ombres douces lors du dernier calcul, voir ReglagesOmbres
+    private String reglagesOmbres = ReglagesOmbres();
+
+
+    /**
+     * constructeur : calcule l'image entière de la scène
+     * @param scene
+     * @param largeur
+     * @param hauteur
+     */
+    public Surveillance(final Scene scene, int largeur, int hauteur)
+    {
+        this.scene = scene;
+        this.camera = new Camera(largeur, hauteur);
+        this.taille = Constantes.TAILLE_TUILE;
+        this.nx = (largeur + taille - 1) / taille;
+        this.ny = (hauteur + taille - 1) / taille;
+        this.codes = new int[largeur * hauteur];
+        this.suivis = new SuiviTuile[nx * ny];
+        this.canvas = new BufferedImage(largeur, hauteur, BufferedImage.TYPE_INT_RGB);
+        boolean[] toutes = new boolean[nx * ny];
+        Arrays.fill(toutes, true);
+        Tracer(toutes);
+    }
+
+
+    /**
+     * recalcule les tuiles indiquées en enregistrant leurs rayons
+     * @param sales
+     * @return nombre de tuiles recalculées
+     */
+    private int Tracer(final boolean[] sales)
+    {
+        final int largeur = camera.getLargeur();
+        final int hauteur = camera.getHauteur();
+        int[] tuiles = IntStream.range(0, nx * ny).filter(t -> sales[t]).toArray();
+        Arrays.stream(tuiles).parallel().forEach(t -> {
+            int x0 = (t % nx) * taille;
+            int y0 = (t / nx) * taille;
+            SuiviTuile suivi = new SuiviTuile();
+            // pixels parcourus par blocs de BLOC x BLOC : les rayons consécutifs sont voisins
+            for (int by = y0; by < Math.min(y0 + taille, hauteur); by += BLOC) {
+                for (int bx = x0; bx < Math.min(x0 + taille, largeur); bx += BLOC) {
+                    for (int ye = by; ye < Math.min(by + BLOC, hauteur); ye++) {
+                        for (int xe = bx; xe < Math.min(bx + BLOC, largeur); xe++) {
+                            Couleur couleur = camera.CouleurPixel(scene, xe, ye, Constantes.MAX_REFLETS, suivi);
+                            codes[ye * largeur + xe] = couleur.correctionGamma(0.8f).getCode();
+                        }
+                    }
+                }
+            }
+            suivi.Terminer();
+            suivis[t] = suivi;
+        });
+        synchronized (canvas) {
+            canvas.setRGB(0, 0, largeur, hauteur, codes, 0, largeur);
+        }
+        return tuiles.length;
+    }
+
+
+    /**
+     * remplace la scène par sa nouvelle version et recalcule les tuiles concernées
+     * par les différences entre les deux versions
+     * @param nouvelle
+     * @return nombre de tuiles recalculées
+     */
+    public int Modifier(final Scene nouvelle)
+    {
+        List<Sphere> modifiees = SpheresModifiees(scene, nouvelle);
+        boolean lampes = ! Arrays.equals(Cles(scene.getLampes()), Cles(nouvelle.getLampes())) || ! reglagesOmbres.equals(ReglagesOmbres());
+        reglagesOmbres = ReglagesOmbres();
+        // les rayons ne retiennent que les sphères rencontrées : un maillage ajouté peut concerner toute l'image
+        boolean maillages = ! MemesMaillages(scene.getMaillages(), nouvelle.getMaillages());
+
+        boolean[] sales = new boolean[nx * ny];
+        for (int t = 0; t < nx * ny; t++) {
+            if (maillages || (lampes && suivis[t].isContact())) {
+                sales[t] = true;
+                continue;
+            }
+            for (Sphere sphere : modifiees) {
+                if (suivis[t].Touche(sphere)) {
+                    sales[t] = true;
+                    break;
+                }
+            }
+        }
+        scene = nouvelle;
+        return Tracer(sales);
+    }
+
+
+    /**
+     * retourne les sphères qui ne sont que dans l'une des deux scènes :
+     * anciennes versions des sphères modifiées ou supprimées et nouvelles
+     * versions des sphères modifiées ou ajoutées
+     * @param ancienne
+     * @param nouvelle
+     * @return
+     */
+    public static List<Sphere> SpheresModifiees(final Scene ancienne, final Scene nouvelle)
+    {
+        // nombre d'exemplaires de chaque sphère de l'ancienne scène
+        Map<String, List<Sphere>> restantes = new HashMap<>();
+        for (Sphere sphere : ancienne.getObjets()) {
+            restantes.computeIfAbsent(Cle(sphere), cle -> new ArrayList<>()).add(sphere);
+        }
+        List<Sphere> modifiees = new ArrayList<>();
+        for (Sphere sphere : nouvelle.getObjets()) {
+            List<Sphere> memes = restantes.get(Cle(sphere));
+            if (memes == null || memes.isEmpty()) {
+                modifiees.add(sphere);
+            } else {
+                memes.remove(memes.size() - 1);
+            }
+        }
+        for (List<Sphere> memes : restantes.values()) modifiees.addAll(memes);
+        return modifiees;
+    }
+
+
+    /**
+     * description exacte d'une sphère, égale pour deux sphères identiques
+     */
+    private static String Cle(final Sphere sphere)
+    {
+        Couleur kd = sphere.getKd(), ks = sphere.getKs();
+        return Arrays.toString(new float[] {
+            sphere.centre.x, sphere.centre.y, sphere.centre.z, sphere.rayon,
+            kd.r, kd.v, kd.b, ks.r, ks.v, ks.b, sphere.getNs() });
+    }
+
+
+    /**
+     * indique si les deux listes ont les mêmes maillages dans le même ordre :
+     * mêmes sommets, mêmes triangles et même matériau
+     */
+    private static boolean MemesMaillages(final List<Maillage> anciens, final List<Maillage> nouveaux)
+    {
+        if (anciens.size() != nouveaux.size()) return false;
+        for (int i = 0; i < anciens.size(); i++) {
+            Maillage ancien = anciens.get(i), nouveau = nouveaux.get(i);
+            if (! ancien.getMateriau().equals(nouveau.getMateriau())) return false;
+            if (! Arrays.equals(ancien.getFaces(), nouveau.getFaces())) return false;
+            if (! Arrays.equals(ancien.getSommets(), nouveau.getSommets())) return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * réglages du calcul des ombres des lampes étendues, voir OmbreDouce
+     */
+    private static String ReglagesOmbres()
+    {
+        return OmbreDouce.analytique+" "+OmbreDouce.echantillons;
+    }
+
+
+    /**
+     * descriptions exactes des lampes (rayon compris), dans l'ordre
+     */
+    private static String[] Cles(final List<Lampe> lampes)
+    {
+        String[] cles = new String[lampes.size()];
+        for (int i = 0; i < cles.length; i++) {
+            Point p = lampes.get(i).getPosition();
+            Couleur c = lampes.get(i).getCouleur();
+            cles[i] = Arrays.toString(new float[] { p.x, p.y, p.z, c.r, c.v, c.b, lampes.get(i).getRayon() });
+        }
+        return cles;
+    }
+
+
+    /**
+     * codes couleur (gamma corrigés) de l'image, ligne par ligne
+     * @return
+     */
+    public int[] getCodes()
+    {
+        return codes;
+    }
+
+
+    /**
+     * nombre total de tuiles de l'image
+     * @return
+     */
+    public int getNombreTuiles()
+    {
+        return nx * ny;
+    }
+
+
+    /**
+     * attend les modifications du fichier de la scène et met l'image à jour
+     * à chaque fois ; ne se termine pas
+     * @param fichier
+     * @param image fichier PNG à réécrire après chaque mise à jour, null si aucun
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void Surveiller(final Path fichier, final File image) throws IOException, InterruptedException
+    {
+        try (WatchService surveillance = FileSystems.getDefault().newWatchService()) {
+            Set<Path> dossiers = new HashSet<>();
+            Set<Path> surveilles = Fichiers(fichier, scene);
+            Enregistrer(surveillance, surveilles, dossiers);
+            while (true) {
+                WatchKey cle = surveillance.take();
+                Path dossier = (Path) cle.watchable();
+                boolean concerne = false;
+                for (WatchEvent<?> evenement : cle.pollEvents()) {
+                    if (evenement.context() instanceof Path && surveilles.contains(dossier.resolve((Path) evenement.context()))) concerne = true;
+                }
+                cle.reset();
+                if (! concerne) continue;
+
+                // regrouper les événements d'une même sauvegarde
+                Thread.sleep(DELAI);
+                WatchKey suivante;
+                while ((suivante = surveillance.poll()) != null) {
+                    suivante.pollEvents();
+                    suivante.reset();
+                }
+
+                Scene nouvelle;
+                try {
+                    nouvelle = new Scene(fichier.toString());
+                } catch (Exception e) {
+                    // fichier en cours d'écriture ou erroné : on attend la prochaine version
+                    System.err.println("scène illisible : "+e);
+                    continue;
+                }
+                surveilles = Fichiers(fichier, nouvelle);
+                Enregistrer(surveillance, surveilles, dossiers);
+                long debut = System.nanoTime();
+                int tuiles = Modifier(nouvelle);
+                long temps = (System.nanoTime() - debut) / 1000000L;
+                System.out.println(tuiles+" tuiles sur "+getNombreTuiles()+" recalculées en "+temps+" ms");
+                Afficher(image);
+            }
+        }
+    }
+
+
+    /**
+     * fichier de la scène et fichiers OBJ de ses maillages, chemins absolus
+     */
+    private static Set<Path> Fichiers(final Path fichier, final Scene scene)
+    {
+        Set<Path> fichiers = new HashSet<>();
+        fichiers.add(fichier.toAbsolutePath().normalize());
+        for (Maillage maillage : scene.getMaillages()) {
+            if (maillage.getFichier() != null) fichiers.add(Paths.get(maillage.getFichier()).toAbsolutePath().normalize());
+        }
+        return fichiers;
+    }
+
+
+    /**
+     * surveille les dossiers de ces fichiers qui ne le sont pas encore
+     * @param surveillance
+     * @param fichiers
+     * @param dossiers dossiers déjà surveillés, complété
+     * @throws IOException
+     */
+    private static void Enregistrer(final WatchService surveillance, final Set<Path> fichiers, Set<Path> dossiers) throws IOException
+    {
+        for (Path fichier : fichiers) {
+            Path dossier = fichier.getParent();
+            // les éditeurs remplacent souvent le fichier au lieu de le réécrire
+            if (dossiers.add(dossier)) dossier.register(surveillance, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_CREATE);
+        }
+    }
+
+
+    /**
+     * met à jour la fenêtre et le fichier image s'il y en a un
+     */
+    private void Afficher(final File image) throws IOException
+    {
+        SwingUtilities.invokeLater(this::repaint);
+        if (image != null) {
+            synchronized (canvas) {
+                ImageIO.write(canvas, "png", image);
+            }
+        }
+    }
+
+
+    @Override
+    public Dimension getPreferredSize()
+    {
+        return new Dimension(canvas.getWidth(), canvas.getHeight());
+    }
+
+
+    @Override
+    public void paintComponent(Graphics g)
+    {
+        super.paintComponent(g);
+        synchronized (canvas) {
+            ((Graphics2D) g).drawImage(canvas, null, null);
+        }
+    }
+
+
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length < 1) {
+            System.err.println("usage : java Surveillance scene.txt [largeur hauteur] [image.png]");
+            System.exit(1);
+        }
+        Path fichier = Paths.get(args[0]);
+        int largeur = args.length > 2 ? Integer.parseInt(args[1]) : Constantes.LARGEUR_IMAGE;
+        int hauteur = args.length > 2 ? Integer.parseInt(args[2]) : Constantes.HAUTEUR_IMAGE;
+        File image = args.length > 3 ? new File(args[3]) : null;
+
+        long debut = System.nanoTime();
+        final Surveillance surveillance = new Surveillance(new Scene(fichier.toString()), largeur, hauteur);
+        System.out.println("image entière calculée en "+(System.nanoTime() - debut) / 1000000L+" ms");
+
+        if (! GraphicsEnvironment.isHeadless()) {
+            SwingUtilities.invokeLater(() -> {
+                JFrame frame = new JFrame("lancer de rayons : "+fichier.getFileName());
+                frame.add(surveillance);
+                frame.pack();
+                frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+                frame.setVisible(true);
+            });
+        }
+        surveillance.Afficher(image);
+        surveillance.Surveiller(fichier, image);
+    }
+}
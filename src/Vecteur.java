@@ -207,6 +207,17 @@ public class Vecteur extends Tuple
      */
     public boolean normaliser()
     {
+        if (MathRapide.actif) {
+            // mode rapide : rien à faire si this est déjà unitaire, sinon multiplier par 1/norme
+            float norme2 = this.norme2();
+            if (Math.abs(norme2 - 1.0f) < MathRapide.UNITAIRE) return true;
+            if (norme2 <= Constantes.EPSILON*Constantes.EPSILON) return false;
+            float inverse = MathRapide.InvRacine(norme2);
+            this.x = this.x * inverse;
+            this.y = this.y * inverse;
+            this.z = this.z * inverse;
+            return true;
+        }
         float norme = this.norme();
         if (norme > Constantes.EPSILON) {
             this.x = this.x / norme;
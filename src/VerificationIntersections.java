@@ -0,0 +1,171 @@
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Cette classe vérifie, pendant les calculs, que les recherches accélérées
+ * d'intersection (hiérarchie de sphères, termes précalculés des origines
+ * communes, candidats des casiers et des paquets, vagues) trouvent le même
+ * objet que l'examen de tous les objets un par un (Scene.ChercherIntersectionLineaire).
+ * Une recherche sur FREQUENCE, tirée au hasard, est refaite par un thread de fond
+ * qui compare l'objet rencontré et sa distance ; chaque désaccord est écrit sur la
+ * sortie d'erreur avec le rayon complet, pour pouvoir le reproduire.
+ * La vérification est activée par la propriété verification, par exemple
+ * java -Dverification=10000 ... pour une recherche sur 10000. Sans elle, ACTIF est
+ * une constante fausse et les appels à Soumettre, tous gardés par if (ACTIF),
+ * sont supprimés à la compilation : la vérification ne coûte alors rien.
+ */
+public final class VerificationIntersections
+{
+    /// une recherche sur FREQUENCE est vérifiée, 0 : aucune
+    public static final int FREQUENCE = Integer.getInteger("verification", 0);
+
+    /// vérification active, à tester avant chaque appel à Soumettre
+    public static final boolean ACTIF = FREQUENCE > 0;
+
+    // écart relatif toléré entre les distances (les termes précalculés arrondissent autrement)
+    private static final float ECART = 1e-3f;
+
+    // nombre de recherches en attente au-delà duquel les suivantes ne sont pas vérifiées
+    private static final int ATTENTE = 4096;
+
+    // nombre de recherches vérifiées, en désaccord, et abandonnées faute de place ou parce que la scène a changé
+    private static final LongAdder verifiees = new LongAdder();
+    private static final LongAdder desaccords = new LongAdder();
+    private static final LongAdder abandonnees = new LongAdder();
+
+    // thread de fond, qui ne retarde jamais les calculs : une file pleine fait abandonner la vérification
+    private static final ThreadPoolExecutor fond;
+    static {
+        if (ACTIF) {
+            fond = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(ATTENTE), tache -> {
+                Thread thread = new Thread(tache, "vérification des intersections");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }, (tache, executeur) -> abandonnees.increment());
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> System.err.println(Bilan())));
+        } else {
+            fond = null;
+        }
+    }
+
+
+    private VerificationIntersections()
+    {
+    }
+
+
+    /**
+     * tire au hasard s'il faut vérifier cette recherche et si oui, la confie au thread de fond
+     * @param scene où la recherche a été faite
+     * @param incident rayon après la recherche accélérée : objet, face et distance trouvés, et portée
+     * @param sauflui objet exclu de la recherche
+     */
+    public static void Soumettre(final Scene scene, final Rayon incident, final Objet sauflui)
+    {
+        if (ThreadLocalRandom.current().nextInt(FREQUENCE) != 0) return;
+        Soumettre(scene, incident.P.x, incident.P.y, incident.P.z, incident.V.x, incident.V.y, incident.V.z,
+                sauflui, incident.depart, incident.objet, incident.face, incident.distance, incident.portee);
+    }
+
+
+    /**
+     * tire au hasard s'il faut vérifier cette recherche faite sans objet Rayon et si oui,
+     * la confie au thread de fond
+     * @param scene
+     * @param px origine du rayon
+     * @param vx direction unitaire du rayon
+     * @param sauflui objet exclu de la recherche, null si aucun
+     * @param objet objet trouvé, null si aucun
+     * @param distance distance trouvée, Constantes.INFINI si aucun objet
+     */
+    public static void Soumettre(final Scene scene, float px, float py, float pz, float vx, float vy, float vz,
+            final Objet sauflui, final Objet objet, float distance)
+    {
+        if (ThreadLocalRandom.current().nextInt(FREQUENCE) != 0) return;
+        Soumettre(scene, px, py, pz, vx, vy, vz, sauflui, -1, objet, -1, distance, 0.0f);
+    }
+
+
+    private static void Soumettre(final Scene scene, float px, float py, float pz, float vx, float vy, float vz,
+            final Objet sauflui, int depart, final Objet objet, int face, float distance, float portee)
+    {
+        final int version = scene.getVersion();
+        fond.execute(() -> {
+            Rayon rayon = new Rayon();
+            rayon.P = new Point(px, py, pz);
+            rayon.V = new Vecteur(vx, vy, vz);
+            rayon.depart = depart;
+            scene.ChercherIntersectionLineaire(rayon, sauflui);
+            // les objets ont bougé depuis la recherche : elle ne peut plus être refaite
+            if (scene.getVersion() != version) {
+                abandonnees.increment();
+                return;
+            }
+            verifiees.increment();
+
+            // au-delà de la portée du rayon (les recherches parmi des candidats l'ignorent), tout objet équivaut à aucun
+            if (portee > 0.0f) {
+                float limite = portee * (1.0f - ECART);
+                if (distance >= limite && rayon.distance >= limite) return;
+            }
+
+            // même objet à la même distance, ou deux objets à égalité
+            float ecart = Math.abs(rayon.distance - distance), echelle = Math.max(1.0f, Math.min(rayon.distance, distance));
+            boolean memeObjet = rayon.objet == objet && rayon.face == face;
+            if (ecart <= (memeObjet ? ECART : Constantes.EPSILON) * echelle) return;
+
+            desaccords.increment();
+            System.err.println("intersection en désaccord : rayon P="+px+","+py+","+pz+" V="+vx+","+vy+","+vz
+                    +" sauflui="+Nom(scene, sauflui, depart)
+                    +" ; accélérée "+Nom(scene, objet, face)+" à "+distance
+                    +", linéaire "+Nom(scene, rayon.objet, rayon.face)+" à "+rayon.distance);
+        });
+    }
+
+
+    /**
+     * désignation d'un objet de la scène : numéro de sphère, ou numéro de maillage et de triangle
+     */
+    private static String Nom(final Scene scene, final Objet objet, int face)
+    {
+        if (objet == null) return "aucun";
+        List<Sphere> spheres = scene.getObjets();
+        for (int i = 0; i < spheres.size(); i++) {
+            if (spheres.get(i) == objet) return "sphère "+i;
+        }
+        List<Maillage> maillages = scene.getMaillages();
+        for (int i = 0; i < maillages.size(); i++) {
+            if (maillages.get(i) == objet) return "maillage "+i+" triangle "+face;
+        }
+        return objet.toString();
+    }
+
+
+    public static long getNombreVerifiees()
+    {
+        return verifiees.sum();
+    }
+
+
+    public static long getNombreDesaccords()
+    {
+        return desaccords.sum();
+    }
+
+
+    /**
+     * compte rendu des vérifications
+     * @return
+     */
+    public static String Bilan()
+    {
+        return "vérification des intersections (1 sur "+FREQUENCE+") : "+verifiees.sum()+" vérifiées, "
+                +desaccords.sum()+" en désaccord, "+abandonnees.sum()+" abandonnées";
+    }
+}